@@ -0,0 +1,299 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Helper for implementing IndexFiles. Handles the format of the entries, the
+ * file the pages are stored in and the allocation of new pages; subclasses
+ * implement the page layout and the access method itself.
+ */
+public abstract class AbstractIndexFile implements IndexFile
+{
+	protected final File f;
+	protected final int tableId;
+	protected final int keyField;
+	// 项里带的其它字段(included columns)在表里的下标
+	protected final int[] included;
+	protected final TupleDesc entryDesc;
+	protected final int pageSize;
+
+	private RandomAccessFile raf;
+	private FileChannel channel;
+
+	/**
+	 * Constructs an index stored in f over field keyField of table, with
+	 * pages of pageSize bytes, whose entries carry the values of the included
+	 * fields as well.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the key field is not an INT field, or if a page cannot
+	 *             hold a few entries
+	 */
+	protected AbstractIndexFile(File f, DbFile table, int keyField,
+			int[] included, int pageSize)
+	{
+		TupleDesc td = table.getTupleDesc();
+		if (td.getType(keyField) != Type.INT_TYPE)
+			throw new IllegalArgumentException("field " + keyField + " of " + td
+					+ " is not an INT field");
+		this.f = f;
+		this.tableId = table.getId();
+		this.keyField = keyField;
+		this.included = included.clone();
+		int n = included.length + 3;
+		Type[] types = new Type[n];
+		String[] names = new String[n];
+		types[0] = Type.INT_TYPE;
+		names[0] = td.getFieldName(keyField);
+		for (int i = 0; i < included.length; i++)
+		{
+			types[i + 1] = td.getType(included[i]);
+			names[i + 1] = td.getFieldName(included[i]);
+		}
+		types[n - 2] = types[n - 1] = Type.INT_TYPE;
+		names[n - 2] = "pageno";
+		names[n - 1] = "slot";
+		this.entryDesc = new TupleDesc(types, names);
+		this.pageSize = pageSize;
+		// 分裂要求一个page至少放得下几项
+		if ((pageSize - 16) / entryDesc.getSize() < 4)
+			throw new IllegalArgumentException("index entries of " + entryDesc.getSize()
+					+ " bytes are too large for pages of " + pageSize + " bytes");
+	}
+
+	/**
+	 * Returns the File backing this index on disk.
+	 */
+	public File getFile()
+	{
+		return this.f;
+	}
+
+	// see DbFile.java for javadocs
+	public int getId()
+	{
+		return this.f.getAbsoluteFile().hashCode();
+	}
+
+	/**
+	 * Returns the format of the entries of this index.
+	 */
+	public TupleDesc getTupleDesc()
+	{
+		return this.entryDesc;
+	}
+
+	// see DbFile.java for javadocs
+	public int getPageSize()
+	{
+		return this.pageSize;
+	}
+
+	// see IndexFile.java for javadocs
+	public int getTableId()
+	{
+		return this.tableId;
+	}
+
+	// see IndexFile.java for javadocs
+	public int getKeyField()
+	{
+		return this.keyField;
+	}
+
+	// see IndexFile.java for javadocs
+	public int[] getIncludedFields()
+	{
+		return this.included.clone();
+	}
+
+	// see IndexFile.java for javadocs
+	public Tuple toTableTuple(Tuple entry)
+	{
+		TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+		Tuple t = new Tuple(td);
+		t.setField(keyField, entry.getField(0));
+		for (int i = 0; i < included.length; i++)
+			t.setField(included[i], entry.getField(i + 1));
+		t.setRecordId(getRecordId(entry));
+		return t;
+	}
+
+	/**
+	 * @return the key of an entry of this index
+	 */
+	static int keyOf(Tuple entry)
+	{
+		return ((IntField) entry.getField(0)).getValue();
+	}
+
+	/**
+	 * @return true if e1 and e2 are the entries of the same tuple
+	 */
+	static boolean sameEntry(Tuple e1, Tuple e2)
+	{
+		int n = e1.getTupleDesc().numFields();
+		return e1.getField(0).equals(e2.getField(0))
+				&& e1.getField(n - 2).equals(e2.getField(n - 2))
+				&& e1.getField(n - 1).equals(e2.getField(n - 1));
+	}
+
+	// see IndexFile.java for javadocs
+	public RecordId getRecordId(Tuple entry)
+	{
+		int n = entryDesc.numFields();
+		return new RecordId(new HeapPageId(tableId,
+				((IntField) entry.getField(n - 2)).getValue()),
+				((IntField) entry.getField(n - 1)).getValue());
+	}
+
+	/**
+	 * @return the entry of t in this index
+	 */
+	Tuple entryOf(Tuple t)
+	{
+		Tuple e = new Tuple(entryDesc);
+		RecordId rid = t.getRecordId();
+		int n = entryDesc.numFields();
+		e.setField(0, t.getField(keyField));
+		for (int i = 0; i < included.length; i++)
+			e.setField(i + 1, t.getField(included[i]));
+		e.setField(n - 2, new IntField(rid.getPageId().pageno()));
+		e.setField(n - 1, new IntField(rid.tupleno()));
+		return e;
+	}
+
+	/**
+	 * Reads the entries of every tuple of the table straight from its file;
+	 * used to build the index.
+	 */
+	protected ArrayList<Tuple> tableEntries()
+	{
+		HeapFile table = (HeapFile) Database.getCatalog().getDbFile(tableId);
+		ArrayList<Tuple> all = new ArrayList<Tuple>();
+		int tablePages = table.numPages();
+		for (int pg = 0; pg < tablePages; pg++)
+		{
+			Iterator<Tuple> it = table.tupleIterator(table.readPage(new HeapPageId(tableId, pg)));
+			while (it.hasNext())
+				all.add(entryOf(it.next()));
+		}
+		return all;
+	}
+
+	/**
+	 * @return the number of pages of the index
+	 */
+	public int numPages()
+	{
+		return (int) ((f.length() + pageSize - 1) / pageSize);
+	}
+
+	private synchronized FileChannel getChannel() throws IOException
+	{
+		if (channel == null || !channel.isOpen())
+		{
+			raf = new RandomAccessFile(f, f.exists() && !f.canWrite() ? "r" : "rw");
+			channel = raf.getChannel();
+		}
+		return channel;
+	}
+
+	/**
+	 * Reads the bytes of a page; pages beyond the end of the file are all
+	 * zero.
+	 */
+	protected byte[] readPageData(PageId pid) throws IOException
+	{
+		FileChannel fc = getChannel();
+		byte[] page = new byte[pageSize];
+		ByteBuffer buf = ByteBuffer.wrap(page);
+		long offset = (long) pid.pageno() * pageSize;
+		while (buf.hasRemaining())
+		{
+			if (fc.read(buf, offset + buf.position()) < 0)
+				break;
+		}
+		return page;
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException
+	{
+		FileChannel fc = getChannel();
+		ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+		long offset = (long) page.getId().pageno() * pageSize;
+		while (buf.hasRemaining())
+		{
+			fc.write(buf, offset + buf.position());
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public synchronized void close()
+	{
+		if (channel == null)
+			return;
+		try
+		{
+			channel.close();
+			raf.close();
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		channel = null;
+		raf = null;
+	}
+
+	/**
+	 * Entries are added through {@link #insertEntry}, by the BufferPool.
+	 *
+	 * @throws DbException
+	 *             always
+	 */
+	public ArrayList<Page> addTuple(TransactionId tid, Tuple t) throws DbException
+	{
+		throw new DbException("cannot insert into index " + f + " directly");
+	}
+
+	/**
+	 * Entries are removed through {@link #deleteEntry}, by the BufferPool.
+	 *
+	 * @throws DbException
+	 *             always
+	 */
+	public Page deleteTuple(TransactionId tid, Tuple t) throws DbException
+	{
+		throw new DbException("cannot delete from index " + f + " directly");
+	}
+
+	protected Page getPage(TransactionId tid, int pgNo, Permissions perm)
+			throws TransactionAbortedException, DbException
+	{
+		return Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pgNo), perm);
+	}
+
+	/**
+	 * Appends an all-zero page to the file and returns it locked for
+	 * writing. Page 0 is never allocated this way: it is the entry point of
+	 * the index.
+	 */
+	protected Page newPage(TransactionId tid) throws IOException,
+			TransactionAbortedException, DbException
+	{
+		int pgNo;
+		synchronized (this)
+		{
+			pgNo = Math.max(numPages(), 1);
+			FileChannel fc = getChannel();
+			ByteBuffer buf = ByteBuffer.allocate(pageSize);
+			while (buf.hasRemaining())
+				fc.write(buf, (long) pgNo * pageSize + buf.position());
+		}
+		return getPage(tid, pgNo, Permissions.READ_WRITE);
+	}
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ArcPolicy is the Adaptive Replacement Cache (Megiddo and Modha). Pages used
+ * once are kept in the LRU list T1, pages used at least twice in the LRU list
+ * T2. The ids of pages evicted from them are remembered in the ghost lists B1
+ * and B2. A page read again while its id is in B1 shows that T1 is too
+ * small, one read again from B2 that T2 is; the target size of T1 moves
+ * accordingly, and victims are taken from T1 while it is larger than its
+ * target.
+ * <p>
+ * A scan only fills T1, so it cannot push the pages of T2 out of the pool
+ * unless the workload shows that recently read pages are the ones worth
+ * keeping.
+ */
+class ArcPolicy extends ListPolicy
+{
+	private final Queue t1 = new Queue();
+	private final Queue t2 = new Queue();
+	// 幽灵链表, 只记PageId, 按换出的先后排列
+	private final LinkedHashSet<PageId> b1 = new LinkedHashSet<PageId>();
+	private final LinkedHashSet<PageId> b2 = new LinkedHashSet<PageId>();
+	private final int capacity;
+	// T1的目标大小
+	private int target;
+
+	/**
+	 * @param pages
+	 *            the number of pages the buffer pool holds
+	 */
+	ArcPolicy(int pages)
+	{
+		this.capacity = Math.max(1, pages);
+	}
+
+	/**
+	 * @return the target size of T1
+	 */
+	int getTarget()
+	{
+		return target;
+	}
+
+	void admit(Node n)
+	{
+		if (b1.contains(n.pid))
+		{
+			target = Math.min(capacity, target + Math.max(1, b2.size() / b1.size()));
+			b1.remove(n.pid);
+			t2.addHot(n);
+		}
+		else if (b2.contains(n.pid))
+		{
+			target = Math.max(0, target - Math.max(1, b1.size() / b2.size()));
+			b2.remove(n.pid);
+			t2.addHot(n);
+		}
+		else
+		{
+			t1.addHot(n);
+			trim();
+		}
+	}
+
+	void hit(Node n)
+	{
+		n.queue.unlink(n);
+		t2.addHot(n);
+	}
+
+	void removed(Node n, Queue from)
+	{
+		if (from == t1)
+			b1.add(n.pid);
+		else
+			b2.add(n.pid);
+		trim();
+	}
+
+	/**
+	 * Forgets the oldest ghosts, so that T1 and B1 together hold at most as
+	 * many pages as the pool, and all four lists at most twice as many.
+	 */
+	private void trim()
+	{
+		while (!b1.isEmpty() && t1.size() + b1.size() > capacity)
+			removeOldest(b1);
+		while (!b2.isEmpty() && size() + b1.size() + b2.size() > 2 * capacity)
+			removeOldest(b2);
+	}
+
+	private static void removeOldest(LinkedHashSet<PageId> ghosts)
+	{
+		Iterator<PageId> it = ghosts.iterator();
+		it.next();
+		it.remove();
+	}
+
+	Queue[] queues()
+	{
+		return new Queue[] { t2, t1 };
+	}
+
+	public PageId victim()
+	{
+		if (!t1.isEmpty() && (t1.size() > target || t2.isEmpty()))
+			return coldest(t1);
+		return coldest(t2);
+	}
+}
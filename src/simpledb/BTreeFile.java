@@ -0,0 +1,391 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index over an INT field of a table. The entries of
+ * the index (see {@link IndexFile}) are kept in key order in the leaves, so
+ * both equality and range predicates on the field are answered by reading
+ * the pages on one path from the root and then the leaves that hold the
+ * matching entries. The page format is described in {@link BTreePage}.
+ * <p>
+ * All pages are read through the BufferPool. Lookups take shared locks on
+ * the pages they read; an insert takes an exclusive lock on the leaf it
+ * changes and, if the leaf splits, upgrades its locks on the pages above.
+ * Deleting an entry just removes it from its leaf: pages are not merged, so
+ * a leaf may become empty, and lookups step over it.
+ * <p>
+ * An index is declared in the catalog with a line of the form
+ * <tt>index name on table (field)</tt>; an empty index file is built from
+ * the contents of the table when the index is added to the catalog.
+ *
+ * @see IndexScan
+ * @see Catalog#addIndex
+ */
+public class BTreeFile extends AbstractIndexFile
+{
+	/**
+	 * A page split: the key of the first entry of the new page and its
+	 * number, to be inserted into the parent.
+	 */
+	private static class Split
+	{
+		final int[] key;
+		final int right;
+
+		Split(int[] key, int right)
+		{
+			this.key = key;
+			this.right = right;
+		}
+	}
+
+	/**
+	 * Constructs an index stored in f over field keyField of table.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the field is not an INT field
+	 */
+	public BTreeFile(File f, DbFile table, int keyField)
+	{
+		this(f, table, keyField, new int[0], BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs an index stored in f over field keyField of table whose
+	 * entries also carry the values of the included fields, so that queries
+	 * over only those fields and the key can be answered from the index.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the key field is not an INT field
+	 */
+	public BTreeFile(File f, DbFile table, int keyField, int[] included)
+	{
+		this(f, table, keyField, included, BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs an index with pages of pageSize bytes; small pages give deep
+	 * trees with few entries, which is what the tests want.
+	 */
+	BTreeFile(File f, DbFile table, int keyField, int pageSize)
+	{
+		this(f, table, keyField, new int[0], pageSize);
+	}
+
+	BTreeFile(File f, DbFile table, int keyField, int[] included, int pageSize)
+	{
+		super(f, table, keyField, included, pageSize);
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid)
+	{
+		try
+		{
+			// 文件末尾之外的page都是0, 即空的叶子(或空的树)
+			return new BTreePage((HeapPageId) pid, readPageData(pid));
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		throw new IllegalArgumentException();
+	}
+
+	protected BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+			throws TransactionAbortedException, DbException
+	{
+		return (BTreePage) super.getPage(tid, pgNo, perm);
+	}
+
+	protected BTreePage newPage(TransactionId tid) throws IOException,
+			TransactionAbortedException, DbException
+	{
+		return (BTreePage) super.newPage(tid);
+	}
+
+	// see IndexFile.java for javadocs
+	public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException
+	{
+		Tuple entry = entryOf(t);
+		int[] key = BTreePage.keyOf(entry);
+		ArrayList<Page> dirty = new ArrayList<Page>();
+		BTreePage rootPtr = getPage(tid, 0, Permissions.READ_ONLY);
+		if (rootPtr.getRoot() == 0)
+		{
+			rootPtr = getPage(tid, 0, Permissions.READ_WRITE);
+			if (rootPtr.getRoot() == 0)
+			{
+				// 空的树, 第一个叶子就是根
+				BTreePage leaf = newPage(tid);
+				rootPtr.setRoot(leaf.getId().pageno(), 1);
+				dirty.add(rootPtr);
+			}
+		}
+		int height = rootPtr.getHeight();
+		Split split = insert(tid, rootPtr.getRoot(), 1, height, key, entry, dirty);
+		if (split != null)
+		{
+			// 根分裂了, 树长高一层
+			rootPtr = getPage(tid, 0, Permissions.READ_WRITE);
+			BTreePage newRoot = newPage(tid);
+			newRoot.setInternal(Arrays.asList(rootPtr.getRoot(), split.right),
+					Collections.singletonList(split.key));
+			rootPtr.setRoot(newRoot.getId().pageno(), height + 1);
+			dirty.add(newRoot);
+			if (!dirty.contains(rootPtr))
+				dirty.add(rootPtr);
+		}
+		return dirty;
+	}
+
+	/**
+	 * Inserts entry into the subtree rooted at page pgNo, which is on the
+	 * given level (the root is on level 1).
+	 *
+	 * @return the split of page pgNo, or null if it did not split
+	 */
+	private Split insert(TransactionId tid, int pgNo, int level, int height,
+			int[] key, Tuple entry, ArrayList<Page> dirty) throws DbException,
+			IOException, TransactionAbortedException
+	{
+		if (level == height)
+		{
+			// 叶子, 直接加写锁
+			BTreePage leaf = getPage(tid, pgNo, Permissions.READ_WRITE);
+			int pos = leaf.findEntry(key);
+			if (pos < leaf.getCount() && BTreePage.compare(BTreePage.keyOf(leaf.getEntry(pos)), key) == 0)
+				throw new DbException("duplicate entry for " + Arrays.toString(key) + " in " + f);
+			leaf.insertEntry(pos, entry);
+			dirty.add(leaf);
+			if (leaf.getCount() <= BTreePage.maxEntries(entryDesc, pageSize))
+				return null;
+			BTreePage right = newPage(tid);
+			int[] up = leaf.splitLeaf(right);
+			dirty.add(right);
+			return new Split(up, right.getId().pageno());
+		}
+		BTreePage node = getPage(tid, pgNo, Permissions.READ_ONLY);
+		Split split = insert(tid, node.getChild(node.findChild(key)), level + 1,
+				height, key, entry, dirty);
+		if (split == null)
+			return null;
+		// 子节点分裂了, 升级成写锁
+		node = getPage(tid, pgNo, Permissions.READ_WRITE);
+		node.insertKey(split.key, split.right);
+		dirty.add(node);
+		if (node.getCount() <= BTreePage.maxKeys(pageSize))
+			return null;
+		BTreePage right = newPage(tid);
+		int[] up = node.splitInternal(right);
+		dirty.add(right);
+		return new Split(up, right.getId().pageno());
+	}
+
+	/**
+	 * Returns the leaf that holds key, taking shared locks on the pages above
+	 * it and a lock with the given permissions on the leaf.
+	 *
+	 * @return the leaf, or null if the tree is empty
+	 */
+	private BTreePage findLeaf(TransactionId tid, int[] key, Permissions perm)
+			throws DbException, TransactionAbortedException
+	{
+		BTreePage rootPtr = getPage(tid, 0, Permissions.READ_ONLY);
+		int pgNo = rootPtr.getRoot();
+		int height = rootPtr.getHeight();
+		if (pgNo == 0)
+			return null;
+		for (int level = 1; level < height; level++)
+		{
+			BTreePage node = getPage(tid, pgNo, Permissions.READ_ONLY);
+			pgNo = key == null ? node.getChild(0) : node.getChild(node.findChild(key));
+		}
+		return getPage(tid, pgNo, perm);
+	}
+
+	// see IndexFile.java for javadocs
+	public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException
+	{
+		int[] key = BTreePage.keyOf(entryOf(t));
+		BTreePage leaf = findLeaf(tid, key, Permissions.READ_WRITE);
+		int pos = leaf == null ? 0 : leaf.findEntry(key);
+		if (leaf == null || pos == leaf.getCount()
+				|| BTreePage.compare(BTreePage.keyOf(leaf.getEntry(pos)), key) != 0)
+			throw new DbException("no entry for " + Arrays.toString(key) + " in " + f);
+		leaf.removeEntry(pos);
+		ArrayList<Page> dirty = new ArrayList<Page>();
+		dirty.add(leaf);
+		return dirty;
+	}
+
+	/**
+	 * Iterates over the entries between two bounds of the key in key order.
+	 */
+	class BTreeFileIterator extends AbstractDbFileIterator
+	{
+		TransactionId tid;
+		// 下界和上界, null表示没有
+		Integer low, high;
+		boolean lowInclusive, highInclusive;
+		BTreePage leaf;
+		int pos;
+
+		BTreeFileIterator(TransactionId tid, Integer low, boolean lowInclusive,
+				Integer high, boolean highInclusive)
+		{
+			this.tid = tid;
+			this.low = low;
+			this.lowInclusive = lowInclusive;
+			this.high = high;
+			this.highInclusive = highInclusive;
+		}
+
+		public void open() throws DbException, TransactionAbortedException
+		{
+			int[] start = low == null ? null : new int[] { low, Integer.MIN_VALUE, Integer.MIN_VALUE };
+			this.leaf = findLeaf(tid, start, Permissions.READ_ONLY);
+			this.pos = leaf == null ? 0 : leaf.findEntry(start == null ? new int[] {
+					Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE } : start);
+		}
+
+		protected Tuple readNext() throws DbException, TransactionAbortedException
+		{
+			while (leaf != null)
+			{
+				if (pos >= leaf.getCount())
+				{
+					int next = leaf.getNext();
+					leaf = next == 0 ? null : getPage(tid, next, Permissions.READ_ONLY);
+					pos = 0;
+					continue;
+				}
+				Tuple e = leaf.getEntry(pos++);
+				int k = ((IntField) e.getField(0)).getValue();
+				if (low != null && (k < low || (k == low && !lowInclusive)))
+					continue;
+				if (high != null && (k > high || (k == high && !highInclusive)))
+				{
+					leaf = null;
+					break;
+				}
+				return e;
+			}
+			return null;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException
+		{
+			this.close();
+			this.open();
+		}
+
+		public void close()
+		{
+			super.close();
+			this.leaf = null;
+		}
+	}
+
+	/**
+	 * Returns all entries of the index in key order.
+	 */
+	public DbFileIterator iterator(TransactionId tid)
+	{
+		return new BTreeFileIterator(tid, null, true, null, true);
+	}
+
+	// see IndexFile.java for javadocs
+	public boolean supports(Predicate.Op op)
+	{
+		return op != Predicate.Op.NOT_EQUALS;
+	}
+
+	// see IndexFile.java for javadocs
+	public DbFileIterator lookup(TransactionId tid, Predicate.Op op, Field key)
+	{
+		int v = ((IntField) key).getValue();
+		switch (op)
+		{
+		case EQUALS:
+		case LIKE:
+			return new BTreeFileIterator(tid, v, true, v, true);
+		case GREATER_THAN:
+			return new BTreeFileIterator(tid, v, false, null, true);
+		case GREATER_THAN_OR_EQ:
+			return new BTreeFileIterator(tid, v, true, null, true);
+		case LESS_THAN:
+			return new BTreeFileIterator(tid, null, true, v, false);
+		case LESS_THAN_OR_EQ:
+			return new BTreeFileIterator(tid, null, true, v, true);
+		default:
+			throw new IllegalArgumentException("B+ tree cannot look up " + op);
+		}
+	}
+
+	/**
+	 * Builds the index if the index file is empty, writing full leaves and the
+	 * internal pages above them straight to the file.
+	 */
+	public synchronized boolean build() throws IOException
+	{
+		if (f.length() > 0)
+			return false;
+		ArrayList<Tuple> all = tableEntries();
+		Collections.sort(all, new Comparator<Tuple>()
+		{
+			public int compare(Tuple a, Tuple b)
+			{
+				return BTreePage.compare(BTreePage.keyOf(a), BTreePage.keyOf(b));
+			}
+		});
+
+		BTreePage rootPtr = (BTreePage) readPage(new HeapPageId(getId(), 0));
+		if (all.isEmpty())
+		{
+			writePage(rootPtr);
+			return true;
+		}
+		// 先写满叶子, 再一层一层往上写内部节点
+		int pgNo = 1;
+		ArrayList<Integer> level = new ArrayList<Integer>();
+		ArrayList<int[]> firstKeys = new ArrayList<int[]>();
+		int perLeaf = BTreePage.maxEntries(entryDesc, pageSize);
+		for (int from = 0; from < all.size(); from += perLeaf)
+		{
+			BTreePage leaf = (BTreePage) readPage(new HeapPageId(getId(), pgNo));
+			int to = Math.min(all.size(), from + perLeaf);
+			for (int i = from; i < to; i++)
+				leaf.insertEntry(i - from, all.get(i));
+			leaf.setNext(to < all.size() ? pgNo + 1 : 0);
+			writePage(leaf);
+			level.add(pgNo++);
+			firstKeys.add(BTreePage.keyOf(all.get(from)));
+		}
+		int height = 1;
+		int perNode = BTreePage.maxKeys(pageSize) + 1;
+		while (level.size() > 1)
+		{
+			ArrayList<Integer> upper = new ArrayList<Integer>();
+			ArrayList<int[]> upperKeys = new ArrayList<int[]>();
+			for (int from = 0; from < level.size(); from += perNode)
+			{
+				int to = Math.min(level.size(), from + perNode);
+				BTreePage node = (BTreePage) readPage(new HeapPageId(getId(), pgNo));
+				node.setInternal(level.subList(from, to), firstKeys.subList(from + 1, to));
+				writePage(node);
+				upper.add(pgNo++);
+				upperKeys.add(firstKeys.get(from));
+			}
+			level = upper;
+			firstKeys = upperKeys;
+			height++;
+		}
+		rootPtr.setRoot(level.get(0), height);
+		writePage(rootPtr);
+		return true;
+	}
+}
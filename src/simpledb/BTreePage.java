@@ -0,0 +1,408 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreePage is a page of a {@link BTreeFile}. Page 0 of the file is the root
+ * pointer page, which holds the page number of the root (0 for an empty
+ * tree) and the height of the tree. The other pages are internal pages or
+ * leaves:
+ *
+ * <pre>
+ * internal: | 1 | n | child 0 ... child n | key 1 ... key n |
+ * leaf:     | 0 | n | next leaf | entry 0 ... entry n-1 |
+ * </pre>
+ *
+ * Keys are the (key, page number, slot) triples of index entries, so that
+ * every entry is unique even if the indexed field is not. Child i of an
+ * internal page holds the entries from key i (inclusive) to key i+1
+ * (exclusive). Leaves keep their entries in key order and are chained left
+ * to right; the next leaf of the last leaf is 0. An all-zero page is an
+ * empty leaf, or an empty tree if it is page 0.
+ */
+public class BTreePage implements Page
+{
+	static final byte LEAF = 0;
+	static final byte INTERNAL = 1;
+	// 类型字节, 项数
+	static final int HEADER_SIZE = 5;
+	// 内部节点的key: (key, page number, slot)
+	static final int KEY_SIZE = 12;
+
+	HeapPageId pid;
+	TupleDesc entryDesc;
+	int pageSize;
+	// the tid of the transaction that last dirtied this page
+	TransactionId tid;
+	boolean dirty;
+	// before image, 第一次修改的时候才拷贝; null表示和当前内容一样
+	byte[] oldData;
+
+	// 根指针page的内容
+	int root;
+	int height;
+	// 内部节点和叶子的内容
+	byte kind;
+	ArrayList<Integer> children = new ArrayList<Integer>();
+	ArrayList<int[]> keys = new ArrayList<int[]>();
+	ArrayList<Tuple> entries = new ArrayList<Tuple>();
+	int next;
+
+	/**
+	 * Create a BTreePage from a set of bytes of data read from disk. The
+	 * format of the entries is looked up in the catalog; the page size is the
+	 * length of data.
+	 */
+	public BTreePage(HeapPageId id, byte[] data) throws IOException
+	{
+		this.pid = id;
+		this.entryDesc = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.pageSize = data.length;
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		if (isRootPointer())
+		{
+			this.root = buf.getInt();
+			this.height = buf.getInt();
+			return;
+		}
+		this.kind = buf.get();
+		int n = buf.getInt();
+		if (kind == INTERNAL)
+		{
+			if (n < 0 || n > maxKeys(pageSize))
+				throw new IOException("corrupt index page " + id);
+			for (int i = 0; i <= n; i++)
+				children.add(buf.getInt());
+			for (int i = 0; i < n; i++)
+				keys.add(new int[] { buf.getInt(), buf.getInt(), buf.getInt() });
+			return;
+		}
+		if (kind != LEAF || n < 0 || n > maxEntries(entryDesc, pageSize))
+			throw new IOException("corrupt index page " + id);
+		this.next = buf.getInt();
+		try
+		{
+			for (int i = 0; i < n; i++)
+			{
+				Tuple t = new Tuple(entryDesc);
+				for (int f = 0; f < entryDesc.numFields(); f++)
+					t.setField(f, entryDesc.getType(f).parse(buf));
+				entries.add(t);
+			}
+		} catch (java.text.ParseException e)
+		{
+			throw new IOException("corrupt index page " + id);
+		}
+	}
+
+	/**
+	 * @return the number of keys an internal page of pageSize bytes holds
+	 */
+	static int maxKeys(int pageSize)
+	{
+		return (pageSize - HEADER_SIZE - 4) / (KEY_SIZE + 4);
+	}
+
+	/**
+	 * @return the number of entries a leaf of pageSize bytes holds
+	 */
+	static int maxEntries(TupleDesc entryDesc, int pageSize)
+	{
+		return (pageSize - HEADER_SIZE - 4) / entryDesc.getSize();
+	}
+
+	/**
+	 * @return the (key, page number, slot) triple of an index entry
+	 */
+	static int[] keyOf(Tuple entry)
+	{
+		int n = entry.getTupleDesc().numFields();
+		return new int[] { ((IntField) entry.getField(0)).getValue(),
+				((IntField) entry.getField(n - 2)).getValue(),
+				((IntField) entry.getField(n - 1)).getValue() };
+	}
+
+	static int compare(int[] a, int[] b)
+	{
+		for (int i = 0; i < 3; i++)
+		{
+			if (a[i] != b[i])
+				return a[i] < b[i] ? -1 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return true if this is page 0, which holds the root pointer
+	 */
+	public boolean isRootPointer()
+	{
+		return pid.pageno() == 0;
+	}
+
+	/**
+	 * @return true if this is a leaf
+	 */
+	public boolean isLeaf()
+	{
+		return !isRootPointer() && kind == LEAF;
+	}
+
+	/**
+	 * @return the number of keys of an internal page or entries of a leaf
+	 */
+	public synchronized int getCount()
+	{
+		return kind == INTERNAL ? keys.size() : entries.size();
+	}
+
+	/**
+	 * @return the index of the child of this internal page that holds key,
+	 *         i.e. the number of keys not greater than key
+	 */
+	synchronized int findChild(int[] key)
+	{
+		int lo = 0, hi = keys.size();
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (compare(keys.get(mid), key) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the position of the first entry of this leaf not less than key
+	 */
+	synchronized int findEntry(int[] key)
+	{
+		int lo = 0, hi = entries.size();
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (compare(keyOf(entries.get(mid)), key) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	synchronized int getChild(int i)
+	{
+		return children.get(i);
+	}
+
+	synchronized Tuple getEntry(int i)
+	{
+		return entries.get(i);
+	}
+
+	synchronized int getNext()
+	{
+		return next;
+	}
+
+	synchronized int getRoot()
+	{
+		return root;
+	}
+
+	synchronized int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Saves the before image before the first modification.
+	 */
+	private void beginWrite()
+	{
+		if (oldData == null)
+			oldData = getPageData();
+	}
+
+	synchronized void setRoot(int root, int height)
+	{
+		beginWrite();
+		this.root = root;
+		this.height = height;
+	}
+
+	synchronized void setNext(int next)
+	{
+		beginWrite();
+		this.next = next;
+	}
+
+	/**
+	 * Makes this an internal page with the given children and keys.
+	 */
+	synchronized void setInternal(List<Integer> children, List<int[]> keys)
+	{
+		beginWrite();
+		this.kind = INTERNAL;
+		this.children = new ArrayList<Integer>(children);
+		this.keys = new ArrayList<int[]>(keys);
+		this.entries.clear();
+	}
+
+	/**
+	 * Inserts key and, right of it, the child that holds the entries from
+	 * key on.
+	 */
+	synchronized void insertKey(int[] key, int child)
+	{
+		beginWrite();
+		int i = findChild(key);
+		keys.add(i, key);
+		children.add(i + 1, child);
+	}
+
+	synchronized void insertEntry(int pos, Tuple entry)
+	{
+		beginWrite();
+		entries.add(pos, entry);
+	}
+
+	synchronized void removeEntry(int pos)
+	{
+		beginWrite();
+		entries.remove(pos);
+	}
+
+	/**
+	 * Moves the upper half of the keys and children of this internal page to
+	 * right, which must be empty.
+	 *
+	 * @return the middle key, which separates the two pages in the parent
+	 */
+	synchronized int[] splitInternal(BTreePage right)
+	{
+		beginWrite();
+		int mid = keys.size() / 2;
+		int[] up = keys.get(mid);
+		right.setInternal(children.subList(mid + 1, children.size()),
+				keys.subList(mid + 1, keys.size()));
+		children = new ArrayList<Integer>(children.subList(0, mid + 1));
+		keys = new ArrayList<int[]>(keys.subList(0, mid));
+		return up;
+	}
+
+	/**
+	 * Moves the upper half of the entries of this leaf to right, which must be
+	 * empty, and links right in after this leaf.
+	 *
+	 * @return the key of the first entry of right
+	 */
+	synchronized int[] splitLeaf(BTreePage right)
+	{
+		beginWrite();
+		int mid = entries.size() / 2;
+		for (Tuple e : entries.subList(mid, entries.size()))
+			right.insertEntry(right.getCount(), e);
+		entries = new ArrayList<Tuple>(entries.subList(0, mid));
+		right.setNext(next);
+		next = right.getId().pageno();
+		return keyOf(right.getEntry(0));
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HeapPageId getId()
+	{
+		return pid;
+	}
+
+	/**
+	 * @return the size of this page in bytes
+	 */
+	public int getPageSize()
+	{
+		return pageSize;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page. Used to
+	 * serialize this page to disk.
+	 */
+	public synchronized byte[] getPageData()
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(pageSize);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try
+		{
+			if (isRootPointer())
+			{
+				out.writeInt(root);
+				out.writeInt(height);
+			} else if (kind == INTERNAL)
+			{
+				out.writeByte(INTERNAL);
+				out.writeInt(keys.size());
+				for (int child : children)
+					out.writeInt(child);
+				for (int[] key : keys)
+				{
+					for (int i = 0; i < 3; i++)
+						out.writeInt(key[i]);
+				}
+			} else
+			{
+				out.writeByte(LEAF);
+				out.writeInt(entries.size());
+				out.writeInt(next);
+				for (Tuple e : entries)
+				{
+					for (int f = 0; f < entryDesc.numFields(); f++)
+						e.getField(f).serialize(out);
+				}
+			}
+			out.flush();
+		} catch (IOException e)
+		{
+			// 写到内存里不会出错
+			throw new RuntimeException(e);
+		}
+		byte[] page = new byte[pageSize];
+		System.arraycopy(bytes.toByteArray(), 0, page, 0, Math.min(bytes.size(), pageSize));
+		return page;
+	}
+
+	/** Return a view of this page before it was modified -- used by recovery */
+	public synchronized BTreePage getBeforeImage()
+	{
+		try
+		{
+			return new BTreePage(pid, oldData != null ? oldData : getPageData());
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public synchronized void setBeforeImage()
+	{
+		oldData = null;
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid)
+	{
+		this.dirty = dirty;
+		this.tid = tid;
+	}
+
+	public TransactionId isDirty()
+	{
+		return this.dirty ? this.tid : null;
+	}
+}
@@ -8,11 +8,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-import javax.print.attribute.standard.PrinterInfo;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from disk.
@@ -22,20 +20,32 @@ import javax.print.attribute.standard.PrinterInfo;
  * The BufferPool is also responsible for locking; when a transaction fetches a
  * page, BufferPool which check that the transaction has the appropriate locks
  * to read/write the page.
+ * <p>
+ * Operators that keep using a page after getPage returns, like the scan of
+ * a HeapFile, pin it with {@link #pinPage} and unpin it with
+ * {@link #unpinPage} when they are done; a pinned page is never evicted.
+ * <p>
+ * A large pool is split into partitions by the hash of the PageId (see
+ * {@link #PARTITIONS_PROPERTY}). Every partition has its own page table,
+ * replacement policy, frames and lock, so that transactions using pages of
+ * different partitions do not wait for each other.
  */
 public class BufferPool
 {
 	// BufferPool能容纳的Page的大小, 一旦初始化完成，不再更改,随LRU的大小变化的是pageMap.size();
 	int numPages;
-	public static Map<PageId, Page> pageMap;
 	public static LockManager lockManager;
 	public static Map<TransactionId, Long> enduranceTimeMap;
 	
-	// LRU链表用来保存最近最少使用的页面PageId,规定最不经常使用的页面放在数组的末位，涉及到置换BufferPool页面，一定修改他
-	ArrayList<PageId> LRU = new ArrayList<PageId>();
 	/** Bytes per page, including header. */
 	public static final int PAGE_SIZE = 4096;
 
+	/**
+	 * Largest page size a table may use. Tables whose catalog entry sets a
+	 * page size use a power of two between PAGE_SIZE and MAX_PAGE_SIZE.
+	 */
+	public static final int MAX_PAGE_SIZE = 64 << 10;
+
 	/**
 	 * Default number of pages passed to the constructor. This is used by other
 	 * classes. BufferPool should use the numPages argument to the constructor
@@ -43,22 +53,1051 @@ public class BufferPool
 	 */
 	public static final int DEFAULT_PAGES = 50;
 	
-	private static Lock LRULock = new ReentrantLock();
+	/**
+	 * Name of the system property that sets the size of the buffer pool
+	 * created at startup in bytes, e.g. -Dsimpledb.bufferpool.bytes=64m. The
+	 * suffixes k, m and g are understood.
+	 */
+	public static final String POOL_BYTES_PROPERTY = "simpledb.bufferpool.bytes";
+
+	/**
+	 * Name of the system property that chooses the replacement policy of the
+	 * buffer pools created from then on, e.g. -Dsimpledb.bufferpool.policy=2q.
+	 * The policies are lru (the default), fifo, clock, lru-k (LRU-2, or lru-3
+	 * etc. for another K), 2q and arc; lru-k, 2q and arc keep hot pages
+	 * cached while large scans pass through the pool.
+	 *
+	 * @see ReplacementPolicy
+	 */
+	public static final String POLICY_PROPERTY = "simpledb.bufferpool.policy";
+
+	/**
+	 * Name of the system property that sets the largest number of partitions
+	 * of the buffer pools created from then on, e.g.
+	 * -Dsimpledb.bufferpool.partitions=32. The number is rounded down to a
+	 * power of two, and every partition holds at least
+	 * MIN_PARTITION_PAGES pages, so that small pools are not split.
+	 */
+	public static final String PARTITIONS_PROPERTY = "simpledb.bufferpool.partitions";
+
+	/** Largest number of partitions when the property is not set. */
+	public static final int DEFAULT_PARTITIONS = 16;
+
+	/** Smallest number of pages of a partition. */
+	public static final int MIN_PARTITION_PAGES = 64;
+	
+	// 按PageId的hash分区, 个数是2的幂
+	private final Partition[] partitions;
+	private final long capacityBytes;
+	// 写回磁盘和丢弃page的次数; 预读期间变了的话读到的内容可能已经过时
+	private final AtomicLong writes = new AtomicLong();
+	// 预读放进来的page数
+	private final AtomicLong prefetched = new AtomicLong();
+	// 预读放进来还没有被getPage用过的page; 预读已经算了一次使用, 第一次getPage不再算
+	private final Map<PageId, Boolean> unread = new ConcurrentHashMap<PageId, Boolean>();
+	// 扫描通过BufferRing读进来的page和它们的ring; 别人用过的page不再属于ring
+	private final ConcurrentHashMap<PageId, BufferRing> ringPages = new ConcurrentHashMap<PageId, BufferRing>();
 	
 	/**
-	 * Creates a BufferPool that caches up to numPages pages.
+	 * Creates a BufferPool that caches up to numPages pages of PAGE_SIZE
+	 * bytes, i.e. numPages * PAGE_SIZE bytes of pages of any size.
 	 *
 	 * @param numPages
 	 *            maximum number of pages in this buffer pool.
 	 */
 	public BufferPool(int numPages)
+	{
+		this(numPages, System.getProperty(POLICY_PROPERTY, "lru"));
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages of PAGE_SIZE
+	 * bytes and evicts pages by the named replacement policy.
+	 *
+	 * @param numPages
+	 *            maximum number of pages in this buffer pool.
+	 * @param policy
+	 *            the name of the replacement policy, see
+	 *            {@link #POLICY_PROPERTY}
+	 * @throws IllegalArgumentException
+	 *             if there is no policy of that name
+	 */
+	public BufferPool(int numPages, String policy)
+	{
+		this(numPages, policy, configuredPartitions());
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages of PAGE_SIZE
+	 * bytes in at most the given number of partitions.
+	 *
+	 * @param numPages
+	 *            maximum number of pages in this buffer pool.
+	 * @param policy
+	 *            the name of the replacement policy, see
+	 *            {@link #POLICY_PROPERTY}
+	 * @param maxPartitions
+	 *            the largest number of partitions, see
+	 *            {@link #PARTITIONS_PROPERTY}
+	 * @throws IllegalArgumentException
+	 *             if there is no policy of that name
+	 */
+	public BufferPool(int numPages, String policy, int maxPartitions)
 	{
 		this.numPages = numPages;
-		pageMap = new ConcurrentHashMap<PageId, Page>();
+		int count = 1;
+		while (count * 2 <= maxPartitions
+				&& numPages / (count * 2) >= MIN_PARTITION_PAGES)
+			count *= 2;
+		this.partitions = new Partition[count];
+		long capacity = 0;
+		for (int i = 0; i < count; i++)
+		{
+			// 除不尽的page分给前面的分区
+			int pages = numPages / count + (i < numPages % count ? 1 : 0);
+			partitions[i] = new Partition(pages, newPolicy(policy, pages));
+			capacity += partitions[i].arena.capacityBytes();
+		}
+		this.capacityBytes = capacity;
 		lockManager = new LockManager();
 		enduranceTimeMap = new ConcurrentHashMap<TransactionId, Long>();
 	}
 
+	/**
+	 * Returns the largest number of partitions of the buffer pools created
+	 * from now on: the value of the {@link #PARTITIONS_PROPERTY} system
+	 * property, or DEFAULT_PARTITIONS if it is not set.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the property is not a positive number
+	 */
+	public static int configuredPartitions()
+	{
+		String value = System.getProperty(PARTITIONS_PROPERTY);
+		if (value == null || value.trim().length() == 0)
+			return DEFAULT_PARTITIONS;
+		int partitions;
+		try
+		{
+			partitions = Integer.parseInt(value.trim());
+		} catch (NumberFormatException e)
+		{
+			partitions = 0;
+		}
+		if (partitions < 1)
+			throw new IllegalArgumentException("Invalid " + PARTITIONS_PROPERTY
+					+ ": " + value);
+		return partitions;
+	}
+
+	/**
+	 * Returns the number of pages of the buffer pool to create at startup:
+	 * the value of the {@link #POOL_BYTES_PROPERTY} system property divided by
+	 * PAGE_SIZE, or DEFAULT_PAGES if the property is not set.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the property is not a valid size
+	 */
+	public static int configuredPages()
+	{
+		String value = System.getProperty(POOL_BYTES_PROPERTY);
+		if (value == null || value.trim().length() == 0)
+			return DEFAULT_PAGES;
+		long bytes;
+		try
+		{
+			bytes = parseSize(value);
+		} catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Invalid " + POOL_BYTES_PROPERTY
+					+ ": " + System.getProperty(POOL_BYTES_PROPERTY));
+		}
+		long pages = bytes / PAGE_SIZE;
+		if (pages < 1 || pages > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid " + POOL_BYTES_PROPERTY
+					+ ": " + System.getProperty(POOL_BYTES_PROPERTY));
+		return (int) pages;
+	}
+
+	/**
+	 * Creates the replacement policy of the given name for a pool of
+	 * numPages pages.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if there is no policy of that name
+	 * @see #POLICY_PROPERTY
+	 */
+	public static ReplacementPolicy newPolicy(String name, int numPages)
+	{
+		String n = name.trim().toLowerCase();
+		if (n.equals("lru"))
+			return new LruList();
+		if (n.equals("fifo"))
+			return new FifoPolicy();
+		if (n.equals("clock"))
+			return new ClockPolicy();
+		if (n.equals("2q"))
+			return new TwoQueuePolicy(numPages);
+		if (n.equals("arc"))
+			return new ArcPolicy(numPages);
+		if (n.equals("lru-k"))
+			return new LruKPolicy(2, numPages);
+		if (n.startsWith("lru-"))
+		{
+			try
+			{
+				int k = Integer.parseInt(n.substring(4));
+				if (k >= 1)
+					return new LruKPolicy(k, numPages);
+			} catch (NumberFormatException e)
+			{
+				// 下面报错
+			}
+		}
+		throw new IllegalArgumentException("Unknown replacement policy: " + name);
+	}
+
+	/**
+	 * Parses a size in bytes such as "4096", "16k" or "64m". The suffixes k,
+	 * m and g are understood.
+	 *
+	 * @throws NumberFormatException
+	 *             if the value is not a size
+	 */
+	static long parseSize(String value)
+	{
+		value = value.trim().toLowerCase();
+		if (value.length() == 0)
+			throw new NumberFormatException("empty size");
+		long unit = 1;
+		char last = value.charAt(value.length() - 1);
+		if (last == 'k')
+			unit = 1L << 10;
+		else if (last == 'm')
+			unit = 1L << 20;
+		else if (last == 'g')
+			unit = 1L << 30;
+		if (unit != 1)
+			value = value.substring(0, value.length() - 1);
+		return Long.parseLong(value.trim()) * unit;
+	}
+
+	/**
+	 * @return true if a table may use pages of pageSize bytes: a power of
+	 *         two between PAGE_SIZE and MAX_PAGE_SIZE
+	 */
+	public static boolean isValidPageSize(long pageSize)
+	{
+		return pageSize >= PAGE_SIZE && pageSize <= MAX_PAGE_SIZE
+				&& Long.bitCount(pageSize) == 1;
+	}
+
+	/**
+	 * @return the number of bytes of page frames held by this buffer pool
+	 */
+	public long getCapacityBytes()
+	{
+		return capacityBytes;
+	}
+
+	/**
+	 * @return the number of bytes of the pages currently in the pool
+	 */
+	public long getUsedBytes()
+	{
+		long used = 0;
+		for (Partition p : partitions)
+			used += p.usedBytes.get();
+		return used;
+	}
+
+	/**
+	 * @return the number of partitions of this buffer pool
+	 */
+	public int getNumPartitions()
+	{
+		return partitions.length;
+	}
+
+	/**
+	 * @return true if the page is in the buffer pool
+	 */
+	public boolean isCached(PageId pid)
+	{
+		return partitionOf(pid).pageMap.containsKey(pid);
+	}
+
+	/**
+	 * @return the ids of the pages in the buffer pool
+	 */
+	public List<PageId> getCachedPages()
+	{
+		ArrayList<PageId> pages = new ArrayList<PageId>();
+		for (Partition p : partitions)
+			pages.addAll(p.pageMap.keySet());
+		return pages;
+	}
+
+	/**
+	 * @return the replacement policy of the partition pid belongs to
+	 */
+	ReplacementPolicy getPolicy(PageId pid)
+	{
+		return partitionOf(pid).policy;
+	}
+
+	/**
+	 * @return the partition a page belongs to
+	 */
+	private Partition partitionOf(PageId pid)
+	{
+		if (partitions.length == 1)
+			return partitions[0];
+		// 打散hash, 同一张表相邻的page分到不同的分区
+		int h = pid.hashCode() * 0x9e3779b9;
+		return partitions[(h ^ (h >>> 16)) & (partitions.length - 1)];
+	}
+
+	/**
+	 * @return the size of a page in bytes
+	 */
+	private static int sizeOf(Page page)
+	{
+		if (page instanceof HeapPage)
+			return ((HeapPage) page).getPageSize();
+		if (page instanceof SlottedPage)
+			return ((SlottedPage) page).getPageSize();
+		if (page instanceof ColumnPage)
+			return ((ColumnPage) page).getPageSize();
+		if (page instanceof BTreePage)
+			return ((BTreePage) page).getPageSize();
+		if (page instanceof HashPage)
+			return ((HashPage) page).getPageSize();
+		return PAGE_SIZE;
+	}
+
+	/**
+	 * A partition of the buffer pool: the pages whose PageId hashes to it,
+	 * with their own page table, replacement policy, frames and lock. The
+	 * lock guards the policy and eviction; the page table can be read
+	 * without it.
+	 */
+	private class Partition
+	{
+		final Map<PageId, Page> pageMap = new ConcurrentHashMap<PageId, Page>();
+		// 置换策略记录页面PageId的使用情况并决定换出哪个页面，涉及到置换BufferPool页面，一定修改他
+		final ReplacementPolicy policy;
+		// 缓存的page的字节都放在这些off-heap的frame里, 大的page占几个相邻的frame
+		final FrameArena arena;
+		// pageMap里所有page的字节数之和, 不同的表page大小可以不同
+		final AtomicLong usedBytes = new AtomicLong();
+		// 换页和修改置换策略都要先拿这个锁
+		final ReentrantLock lock = new ReentrantLock();
+		// 被pin住的page和pin的次数, 没有pin的page不在这里; 要拿lock
+		final Map<PageId, Integer> pins = new HashMap<PageId, Integer>();
+		// ring要换出去的时候还被pin着或者还在读的page和它的ring, 最后一次unpin或者读完的时候还属于这个ring就换出去; 要拿lock
+		final Map<PageId, BufferRing> dropOnUnpin = new HashMap<PageId, BufferRing>();
+		// 正在从磁盘读的page; 读完放进pageMap以后才删掉并countDown, 同一个page只读一次
+		final ConcurrentHashMap<PageId, CountDownLatch> reading = new ConcurrentHashMap<PageId, CountDownLatch>();
+
+		Partition(int numPages, ReplacementPolicy policy)
+		{
+			this.policy = policy;
+			this.arena = new FrameArena(numPages, PAGE_SIZE);
+		}
+
+		/**
+		 * @return true if bytes more bytes do not fit in the partition
+		 */
+		boolean full(long bytes)
+		{
+			return usedBytes.get() + bytes > arena.capacityBytes();
+		}
+
+		/**
+		 * Moves a page that is about to enter the pool into free frames of
+		 * the arena; a page of n * PAGE_SIZE bytes takes n adjacent frames.
+		 * Pages that cannot live in frames (other page types, or no free run
+		 * of frames because the pool temporarily holds more pages than it
+		 * should, or the free frames are scattered) simply stay on the heap.
+		 * Pages of a MappedHeapFile stay in the mapping instead of being
+		 * copied.
+		 */
+		private void attachFrame(Page page)
+		{
+			if (page instanceof HeapPage)
+			{
+				HeapPage hp = (HeapPage) page;
+				// 已经在frame里的, 或者直接读mmap映射不用拷贝的page
+				if (hp.frameNo >= 0 || hp.isMapped())
+					return;
+				int frameNo = allocateFrames(hp.getPageSize());
+				if (frameNo >= 0)
+					hp.moveToFrame(frameNo, arena.frame(frameNo, hp.getPageSize() / arena.getFrameSize()));
+			}
+			else if (page instanceof SlottedPage)
+			{
+				SlottedPage sp = (SlottedPage) page;
+				if (sp.frameNo >= 0)
+					return;
+				int frameNo = allocateFrames(sp.getPageSize());
+				if (frameNo >= 0)
+					sp.moveToFrame(frameNo, arena.frame(frameNo, sp.getPageSize() / arena.getFrameSize()));
+			}
+		}
+
+		/**
+		 * @return the first of the adjacent frames allocated for a page of
+		 *         pageSize bytes, or -1 if it cannot live in frames
+		 */
+		private int allocateFrames(int pageSize)
+		{
+			int count = pageSize / arena.getFrameSize();
+			if (count * arena.getFrameSize() != pageSize || Integer.bitCount(count) != 1)
+				return -1;
+			return arena.allocate(count);
+		}
+
+		/**
+		 * Gives the frames of a page that leaves the pool back to the arena.
+		 */
+		private void releaseFrame(Page page)
+		{
+			int frameNo = -1;
+			if (page instanceof HeapPage)
+				frameNo = ((HeapPage) page).releaseFrame();
+			else if (page instanceof SlottedPage)
+				frameNo = ((SlottedPage) page).releaseFrame();
+			if (frameNo >= 0)
+				arena.release(frameNo, sizeOf(page) / arena.getFrameSize());
+		}
+
+		/**
+		 * Puts a page in the page table, releasing the frame of the page it
+		 * replaces, if any.
+		 */
+		void putPage(PageId pid, Page page)
+		{
+			attachFrame(page);
+			Page old = pageMap.put(pid, page);
+			if (old != page)
+			{
+				usedBytes.addAndGet(sizeOf(page));
+				if (old != null)
+				{
+					usedBytes.addAndGet(-sizeOf(old));
+					releaseFrame(old);
+				}
+			}
+		}
+
+		/**
+		 * Removes a page from the page table and releases its frame.
+		 */
+		void removePage(PageId pid)
+		{
+			unread.remove(pid);
+			ringPages.remove(pid);
+			pins.remove(pid);
+			dropOnUnpin.remove(pid);
+			Page old = pageMap.remove(pid);
+			if (old != null)
+			{
+				usedBytes.addAndGet(-sizeOf(old));
+				releaseFrame(old);
+			}
+		}
+
+		/**
+		 * Returns a page of this partition, reading it if it is not cached;
+		 * the lock on the page is already held. See
+		 * {@link BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)}.
+		 */
+		Page getPage(PageId pid, BufferRing ring, boolean pin) throws DbException
+		{
+			// 别的线程刚放进来一个page的时候分区可能暂时超出容量, 由read()换页, 换不出去才失败
+			CountDownLatch latch = new CountDownLatch(1);
+			while (true)
+			{
+				// 所请求的页面已经在BufferPool中，
+				Page tempPage = pageMap.get(pid);
+				if (tempPage != null)
+					return this.hit(pid, tempPage, ring, pin);
+				// 预读或者别的事务正在读这个page, 等它读完再看一次
+				CountDownLatch pending = reading.putIfAbsent(pid, latch);
+				if (pending == null)
+					break;
+				awaitRead(pending);
+			}
+			try
+			{
+				// 在上面的get和putIfAbsent之间可能刚读完
+				Page tempPage = pageMap.get(pid);
+				if (tempPage != null)
+					return this.hit(pid, tempPage, ring, pin);
+				return this.read(pid, ring, pin);
+			} finally
+			{
+				reading.remove(pid, latch);
+				latch.countDown();
+			}
+		}
+
+		/**
+		 * Waits until another thread finished reading a page.
+		 */
+		private void awaitRead(CountDownLatch pending)
+		{
+			boolean interrupted = false;
+			while (true)
+			{
+				try
+				{
+					pending.await();
+					break;
+				} catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		/**
+		 * Records the use of a cached page for getPage.
+		 */
+		private Page hit(PageId pid, Page tempPage, BufferRing ring, boolean pin)
+		{
+			if (unread.remove(pid) == null)
+				this.changeLRU(1, pid);
+			// 别的事务用了ring里的page, 它就不再属于ring; 别的扫描用了就放到那个扫描的ring里
+			if (!ringPages.isEmpty())
+			{
+				BufferRing owner = ringPages.get(pid);
+				if (owner != null && owner != ring)
+				{
+					if (ring == null)
+						ringPages.remove(pid);
+					else
+						takeRingSlot(ring, pid);
+				}
+			}
+			if (pin)
+			{
+				lock.lock();
+				try
+				{
+					// 刚刚被换出去的话就不用pin了, 换出去的page已经复制出了frame
+					if (pageMap.get(pid) == tempPage)
+						this.pin(pid);
+				} finally
+				{
+					lock.unlock();
+				}
+			}
+			return tempPage;
+		}
+
+		/**
+		 * Reads a page that is not cached into the partition for getPage;
+		 * the caller is registered in reading, so nobody else reads it.
+		 */
+		private Page read(PageId pid, BufferRing ring, boolean pin) throws DbException
+		{
+			// implement an eviction policy which is metioned in lab1;
+			// Catalog目录里面有没有这张表暂时不判断，默认执行该函数的时候表就是在catalog里面了
+			int fileId = pid.getTableId();
+			DbFile file = Database.getCatalog().getDbFile(fileId);
+			// 先把ring里最早的page换出去, 腾出来的空间给新的page
+			if (ring != null)
+				takeRingSlot(ring, pid);
+			// 分区放不下新的page, 大的page可能要换出好几个小的page
+			try
+			{
+				while (!this.policy.isEmpty() && full(file.getPageSize()))
+					evictPage();
+			}
+			catch (DbException e)
+			{
+				// 使用No_Steal策略， 在分区全部满而且都是dirty或者被pin住，即再也找不到能换出的页面的时候
+				// 不能把dirty的页面写回磁盘, 只能让这次getPage失败
+				if (ring != null)
+				{
+					lock.lock();
+					try
+					{
+						ringPages.remove(pid, ring);
+						dropOnUnpin.remove(pid);
+					} finally
+					{
+						lock.unlock();
+					}
+				}
+				throw e;
+			}
+			this.changeLRU(2, pid);
+			Page newpage;
+			try
+			{
+				newpage = file.readPage(pid);
+			} catch (RuntimeException e)
+			{
+				// 没有读进来的page不能留在置换策略里
+				this.changeLRU(3, pid);
+				throw e;
+			}
+			//将新读入的page放入bufferpool; 读的时候没有别人读这个page, 回滚可能已经把它放进来了
+			lock.lock();
+			try
+			{
+				Page cached = pageMap.get(pid);
+				if (cached != null)
+					newpage = cached;
+				else
+					this.putPage(pid, newpage);
+				// 在下面换页以前pin住, 不然新的page自己就可能被换出去
+				if (pin)
+					this.pin(pid);
+				// 读的时候ring已经转了一圈, 不pin的话现在就换出去, pin了的等unpin的时候换出去
+				else
+					this.dropAfterRead(pid);
+				if (cached != null)
+					return cached;
+			} finally
+			{
+				lock.unlock();
+			}
+			// 读的时候预读的page可能占了腾出来的空间
+			try
+			{
+				while (this.policy.size() > 1 && full(0))
+					evictPage();
+			} catch (DbException e)
+			{
+				// 全是dirty的page, 和上面一样留给下一次getPage处理
+			}
+			return newpage;
+		}
+
+		/**
+		 * Checks whether a page read through a ring can be prefetched into
+		 * this partition once the oldest page of the ring is dropped: it is
+		 * not cached yet, nothing was written while it was read, and there
+		 * is room for it.
+		 */
+		boolean mayPrefetch(PageId pid, Page page, long before, BufferRing ring)
+		{
+			lock.lock();
+			try
+			{
+				if (Database.getBufferPool() != BufferPool.this || pageMap.containsKey(pid)
+						|| writes.get() != before)
+					return false;
+				long bytes = sizeOf(page);
+				// ring里最早的page在这个分区并且能换出去的话, 它的空间也算
+				PageId old = ring.oldest();
+				Page oldPage = old != null ? pageMap.get(old) : null;
+				if (oldPage != null && ringPages.get(old) == ring && oldPage.isDirty() == null
+						&& !pins.containsKey(old))
+					bytes -= sizeOf(oldPage);
+				return !full(bytes);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Adds a prefetched page if there is room for it, see
+		 * {@link BufferPool#prefetch}; the oldest page of the ring was
+		 * already dropped.
+		 *
+		 * @param before
+		 *            the number of writes when the page was read
+		 */
+		void prefetch(PageId pid, Page page, BufferRing ring, long before)
+		{
+			lock.lock();
+			try
+			{
+				// 这个BufferPool可能已经被替换掉了
+				if (Database.getBufferPool() != BufferPool.this || pageMap.containsKey(pid)
+						|| writes.get() != before)
+					return;
+				if (ring == null)
+				{
+					while (!this.policy.isEmpty() && full(sizeOf(page)))
+						evictPage();
+				}
+				if (full(sizeOf(page)))
+					return;
+				if (ring != null)
+				{
+					ring.add(pid);
+					ringPages.put(pid, ring);
+				}
+				this.changeLRU(2, pid);
+				this.putPage(pid, page);
+				unread.put(pid, Boolean.TRUE);
+				prefetched.incrementAndGet();
+			} catch (DbException e)
+			{
+				// 没有可以换出的干净page, 不预读
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Rereads the pages tid dirtied from disk; called when tid aborts.
+		 */
+		void rollback(TransactionId tid)
+		{
+			// 查找分区中与该事务相关的dirty页面， 不换出， 直接从磁盘读取原来的页面信息
+			Iterator <Entry<PageId, Page>> iterRecover = pageMap.entrySet().iterator();
+			while (iterRecover.hasNext())
+			{
+				Map.Entry<PageId, Page> entry = (Map.Entry<PageId, Page>)iterRecover.next();
+				Page tempPage = entry.getValue();
+				if (tempPage.isDirty() == tid)
+				{
+					PageId pid = entry.getKey();
+					int fileId = pid.getTableId();
+					DbFile file = Database.getCatalog().getDbFile(fileId);
+					Page recoverPage = file.readPage(pid);
+					//将新读入的page放入bufferpool
+					lock.lock();
+					try
+					{
+						this.putPage(pid, recoverPage);
+						// 回滚以后page是clean的, 没有被pin住就又可以换出了
+						this.release(pid);
+					} finally
+					{
+						lock.unlock();
+					}
+					if (file instanceof HeapFile)
+					{
+						((HeapFile) file).pageReloaded(recoverPage);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Flushes every dirty page of the partition to disk.
+		 */
+		void flushAllPages() throws IOException
+		{
+			lock.lock();
+			try
+			{
+				// 使用迭代器遍历HashMap
+				Iterator<PageId> it = this.pageMap.keySet().iterator();
+				while (it.hasNext())
+					this.flushPage(it.next());
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Removes a page without writing it.
+		 */
+		void discardPage(PageId pid)
+		{
+			lock.lock();
+			try
+			{
+				writes.incrementAndGet();
+				this.policy.remove(pid);
+				this.removePage(pid);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Removes every page of a table without writing it.
+		 */
+		void discardPages(int tableId)
+		{
+			lock.lock();
+			try
+			{
+				writes.incrementAndGet();
+				Iterator<PageId> it = new ArrayList<PageId>(pageMap.keySet()).iterator();
+				while (it.hasNext())
+				{
+					PageId pid = it.next();
+					if (pid.getTableId() != tableId)
+						continue;
+					this.policy.remove(pid);
+					this.removePage(pid);
+				}
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Flushes a certain page to disk
+		 * 
+		 * @param pid
+		 *            an ID indicating the page to flush
+		 */
+		// 使用了分区中的Map<PageId, Page> pageMap，
+		// 所以一定是在BufferPool里面的Page才可以写出去，此时没有把BufferPool里面的page清除
+		// 此时对应的事务ID已经从page.isDirty()中得到
+		void flushPage(PageId pid) throws IOException
+		{
+			// some code goes here
+			// not necessary for lab1
+			lock.lock();
+			try
+			{
+				int tableId = pid.getTableId();
+				DbFile hpFile = Database.getCatalog().getDbFile(tableId);
+				Page page = this.pageMap.get(pid);
+				// 正在被getPage读进来的page还不在pageMap里
+				if (page == null)
+					return;
+				TransactionId tid = page.isDirty();
+				if (tid != null)
+				{
+					writes.incrementAndGet();
+					hpFile.writePage(page);
+					page.markDirty(false, tid);
+					// 写回以后没有被pin住就又可以换出了
+					this.release(pid);
+				}
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Evicts a clean page of the partition if its slot still belongs to
+		 * the ring; under NO STEAL a dirty page stays in the pool. A pinned
+		 * page is evicted when it is unpinned, if it still belongs to the
+		 * ring then; so is a page that is still being read, when it has been
+		 * read.
+		 */
+		void dropRingPage(PageId pid, BufferRing ring)
+		{
+			lock.lock();
+			try
+			{
+				if (ringPages.get(pid) != ring)
+					return;
+				// 扫描还在用这个page, 或者getPage还在读它, 用完或者读完了再换出去, 在那之前还属于这个ring
+				if (pins.containsKey(pid) || (!pageMap.containsKey(pid) && reading.containsKey(pid)))
+				{
+					dropOnUnpin.put(pid, ring);
+					return;
+				}
+				ringPages.remove(pid, ring);
+				Page page = pageMap.get(pid);
+				if (page != null && page.isDirty() == null)
+					this.changeLRU(3, pid);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Evicts a page that was read for getPage if its ring dropped it
+		 * while it was being read; the lock is held.
+		 */
+		private void dropAfterRead(PageId pid)
+		{
+			BufferRing ring = dropOnUnpin.get(pid);
+			if (ring == null || pins.containsKey(pid))
+				return;
+			dropOnUnpin.remove(pid);
+			Page page = pageMap.get(pid);
+			if (ringPages.remove(pid, ring) && page != null && page.isDirty() == null)
+				this.changeLRU(3, pid);
+		}
+
+		/**
+		 * Pins a page of the partition once more; the lock is held and the
+		 * page is cached. The page keeps its place in the replacement policy
+		 * and is parked only if eviction runs into it while it is pinned.
+		 */
+		private void pin(PageId pid)
+		{
+			Integer count = pins.get(pid);
+			pins.put(pid, count == null ? 1 : count + 1);
+		}
+
+		/**
+		 * Takes back one pin of a page; a page that is not pinned, e.g.
+		 * because it was discarded while it was pinned, is ignored.
+		 */
+		void unpin(PageId pid)
+		{
+			lock.lock();
+			try
+			{
+				Integer count = pins.get(pid);
+				if (count == null)
+					return;
+				if (count > 1)
+				{
+					pins.put(pid, count - 1);
+					return;
+				}
+				pins.remove(pid);
+				BufferRing ring = dropOnUnpin.remove(pid);
+				Page page = pageMap.get(pid);
+				if (ring != null && ringPages.remove(pid, ring) && page != null
+						&& page.isDirty() == null)
+					this.changeLRU(3, pid);
+				else
+					this.release(pid);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @return the number of pins of a page
+		 */
+		int pinCount(PageId pid)
+		{
+			lock.lock();
+			try
+			{
+				Integer count = pins.get(pid);
+				return count == null ? 0 : count;
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Lets eviction look at a page again if it was parked and is neither
+		 * pinned nor dirty; the lock is held.
+		 */
+		private void release(PageId pid)
+		{
+			Page page = pageMap.get(pid);
+			if (page != null && page.isDirty() == null && !pins.containsKey(pid))
+				this.policy.unpark(pid);
+		}
+
+		/**
+		 * Discards a page from the buffer pool. Only clean pages that are not
+		 * pinned are evicted.
+		 */
+		// 换出置换策略选出来的clean页面, 默认是LRU算法，把最近最少使用的clean页面换出去
+		// 碰到被pin住的和dirty的page就停放到一边, 置换策略不会再选它们, 所以跳过它们是O(1)的
+		// 仅仅只有该方法能够从分区里面删除页, 且要拿分区的锁
+		private void evictPage() throws DbException
+		{
+			// some code goes here
+			// not necessary for lab1
+			lock.lock();
+			try
+			{
+				// 正在被getPage读进来的page已经在置换策略里了, 但还不在pageMap里, 每个最多绕过一次
+				int inFlight = this.policy.size();
+				boolean retried = false;
+				while (true)
+				{
+					PageId trypid = this.policy.victim();
+					if (trypid == null)
+					{
+						// 停放的page可能在别处被写回或者unpin了, 全部放回来再找一遍
+						if (retried || this.policy.unparkAll() == 0)
+							throw new DbException("All pages in the buffer pool are dirty or pinned!");
+						retried = true;
+						continue;
+					}
+					Page page = pageMap.get(trypid);
+					if (page == null)
+					{
+						if (--inFlight < 0)
+							throw new DbException("All pages in the buffer pool are dirty or pinned!");
+						this.policy.touch(trypid);
+						continue;
+					}
+					// 被pin住的页还在被用, 不能换出去; 在No_Steal策略下, dirty的页在事务提交或回滚以前也不能换出去，
+					// 停放到一边, 之后的换页不用再看它, 直到它被unpin, 被写回或者再被访问
+					if (pins.containsKey(trypid) || page.isDirty() != null)
+					{
+						this.policy.park(trypid);
+						continue;
+					}
+					this.changeLRU(3, trypid);
+					return;
+				}
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * 改变置换策略的状态, 并同步删除Map<PageId, Page> pageMap但是不同步加入;
+		 * @param option
+		 * 		option == 0的时候删除置换策略选出的页面,再记录现在访问的pid
+		 * 		option == 1的时候记录现在访问的pid又被用了一次
+		 * 		option == 2的时候记录现在访问的pid(新加入的页面)
+		 * 		option == 3的时候把指定的pid删除
+		 * 另外：分区的lock是对凡是调用changeLRU的线程加锁，
+		 * 以保证所有的线程互斥地修改置换策略, 不同分区之间互不影响
+		 * 仅仅有getPage（）方法使用了置换策略
+		 * 除了LRU-K是O(log n)的, 每种操作都是O(1)的
+		 */
+		private void changeLRU(int option, PageId pid)
+		{
+			lock.lock();
+			try
+			{
+				switch(option)
+				{
+				case 0:
+					{
+						PageId removePid = this.policy.victim();
+						if (removePid != null)
+						{
+							this.policy.remove(removePid);
+							this.removePage(removePid);
+						}
+						this.policy.touch(pid);
+						break;
+					}
+				case 1:
+				case 2: this.policy.touch(pid); break;
+				case 3: this.policy.remove(pid); this.removePage(pid); break;
+				default: break;
+				}
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Puts a page in the page table of its partition.
+	 */
+	private void putPage(PageId pid, Page page)
+	{
+		partitionOf(pid).putPage(pid, page);
+	}
+
 	/**
 	 * Retrieve the specified page with the associated permissions. Will acquire
 	 * a lock and may block if that lock is held by another transaction.
@@ -80,87 +1119,161 @@ public class BufferPool
 			throws TransactionAbortedException, DbException
 	{
 		// some code goes here
+		return getPage(tid, pid, perm, null);
+	}
+
+	/**
+	 * Retrieves a page like {@link #getPage(TransactionId, PageId,
+	 * Permissions)}, for a scan that reads through a ring of frames. A page
+	 * that is not cached takes the next slot of the ring, and the page that
+	 * held the slot is evicted instead of a page of the rest of the pool, if
+	 * it is clean and nobody but the scan used it since it was read.
+	 *
+	 * @param ring
+	 *            the ring of the scan, or null to read through the pool as
+	 *            usual
+	 * @see BufferRing
+	 */
+	public Page getPage(TransactionId tid, PageId pid, Permissions perm,
+			BufferRing ring) throws TransactionAbortedException, DbException
+	{
 		// in Eviction test tid = null;
 		lockManager.acquireLock(pid, tid, perm);
-		if (pageMap.size() > this.numPages)
-		{
-			// FIXME Error
-			throw (new DbException("BufferPool is full!"));
-		}
-		// 所请求的页面已经在BufferPool中，
-		if (pageMap.containsKey(pid))
-		{
-			this.changeLRU(1, pid);
-			Page tempPage = pageMap.get(pid);
-			return tempPage;
-		}
-//		else
-//		{
-//			int fileId = pid.getTableId();
-//			List<Catalog.TableItem> tlist = Database.getCatalog().getTableItem();
-//			for (Catalog.TableItem t : tlist)
-//			{
-//				//只有当catalog里面存在对应的file时，才可以读取该页上的page。
-//				if (t.getFile().getId() != fileId)
-//					continue;
-//				
-//				DbFile file = Database.getCatalog().getDbFile(fileId);
-//				Page newpage = file.readPage(pid);
-//				//将新读入的page放入bufferpool
-//				pageMap.put(pid, newpage);
-//				
-//				return newpage;
-//				
-//			}
-//			
-//			// Catalog目录里面没有这张表
-//			throw new NoSuchElementException();
-//			
-//		}
-		// implement an eviction policy which is metioned in lab1;
-		else
+		// 只用到pid所在的分区, 别的分区上的getPage不用等
+		return partitionOf(pid).getPage(pid, ring, false);
+	}
+
+	/**
+	 * Retrieves a page like {@link #getPage(TransactionId, PageId,
+	 * Permissions, BufferRing)} and pins it: the page stays in the buffer
+	 * pool, in the same frame, until every pin is taken back with
+	 * {@link #unpinPage}. A page may be pinned several times, e.g. by two
+	 * scans of the same table.
+	 *
+	 * @param ring
+	 *            the ring of the scan, or null to read through the pool as
+	 *            usual
+	 */
+	public Page pinPage(TransactionId tid, PageId pid, Permissions perm,
+			BufferRing ring) throws TransactionAbortedException, DbException
+	{
+		lockManager.acquireLock(pid, tid, perm);
+		return partitionOf(pid).getPage(pid, ring, true);
+	}
+
+	/**
+	 * Takes back one pin of a page pinned with {@link #pinPage}; once the
+	 * last pin is taken back the page may be evicted again. Pages that are
+	 * not pinned, e.g. because they were discarded or the buffer pool was
+	 * replaced, are ignored.
+	 */
+	public void unpinPage(PageId pid)
+	{
+		partitionOf(pid).unpin(pid);
+	}
+
+	/**
+	 * @return the number of pins of a page, 0 if it is not pinned
+	 */
+	public int getPinCount(PageId pid)
+	{
+		return partitionOf(pid).pinCount(pid);
+	}
+
+	/**
+	 * Reads a page into the buffer pool ahead of its use, without locking
+	 * it; the transaction that uses it locks it through {@link #getPage}. The
+	 * page is only read if it is neither cached nor being read by another
+	 * thread; a getPage of a page that is being prefetched waits for the
+	 * prefetch instead of reading the page again. The page is only added if
+	 * room can be made for it by evicting clean pages, and it is dropped if a
+	 * page was written or discarded while it was read, since what was read
+	 * may be out of date.
+	 * Errors are ignored: prefetching is only a hint. A scan that reads
+	 * through a ring prefetches into the ring, and only makes room by
+	 * evicting the oldest page of the ring.
+	 *
+	 * @param ring
+	 *            the ring of the scan, or null
+	 * @see ReadAhead
+	 */
+	void prefetch(PageId pid, BufferRing ring)
+	{
+		Partition partition = partitionOf(pid);
+		if (partition.pageMap.containsKey(pid))
+			return;
+		// 已经有人在读这个page的话就不用预读了; getPage会等预读读完
+		CountDownLatch latch = new CountDownLatch(1);
+		if (partition.reading.putIfAbsent(pid, latch) != null)
+			return;
+		try
 		{
-			// Catalog目录里面有没有这张表暂时不判断，默认执行该函数的时候表就是在catalog里面了
-			int size = this.LRU.size();
-			// BufferPool满
-			if (size == this.numPages)
-			{
-				// 不使用No_Steal/Force策略
-//				this.changeLRU(0, pid);
-				// 使用No_Steal策略， 在BufferPool全部满而且都是Dirty，即再也找不到clean的页面换出的时候
-				// 该异常是由于缓冲区里面的页都是dirty导致的 
-				// 故把此时BufferPool所有页面flashPage到磁盘， 变成clean
-				try
-				{
-					evictPage();
-					this.changeLRU(2, pid);
-				}
-				catch (DbException e)
-				{
-					for (int i = 0; i < size; i++)
-					{
-						try {
-							this.flushPage(this.LRU.get(i));
-						} catch (IOException e1) {
-							e1.printStackTrace();
-						}
-					}
-				}
+			if (partition.pageMap.containsKey(pid))
+				return;
+			long before = writes.get();
+			Page page;
+			try
+			{
+				DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+				page = file.readPage(pid);
+			} catch (RuntimeException e)
+			{
+				// 表可能已经从catalog里删掉了, 或者page已经不在文件里了
+				return;
 			}
-			else
+			if (ring == null)
 			{
-//				System.out.println("size of LRU is " + size);
-				this.changeLRU(2, pid);
+				partition.prefetch(pid, page, null, before);
+				return;
 			}
-			int fileId = pid.getTableId();
-			DbFile file = Database.getCatalog().getDbFile(fileId);
-			Page newpage = file.readPage(pid);
-			//将新读入的page放入bufferpool
-			pageMap.put(pid, newpage);
-			return newpage;
+			// 和takeRingSlot一样先锁ring再拿分区的锁;
+			// 确定能放进来以后才换出ring里最早的page, 它可能在别的分区, 所以先换出去
+			synchronized (ring)
+			{
+				if (!partition.mayPrefetch(pid, page, before, ring))
+					return;
+				this.dropRingPage(ring);
+				partition.prefetch(pid, page, ring, before);
+			}
+		} finally
+		{
+			partition.reading.remove(pid, latch);
+			latch.countDown();
+		}
+	}
+
+	/**
+	 * Gives the next slot of a ring to pid, evicting the page that held it.
+	 */
+	private void takeRingSlot(BufferRing ring, PageId pid)
+	{
+		synchronized (ring)
+		{
+			this.dropRingPage(ring);
+			ring.add(pid);
+			ringPages.put(pid, ring);
 		}
 	}
 
+	/**
+	 * Evicts the page in the next slot of a ring, if it still belongs to the
+	 * ring and is clean; under NO STEAL a dirty page stays in the pool.
+	 */
+	private void dropRingPage(BufferRing ring)
+	{
+		PageId old = ring.takeOldest();
+		if (old != null)
+			partitionOf(old).dropRingPage(old, ring);
+	}
+
+	/**
+	 * @return the number of pages {@link #prefetch} has added to the pool
+	 */
+	public long getPagesPrefetched()
+	{
+		return prefetched.get();
+	}
+
 	/**
 	 * Releases the lock on a page. Calling this is very risky, and may result
 	 * in wrong behavior. Think hard about who needs to call this and why, and
@@ -201,6 +1314,16 @@ public class BufferPool
 		return lockManager.holdsLockOnPage(p, tid);
 	}
 
+	/**
+	 * Return true if a transaction other than tid has a lock on the specified
+	 * page. This is only a hint for placement decisions (see
+	 * HeapFile#addTuple); it is not synchronized with lock acquisition.
+	 */
+	public boolean isLockedByOther(TransactionId tid, PageId p)
+	{
+		return lockManager.isLockedByOther(p, tid);
+	}
+
 	/**
 	 * Commit or abort a given transaction; release all locks associated to the
 	 * transaction.
@@ -226,22 +1349,9 @@ public class BufferPool
 		// Abort
 		else
 		{
-			// 查找BufferPool中与该事务相关的dirty页面， 不换出， 直接从磁盘读取原来的页面信息
-			Iterator <Entry<PageId, Page>> iterRecover = pageMap.entrySet().iterator();
-			while (iterRecover.hasNext())
-			{
-				Map.Entry<PageId, Page> entry = (Map.Entry<PageId, Page>)iterRecover.next();
-				Page tempPage = entry.getValue();
-				if (tempPage.isDirty() == tid)
-				{
-					PageId pid = entry.getKey();
-					int fileId = pid.getTableId();
-					DbFile file = Database.getCatalog().getDbFile(fileId);
-					Page recoverPage = file.readPage(pid);
-					//将新读入的page放入bufferpool
-					pageMap.put(pid, recoverPage);
-				}
-			}
+			// 每个分区里与该事务相关的dirty页面都从磁盘重新读
+			for (Partition p : partitions)
+				p.rollback(tid);
 			// 删除该事务对应的所有加在页上的锁
 			lockManager.releaseAllLocksInOneTransaction(tid);
 			lockManager.printInfo("Aborted! Having released all the lock on the transaction: " + tid.toString(), true);
@@ -256,7 +1366,8 @@ public class BufferPool
 	 * 
 	 * Marks any pages that were dirtied by the operation as dirty by calling
 	 * their markDirty bit, and updates cached versions of any pages that have
-	 * been dirtied so that future requests see up-to-date pages.
+	 * been dirtied so that future requests see up-to-date pages. The entry of
+	 * the tuple is added to every index of the table.
 	 *
 	 * @param tid
 	 *            the transaction adding the tuple
@@ -278,7 +1389,16 @@ public class BufferPool
 		{
 			p.markDirty(true, tid);
 			pid = p.getId();
-			pageMap.put(pid, p);
+			this.putPage(pid, p);
+		}
+		// t已经有了RecordId, 再把它的项加到表上的每个索引里
+		for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+		{
+			for (Page p : index.insertEntry(tid, t))
+			{
+				p.markDirty(true, tid);
+				this.putPage(p.getId(), p);
+			}
 		}
 	}
 
@@ -290,7 +1410,8 @@ public class BufferPool
 	 * Marks any pages that were dirtied by the operation as dirty by calling
 	 * their markDirty bit. Does not need to update cached versions of any pages
 	 * that have been dirtied, as it is not possible that a new page was created
-	 * during the deletion (note difference from addTuple).
+	 * during the deletion (note difference from addTuple). The entry of the
+	 * tuple is removed from every index of the table.
 	 *
 	 * @param tid
 	 *            the transaction adding the tuple.
@@ -307,27 +1428,49 @@ public class BufferPool
 		PageId pid = t.getRecordId().getPageId();
 		int tableId = pid.getTableId();
 		DbFile file = Database.getCatalog().getDbFile(tableId);
+		for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+		{
+			for (Page p : index.deleteEntry(tid, t))
+				p.markDirty(true, tid);
+		}
 		Page page = file.deleteTuple(tid, t);
 		page.markDirty(true, tid);
 	}
 
+	/**
+	 * Replaces the entries of a tuple that moved to another slot by entries
+	 * of its new copy in every index of its table; used by {@link Vacuum}.
+	 * Must be called while from still has its old RecordId, and to its new
+	 * one.
+	 */
+	public void moveIndexEntries(TransactionId tid, Tuple from, Tuple to)
+			throws DbException, IOException, TransactionAbortedException
+	{
+		int tableId = from.getRecordId().getPageId().getTableId();
+		for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+		{
+			for (Page p : index.deleteEntry(tid, from))
+				p.markDirty(true, tid);
+			for (Page p : index.insertEntry(tid, to))
+			{
+				p.markDirty(true, tid);
+				this.putPage(p.getId(), p);
+			}
+		}
+	}
+
 	/**
 	 * Flush all dirty pages to disk. NB: Be careful using this routine -- it
 	 * writes dirty data to disk so will break simpledb if running in NO STEAL
 	 * mode.
 	 */
-	public synchronized void flushAllPages() throws IOException
+	public void flushAllPages() throws IOException
 	{
 		// some code goes here
 		// not necessary for lab1
-		// 使用迭代器遍历HashMap
-		Iterator<Entry<PageId, Page>> it = this.pageMap.entrySet().iterator();
-		while (it.hasNext())
-		{
-			Map.Entry<PageId, Page> entry = (Map.Entry<PageId, Page>) it.next();
-			PageId pid = entry.getKey();
-			this.flushPage(pid);
-		}
+		// 一次只锁一个分区
+		for (Partition p : partitions)
+			p.flushAllPages();
 	}
 
 	/**
@@ -335,10 +1478,21 @@ public class BufferPool
 	 * manager to ensure that the buffer pool doesn't keep a rolled back page in
 	 * its cache.
 	 */
-	public synchronized void discardPage(PageId pid)
+	public void discardPage(PageId pid)
 	{
 		// some code goes here
 		// only necessary for lab5
+		partitionOf(pid).discardPage(pid);
+	}
+
+	/**
+	 * Removes every page of a table from the buffer pool without writing it,
+	 * e.g. after the file was rewritten underneath the pool.
+	 */
+	public void discardPages(int tableId)
+	{
+		for (Partition p : partitions)
+			p.discardPages(tableId);
 	}
 
 	/**
@@ -347,93 +1501,20 @@ public class BufferPool
 	 * @param pid
 	 *            an ID indicating the page to flush
 	 */
-	// 使用了BufferPool中的Map<PageId, Page> pageMap，
-	// 所以一定是在BufferPool里面的Page才可以写出去，此时没有把BufferPool里面的page清除
-	// 此时对应的事务ID已经从page.isDirty()中得到
-	private synchronized void flushPage(PageId pid) throws IOException
+	private void flushPage(PageId pid) throws IOException
 	{
-		// some code goes here
-		// not necessary for lab1
-		int tableId = pid.getTableId();
-		HeapFile hpFile = (HeapFile) Database.getCatalog().getDbFile(tableId);
-		Page page = this.pageMap.get(pid);
-		TransactionId tid = page.isDirty();
-		if (tid != null)
-		{
-			hpFile.writePage(page);
-			page.markDirty(false, tid);
-		}
+		partitionOf(pid).flushPage(pid);
 	}
 
 	/**
 	 * Write all pages of the specified transaction to disk.
 	 */
-	public synchronized void flushPages(TransactionId tid) throws IOException
+	public void flushPages(TransactionId tid) throws IOException
 	{
 		// some code goes here
 		// not necessary for lab1|lab2|lab3
 	}
 
-	/**
-	 * Discards a page from the buffer pool. Flushes the page to disk to ensure
-	 * dirty pages are updated on disk.
-	 */
-	// 使用LRU算法，把最近最少使用的页面换出去
-	// 仅仅只有该方法能够从BufferPool里面删除页, 且synchronized
-	private synchronized void evictPage() throws DbException
-	{
-		// some code goes here
-		// not necessary for lab1
-		int i = 0;
-		int size = this.LRU.size();
-		// 先判断是不是全部dirty, 是的话抛出DbException, 给getPage处理(仅仅有getPage调用过该方法)
-		for (i = 1; i <= size; i++)
-		{
-			PageId trypid = this.LRU.get(size - i);
-			Page page = pageMap.get(trypid);
-			TransactionId tid = page.isDirty();
-			if (tid == null)
-			{
-				break;
-			}
-		}
-		if (i == size + 1)
-		{
-			throw new DbException("All pages in the buffer pool are dirty!");
-		}
-		i = 0;
-		// 在No_Steal策略下删除一个clean but locked的页，比如原本LRU替换策略发现要换出最后那一页，
-		// 但是那一页是dirty的，而且被Locked了，所以找另一个clean的页来换出去
-		for (i = 1; i <= size; i++)
-		{
-			PageId trypid = this.LRU.get(size - i);
-			Page page = pageMap.get(trypid);
-			TransactionId tid = page.isDirty();
-			// dirty的而且被某事务加锁且没释放的页，不能换出去
-			if (tid != null && holdsLock(tid, trypid) == true)
-			{
-				continue;
-			}
-			// dirty的但是没有被加锁的可以换出，但是要写回到磁盘里
-			else if (tid != null && holdsLock(tid, trypid) == false)
-			{
-				this.changeLRU(3, trypid);
-				try {
-					this.flushPage(trypid);
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-					throw new DbException("IOException happen when flushPage in evict method!");
-				}
-			}
-			else
-			{
-				this.changeLRU(3, trypid);
-				break;
-			}
-		}
-	}
-	
 	public static void isDeadLock(TransactionId tid) throws TransactionAbortedException
 	{
 		long currentTime = System.currentTimeMillis();
@@ -459,41 +1540,4 @@ public class BufferPool
 		lockManager.printInfo(info, condition);
 		lockManager.printLockMap();
 	}
-	
-	/**
-	 * 改变LRU链表的状态, 并同步删除Map<PageId, Page> pageMap但是不同步加入;
-	 * @param option
-	 * 		option == 0的时候删除最少使用的元素(rear),再把现在访问的pid插入数组首部
-	 * 		option == 1的时候将现在访问的pid删除后再插入数组首部
-	 * 		option == 2的时候把现在访问的pid插入数组首部
-	 * 		option == 3的时候把指定的pid删除
-	 * 另外：LRULock是对凡是调用changeLRU的线程加锁，
-	 * 以保证所有的线程互斥地修改LRU
-	 * 仅仅有getPage（）方法使用了LRU换页策略
-	 */
-	private void changeLRU(int option, PageId pid)
-	{
-		LRULock.lock();
-		int size = this.LRU.size();
-		PageId removePid = null;
-		switch(option)
-		{
-		case 0:
-			{
-				removePid = this.LRU.get(size - 1);
-				this.LRU.remove(size - 1);
-				this.LRU.add(0, pid); 
-				this.pageMap.remove(removePid); 
-				break;
-			}
-		case 1:this.LRU.remove((Object)pid); this.LRU.add(0, pid); break;
-		case 2:this.LRU.add(0, pid); break;
-		case 3:this.LRU.remove((Object)pid); this.pageMap.remove(pid); break;
-		default: break;
-		}
-		LRULock.unlock();
-	}
 }
-
-
-
@@ -0,0 +1,177 @@
+package simpledb;
+
+/**
+ * BufferRing is a small private set of buffer pool frames a sequential scan
+ * of a large table reuses in a circle, so that reading the table does not
+ * push the working set of other transactions out of the pool. Every page the
+ * scan reads into the pool takes the next slot of the ring; the page that
+ * held the slot before is evicted first if it is still clean and nobody else
+ * used it since, see {@link BufferPool#getPage(TransactionId, PageId,
+ * Permissions, BufferRing)}.
+ * <p>
+ * Scans of HeapFiles larger than {@link #getThreshold} percent of the buffer
+ * pool, by default larger than the whole pool, use a ring of {@link #getSize}
+ * pages; this covers plain scans, the scans of a bulk {@link Delete} and the
+ * collection of {@link TableStats}.
+ * Under NO STEAL a page a Delete has dirtied cannot be evicted, so it stays
+ * in the pool when its slot is reused.
+ */
+public class BufferRing
+{
+	/**
+	 * Name of the system property that sets the number of pages of a ring,
+	 * e.g. -Dsimpledb.bufferpool.ring.pages=64; 0 disables rings.
+	 */
+	public static final String SIZE_PROPERTY = "simpledb.bufferpool.ring.pages";
+
+	/**
+	 * Name of the system property that sets the size of the tables scanned
+	 * through a ring, in percent of the buffer pool, e.g.
+	 * -Dsimpledb.bufferpool.ring.threshold=25. Scans of smaller tables read
+	 * through the pool as usual, so that a table that fits stays cached.
+	 */
+	public static final String THRESHOLD_PROPERTY = "simpledb.bufferpool.ring.threshold";
+
+	/** Ring size used when the property is not set. */
+	public static final int DEFAULT_SIZE = 32;
+
+	/** Threshold used when the property is not set. */
+	public static final int DEFAULT_THRESHOLD = 100;
+
+	// -1表示还没有读系统属性
+	private static int size = -1;
+	private static int threshold = -1;
+
+	// 环里的page, 下一个要用的位置是next
+	private final PageId[] slots;
+	private int next;
+
+	BufferRing(int pages)
+	{
+		this.slots = new PageId[pages];
+	}
+
+	/**
+	 * Returns a ring for a scan of file, or null if the scan should read
+	 * through the buffer pool as usual: rings are disabled, or the file is
+	 * not larger than the threshold. A ring takes at most a quarter of the
+	 * pool.
+	 */
+	public static BufferRing forScan(HeapFile file)
+	{
+		int pages = getSize();
+		if (pages == 0)
+			return null;
+		long capacity = Database.getBufferPool().getCapacityBytes();
+		if ((long) file.numPages() * file.getPageSize() * 100 <= capacity * getThreshold())
+			return null;
+		pages = (int) Math.min(pages, capacity / file.getPageSize() / 4);
+		return pages > 0 ? new BufferRing(pages) : null;
+	}
+
+	/**
+	 * @return the number of pages of a ring
+	 * @throws IllegalArgumentException
+	 *             if the {@link #SIZE_PROPERTY} system property is not a
+	 *             number of pages
+	 */
+	public static synchronized int getSize()
+	{
+		if (size < 0)
+			size = readProperty(SIZE_PROPERTY, DEFAULT_SIZE);
+		return size;
+	}
+
+	/**
+	 * Sets the number of pages of the rings created from now on; 0 disables
+	 * rings.
+	 */
+	public static synchronized void setSize(int pages)
+	{
+		if (pages < 0)
+			throw new IllegalArgumentException("negative ring size " + pages);
+		size = pages;
+	}
+
+	/**
+	 * @return the size, in percent of the buffer pool, above which tables are
+	 *         scanned through a ring
+	 * @throws IllegalArgumentException
+	 *             if the {@link #THRESHOLD_PROPERTY} system property is not a
+	 *             percentage
+	 */
+	public static synchronized int getThreshold()
+	{
+		if (threshold < 0)
+			threshold = readProperty(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD);
+		return threshold;
+	}
+
+	/**
+	 * Sets the size, in percent of the buffer pool, above which tables are
+	 * scanned through a ring.
+	 */
+	public static synchronized void setThreshold(int percent)
+	{
+		if (percent < 0)
+			throw new IllegalArgumentException("negative threshold " + percent);
+		threshold = percent;
+	}
+
+	private static int readProperty(String name, int defaultValue)
+	{
+		String value = System.getProperty(name);
+		if (value == null || value.trim().length() == 0)
+			return defaultValue;
+		int n;
+		try
+		{
+			n = Integer.parseInt(value.trim());
+		} catch (NumberFormatException e)
+		{
+			n = -1;
+		}
+		if (n < 0)
+			throw new IllegalArgumentException("Invalid " + name + ": " + value);
+		return n;
+	}
+
+	/**
+	 * @return the number of pages of this ring
+	 */
+	public int size()
+	{
+		return slots.length;
+	}
+
+	/**
+	 * @return the page in the slot the next page will take, or null if the
+	 *         slot is free
+	 */
+	synchronized PageId oldest()
+	{
+		return slots[next];
+	}
+
+	/**
+	 * Frees the slot the next page will take.
+	 *
+	 * @return the page that held the slot, or null if the slot was free
+	 */
+	synchronized PageId takeOldest()
+	{
+		PageId old = slots[next];
+		// 空出来的位置不能留着旧的pid, 不然这个page以后再进ring会被当成它换出去
+		slots[next] = null;
+		return old;
+	}
+
+	/**
+	 * Puts pid in the next slot, in place of the page that held it.
+	 */
+	synchronized void add(PageId pid)
+	{
+		slots[next] = pid;
+		next = (next + 1) % slots.length;
+	}
+}
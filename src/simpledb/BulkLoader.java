@@ -0,0 +1,959 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * BulkLoader converts a comma delimited text file into a HeapFile using all
+ * available processors. It produces exactly the file format described in
+ * HeapPage and HeapFile, with every page but the last one full.
+ * <p>
+ * The input is split into chunks of whole lines. The loader first counts the
+ * rows of every chunk in parallel, so that each chunk knows which slot of
+ * which page its first row goes to. The chunks are then parsed and encoded
+ * in parallel on a fork-join pool, each into a direct buffer holding the
+ * pages it covers, and the finished buffers are written in order with large
+ * sequential FileChannel writes. A page that straddles two chunks is encoded
+ * half by each of them and merged before it is written.
+ * <p>
+ * The loader can also write the variable length format of SlottedHeapFile
+ * ({@link #loadSlotted}). Slotted pages are filled until the next record does
+ * not fit, so rows cannot be placed before they are parsed; each chunk then
+ * simply starts a new page, and the count pass is skipped.
+ * <p>
+ * For a table clustered on a field the rows have to be written in key order
+ * ({@link #loadClustered}); input that is not in order yet is first sorted
+ * into a temporary file by an external merge sort.
+ * <p>
+ * The input format is the one of {@link HeapFileEncoder}: one tuple per line,
+ * fields separated by commas, Windows line endings and empty lines are
+ * ignored. Strings longer than Type.STRING_LEN are truncated.
+ *
+ * @see HeapFileEncoder
+ * @see SlottedPage
+ * @see SimpleDb
+ */
+public class BulkLoader
+{
+	/** Default number of input bytes parsed by one task. */
+	public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+	private static final int MAX_CHUNK_BYTES = 1 << 30;
+	// 排序的时候一个run最多在内存里放多少字节的输入
+	private static final long RUN_BYTES = 64 << 20;
+
+	private static ForkJoinPool pool;
+
+	/**
+	 * What a load did and how fast it went.
+	 */
+	public static class Stats
+	{
+		public final long rows;
+		public final int pages;
+		public final long inputBytes;
+		public final long outputBytes;
+		public final long nanos;
+
+		Stats(long rows, int pages, long inputBytes, long outputBytes, long nanos)
+		{
+			this.rows = rows;
+			this.pages = pages;
+			this.inputBytes = inputBytes;
+			this.outputBytes = outputBytes;
+			this.nanos = nanos;
+		}
+
+		/** @return rows loaded per second */
+		public double rowsPerSecond()
+		{
+			return rows * 1e9 / Math.max(1, nanos);
+		}
+
+		/** @return megabytes of input text loaded per second */
+		public double mbPerSecond()
+		{
+			return inputBytes * 1e9 / (1 << 20) / Math.max(1, nanos);
+		}
+
+		public String toString()
+		{
+			return String.format("%d rows, %d pages in %.2f s: %.0f rows/sec, %.1f MB/sec",
+					rows, pages, nanos / 1e9, rowsPerSecond(), mbPerSecond());
+		}
+	}
+
+	/** One chunk of whole lines of the input file, [start, end). */
+	private static class Chunk
+	{
+		final long start;
+		final long end;
+		// 第一行在整个表里的行号
+		long firstRow;
+		long rows;
+
+		Chunk(long start, long end)
+		{
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/** The pages a chunk covers, encoded into a direct buffer. */
+	private static class Encoded
+	{
+		final int firstPage;
+		final int numPages;
+		final long rows;
+		final ByteBuffer buf;
+
+		Encoded(int firstPage, int numPages, long rows, ByteBuffer buf)
+		{
+			this.firstPage = firstPage;
+			this.numPages = numPages;
+			this.rows = rows;
+			this.buf = buf;
+		}
+	}
+
+	private static synchronized ForkJoinPool getPool()
+	{
+		if (pool == null)
+			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return pool;
+	}
+
+	private final File inFile;
+	private final File outFile;
+	private final int pageSize;
+	private final Type[] typeAr;
+	private final int chunkBytes;
+	// 写SlottedPage格式还是HeapPage格式
+	private final boolean slotted;
+
+	private final int recordSize;
+	private final int numSlots;
+	private final int headerSize;
+
+	// 可以重复使用的direct buffer
+	private final ArrayBlockingQueue<ByteBuffer> buffers;
+	private final int window;
+
+	private FileChannel in;
+	// 已经写出的行数
+	private long rowsWritten;
+
+	BulkLoader(File inFile, File outFile, int pageSize, Type[] typeAr, int chunkBytes,
+			boolean slotted)
+	{
+		this.inFile = inFile;
+		this.outFile = outFile;
+		this.pageSize = pageSize;
+		this.typeAr = typeAr;
+		// 一个chunk要整块映射进来, 不能超过MappedByteBuffer的上限
+		this.chunkBytes = Math.max(1, Math.min(chunkBytes, MAX_CHUNK_BYTES));
+
+		int size = 0;
+		for (Type t : typeAr)
+			size += t.getLen();
+		this.recordSize = size;
+		this.numSlots = (pageSize * 8) / (size * 8 + 1);
+		this.headerSize = (numSlots + 7) / 8;
+		this.slotted = slotted;
+		if (slotted && SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE
+				+ SlottedPage.maxRecordSize(new TupleDesc(typeAr)) > pageSize)
+			throw new IllegalArgumentException("rows do not fit on a page of "
+					+ pageSize + " bytes");
+		// 同时在编码的chunk数, 也就是最多占用的direct buffer数
+		this.window = 2 * getPool().getParallelism();
+		this.buffers = new ArrayBlockingQueue<ByteBuffer>(window);
+	}
+
+	/**
+	 * Loads the specified input text file into a new heap file, replacing
+	 * outFile if it exists.
+	 *
+	 * @param inFile
+	 *            The input file to read data from
+	 * @param outFile
+	 *            The output file to write data to
+	 * @param npagebytes
+	 *            The number of bytes per page in the output file
+	 * @param typeAr
+	 *            the type of each field of the input lines
+	 * @return the number of rows loaded and the throughput of the load
+	 * @throws IOException
+	 *             if the input/output file can't be opened or a malformed
+	 *             input line is encountered
+	 */
+	public static Stats load(File inFile, File outFile, int npagebytes, Type[] typeAr)
+			throws IOException
+	{
+		return load(inFile, outFile, npagebytes, typeAr, DEFAULT_CHUNK_BYTES);
+	}
+
+	/**
+	 * Like {@link #load(File, File, int, Type[])}, but lets each task parse
+	 * about chunkBytes (at most 1GB) of input. A chunk size at least as large
+	 * as the input loads the file on a single thread.
+	 */
+	public static Stats load(File inFile, File outFile, int npagebytes, Type[] typeAr,
+			int chunkBytes) throws IOException
+	{
+		return new BulkLoader(inFile, outFile, npagebytes, typeAr, chunkBytes, false).run();
+	}
+
+	/**
+	 * Like {@link #load(File, File, int, Type[])}, but writes the pages of a
+	 * {@link SlottedHeapFile}, where string fields only take as many bytes as
+	 * they are long.
+	 */
+	public static Stats loadSlotted(File inFile, File outFile, int npagebytes,
+			Type[] typeAr) throws IOException
+	{
+		return loadSlotted(inFile, outFile, npagebytes, typeAr, DEFAULT_CHUNK_BYTES);
+	}
+
+	static Stats loadSlotted(File inFile, File outFile, int npagebytes, Type[] typeAr,
+			int chunkBytes) throws IOException
+	{
+		return new BulkLoader(inFile, outFile, npagebytes, typeAr, chunkBytes, true).run();
+	}
+
+	/**
+	 * Like {@link #load(File, File, int, Type[])}, but writes the rows in
+	 * ascending order of the INT field keyField, as a table clustered on that
+	 * field expects ({@link HeapFile#setClusterField}); rows with equal keys
+	 * keep their input order. Input that is already in order, such as the
+	 * rows of a log, is loaded as it is. Otherwise it is sorted first, in runs
+	 * of up to 64MB of text that are merged into a temporary file next to the
+	 * output; the time of the sort is part of the returned throughput.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if keyField is not an INT field
+	 */
+	public static Stats loadClustered(File inFile, File outFile, int npagebytes,
+			Type[] typeAr, int keyField) throws IOException
+	{
+		return loadClustered(inFile, outFile, npagebytes, typeAr, keyField, RUN_BYTES);
+	}
+
+	static Stats loadClustered(File inFile, File outFile, int npagebytes, Type[] typeAr,
+			int keyField, long runBytes) throws IOException
+	{
+		if (keyField < 0 || keyField >= typeAr.length || typeAr[keyField] != Type.INT_TYPE)
+			throw new IllegalArgumentException("cannot cluster on field " + keyField);
+		long begin = System.nanoTime();
+		File sorted = sortByKey(inFile, keyField, outFile.getAbsoluteFile().getParentFile(),
+				runBytes);
+		try
+		{
+			Stats stats = load(sorted, outFile, npagebytes, typeAr);
+			return new Stats(stats.rows, stats.pages, inFile.length(), stats.outputBytes,
+					System.nanoTime() - begin);
+		} finally
+		{
+			if (sorted != inFile)
+				sorted.delete();
+		}
+	}
+
+	/** A line of the input and its key. */
+	private static class Line
+	{
+		final int key;
+		// 相同的key按seq排, 保持输入的顺序
+		final long seq;
+		final String text;
+
+		Line(int key, long seq, String text)
+		{
+			this.key = key;
+			this.seq = seq;
+			this.text = text;
+		}
+	}
+
+	private static final Comparator<Line> BY_KEY = new Comparator<Line>()
+	{
+		public int compare(Line a, Line b)
+		{
+			if (a.key != b.key)
+				return a.key < b.key ? -1 : 1;
+			return a.seq < b.seq ? -1 : (a.seq > b.seq ? 1 : 0);
+		}
+	};
+
+	/**
+	 * @return the next non-empty line of r with its key, or null at the end
+	 */
+	private static Line readLine(BufferedReader r, int keyField, long seq)
+			throws IOException
+	{
+		String s;
+		while ((s = r.readLine()) != null)
+		{
+			if (s.endsWith("\r"))
+				s = s.substring(0, s.length() - 1);
+			if (s.trim().length() == 0)
+				continue;
+			String[] fields = s.split(",", -1);
+			if (fields.length <= keyField)
+				throw malformed(seq, "too few fields");
+			try
+			{
+				return new Line(Integer.parseInt(fields[keyField].trim()), seq, s);
+			} catch (NumberFormatException e)
+			{
+				throw malformed(seq, "bad integer");
+			}
+		}
+		return null;
+	}
+
+	// 按字节读写, 字符串的内容原样保留
+	private static BufferedReader reader(File f) throws IOException
+	{
+		return new BufferedReader(new InputStreamReader(new FileInputStream(f), "ISO-8859-1"));
+	}
+
+	private static BufferedWriter writer(File f) throws IOException
+	{
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), "ISO-8859-1"));
+	}
+
+	/**
+	 * Returns a file with the lines of inFile in ascending order of their INT
+	 * field keyField: inFile itself if it is in order already, otherwise a
+	 * temporary file in dir that the caller deletes. Runs of about runBytes of
+	 * input are sorted in memory.
+	 */
+	private static File sortByKey(File inFile, int keyField, File dir, long runBytes)
+			throws IOException
+	{
+		BufferedReader r = reader(inFile);
+		try
+		{
+			boolean sorted = true;
+			long seq = 0;
+			Line previous = null;
+			Line l;
+			while (sorted && (l = readLine(r, keyField, seq++)) != null)
+			{
+				sorted = previous == null || previous.key <= l.key;
+				previous = l;
+			}
+			if (sorted)
+				return inFile;
+		} finally
+		{
+			r.close();
+		}
+
+		// 分段在内存里排序写到run文件里, 再归并
+		ArrayList<File> runs = new ArrayList<File>();
+		try
+		{
+			r = reader(inFile);
+			try
+			{
+				ArrayList<Line> run = new ArrayList<Line>();
+				long bytes = 0;
+				long seq = 0;
+				Line l;
+				while ((l = readLine(r, keyField, seq++)) != null)
+				{
+					run.add(l);
+					bytes += l.text.length() + 1;
+					if (bytes >= runBytes)
+					{
+						runs.add(writeRun(run, dir));
+						run.clear();
+						bytes = 0;
+					}
+				}
+				if (!run.isEmpty())
+					runs.add(writeRun(run, dir));
+			} finally
+			{
+				r.close();
+			}
+			if (runs.size() == 1)
+				return runs.remove(0);
+			return merge(runs, keyField, dir);
+		} finally
+		{
+			for (File f : runs)
+				f.delete();
+		}
+	}
+
+	private static File writeRun(ArrayList<Line> run, File dir) throws IOException
+	{
+		Collections.sort(run, BY_KEY);
+		File f = File.createTempFile("run", ".txt", dir);
+		f.deleteOnExit();
+		BufferedWriter w = writer(f);
+		try
+		{
+			for (Line l : run)
+			{
+				w.write(l.text);
+				w.write('\n');
+			}
+		} finally
+		{
+			w.close();
+		}
+		return f;
+	}
+
+	/**
+	 * Merges sorted runs into a temporary file; lines with equal keys are
+	 * taken from earlier runs first.
+	 */
+	private static File merge(ArrayList<File> runs, int keyField, File dir) throws IOException
+	{
+		File out = File.createTempFile("sorted", ".txt", dir);
+		out.deleteOnExit();
+		BufferedReader[] readers = new BufferedReader[runs.size()];
+		BufferedWriter w = writer(out);
+		try
+		{
+			// 每个run在堆里最多有一行, seq是run的编号
+			PriorityQueue<Line> heap = new PriorityQueue<Line>(Math.max(1, runs.size()), BY_KEY);
+			for (int i = 0; i < readers.length; i++)
+			{
+				readers[i] = reader(runs.get(i));
+				Line l = readLine(readers[i], keyField, i);
+				if (l != null)
+					heap.add(l);
+			}
+			while (!heap.isEmpty())
+			{
+				Line l = heap.poll();
+				w.write(l.text);
+				w.write('\n');
+				int run = (int) l.seq;
+				Line next = readLine(readers[run], keyField, run);
+				if (next != null)
+					heap.add(next);
+			}
+		} finally
+		{
+			w.close();
+			for (BufferedReader reader : readers)
+			{
+				if (reader != null)
+					reader.close();
+			}
+		}
+		return out;
+	}
+
+	private Stats run() throws IOException
+	{
+		long begin = System.nanoTime();
+		RandomAccessFile inRaf = new RandomAccessFile(inFile, "r");
+		RandomAccessFile outRaf = new RandomAccessFile(outFile, "rw");
+		// 原来的zone map对新的内容不再有效
+		ZoneMap.discard(outFile);
+		try
+		{
+			this.in = inRaf.getChannel();
+			FileChannel out = outRaf.getChannel();
+			out.truncate(0);
+
+			ArrayList<Chunk> chunks = split();
+			if (!slotted)
+			{
+				// 第一遍: 并行数每个chunk有多少行, 算出每个chunk第一行的行号
+				invoke(new CountTask(chunks, 0, chunks.size()));
+				long rows = 0;
+				for (Chunk c : chunks)
+				{
+					c.firstRow = rows;
+					rows += c.rows;
+				}
+			}
+
+			// 第二遍: 并行编码, 按顺序写出
+			int pages = write(chunks, out);
+			if (pages == 0)
+			{
+				// 空表也要有一个空page
+				ByteBuffer empty = ByteBuffer.allocate(pageSize);
+				while (empty.hasRemaining())
+					out.write(empty);
+				pages = 1;
+			}
+			out.force(false);
+			return new Stats(rowsWritten, pages, in.size(), (long) pages * pageSize,
+					System.nanoTime() - begin);
+		} finally
+		{
+			this.in = null;
+			inRaf.close();
+			outRaf.close();
+		}
+	}
+
+	/**
+	 * Splits the input into chunks of about chunkBytes that start at the
+	 * beginning of a line.
+	 */
+	private ArrayList<Chunk> split() throws IOException
+	{
+		long size = in.size();
+		ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+		ByteBuffer probe = ByteBuffer.allocate(256);
+		long start = 0;
+		while (start < size)
+		{
+			long end = Math.min(size, start + chunkBytes);
+			// 往后找到下一个换行符, chunk在它后面结束
+			while (end < size)
+			{
+				probe.clear();
+				int n = in.read(probe, end);
+				int i = 0;
+				while (i < n && probe.get(i) != '\n')
+					i++;
+				end += i;
+				if (i < n)
+				{
+					end++;
+					break;
+				}
+			}
+			chunks.add(new Chunk(start, end));
+			start = end;
+		}
+		return chunks;
+	}
+
+	private MappedByteBuffer map(Chunk c) throws IOException
+	{
+		return in.map(FileChannel.MapMode.READ_ONLY, c.start, c.end - c.start);
+	}
+
+	private <T> T invoke(ForkJoinTask<T> task) throws IOException
+	{
+		try
+		{
+			return getPool().invoke(task);
+		} catch (RuntimeException e)
+		{
+			throw unwrap(e);
+		}
+	}
+
+	/**
+	 * Digs the IOException a task failed with out of the exceptions the
+	 * fork-join framework wraps it in.
+	 */
+	private static RuntimeException unwrap(RuntimeException e) throws IOException
+	{
+		for (Throwable t = e; t != null; t = t.getCause())
+		{
+			if (t instanceof IOException)
+				throw (IOException) t;
+		}
+		return e;
+	}
+
+	/** Counts the rows of a range of chunks, splitting the range in half. */
+	private class CountTask extends RecursiveTask<Void>
+	{
+		private static final long serialVersionUID = 1L;
+		private final ArrayList<Chunk> chunks;
+		private final int lo;
+		private final int hi;
+
+		CountTask(ArrayList<Chunk> chunks, int lo, int hi)
+		{
+			this.chunks = chunks;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected Void compute()
+		{
+			if (hi - lo > 1)
+			{
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new CountTask(chunks, lo, mid), new CountTask(chunks, mid, hi));
+				return null;
+			}
+			for (int i = lo; i < hi; i++)
+			{
+				Chunk c = chunks.get(i);
+				try
+				{
+					c.rows = countRows(map(c));
+				} catch (IOException e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Counts the lines that hold a tuple, i.e. that contain anything besides
+	 * '\r'.
+	 */
+	static long countRows(ByteBuffer text)
+	{
+		long rows = 0;
+		boolean empty = true;
+		int end = text.limit();
+		for (int i = text.position(); i < end; i++)
+		{
+			byte b = text.get(i);
+			if (b == '\n')
+			{
+				if (!empty)
+					rows++;
+				empty = true;
+			} else if (b != '\r')
+				empty = false;
+		}
+		if (!empty)
+			rows++;
+		return rows;
+	}
+
+	/** Parses and encodes the rows of one chunk. */
+	private class EncodeTask extends RecursiveTask<Encoded>
+	{
+		private static final long serialVersionUID = 1L;
+		private final Chunk chunk;
+
+		EncodeTask(Chunk chunk)
+		{
+			this.chunk = chunk;
+		}
+
+		protected Encoded compute()
+		{
+			try
+			{
+				return encode(chunk);
+			} catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Submits the encode tasks, at most window at a time, and writes their
+	 * pages to out in order.
+	 *
+	 * @return the number of pages written
+	 */
+	private int write(ArrayList<Chunk> chunks, FileChannel out) throws IOException
+	{
+		ArrayList<ForkJoinTask<Encoded>> tasks = new ArrayList<ForkJoinTask<Encoded>>();
+		ForkJoinPool fj = getPool();
+		int submitted = 0;
+		int written = 0;
+		// 上一个chunk最后一个没写满的page, 等下一个chunk把剩下的slot填上再写
+		byte[] tail = null;
+		int tailPage = -1;
+		try
+		{
+			for (int i = 0; i < chunks.size(); i++)
+			{
+				while (submitted < chunks.size() && submitted < i + window)
+					tasks.add(fj.submit(new EncodeTask(chunks.get(submitted++))));
+				Encoded e = join(tasks.get(i));
+				tasks.set(i, null);
+				if (e == null)
+					continue;
+
+				ByteBuffer buf = e.buf;
+				rowsWritten += e.rows;
+				if (tail != null)
+				{
+					if (tailPage == e.firstPage)
+					{
+						for (int b = 0; b < pageSize; b++)
+							buf.put(b, (byte) (buf.get(b) | tail[b]));
+					} else
+					{
+						written += writeFully(out, ByteBuffer.wrap(tail));
+					}
+					tail = null;
+				}
+				Chunk c = chunks.get(i);
+				int count = e.numPages;
+				if (!slotted && (c.firstRow + c.rows) % numSlots != 0)
+				{
+					// 最后一个page没写满, 留到下一个chunk
+					tail = new byte[pageSize];
+					buf.position((count - 1) * pageSize);
+					buf.get(tail);
+					tailPage = e.firstPage + count - 1;
+					count--;
+				}
+				buf.clear();
+				buf.limit(count * pageSize);
+				written += writeFully(out, buf);
+				buffers.offer(buf);
+			}
+			if (tail != null)
+				written += writeFully(out, ByteBuffer.wrap(tail));
+		} finally
+		{
+			for (ForkJoinTask<Encoded> t : tasks)
+			{
+				if (t != null)
+					t.cancel(false);
+			}
+		}
+		return written;
+	}
+
+	private Encoded join(ForkJoinTask<Encoded> task) throws IOException
+	{
+		try
+		{
+			return task.join();
+		} catch (RuntimeException e)
+		{
+			throw unwrap(e);
+		}
+	}
+
+	/** @return the number of pages written */
+	private int writeFully(FileChannel out, ByteBuffer buf) throws IOException
+	{
+		int pages = buf.remaining() / pageSize;
+		while (buf.hasRemaining())
+			out.write(buf);
+		return pages;
+	}
+
+	/**
+	 * Encodes the rows of a chunk into the pages they belong to. The first
+	 * and last page may be shared with the neighbouring chunks; slots that
+	 * belong to other chunks are left zero.
+	 *
+	 * @return the encoded pages, or null if the chunk has no rows
+	 */
+	private Encoded encode(Chunk c) throws IOException
+	{
+		if (slotted)
+			return encodeSlotted(c);
+		if (c.rows == 0)
+			return null;
+		long lastRow = c.firstRow + c.rows - 1;
+		int firstPage = (int) (c.firstRow / numSlots);
+		int numPages = (int) (lastRow / numSlots) - firstPage + 1;
+
+		int need = numPages * pageSize;
+		ByteBuffer buf = buffers.poll();
+		if (buf == null || buf.capacity() < need)
+			buf = ByteBuffer.allocateDirect(need);
+		buf.clear();
+		buf.limit(need);
+		// 重复使用的buffer要先清零
+		zero(buf, 0, need);
+
+		ByteBuffer text = map(c);
+		long row = c.firstRow;
+		int pos = 0;
+		int end = text.limit();
+		while (pos < end)
+		{
+			int eol = pos;
+			boolean empty = true;
+			while (eol < end && text.get(eol) != '\n')
+			{
+				if (text.get(eol) != '\r')
+					empty = false;
+				eol++;
+			}
+			if (!empty)
+			{
+				int pg = (int) (row / numSlots) - firstPage;
+				int slot = (int) (row % numSlots);
+				int pageStart = pg * pageSize;
+				int header = pageStart + slot / 8;
+				buf.put(header, (byte) (buf.get(header) | (1 << (slot % 8))));
+				encodeLine(text, pos, eol, buf, pageStart + headerSize + slot * recordSize, row);
+				row++;
+			}
+			pos = eol + 1;
+		}
+		return new Encoded(firstPage, numPages, c.rows, buf);
+	}
+
+	private static void zero(ByteBuffer buf, int from, int to)
+	{
+		int i = from;
+		for (; i + 8 <= to; i += 8)
+			buf.putLong(i, 0L);
+		for (; i < to; i++)
+			buf.put(i, (byte) 0);
+	}
+
+	/**
+	 * Encodes the rows of a chunk into slotted pages of its own, appending a
+	 * page whenever the next record does not fit.
+	 *
+	 * @return the encoded pages, or null if the chunk has no rows
+	 */
+	private Encoded encodeSlotted(Chunk c) throws IOException
+	{
+		// 编码后的大小和文本差不多, 不够的时候再扩大
+		int capacity = (int) Math.min(Integer.MAX_VALUE - pageSize,
+				(c.end - c.start + pageSize - 1) / pageSize * pageSize) + pageSize;
+		ByteBuffer buf = buffers.poll();
+		if (buf == null || buf.capacity() < capacity)
+			buf = ByteBuffer.allocateDirect(capacity);
+		buf.clear();
+		zero(buf, 0, pageSize);
+		ByteBuffer record = ByteBuffer.allocate(SlottedPage.maxRecordSize(new TupleDesc(typeAr)));
+
+		ByteBuffer text = map(c);
+		long rows = 0;
+		int numPages = 1;
+		int pos = 0;
+		int end = text.limit();
+		while (pos < end)
+		{
+			int eol = pos;
+			boolean empty = true;
+			while (eol < end && text.get(eol) != '\n')
+			{
+				if (text.get(eol) != '\r')
+					empty = false;
+				eol++;
+			}
+			if (!empty)
+			{
+				record.clear();
+				record.limit(encodeLine(text, pos, eol, record, 0, rows));
+				if (!SlottedPage.append(buf, (numPages - 1) * pageSize, pageSize, record))
+				{
+					// 这一页放不下了, 开始新的一页
+					if (buf.capacity() < (numPages + 1) * pageSize)
+					{
+						ByteBuffer bigger = ByteBuffer.allocateDirect(buf.capacity() * 2);
+						buf.clear();
+						buf.limit(numPages * pageSize);
+						bigger.put(buf);
+						buf = bigger;
+					}
+					zero(buf, numPages * pageSize, (numPages + 1) * pageSize);
+					SlottedPage.append(buf, numPages * pageSize, pageSize, record);
+					numPages++;
+				}
+				rows++;
+			}
+			pos = eol + 1;
+		}
+		if (rows == 0)
+		{
+			buffers.offer(buf);
+			return null;
+		}
+		buf.clear();
+		buf.limit(numPages * pageSize);
+		return new Encoded(-1, numPages, rows, buf);
+	}
+
+	/**
+	 * Parses the line text[from, to) and writes its fields at offset off of
+	 * buf, in the fixed or the slotted record format.
+	 *
+	 * @return the offset after the last field
+	 */
+	private int encodeLine(ByteBuffer text, int from, int to, ByteBuffer buf,
+			int off, long row) throws IOException
+	{
+		int field = 0;
+		int start = from;
+		for (int i = from; i <= to; i++)
+		{
+			if (i < to && text.get(i) != ',')
+				continue;
+			if (field >= typeAr.length)
+				throw malformed(row, "more than " + typeAr.length + " fields");
+			// 去掉前后的空白(包括'\r')
+			int s = start;
+			int e = i;
+			while (s < e && (text.get(s) & 0xFF) <= ' ')
+				s++;
+			while (e > s && (text.get(e - 1) & 0xFF) <= ' ')
+				e--;
+			if (typeAr[field] == Type.INT_TYPE)
+			{
+				buf.putInt(off, parseInt(text, s, e, row));
+				off += 4;
+			} else
+			{
+				int len = Math.min(e - s, Type.STRING_LEN);
+				// 定长格式: 4字节长度+STRING_LEN字节; slotted格式: 2字节长度+字符串
+				int lenBytes = slotted ? 2 : 4;
+				if (slotted)
+					buf.putShort(off, (short) len);
+				else
+					buf.putInt(off, len);
+				for (int j = 0; j < len; j++)
+					buf.put(off + lenBytes + j, text.get(s + j));
+				off += slotted ? lenBytes + len : typeAr[field].getLen();
+			}
+			field++;
+			start = i + 1;
+		}
+		if (field < typeAr.length)
+			throw malformed(row, "only " + field + " fields");
+		return off;
+	}
+
+	private static int parseInt(ByteBuffer text, int s, int e, long row) throws IOException
+	{
+		boolean negative = false;
+		if (s < e && (text.get(s) == '-' || text.get(s) == '+'))
+		{
+			negative = text.get(s) == '-';
+			s++;
+		}
+		if (s == e)
+			throw malformed(row, "missing integer");
+		long v = 0;
+		for (int i = s; i < e; i++)
+		{
+			int d = text.get(i) - '0';
+			if (d < 0 || d > 9)
+				throw malformed(row, "bad integer");
+			v = v * 10 + d;
+			if (v > (long) Integer.MAX_VALUE + 1)
+				throw malformed(row, "integer out of range");
+		}
+		if (negative)
+			v = -v;
+		if (v > Integer.MAX_VALUE)
+			throw malformed(row, "integer out of range");
+		return (int) v;
+	}
+
+	private static IOException malformed(long row, String why)
+	{
+		return new IOException("malformed input row " + row + ": " + why);
+	}
+}
@@ -16,6 +16,8 @@ import java.util.*;
 public class Catalog
 {
 	private Map<Integer, TableItem> cataMap;
+	// 每个表上的索引, key是表的id
+	private Map<Integer, ArrayList<IndexFile>> indexes;
 
 	public static class TableItem
 	{
@@ -52,6 +54,7 @@ public class Catalog
 	public Catalog()
 	{
 		this.cataMap = new HashMap<Integer, TableItem>();
+		this.indexes = new HashMap<Integer, ArrayList<IndexFile>>();
 	}
 
 	/**
@@ -91,6 +94,45 @@ public class Catalog
 		addTable(file, name, "");
 	}
 
+	/**
+	 * Adds an index to the catalog, under the given name, and builds it from
+	 * the tuples of its table if it is empty. From then on the BufferPool
+	 * keeps the index up to date as tuples are inserted into and deleted from
+	 * the table, and the optimizer may scan the table through it. The table
+	 * must already be in the catalog and be stored in a {@link HeapFile}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the table is not stored in a HeapFile
+	 * @see IndexScan
+	 */
+	public void addIndex(IndexFile index, String name) throws IOException
+	{
+		int tableId = index.getTableId();
+		if (!(getDbFile(tableId) instanceof HeapFile))
+			throw new IllegalArgumentException("cannot index table "
+					+ getTableName(tableId) + ": not a heap file");
+		addTable(index, name);
+		ArrayList<IndexFile> list = indexes.get(tableId);
+		if (list == null)
+		{
+			list = new ArrayList<IndexFile>();
+			indexes.put(tableId, list);
+		}
+		list.add(index);
+		index.build();
+	}
+
+	/**
+	 * @return the indexes of the specified table; empty if it has none
+	 */
+	public List<IndexFile> getIndexes(int tableid)
+	{
+		ArrayList<IndexFile> list = indexes.get(tableid);
+		if (list == null)
+			return Collections.emptyList();
+		return list;
+	}
+
 	/**
 	 * Add a new table to the catalog. This table has tuples formatted using the
 	 * specified TupleDesc and its contents are stored in the specified DbFile.
@@ -158,10 +200,15 @@ public class Catalog
 			throw new NoSuchElementException();
 	}
 
-	/** Delete all tables from the catalog */
+	/** Delete all tables from the catalog, closing their underlying files */
 	public void clear()
 	{
+		for (TableItem t : this.cataMap.values())
+		{
+			t.getFile().close();
+		}
 		this.cataMap.clear();
+		this.indexes.clear();
 	}
 
 	public String getPrimaryKey(int tableid) throws NoSuchElementException
@@ -188,7 +235,33 @@ public class Catalog
 
 	/**
 	 * Reads the schema from a file and creates the appropriate tables in the
-	 * database.
+	 * database. Each line has the form
+	 * <tt>name (field type [pk] [dict] [clustered], ...) [option ...]</tt>,
+	 * where <tt>dict</tt> marks a string field of a <tt>columnar</tt> table to
+	 * be dictionary encoded and <tt>clustered</tt> the INT field the table is
+	 * kept in order of ({@link HeapFile#setClusterField}), which cannot be
+	 * combined with <tt>slotted</tt> or <tt>columnar</tt>; the supported
+	 * storage options are:
+	 * <ul>
+	 * <li><tt>mmap</tt> -- read the table through a {@link MappedHeapFile}</li>
+	 * <li><tt>slotted</tt> -- store variable length records in a
+	 * {@link SlottedHeapFile}; cannot be combined with <tt>mmap</tt></li>
+	 * <li><tt>compressed</tt> -- store the pages compressed in a
+	 * {@link CompressedHeapFile}; cannot be combined with <tt>mmap</tt> or
+	 * <tt>slotted</tt></li>
+	 * <li><tt>columnar</tt> -- store each column separately in a
+	 * {@link ColumnFile}; cannot be combined with the options above</li>
+	 * <li><tt>pagesize=</tt><i>size</i> -- store the table in pages of the
+	 * given size, e.g. <tt>pagesize=16k</tt>; a power of two between
+	 * BufferPool.PAGE_SIZE (the default) and BufferPool.MAX_PAGE_SIZE</li>
+	 * </ul>
+	 * A line of the form
+	 * <tt>index name on table (field) [btree|hash] [include (field, ...)]</tt>
+	 * declares a {@link BTreeFile} (the default) or {@link HashFile} index,
+	 * stored in <i>name</i><tt>.idx</tt>, over an INT field of a table declared
+	 * above it that is not columnar. The entries of the index carry the
+	 * included fields as well, so that queries that need no other field of
+	 * the table are answered from the index alone.
 	 * 
 	 * @param catalogFile
 	 */
@@ -202,6 +275,11 @@ public class Catalog
 
 			while ((line = br.readLine()) != null)
 			{
+				if (line.trim().toLowerCase().startsWith("index "))
+				{
+					loadIndex(line.trim());
+					continue;
+				}
 				// assume line is of the format name (field type, field type,
 				// ...)
 				String name = line.substring(0, line.indexOf("(")).trim();
@@ -212,6 +290,11 @@ public class Catalog
 				ArrayList<String> names = new ArrayList<String>();
 				ArrayList<Type> types = new ArrayList<Type>();
 				String primaryKey = "";
+				// 标了dict的字段
+				ArrayList<Boolean> dictionary = new ArrayList<Boolean>();
+				boolean anyDictionary = false;
+				// 标了clustered的字段
+				int clusterField = -1;
 				for (String e : els)
 				{
 					String[] els2 = e.trim().split(" ");
@@ -225,21 +308,117 @@ public class Catalog
 						System.out.println("Unknown type " + els2[1]);
 						System.exit(0);
 					}
-					if (els2.length == 3)
+					boolean dict = false;
+					for (int a = 2; a < els2.length; a++)
 					{
-						if (els2[2].trim().equals("pk"))
+						if (els2[a].trim().equals("pk"))
 							primaryKey = els2[0].trim();
+						else if (els2[a].trim().equals("dict")
+								&& types.get(types.size() - 1) == Type.STRING_TYPE)
+							dict = true;
+						else if (els2[a].trim().equals("clustered")
+								&& types.get(types.size() - 1) == Type.INT_TYPE
+								&& clusterField < 0)
+							clusterField = types.size() - 1;
 						else
 						{
-							System.out.println("Unknown annotation " + els2[2]);
+							System.out.println("Unknown annotation " + els2[a]);
 							System.exit(0);
 						}
 					}
+					dictionary.add(dict);
+					anyDictionary |= dict;
 				}
 				Type[] typeAr = types.toArray(new Type[0]);
 				String[] namesAr = names.toArray(new String[0]);
 				TupleDesc t = new TupleDesc(typeAr, namesAr);
-				HeapFile tabHf = new HeapFile(new File(name + ".dat"), t);
+				// 右括号后面是可选的存储选项, 比如 "mmap pagesize=16k"
+				boolean mapped = false;
+				boolean slotted = false;
+				boolean compressed = false;
+				boolean columnar = false;
+				int pageSize = BufferPool.PAGE_SIZE;
+				String options = line.substring(line.indexOf(")") + 1).trim();
+				for (String opt : options.split("\\s+"))
+				{
+					if (opt.length() == 0)
+						continue;
+					if (opt.toLowerCase().equals("mmap"))
+						mapped = true;
+					else if (opt.toLowerCase().equals("slotted"))
+						slotted = true;
+					else if (opt.toLowerCase().equals("compressed"))
+						compressed = true;
+					else if (opt.toLowerCase().equals("columnar"))
+						columnar = true;
+					else if (opt.toLowerCase().startsWith("pagesize="))
+					{
+						long size = -1;
+						try
+						{
+							size = BufferPool.parseSize(opt.substring("pagesize=".length()));
+						} catch (NumberFormatException e)
+						{
+						}
+						if (!BufferPool.isValidPageSize(size))
+						{
+							System.out.println("Invalid page size " + opt);
+							System.exit(0);
+						}
+						pageSize = (int) size;
+					}
+					else
+					{
+						System.out.println("Unknown table option " + opt);
+						System.exit(0);
+					}
+				}
+				if (mapped && slotted)
+				{
+					System.out.println("Table " + name + " cannot be both mmap and slotted");
+					System.exit(0);
+				}
+				if (compressed && (mapped || slotted))
+				{
+					System.out.println("Table " + name
+							+ " cannot be compressed and mmap or slotted");
+					System.exit(0);
+				}
+				if (columnar && (mapped || slotted || compressed))
+				{
+					System.out.println("Table " + name
+							+ " cannot be columnar and mmap, slotted or compressed");
+					System.exit(0);
+				}
+				if (clusterField >= 0 && (columnar || slotted))
+				{
+					System.out.println("Table " + name
+							+ " cannot be clustered and columnar or slotted");
+					System.exit(0);
+				}
+				if (anyDictionary && !columnar)
+				{
+					System.out.println("Table " + name
+							+ " must be columnar to dictionary encode fields");
+					System.exit(0);
+				}
+				boolean[] dictAr = new boolean[dictionary.size()];
+				for (int i = 0; i < dictAr.length; i++)
+					dictAr[i] = dictionary.get(i);
+				File dataFile = new File(name + ".dat");
+				DbFile tabHf;
+				if (columnar)
+					tabHf = new ColumnFile(dataFile, t, pageSize, dictAr);
+				else if (mapped)
+					tabHf = new MappedHeapFile(dataFile, t, pageSize);
+				else if (slotted)
+					tabHf = new SlottedHeapFile(dataFile, t, pageSize);
+				else if (compressed)
+					tabHf = new CompressedHeapFile(dataFile, t, pageSize);
+				else
+					tabHf = new HeapFile(dataFile, t, pageSize);
+				if (clusterField >= 0)
+					((HeapFile) tabHf).setClusterField(clusterField);
 				addTable(tabHf, name, primaryKey);
 				System.out.println("Added table : " + name + " with schema "
 						+ t);
@@ -255,6 +434,62 @@ public class Catalog
 		}
 	}
 	
+	/**
+	 * Adds the index declared by a line of the schema file.
+	 */
+	private void loadIndex(String line) throws IOException
+	{
+		java.util.regex.Matcher m = java.util.regex.Pattern.compile(
+				"index\\s+(\\S+)\\s+on\\s+(\\S+)\\s*\\(\\s*(\\S+)\\s*\\)\\s*(\\w*)"
+						+ "\\s*(?:include\\s*\\(([^)]*)\\))?\\s*",
+				java.util.regex.Pattern.CASE_INSENSITIVE).matcher(line);
+		if (!m.matches())
+		{
+			System.out.println("Invalid index entry : " + line);
+			System.exit(0);
+		}
+		String name = m.group(1);
+		String kind = m.group(4).toLowerCase();
+		int tableId = -1;
+		int field = -1;
+		int[] included = new int[0];
+		try
+		{
+			tableId = getTableId(m.group(2));
+			field = getTupleDesc(tableId).nameToId(m.group(3));
+			if (m.group(5) != null)
+			{
+				String[] names = m.group(5).split(",");
+				included = new int[names.length];
+				for (int i = 0; i < names.length; i++)
+					included[i] = getTupleDesc(tableId).nameToId(names[i].trim());
+			}
+		} catch (NoSuchElementException e)
+		{
+			System.out.println("Unknown table or field in index entry : " + line);
+			System.exit(0);
+		}
+		DbFile table = getDbFile(tableId);
+		if (!(table instanceof HeapFile) || getTupleDesc(tableId).getType(field) != Type.INT_TYPE)
+		{
+			System.out.println("Cannot index " + m.group(2) + "." + m.group(3));
+			System.exit(0);
+		}
+		IndexFile index = null;
+		if (kind.length() == 0 || kind.equals("btree"))
+			index = new BTreeFile(new File(name + ".idx"), table, field, included);
+		else if (kind.equals("hash"))
+			index = new HashFile(new File(name + ".idx"), table, field, included);
+		else
+		{
+			System.out.println("Unknown index type " + kind);
+			System.exit(0);
+		}
+		addIndex(index, name);
+		System.out.println("Added index : " + name + " on " + m.group(2) + "("
+				+ m.group(3) + ")");
+	}
+
 	public List<TableItem> getTableItem()
 	{
 		List<TableItem> tlist = new ArrayList<TableItem>();
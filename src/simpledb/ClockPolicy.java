@@ -0,0 +1,43 @@
+package simpledb;
+
+/**
+ * ClockPolicy is the CLOCK (second chance) approximation of LRU. Using a
+ * page only sets its reference bit, so hits do not reorder anything. The
+ * hand sweeps from the cold end of the ring: a page whose bit is set gets it
+ * cleared and goes round once more, the first page without the bit is the
+ * victim.
+ */
+class ClockPolicy extends ListPolicy
+{
+	// 环: coldest()是指针指着的page, 转过去的page放到hot的一头
+	private final Queue ring = new Queue();
+
+	void admit(Node n)
+	{
+		n.referenced = true;
+		ring.addHot(n);
+	}
+
+	void hit(Node n)
+	{
+		n.referenced = true;
+	}
+
+	Queue[] queues()
+	{
+		return new Queue[] { ring };
+	}
+
+	public PageId victim()
+	{
+		// 转一圈以后所有的引用位都清掉了, 所以最多看size + 1个page
+		while (true)
+		{
+			Node n = ring.coldest();
+			if (n == null || !n.referenced)
+				return n == null ? null : n.pid;
+			n.referenced = false;
+			ring.moveToHot(n);
+		}
+	}
+}
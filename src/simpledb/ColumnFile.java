@@ -0,0 +1,545 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ColumnFile is a DbFile for analytic tables that stores each column in its
+ * own sequence of {@link ColumnPage}s, so a scan that needs two columns of a
+ * wide table reads and decodes only the pages of those two columns instead
+ * of every field of every row. {@link #iterator(TransactionId, int[])}
+ * returns such a scan; SeqScan uses it when the query planner tells it which
+ * columns the query needs.
+ * <p>
+ * Column pages are written in bulk, so new tuples first go to a row-store
+ * delta: an ordinary HeapFile in the file the ColumnFile was created with.
+ * {@link #merge} appends the delta to the column pages and empties it. A
+ * scan returns the rows of the columns first and then those of the delta.
+ * Rows of the column part are deleted by setting their bit in a deletion
+ * bitmap, which is kept as one more page sequence; their RecordIds name the
+ * bitmap page and bit.
+ * <p>
+ * String columns with few distinct values can be dictionary encoded: their
+ * pages hold 4-byte codes into a per-column {@link Dictionary}, and scans
+ * return the dictionary's shared {@link DictStringField}s, which filters and
+ * group-bys compare by code.
+ * <p>
+ * Column c is stored in the file <i>f</i><tt>.col</tt><i>c</i>, its
+ * dictionary in <i>f</i><tt>.dict</tt><i>c</i> and the bitmaps in
+ * <i>f</i><tt>.del</tt>, where <i>f</i> is the delta file. All files use the
+ * page size of the table.
+ * <p>
+ * A table is stored as a ColumnFile when its catalog entry carries the
+ * <tt>columnar</tt> option; fields marked <tt>dict</tt> are dictionary
+ * encoded.
+ *
+ * @see ColumnPage
+ * @see Catalog#loadSchema
+ */
+public class ColumnFile implements DbFile
+{
+	File f;
+	TupleDesc td;
+	final int pageSize;
+	// 新插入的tuple先放在这个行存的HeapFile里, merge的时候再写进列里
+	final HeapFile delta;
+
+	// 每一列(最后一个是删除位图)的文件和FileChannel, 第一次用的时候打开
+	private RandomAccessFile[] rafs;
+	private FileChannel[] channels;
+	// 列存部分的行数, -1表示还没有从磁盘读出来
+	private int numRows = -1;
+	// 字典编码的列的字典, 其他列为null
+	private final Dictionary[] dictionaries;
+
+	/**
+	 * Constructs a column file whose delta is stored in f.
+	 */
+	public ColumnFile(File f, TupleDesc td)
+	{
+		this(f, td, BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs a column file whose pages are pageSize bytes long.
+	 *
+	 * @see HeapFile#HeapFile(File, TupleDesc, int)
+	 */
+	public ColumnFile(File f, TupleDesc td, int pageSize)
+	{
+		this(f, td, pageSize, null);
+	}
+
+	/**
+	 * Constructs a column file whose pages are pageSize bytes long and whose
+	 * columns c with dictionary[c] set are dictionary encoded.
+	 *
+	 * @param dictionary
+	 *            which columns to encode, or null for none
+	 * @throws IllegalArgumentException
+	 *             if an encoded column is not a string column
+	 */
+	public ColumnFile(File f, TupleDesc td, int pageSize, boolean[] dictionary)
+	{
+		// delta和ColumnFile用同一个文件, 所以table id也相同,
+		// BufferPool通过catalog把delta的page交给ColumnFile读写
+		this.delta = new HeapFile(f, td, pageSize);
+		this.f = f;
+		this.td = td;
+		this.pageSize = pageSize;
+		this.rafs = new RandomAccessFile[td.numFields() + 1];
+		this.channels = new FileChannel[td.numFields() + 1];
+		this.dictionaries = new Dictionary[td.numFields()];
+		for (int c = 0; dictionary != null && c < dictionary.length; c++)
+		{
+			if (!dictionary[c])
+				continue;
+			if (td.getType(c) != Type.STRING_TYPE)
+				throw new IllegalArgumentException("column " + c + " of " + td
+						+ " is not a string column");
+			dictionaries[c] = new Dictionary(getDictionaryFile(c));
+		}
+	}
+
+	/**
+	 * Iterates over the rows of the column part and then over the delta. Only
+	 * the given columns are read; the other fields of the returned tuples are
+	 * null.
+	 */
+	class ColumnFileIterator extends AbstractDbFileIterator
+	{
+		TransactionId tid;
+		int[] columns;
+		// 下一个要读的行和列存部分的总行数
+		int row;
+		int rows;
+		// 当前用到的每一列的page和删除位图的page
+		ColumnPage[] pages;
+		ColumnPage deleted;
+		DbFileIterator deltaIt;
+
+		ColumnFileIterator(TransactionId tid, int[] columns)
+		{
+			this.tid = tid;
+			this.columns = columns;
+		}
+
+		public void open() throws DbException, TransactionAbortedException
+		{
+			this.row = 0;
+			this.rows = numRows();
+			this.pages = new ColumnPage[columns.length];
+			this.deleted = null;
+			this.deltaIt = delta.iterator(tid);
+			this.deltaIt.open();
+		}
+
+		private ColumnPage fetch(ColumnPage page, int column, int pgNo)
+				throws DbException, TransactionAbortedException
+		{
+			if (page != null && page.getId().pageno() == pgNo)
+				return page;
+			return (ColumnPage) Database.getBufferPool().getPage(tid,
+					new ColumnPageId(getId(), column, pgNo), Permissions.READ_ONLY);
+		}
+
+		protected Tuple readNext() throws DbException, TransactionAbortedException
+		{
+			if (deltaIt == null)
+				return null;
+			int bits = capacity(td.numFields());
+			while (row < rows)
+			{
+				int slot = row % bits;
+				deleted = fetch(deleted, td.numFields(), row / bits);
+				if (deleted.isDeleted(slot))
+				{
+					row++;
+					continue;
+				}
+				Tuple t = new Tuple(td);
+				for (int k = 0; k < columns.length; k++)
+				{
+					int c = columns[k];
+					int cap = capacity(c);
+					pages[k] = fetch(pages[k], c, row / cap);
+					t.setField(c, pages[k].getField(row % cap));
+				}
+				t.setRecordId(new RecordId(deleted.getId(), slot));
+				row++;
+				return t;
+			}
+			if (!deltaIt.hasNext())
+				return null;
+			Tuple t = deltaIt.next();
+			// delta里的值如果已经在字典里, 也换成字典里的field
+			for (int c = 0; c < dictionaries.length; c++)
+			{
+				if (dictionaries[c] == null)
+					continue;
+				int code = dictionaries[c].code(((StringField) t.getField(c)).getValue());
+				if (code >= 0)
+					t.setField(c, dictionaries[c].field(code));
+			}
+			return t;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException
+		{
+			this.close();
+			this.open();
+		}
+
+		public void close()
+		{
+			super.close();
+			if (deltaIt != null)
+				deltaIt.close();
+			this.deltaIt = null;
+			this.pages = null;
+			this.deleted = null;
+		}
+	}
+
+	/**
+	 * Returns the file holding the row-store delta; the column files are
+	 * named after it.
+	 */
+	public File getFile()
+	{
+		return this.f;
+	}
+
+	/**
+	 * Returns the file that stores the pages of column c, or the deletion
+	 * bitmaps if c is td.numFields().
+	 */
+	public File getColumnFile(int c)
+	{
+		if (c == td.numFields())
+			return new File(f.getPath() + ".del");
+		return new File(f.getPath() + ".col" + c);
+	}
+
+	/**
+	 * Returns the file that stores the dictionary of column c.
+	 */
+	public File getDictionaryFile(int c)
+	{
+		return new File(f.getPath() + ".dict" + c);
+	}
+
+	/**
+	 * @return the dictionary of column c, or null if c is not dictionary
+	 *         encoded
+	 */
+	public Dictionary getDictionary(int c)
+	{
+		return c < dictionaries.length ? dictionaries[c] : null;
+	}
+
+	// see DbFile.java for javadocs
+	public int getId()
+	{
+		return this.f.getAbsoluteFile().hashCode();
+	}
+
+	// see DbFile.java for javadocs
+	public TupleDesc getTupleDesc()
+	{
+		return this.td;
+	}
+
+	// see DbFile.java for javadocs
+	public int getPageSize()
+	{
+		return this.pageSize;
+	}
+
+	/**
+	 * @return the bytes a value of column c takes on its pages: 4 for a
+	 *         dictionary code, 0 for the deletion bitmap
+	 */
+	int valueSize(int c)
+	{
+		if (c == td.numFields())
+			return 0;
+		return dictionaries[c] != null ? 4 : td.getType(c).getLen();
+	}
+
+	/**
+	 * @return the number of rows a page of column c holds
+	 */
+	int capacity(int c)
+	{
+		return ColumnPage.capacity(valueSize(c), pageSize);
+	}
+
+	private synchronized FileChannel channel(int c) throws IOException
+	{
+		if (channels[c] == null || !channels[c].isOpen())
+		{
+			File file = getColumnFile(c);
+			rafs[c] = new RandomAccessFile(file, file.exists() && !file.canWrite() ? "r" : "rw");
+			channels[c] = rafs[c].getChannel();
+		}
+		return channels[c];
+	}
+
+	/**
+	 * @return the number of pages of column c
+	 */
+	public int numPages(int c)
+	{
+		long size = getColumnFile(c).length();
+		return (int) ((size + pageSize - 1) / pageSize);
+	}
+
+	/**
+	 * Returns the number of pages in all columns, the bitmaps and the delta,
+	 * i.e. the pages a scan of every column reads.
+	 */
+	public int numPages()
+	{
+		int pages = delta.numPages();
+		for (int c = 0; c <= td.numFields(); c++)
+			pages += numPages(c);
+		return pages;
+	}
+
+	/**
+	 * Returns the number of rows in the column part, deleted rows included.
+	 */
+	public synchronized int numRows()
+	{
+		if (this.numRows < 0)
+		{
+			int bitmaps = numPages(td.numFields());
+			int rows = 0;
+			if (bitmaps > 0)
+			{
+				try
+				{
+					ByteBuffer last = ByteBuffer.wrap(readColumnPage(td.numFields(), bitmaps - 1));
+					rows = (bitmaps - 1) * capacity(td.numFields()) + last.getInt(0);
+				} catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+			this.numRows = rows;
+		}
+		return this.numRows;
+	}
+
+	/**
+	 * Reads page pgNo of column c; past the end of the file the page is
+	 * padded with zeros.
+	 */
+	private byte[] readColumnPage(int c, int pgNo) throws IOException
+	{
+		FileChannel fc = channel(c);
+		long offset = (long) pgNo * pageSize;
+		byte[] page = new byte[pageSize];
+		ByteBuffer buf = ByteBuffer.wrap(page);
+		while (buf.hasRemaining())
+		{
+			if (fc.read(buf, offset + buf.position()) < 0)
+				break;
+		}
+		return page;
+	}
+
+	private void writeColumnPage(int c, int pgNo, byte[] page) throws IOException
+	{
+		FileChannel fc = channel(c);
+		ByteBuffer buf = ByteBuffer.wrap(page);
+		long offset = (long) pgNo * pageSize;
+		while (buf.hasRemaining())
+		{
+			fc.write(buf, offset + buf.position());
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid)
+	{
+		if (!(pid instanceof ColumnPageId))
+			return delta.readPage(pid);
+		ColumnPageId id = (ColumnPageId) pid;
+		try
+		{
+			return new ColumnPage(id, readColumnPage(id.column(), id.pageno()));
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		throw new IllegalArgumentException();
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException
+	{
+		if (!(page instanceof ColumnPage))
+		{
+			delta.writePage(page);
+			return;
+		}
+		ColumnPageId id = ((ColumnPage) page).getId();
+		writeColumnPage(id.column(), id.pageno(), page.getPageData());
+	}
+
+	// see DbFile.java for javadocs
+	public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException
+	{
+		return delta.addTuple(tid, t);
+	}
+
+	// see DbFile.java for javadocs
+	public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+			TransactionAbortedException
+	{
+		PageId pid = t.getRecordId().getPageId();
+		if (!(pid instanceof ColumnPageId))
+			return delta.deleteTuple(tid, t);
+		if (((ColumnPageId) pid).column() != td.numFields())
+			throw new DbException("tuple is not in " + getFile());
+		ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, pid,
+				Permissions.READ_WRITE);
+		page.delete(t.getRecordId().tupleno());
+		return page;
+	}
+
+	// see DbFile.java for javadocs
+	public DbFileIterator iterator(TransactionId tid)
+	{
+		int[] all = new int[td.numFields()];
+		for (int i = 0; i < all.length; i++)
+			all[i] = i;
+		return iterator(tid, all);
+	}
+
+	/**
+	 * Returns an iterator that reads only the given columns; the other fields
+	 * of the tuples it returns are null, except for rows still in the delta.
+	 *
+	 * @param columns
+	 *            the field indexes to read
+	 */
+	public DbFileIterator iterator(TransactionId tid, int[] columns)
+	{
+		for (int c : columns)
+		{
+			if (c < 0 || c >= td.numFields())
+				throw new IllegalArgumentException("no column " + c + " in " + td);
+		}
+		return new ColumnFileIterator(tid, columns.clone());
+	}
+
+	/**
+	 * Appends the tuples of the delta to the column pages and empties the
+	 * delta. Rows keep being scanned in the same order. Column pages are
+	 * written straight to disk, so merge must not run while a transaction is
+	 * using the table; afterwards the pages of the table are dropped from the
+	 * BufferPool.
+	 *
+	 * @return the number of tuples moved out of the delta
+	 */
+	public synchronized int merge() throws IOException
+	{
+		int numFields = td.numFields();
+		int rows = numRows();
+		// 每一列正在填的page和它的编号, 从最后一个没写满的page接着写
+		ByteBuffer[] tails = new ByteBuffer[numFields + 1];
+		int[] pgNos = new int[numFields + 1];
+		for (int c = 0; c <= numFields; c++)
+		{
+			pgNos[c] = rows / capacity(c);
+			tails[c] = ByteBuffer.wrap(readColumnPage(c, pgNos[c]));
+			tails[c].putInt(0, rows % capacity(c));
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(Type.STRING_TYPE.getLen());
+		DataOutputStream out = new DataOutputStream(bytes);
+		int merged = 0;
+		int deltaPages = delta.numPages();
+		for (int pg = 0; pg < deltaPages; pg++)
+		{
+			HeapPage page = (HeapPage) delta.readPage(new HeapPageId(getId(), pg));
+			Iterator<Tuple> it = page.iterator();
+			while (it.hasNext())
+			{
+				Tuple t = it.next();
+				for (int c = 0; c <= numFields; c++)
+				{
+					int n = tails[c].getInt(0);
+					if (n == capacity(c))
+					{
+						// 这一页写满了, 换下一页
+						writeColumnPage(c, pgNos[c]++, tails[c].array());
+						tails[c] = ByteBuffer.wrap(new byte[pageSize]);
+						n = 0;
+					}
+					if (c < numFields && dictionaries[c] != null)
+					{
+						int code = dictionaries[c].add(((StringField) t.getField(c)).getValue());
+						tails[c].putInt(ColumnPage.HEADER_SIZE + n * 4, code);
+					} else if (c < numFields)
+					{
+						bytes.reset();
+						t.getField(c).serialize(out);
+						out.flush();
+						int len = td.getType(c).getLen();
+						System.arraycopy(bytes.toByteArray(), 0, tails[c].array(),
+								ColumnPage.HEADER_SIZE + n * len, len);
+					}
+					tails[c].putInt(0, n + 1);
+				}
+				merged++;
+			}
+		}
+		if (merged == 0)
+			return 0;
+		// 先写字典, 这样page里的编码在文件里总能找到
+		for (int c = 0; c < numFields; c++)
+		{
+			if (dictionaries[c] != null)
+				dictionaries[c].flush();
+		}
+		for (int c = 0; c <= numFields; c++)
+			writeColumnPage(c, pgNos[c], tails[c].array());
+
+		// 清空delta, 缓存里旧的page都作废
+		delta.getChannel().truncate(0);
+		delta.close();
+		delta.getZoneMap().clear();
+		this.numRows = rows + merged;
+		Database.getBufferPool().discardPages(getId());
+		return merged;
+	}
+
+	// see DbFile.java for javadocs
+	public synchronized void close()
+	{
+		for (int c = 0; c < channels.length; c++)
+		{
+			if (channels[c] == null)
+				continue;
+			try
+			{
+				channels[c].close();
+				rafs[c].close();
+			} catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			channels[c] = null;
+			rafs[c] = null;
+		}
+		this.numRows = -1;
+		delta.close();
+	}
+}
@@ -0,0 +1,213 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnPage stores a page of one column of a ColumnFile: the values of that
+ * column for a contiguous range of rows. The layout of a page is
+ *
+ * <pre>
+ * | count | value 0 | value 1 | ... |
+ * </pre>
+ *
+ * where count is the number of rows on the page and every value takes
+ * type.getLen() bytes, encoded as in a HeapPage, or 4 bytes in a dictionary
+ * encoded column, where the value is its code in the column's
+ * {@link Dictionary}. Row r of the column part of a ColumnFile is value
+ * r % capacity of page r / capacity.
+ * <p>
+ * The pages of the extra column td.numFields() are deletion bitmaps: after
+ * the count they hold one bit per row, set when the row was deleted. Value
+ * pages are only written when the row-store delta is merged into the
+ * columns; a delete only changes a bitmap page, through the BufferPool like
+ * any other page modification.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page
+{
+	/** Bytes of the page header. */
+	public static final int HEADER_SIZE = 4;
+
+	ColumnPageId pid;
+	// 这一列的类型, 删除位图为null
+	Type type;
+	// 字典编码的列的字典, 其他列为null
+	Dictionary dictionary;
+	// 每个值的字节数, 删除位图为0
+	int valueSize;
+	int pageSize;
+	// the tid of the transaction that last dirtied this page
+	TransactionId tid;
+	boolean dirty;
+
+	// 页面的字节, 删除的时候第一次修改前先拷贝一份
+	ByteBuffer data;
+	boolean owned;
+	// before image, 第一次修改的时候才拷贝; null表示和当前内容一样
+	byte[] oldData;
+
+	/**
+	 * Create a ColumnPage from a set of bytes of data read from disk. The
+	 * type and encoding of the column are looked up through the catalog; the
+	 * page size is the length of data.
+	 */
+	public ColumnPage(ColumnPageId id, byte[] data) throws IOException
+	{
+		this.pid = id;
+		ColumnFile file = (ColumnFile) Database.getCatalog().getDbFile(id.getTableId());
+		TupleDesc td = file.getTupleDesc();
+		this.type = id.column() < td.numFields() ? td.getType(id.column()) : null;
+		this.dictionary = type != null ? file.getDictionary(id.column()) : null;
+		this.valueSize = file.valueSize(id.column());
+		this.pageSize = data.length;
+		this.data = ByteBuffer.wrap(data);
+		this.owned = false;
+		if (getCount() < 0 || getCount() > capacity(valueSize, pageSize))
+			throw new IOException("corrupt column page " + id);
+	}
+
+	/**
+	 * @return the number of rows a page of pageSize bytes holds for values
+	 *         of valueSize bytes, or for the deletion bitmap if valueSize is 0
+	 */
+	public static int capacity(int valueSize, int pageSize)
+	{
+		if (valueSize == 0)
+			return (pageSize - HEADER_SIZE) * 8;
+		return (pageSize - HEADER_SIZE) / valueSize;
+	}
+
+	/**
+	 * @return the number of rows on this page
+	 */
+	public synchronized int getCount()
+	{
+		return data.getInt(0);
+	}
+
+	/**
+	 * Decodes the value of the i-th row of this page.
+	 */
+	public synchronized Field getField(int i)
+	{
+		if (type == null || i < 0 || i >= getCount())
+			throw new NoSuchElementException("no value " + i + " on " + pid);
+		// 字典编码的值直接用字典里共享的field, 不用解码字符串
+		if (dictionary != null)
+			return dictionary.field(data.getInt(HEADER_SIZE + i * valueSize));
+		ByteBuffer buf = data.duplicate();
+		buf.clear();
+		buf.position(HEADER_SIZE + i * valueSize);
+		try
+		{
+			return type.parse(buf);
+		} catch (java.text.ParseException e)
+		{
+			e.printStackTrace();
+			throw new NoSuchElementException("parsing error!");
+		}
+	}
+
+	/**
+	 * @return true if the i-th row of this bitmap page was deleted
+	 */
+	public synchronized boolean isDeleted(int i)
+	{
+		return (data.get(HEADER_SIZE + i / 8) & (1 << (i % 8))) != 0;
+	}
+
+	/**
+	 * Marks the i-th row of this bitmap page deleted.
+	 *
+	 * @throws DbException
+	 *             if this is not a bitmap page or the row is not there
+	 */
+	public synchronized void delete(int i) throws DbException
+	{
+		if (type != null)
+			throw new DbException("rows are deleted on bitmap pages, not on " + pid);
+		if (i < 0 || i >= getCount() || isDeleted(i))
+			throw new DbException("tuple " + i + " is not on page " + pid);
+		beginWrite();
+		int at = HEADER_SIZE + i / 8;
+		data.put(at, (byte) (data.get(at) | (1 << (i % 8))));
+	}
+
+	/**
+	 * Saves the before image and takes a private copy of the page bytes
+	 * before the first modification.
+	 */
+	private void beginWrite()
+	{
+		if (oldData == null)
+			oldData = getPageData();
+		if (!owned)
+		{
+			data = ByteBuffer.wrap(getPageData());
+			owned = true;
+		}
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public ColumnPageId getId()
+	{
+		return pid;
+	}
+
+	/**
+	 * @return the size of this page in bytes
+	 */
+	public int getPageSize()
+	{
+		return pageSize;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page. Used to
+	 * serialize this page to disk.
+	 */
+	public synchronized byte[] getPageData()
+	{
+		byte[] page = new byte[pageSize];
+		ByteBuffer buf = data.duplicate();
+		buf.clear();
+		buf.get(page);
+		return page;
+	}
+
+	/** Return a view of this page before it was modified -- used by recovery */
+	public synchronized ColumnPage getBeforeImage()
+	{
+		try
+		{
+			return new ColumnPage(pid, oldData != null ? oldData : getPageData());
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public synchronized void setBeforeImage()
+	{
+		oldData = null;
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid)
+	{
+		this.dirty = dirty;
+		this.tid = tid;
+	}
+
+	public TransactionId isDirty()
+	{
+		return this.dirty ? this.tid : null;
+	}
+}
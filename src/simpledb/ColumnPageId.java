@@ -0,0 +1,78 @@
+package simpledb;
+
+/**
+ * Unique identifier for ColumnPage objects: the table, the column whose page
+ * sequence the page belongs to, and the page number within that sequence.
+ * The column numbered td.numFields() is the sequence of deletion bitmaps.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPageId implements PageId
+{
+	int tableid;
+	int column;
+	int pgNo;
+
+	/**
+	 * Constructor. Create a page id structure for a specific page of a
+	 * specific column of a table.
+	 */
+	public ColumnPageId(int tableId, int column, int pgNo)
+	{
+		this.tableid = tableId;
+		this.column = column;
+		this.pgNo = pgNo;
+	}
+
+	/** @return the table associated with this PageId */
+	public int getTableId()
+	{
+		return this.tableid;
+	}
+
+	/** @return the column whose page sequence holds this page */
+	public int column()
+	{
+		return this.column;
+	}
+
+	/**
+	 * @return the page number within the page sequence of column()
+	 */
+	public int pageno()
+	{
+		return this.pgNo;
+	}
+
+	public int hashCode()
+	{
+		int hash = 17;
+		hash = hash * 31 + this.tableid;
+		hash = hash * 31 + this.column;
+		hash = hash * 31 + this.pgNo;
+		return hash;
+	}
+
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof ColumnPageId))
+			return false;
+		ColumnPageId p = (ColumnPageId) o;
+		return this.tableid == p.tableid && this.column == p.column
+				&& this.pgNo == p.pgNo;
+	}
+
+	/**
+	 * Return a representation of this object as an array of integers, for
+	 * writing to disk; the three ints are the arguments of the constructor.
+	 */
+	public int[] serialize()
+	{
+		return new int[] { this.tableid, this.column, this.pgNo };
+	}
+
+	public String toString()
+	{
+		return "columnPageId@" + this.column + "/" + this.pgNo;
+	}
+}
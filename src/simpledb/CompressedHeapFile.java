@@ -0,0 +1,359 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * CompressedHeapFile is a HeapFile for cold, mostly scanned tables that
+ * stores every page compressed with {@link LZCodec}. Pages are compressed
+ * when they are written and decompressed when they are read, so the
+ * BufferPool, HeapPage and the operators only ever see ordinary pages; a
+ * full scan reads several times fewer bytes from disk at the cost of
+ * decompressing each page it misses in the BufferPool.
+ * <p>
+ * The file is a sequence of variable size extents. Each extent starts with
+ * a header of three ints -- the page number, the capacity of the extent and
+ * the compressed length -- followed by the compressed page, padded to the
+ * capacity. Capacities are rounded up to {@link #EXTENT_ALIGN} bytes so that
+ * a page which compresses a little worse after an update can still be
+ * written back in place. A page that outgrows its extent moves to a free
+ * extent or the end of the file, and its old extent is marked free with a
+ * page number of -1. A page that does not compress is stored as is, with a
+ * length equal to the page size.
+ * <p>
+ * The page-offset index is not stored separately: it is rebuilt by walking
+ * the extent headers the first time the file is used after it was opened.
+ * <p>
+ * A table is stored as a CompressedHeapFile when its catalog entry carries
+ * the <tt>compressed</tt> option; <tt>SimpleDb convert</tt> writes the format
+ * when asked to.
+ *
+ * @see LZCodec
+ * @see Catalog#loadSchema
+ */
+public class CompressedHeapFile extends HeapFile
+{
+	// extent头: page编号, extent容量, 压缩后的长度
+	static final int EXTENT_HEADER = 12;
+	// extent的容量按这个粒度取整
+	static final int EXTENT_ALIGN = 64;
+	// 空闲extent的page编号
+	private static final int FREE_EXTENT = -1;
+
+	// page编号 -> extent的偏移量/容量/压缩长度, offsets为null表示还没有读出来
+	private long[] offsets;
+	private int[] capacities;
+	private int[] lengths;
+	private int numPages;
+	// 文件里有效数据的末尾, 新的extent追加在这里
+	private long end;
+	// 所有page的extent头加压缩数据的字节数
+	private long storedBytes;
+	// 容量 -> 这个容量的空闲extent
+	private TreeMap<Integer, ArrayList<Long>> freeExtents;
+
+	/**
+	 * Constructs a compressed heap file backed by the specified file.
+	 */
+	public CompressedHeapFile(File f, TupleDesc td)
+	{
+		this(f, td, BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs a compressed heap file whose pages are pageSize bytes long
+	 * before compression.
+	 *
+	 * @see HeapFile#HeapFile(File, TupleDesc, int)
+	 */
+	public CompressedHeapFile(File f, TupleDesc td, int pageSize)
+	{
+		super(f, td, pageSize);
+	}
+
+	/**
+	 * Walks the extent headers and builds the page-offset index. A truncated
+	 * or damaged extent at the end of the file, e.g. from a crash during an
+	 * append, is ignored and overwritten by the next append.
+	 */
+	private void loadIndex() throws IOException
+	{
+		if (this.offsets != null)
+			return;
+		this.offsets = new long[16];
+		this.capacities = new int[16];
+		this.lengths = new int[16];
+		this.numPages = 0;
+		this.storedBytes = 0;
+		this.freeExtents = new TreeMap<Integer, ArrayList<Long>>();
+
+		FileChannel fc = getChannel();
+		long size = fc.size();
+		long offset = 0;
+		ByteBuffer header = ByteBuffer.allocate(EXTENT_HEADER);
+		while (offset + EXTENT_HEADER <= size)
+		{
+			header.clear();
+			while (header.hasRemaining())
+			{
+				if (fc.read(header, offset + header.position()) < 0)
+					break;
+			}
+			int pgNo = header.getInt(0);
+			int capacity = header.getInt(4);
+			int length = header.getInt(8);
+			if (capacity <= 0 || capacity % EXTENT_ALIGN != 0 || length < 0
+					|| length > capacity || length > getPageSize()
+					|| pgNo < FREE_EXTENT
+					|| offset + EXTENT_HEADER + capacity > size)
+				break;
+			if (pgNo == FREE_EXTENT)
+				addFreeExtent(offset, capacity);
+			else
+			{
+				// 同一个page出现两次时(比如搬家时崩溃), 后面的为准
+				if (pgNo < this.numPages && this.lengths[pgNo] > 0)
+					addFreeExtent(this.offsets[pgNo], this.capacities[pgNo]);
+				setExtent(pgNo, offset, capacity, length);
+			}
+			offset += EXTENT_HEADER + capacity;
+		}
+		this.end = offset;
+	}
+
+	private void setExtent(int pgNo, long offset, int capacity, int length)
+	{
+		if (pgNo >= this.offsets.length)
+		{
+			int n = Math.max(pgNo + 1, this.offsets.length * 2);
+			this.offsets = Arrays.copyOf(this.offsets, n);
+			this.capacities = Arrays.copyOf(this.capacities, n);
+			this.lengths = Arrays.copyOf(this.lengths, n);
+		}
+		if (pgNo < this.numPages && this.lengths[pgNo] > 0)
+			this.storedBytes -= EXTENT_HEADER + this.lengths[pgNo];
+		this.offsets[pgNo] = offset;
+		this.capacities[pgNo] = capacity;
+		this.lengths[pgNo] = length;
+		this.storedBytes += EXTENT_HEADER + length;
+		this.numPages = Math.max(this.numPages, pgNo + 1);
+	}
+
+	private void addFreeExtent(long offset, int capacity)
+	{
+		ArrayList<Long> list = this.freeExtents.get(capacity);
+		if (list == null)
+		{
+			list = new ArrayList<Long>();
+			this.freeExtents.put(capacity, list);
+		}
+		list.add(offset);
+	}
+
+	/**
+	 * Finds room for an extent of at least capacity bytes, reusing the
+	 * smallest free extent that is large enough.
+	 *
+	 * @return the offset and the capacity of the extent
+	 */
+	private long[] allocateExtent(int capacity)
+	{
+		Map.Entry<Integer, ArrayList<Long>> e = this.freeExtents.ceilingEntry(capacity);
+		if (e != null)
+		{
+			ArrayList<Long> list = e.getValue();
+			long offset = list.remove(list.size() - 1);
+			if (list.isEmpty())
+				this.freeExtents.remove(e.getKey());
+			return new long[] { offset, e.getKey() };
+		}
+		long offset = this.end;
+		this.end += EXTENT_HEADER + capacity;
+		return new long[] { offset, capacity };
+	}
+
+	/**
+	 * Returns the number of bytes the page images occupy uncompressed
+	 * divided by the bytes stored for them, extent headers included.
+	 */
+	public synchronized double getCompressionRatio()
+	{
+		try
+		{
+			loadIndex();
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+			return 1.0;
+		}
+		if (this.storedBytes == 0)
+			return 1.0;
+		return (double) this.numPages * getPageSize() / this.storedBytes;
+	}
+
+	/**
+	 * Returns the number of bytes read from disk by a full scan.
+	 */
+	public synchronized long getStoredBytes()
+	{
+		try
+		{
+			loadIndex();
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		return this.storedBytes;
+	}
+
+	// see DbFile.java for javadocs
+	public synchronized int numPages()
+	{
+		try
+		{
+			loadIndex();
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		return this.numPages;
+	}
+
+	byte[] readPageData(PageId pid) throws IOException
+	{
+		int pgNo = pid.pageno();
+		long offset;
+		int length;
+		synchronized (this)
+		{
+			loadIndex();
+			// 没有写过的page是全0的空page
+			if (pgNo >= this.numPages || this.lengths[pgNo] == 0)
+				return new byte[getPageSize()];
+			offset = this.offsets[pgNo];
+			length = this.lengths[pgNo];
+		}
+		byte[] packed = new byte[length];
+		ByteBuffer buf = ByteBuffer.wrap(packed);
+		FileChannel fc = getChannel();
+		while (buf.hasRemaining())
+		{
+			if (fc.read(buf, offset + EXTENT_HEADER + buf.position()) < 0)
+				throw new IOException("Page " + pgNo + " of " + getFile()
+						+ " is truncated");
+		}
+		// 压缩不了的page原样存放
+		if (length == getPageSize())
+			return packed;
+		byte[] page = new byte[getPageSize()];
+		if (LZCodec.decompress(packed, 0, length, page, 0) != page.length)
+			throw new IOException("Page " + pgNo + " of " + getFile()
+					+ " has the wrong size");
+		return page;
+	}
+
+	void readPageHeader(int pgNo, ByteBuffer header) throws IOException
+	{
+		byte[] page = readPageData(new HeapPageId(getId(), pgNo));
+		header.put(page, 0, header.remaining());
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException
+	{
+		this.zones.pageWritten(page);
+		writePageData(page.getId().pageno(), page.getPageData());
+	}
+
+	/**
+	 * Compresses a page image and writes it in place if its extent is large
+	 * enough, else into another extent.
+	 */
+	private void writePageData(int pgNo, byte[] data) throws IOException
+	{
+		byte[] packed = new byte[EXTENT_HEADER + getPageSize()];
+		int length = LZCodec.compress(data, 0, data.length, packed, EXTENT_HEADER,
+				getPageSize() - 1);
+		if (length < 0)
+		{
+			System.arraycopy(data, 0, packed, EXTENT_HEADER, data.length);
+			length = getPageSize();
+		}
+		int capacity = (length + EXTENT_ALIGN - 1) / EXTENT_ALIGN * EXTENT_ALIGN;
+
+		synchronized (this)
+		{
+			loadIndex();
+			// 和HeapFile一样, 超出文件末尾的page追加在末尾
+			pgNo = Math.min(pgNo, this.numPages);
+			boolean exists = pgNo < this.numPages && this.lengths[pgNo] > 0;
+			long offset;
+			if (exists && capacity <= this.capacities[pgNo])
+			{
+				// 原来的extent放得下, 原地写回
+				offset = this.offsets[pgNo];
+				capacity = this.capacities[pgNo];
+			} else
+			{
+				long[] extent = allocateExtent(capacity);
+				offset = extent[0];
+				capacity = (int) extent[1];
+			}
+			ByteBuffer buf = ByteBuffer.wrap(packed, 0, EXTENT_HEADER + capacity);
+			buf.putInt(0, pgNo);
+			buf.putInt(4, capacity);
+			buf.putInt(8, length);
+			FileChannel fc = getChannel();
+			while (buf.hasRemaining())
+			{
+				fc.write(buf, offset + buf.position());
+			}
+			if (exists && offset != this.offsets[pgNo])
+			{
+				// 先写好新的extent, 再把旧的标记为空闲
+				ByteBuffer free = ByteBuffer.allocate(4);
+				free.putInt(0, FREE_EXTENT);
+				while (free.hasRemaining())
+				{
+					fc.write(free, this.offsets[pgNo] + free.position());
+				}
+				addFreeExtent(this.offsets[pgNo], this.capacities[pgNo]);
+			}
+			setExtent(pgNo, offset, capacity, length);
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public synchronized void close()
+	{
+		this.offsets = null;
+		this.capacities = null;
+		this.lengths = null;
+		this.freeExtents = null;
+		super.close();
+	}
+
+	/**
+	 * Writes a compressed copy of every page of source to out, replacing
+	 * whatever out held before.
+	 *
+	 * @return the compressed copy; it is not added to the catalog
+	 */
+	public static CompressedHeapFile compress(HeapFile source, File out)
+			throws IOException
+	{
+		if (out.exists() && !out.delete())
+			throw new IOException("Cannot replace " + out);
+		ZoneMap.discard(out);
+		CompressedHeapFile copy = new CompressedHeapFile(out,
+				source.getTupleDesc(), source.getPageSize());
+		int numPages = source.numPages();
+		for (int pgNo = 0; pgNo < numPages; pgNo++)
+		{
+			copy.writePageData(pgNo, source.readPageData(new HeapPageId(source.getId(), pgNo)));
+		}
+		return copy;
+	}
+}
@@ -20,7 +20,7 @@ public class Database {
 
     private Database() {
     	_catalog = new Catalog();
-    	_bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+    	_bufferpool = new BufferPool(BufferPool.configuredPages());
     	try {
             _logfile = new LogFile(new File(LOGFILENAME));
         } catch(IOException e) {
@@ -54,8 +54,18 @@ public class Database {
         return _instance._bufferpool;
     }
 
+    /** Method used for testing -- create a new instance of the
+        buffer pool that uses the named replacement policy and return it
+    */
+    public static BufferPool resetBufferPool(int pages, String policy) {
+        _instance._bufferpool = new BufferPool(pages, policy);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
+    //the old catalog is cleared so that its files are closed.
     public static void reset() {
+    	_instance._catalog.clear();
     	_instance = new Database();
     }
 }
@@ -32,6 +32,19 @@ public interface DbFile
 	 */
 	public void writePage(Page p) throws IOException;
 
+	/**
+	 * Releases any operating system resources (open file handles) held by
+	 * this file. The file may still be used afterwards; implementations
+	 * reopen their resources on demand.
+	 */
+	public void close();
+
+	/**
+	 * @return the size in bytes of the pages of this file; the BufferPool
+	 *         reserves this much room before it reads one of them
+	 */
+	public int getPageSize();
+
 	/**
 	 * Adds the specified tuple to the file on behalf of transaction. This
 	 * method will acquire a lock on the affected pages of the file, and may
@@ -0,0 +1,44 @@
+package simpledb;
+
+/**
+ * DictStringField is a StringField read from a dictionary encoded column:
+ * besides the string it carries the column's {@link Dictionary} and the
+ * code of the string in it. Two fields of the same dictionary are equal iff
+ * their codes are, so equality filters and group-bys can compare and hash
+ * the codes instead of the strings. There is one DictStringField per
+ * dictionary entry, shared by every tuple that holds the value.
+ *
+ * @see Dictionary
+ */
+public class DictStringField extends StringField
+{
+	private final Dictionary dictionary;
+	private final int code;
+
+	DictStringField(Dictionary dictionary, int code, String s)
+	{
+		super(s, Type.STRING_LEN);
+		this.dictionary = dictionary;
+		this.code = code;
+	}
+
+	/** @return the dictionary this value was read from */
+	public Dictionary getDictionary()
+	{
+		return dictionary;
+	}
+
+	/** @return the code of this value in getDictionary() */
+	public int getCode()
+	{
+		return code;
+	}
+
+	public boolean equals(Object field)
+	{
+		if (field instanceof DictStringField
+				&& ((DictStringField) field).dictionary == dictionary)
+			return ((DictStringField) field).code == code;
+		return super.equals(field);
+	}
+}
@@ -0,0 +1,172 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Dictionary maps the distinct strings of a dictionary encoded column of a
+ * ColumnFile to dense int codes 0, 1, 2, ... in the order they were first
+ * added. Column pages store the 4-byte codes instead of STRING_LEN + 4 byte
+ * strings.
+ * <p>
+ * Codes never change once assigned, so a code is valid in every page of the
+ * column. The dictionary is kept in memory and appended to its file, one
+ * entry (an int length followed by the bytes of the string) per code, when
+ * new values are merged into the column.
+ *
+ * @see ColumnFile
+ * @see DictStringField
+ */
+public class Dictionary
+{
+	private final File file;
+	// 编码 -> 值, 值 -> 编码
+	private ArrayList<DictStringField> values;
+	private HashMap<String, Integer> codes;
+	// 已经写到文件里的项数
+	private int persisted;
+
+	/**
+	 * Creates the dictionary stored in file; the file is read the first time
+	 * the dictionary is used.
+	 */
+	public Dictionary(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * @return the file this dictionary is stored in
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	private void load()
+	{
+		if (values != null)
+			return;
+		values = new ArrayList<DictStringField>();
+		codes = new HashMap<String, Integer>();
+		if (file.exists())
+		{
+			// 完整读出来的项的字节数
+			long valid = 0;
+			try
+			{
+				DataInputStream in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(file)));
+				try
+				{
+					while (valid < file.length())
+					{
+						int len = in.readInt();
+						if (len < 0 || len > Type.STRING_LEN)
+							break;
+						byte[] b = new byte[len];
+						in.readFully(b);
+						put(new String(b));
+						valid += 4 + len;
+					}
+				} catch (EOFException e)
+				{
+					// 最后一项没写完
+				} finally
+				{
+					in.close();
+				}
+				if (valid < file.length())
+				{
+					// 写到一半的项(比如merge时崩溃)丢掉, 下次flush从这里接着写
+					RandomAccessFile raf = new RandomAccessFile(file, "rw");
+					raf.setLength(valid);
+					raf.close();
+				}
+			} catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		persisted = values.size();
+	}
+
+	private int put(String s)
+	{
+		int code = values.size();
+		DictStringField f = new DictStringField(this, code, s);
+		values.add(f);
+		codes.put(f.getValue(), code);
+		return code;
+	}
+
+	/**
+	 * @return the code of s, or -1 if s is not in the dictionary
+	 */
+	public synchronized int code(String s)
+	{
+		load();
+		Integer code = codes.get(s);
+		return code == null ? -1 : code;
+	}
+
+	/**
+	 * Returns the code of s, adding it to the dictionary if it is new. New
+	 * codes are only written to disk by {@link #flush}.
+	 */
+	public synchronized int add(String s)
+	{
+		load();
+		if (s.length() > Type.STRING_LEN)
+			s = s.substring(0, Type.STRING_LEN);
+		Integer code = codes.get(s);
+		return code != null ? code : put(s);
+	}
+
+	/**
+	 * @return the shared field for code
+	 * @throws NoSuchElementException
+	 *             if there is no such code
+	 */
+	public synchronized DictStringField field(int code)
+	{
+		load();
+		if (code < 0 || code >= values.size())
+			throw new NoSuchElementException("no code " + code + " in " + file);
+		return values.get(code);
+	}
+
+	/**
+	 * @return the number of distinct values
+	 */
+	public synchronized int size()
+	{
+		load();
+		return values.size();
+	}
+
+	/**
+	 * Appends the values added since the last flush to the file.
+	 */
+	public synchronized void flush() throws IOException
+	{
+		load();
+		if (persisted == values.size())
+			return;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file, true)));
+		try
+		{
+			for (int i = persisted; i < values.size(); i++)
+			{
+				byte[] b = values.get(i).getValue().getBytes();
+				out.writeInt(b.length);
+				out.write(b);
+			}
+		} finally
+		{
+			out.close();
+		}
+		persisted = values.size();
+	}
+}
@@ -0,0 +1,30 @@
+package simpledb;
+
+/**
+ * FifoPolicy evicts the page that entered the buffer pool first, however
+ * often it was used since. Using a page costs nothing.
+ */
+class FifoPolicy extends ListPolicy
+{
+	// coldest()是最早进来的page
+	private final Queue arrived = new Queue();
+
+	void admit(Node n)
+	{
+		arrived.addHot(n);
+	}
+
+	void hit(Node n)
+	{
+	}
+
+	Queue[] queues()
+	{
+		return new Queue[] { arrived };
+	}
+
+	public PageId victim()
+	{
+		return coldest(arrived);
+	}
+}
@@ -19,6 +19,26 @@ public class Filter extends AbstractDbIterator {
         // some code goes here
     	this.p = p;
     	this.child = child;
+    	// 直接扫描表的时候把条件告诉SeqScan, 它可以跳过不可能满足条件的page
+    	DbIterator scan = child;
+    	while (scan instanceof Filter)
+    		scan = ((Filter) scan).child;
+    	if (scan instanceof SeqScan)
+    		((SeqScan) scan).addPredicate(p);
+    }
+
+    /**
+     * @return the predicate this filter applies
+     */
+    Predicate getPredicate() {
+        return this.p;
+    }
+
+    /**
+     * @return the operator this filter reads its tuples from
+     */
+    DbIterator getChild() {
+        return this.child;
     }
 
     public TupleDesc getTupleDesc() {
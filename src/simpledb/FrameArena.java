@@ -0,0 +1,172 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * FrameArena is a fixed set of equally sized page frames allocated off-heap
+ * as direct ByteBuffers. The BufferPool keeps the raw bytes of cached pages in
+ * these frames, so a large pool costs direct memory instead of Java heap and
+ * does not add to garbage collection pauses.
+ * <p>
+ * Frames are handed out by number; {@link #frame} returns a view of a frame
+ * with position 0 and limit equal to the frame size. Pages larger than a
+ * frame take a run of adjacent frames (see {@link #allocate(int)}), so one
+ * arena holds pages of every size a table may use. Note that the JVM caps
+ * direct memory with -XX:MaxDirectMemorySize, which defaults to the maximum
+ * heap size.
+ *
+ * @see BufferPool
+ */
+public class FrameArena
+{
+	// 一块direct ByteBuffer最多能分配的字节数
+	private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+	private final int frameSize;
+	private final int numFrames;
+	// 每块direct buffer里的frame数
+	private final int perChunk;
+	private final ByteBuffer[] chunks;
+	// 第i位为true表示第i个frame空闲
+	private final BitSet free;
+	private int freeCount;
+
+	/**
+	 * Allocates numFrames frames of frameSize bytes each.
+	 *
+	 * @param numFrames
+	 *            the number of frames in the arena
+	 * @param frameSize
+	 *            the size of each frame in bytes, normally
+	 *            BufferPool.PAGE_SIZE
+	 */
+	public FrameArena(int numFrames, int frameSize)
+	{
+		this.frameSize = frameSize;
+		this.numFrames = numFrames;
+
+		// 把frame切成若干块大的direct buffer分配, 每块的frame数是2的幂,
+		// 这样按run大小对齐的一串frame不会跨过两块buffer
+		this.perChunk = Math.max(1, Integer.highestOneBit(MAX_CHUNK_BYTES / frameSize));
+		this.chunks = new ByteBuffer[(numFrames + perChunk - 1) / perChunk];
+		for (int i = 0; i < chunks.length; i++)
+		{
+			int count = Math.min(perChunk, numFrames - i * perChunk);
+			chunks[i] = ByteBuffer.allocateDirect(count * frameSize);
+		}
+		this.free = new BitSet(numFrames);
+		this.free.set(0, numFrames);
+		this.freeCount = numFrames;
+	}
+
+	/**
+	 * Takes a free frame.
+	 *
+	 * @return the number of the frame, or -1 if every frame is in use
+	 */
+	public synchronized int allocate()
+	{
+		return allocate(1);
+	}
+
+	/**
+	 * Takes a run of count adjacent free frames for a page of count *
+	 * getFrameSize() bytes. Runs start at a multiple of count, which keeps
+	 * small pages from splitting the arena into gaps no large page fits in.
+	 *
+	 * @param count
+	 *            the number of frames, a power of two
+	 * @return the number of the first frame of the run, or -1 if there is no
+	 *         such run of free frames
+	 */
+	public synchronized int allocate(int count)
+	{
+		if (count < 1 || Integer.bitCount(count) != 1 || count > perChunk)
+			throw new IllegalArgumentException("cannot allocate " + count + " frames");
+		int n = free.nextSetBit(0);
+		while (n >= 0)
+		{
+			// 向上对齐到count的倍数
+			n = (n + count - 1) & ~(count - 1);
+			if (n + count > numFrames)
+				break;
+			int used = free.nextClearBit(n);
+			if (used >= n + count)
+			{
+				free.clear(n, n + count);
+				freeCount -= count;
+				return n;
+			}
+			n = free.nextSetBit(used);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns a frame to the arena. The frame must not be used afterwards.
+	 */
+	public synchronized void release(int frameNo)
+	{
+		release(frameNo, 1);
+	}
+
+	/**
+	 * Returns a run of frames taken with {@link #allocate(int)}.
+	 */
+	public synchronized void release(int frameNo, int count)
+	{
+		if (frameNo < 0 || count < 1 || frameNo + count > numFrames)
+			throw new IllegalArgumentException("no such frame " + frameNo);
+		int n = free.nextSetBit(frameNo);
+		if (n >= 0 && n < frameNo + count)
+			throw new IllegalArgumentException("frame " + frameNo + " is already free");
+		free.set(frameNo, frameNo + count);
+		freeCount += count;
+	}
+
+	/**
+	 * @return a view of the given frame, positioned at 0
+	 */
+	public ByteBuffer frame(int frameNo)
+	{
+		return frame(frameNo, 1);
+	}
+
+	/**
+	 * @return a view of a run of count frames starting at frameNo, positioned
+	 *         at 0
+	 */
+	public ByteBuffer frame(int frameNo, int count)
+	{
+		ByteBuffer chunk = chunks[frameNo / perChunk].duplicate();
+		int pos = (frameNo % perChunk) * frameSize;
+		chunk.position(pos);
+		chunk.limit(pos + count * frameSize);
+		return chunk.slice();
+	}
+
+	/** @return the number of frames that are not in use */
+	public synchronized int numFree()
+	{
+		return freeCount;
+	}
+
+	/** @return the number of frames in the arena */
+	public int numFrames()
+	{
+		return numFrames;
+	}
+
+	/** @return the size of each frame in bytes */
+	public int getFrameSize()
+	{
+		return frameSize;
+	}
+
+	/** @return the total off-heap capacity of the arena in bytes */
+	public long capacityBytes()
+	{
+		return (long) numFrames * frameSize;
+	}
+}
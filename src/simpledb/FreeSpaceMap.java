@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap is an in-memory summary of which pages of a HeapFile still
+ * have empty slots. It is rebuilt from the page headers on disk the first
+ * time it is needed after the file is opened, and kept up to date by the
+ * HeapFile as tuples are added and deleted.
+ * <p>
+ * The map is only a hint: a page may have changed in the buffer pool since
+ * it was last reported, so callers must check the page itself (under its
+ * write lock) and report what they found with {@link #update}.
+ *
+ * @see HeapFile#addTuple
+ */
+public class FreeSpaceMap
+{
+	private final HeapFile file;
+	// 第i位为true表示第i个page可能有空的slot
+	private BitSet free;
+
+	public FreeSpaceMap(HeapFile file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Reads the header of every page of the file and records the pages that
+	 * have at least one empty slot. Only the header bytes are read.
+	 */
+	private void build()
+	{
+		TupleDesc td = file.getTupleDesc();
+		int pageSize = file.getPageSize();
+		int numSlots = (pageSize * 8) / (td.getSize() * 8 + 1);
+		int headerSize = (numSlots + 7) / 8;
+		int numPages = file.numPages();
+		BitSet bits = new BitSet(numPages);
+		ByteBuffer header = ByteBuffer.allocate(headerSize);
+		try
+		{
+			for (int pgNo = 0; pgNo < numPages; pgNo++)
+			{
+				header.clear();
+				file.readPageHeader(pgNo, header);
+				int used = 0;
+				for (int i = 0; i < header.position(); i++)
+				{
+					int b = header.get(i) & 0xFF;
+					// 最后一个header字节里超出numSlots的位不算
+					int valid = numSlots - i * 8;
+					if (valid < 8)
+						b &= (1 << valid) - 1;
+					used += Integer.bitCount(b);
+				}
+				if (used < numSlots)
+					bits.set(pgNo);
+			}
+		} catch (IOException e)
+		{
+			// 读不了header就当作所有page都可能有空位，由addTuple去检查
+			e.printStackTrace();
+			bits.set(0, numPages);
+		}
+		this.free = bits;
+	}
+
+	/**
+	 * Returns the first page at or after from that may have an empty slot.
+	 *
+	 * @return the page number, or -1 if there is no such page
+	 */
+	public synchronized int nextFreePage(int from)
+	{
+		if (this.free == null)
+			build();
+		return this.free.nextSetBit(from);
+	}
+
+	/**
+	 * Records whether the given page has an empty slot.
+	 */
+	public synchronized void update(int pgNo, boolean hasFreeSlot)
+	{
+		if (this.free == null)
+			build();
+		this.free.set(pgNo, hasFreeSlot);
+	}
+
+	/**
+	 * @return the number of pages that may have an empty slot
+	 */
+	public synchronized int numFreePages()
+	{
+		if (this.free == null)
+			build();
+		return this.free.cardinality();
+	}
+
+	/**
+	 * Forgets the summary; it is rebuilt from disk the next time it is used.
+	 */
+	public synchronized void reset()
+	{
+		this.free = null;
+	}
+}
@@ -0,0 +1,426 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an extendible hash index over an INT field of a table. A
+ * directory of 2^d buckets, indexed by the lowest d bits of the hash of the
+ * key, points to the bucket pages; an equality lookup reads the directory
+ * and one bucket, so point lookups and the probes of an index nested-loop
+ * join cost a constant number of page reads however large the table grows.
+ * The page format is described in {@link HashPage}.
+ * <p>
+ * A full bucket is split in two by one more bit of the hash, doubling the
+ * directory if the bucket already uses all d bits. Once the directory fills
+ * its page, or when all entries of a bucket have the same hash (e.g. a
+ * frequent key), full buckets get a chain of overflow pages instead.
+ * Deleting an entry just removes it from its page; buckets are not merged.
+ * <p>
+ * All pages are read through the BufferPool. Lookups take shared locks on
+ * the directory and the bucket they read; an insert takes an exclusive lock
+ * on its bucket and, to split it, on the directory.
+ * <p>
+ * An index is declared in the catalog with a line of the form
+ * <tt>index name on table (field) hash</tt>.
+ *
+ * @see IndexScan
+ * @see IndexNestedLoopJoin
+ */
+public class HashFile extends AbstractIndexFile
+{
+	/**
+	 * Constructs an index stored in f over field keyField of table.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the field is not an INT field
+	 */
+	public HashFile(File f, DbFile table, int keyField)
+	{
+		this(f, table, keyField, new int[0], BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs an index stored in f over field keyField of table whose
+	 * entries also carry the values of the included fields, so that queries
+	 * over only those fields and the key can be answered from the index.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the key field is not an INT field
+	 */
+	public HashFile(File f, DbFile table, int keyField, int[] included)
+	{
+		this(f, table, keyField, included, BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs an index with pages of pageSize bytes; small pages give many
+	 * buckets and splits with few entries, which is what the tests want.
+	 */
+	HashFile(File f, DbFile table, int keyField, int pageSize)
+	{
+		this(f, table, keyField, new int[0], pageSize);
+	}
+
+	HashFile(File f, DbFile table, int keyField, int[] included, int pageSize)
+	{
+		super(f, table, keyField, included, pageSize);
+	}
+
+	/**
+	 * @return the hash of key, whose lowest bits select the bucket
+	 */
+	static int hash(int key)
+	{
+		// 打散相邻的key, 低位也要均匀
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int bucketOf(int key, int depth)
+	{
+		return hash(key) & ((1 << depth) - 1);
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid)
+	{
+		try
+		{
+			// 文件末尾之外的page都是0, 即空的bucket(或空的索引)
+			return new HashPage((HeapPageId) pid, readPageData(pid));
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		throw new IllegalArgumentException();
+	}
+
+	protected HashPage getPage(TransactionId tid, int pgNo, Permissions perm)
+			throws TransactionAbortedException, DbException
+	{
+		return (HashPage) super.getPage(tid, pgNo, perm);
+	}
+
+	protected HashPage newPage(TransactionId tid) throws IOException,
+			TransactionAbortedException, DbException
+	{
+		return (HashPage) super.newPage(tid);
+	}
+
+	/**
+	 * Adds entries to the chain of pages starting at head, appending
+	 * overflow pages as needed.
+	 */
+	private void fill(TransactionId tid, HashPage head, List<Tuple> entries,
+			ArrayList<Page> dirty) throws IOException, TransactionAbortedException,
+			DbException
+	{
+		HashPage page = head;
+		for (Tuple e : entries)
+		{
+			while (!page.hasRoom())
+			{
+				HashPage next;
+				if (page.getNext() != 0)
+					next = getPage(tid, page.getNext(), Permissions.READ_WRITE);
+				else
+				{
+					next = newPage(tid);
+					page.setNext(next.getId().pageno());
+				}
+				if (!dirty.contains(page))
+					dirty.add(page);
+				page = next;
+			}
+			page.addEntry(e);
+			if (!dirty.contains(page))
+				dirty.add(page);
+		}
+	}
+
+	// see IndexFile.java for javadocs
+	public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException
+	{
+		Tuple entry = entryOf(t);
+		int key = keyOf(entry);
+		ArrayList<Page> dirty = new ArrayList<Page>();
+		while (true)
+		{
+			HashPage dir = getPage(tid, 0, Permissions.READ_ONLY);
+			if (dir.getBucket(0) == 0)
+			{
+				dir = getPage(tid, 0, Permissions.READ_WRITE);
+				if (dir.getBucket(0) == 0)
+				{
+					// 空的索引, 先建一个bucket
+					HashPage bucket = newPage(tid);
+					dir.setDirectory(0, new int[] { bucket.getId().pageno() });
+					dirty.add(dir);
+				}
+			}
+			int depth = dir.getGlobalDepth();
+			HashPage head = getPage(tid, dir.getBucket(bucketOf(key, depth)), Permissions.READ_WRITE);
+			// 链上有空位就直接放进去
+			boolean sameHash = true;
+			for (HashPage page = head; page != null; page = page.getNext() == 0 ? null
+					: getPage(tid, page.getNext(), Permissions.READ_WRITE))
+			{
+				for (int i = 0; i < page.getCount() && sameHash; i++)
+					sameHash = hash(keyOf(page.getEntry(i))) == hash(key);
+				if (page.hasRoom())
+				{
+					page.addEntry(entry);
+					if (!dirty.contains(page))
+						dirty.add(page);
+					return dirty;
+				}
+			}
+			// 所有项的hash都一样的时候分裂没有用, 只能加溢出page
+			if (sameHash || head.getLocalDepth() == HashPage.maxDepth(pageSize))
+			{
+				fill(tid, head, Collections.singletonList(entry), dirty);
+				return dirty;
+			}
+			split(tid, head, dirty);
+		}
+	}
+
+	/**
+	 * Splits the bucket whose chain starts at head by one more bit of the
+	 * hash, doubling the directory if needed.
+	 */
+	private void split(TransactionId tid, HashPage head, ArrayList<Page> dirty)
+			throws DbException, IOException, TransactionAbortedException
+	{
+		HashPage dir = getPage(tid, 0, Permissions.READ_WRITE);
+		int globalDepth = dir.getGlobalDepth();
+		int localDepth = head.getLocalDepth();
+		int[] buckets = new int[1 << globalDepth];
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = dir.getBucket(i);
+		if (localDepth == globalDepth)
+		{
+			// 目录翻倍, 新的一半指向同样的bucket
+			int[] doubled = new int[buckets.length * 2];
+			System.arraycopy(buckets, 0, doubled, 0, buckets.length);
+			System.arraycopy(buckets, 0, doubled, buckets.length, buckets.length);
+			buckets = doubled;
+			globalDepth++;
+		}
+		HashPage sibling = newPage(tid);
+		int headPgNo = head.getId().pageno();
+		for (int i = 0; i < buckets.length; i++)
+		{
+			if (buckets[i] == headPgNo && (i >>> localDepth & 1) == 1)
+				buckets[i] = sibling.getId().pageno();
+		}
+		dir.setDirectory(globalDepth, buckets);
+		if (!dirty.contains(dir))
+			dirty.add(dir);
+
+		// 把整条链上的项按新的一位重新分到两个bucket里, 旧的溢出page留在链上
+		ArrayList<Tuple> stay = new ArrayList<Tuple>();
+		ArrayList<Tuple> move = new ArrayList<Tuple>();
+		for (HashPage page = head; page != null; page = page.getNext() == 0 ? null
+				: getPage(tid, page.getNext(), Permissions.READ_WRITE))
+		{
+			for (Tuple e : page.takeEntries())
+			{
+				if ((hash(keyOf(e)) >>> localDepth & 1) == 1)
+					move.add(e);
+				else
+					stay.add(e);
+			}
+			if (!dirty.contains(page))
+				dirty.add(page);
+		}
+		head.setLocalDepth(localDepth + 1);
+		sibling.setLocalDepth(localDepth + 1);
+		dirty.add(sibling);
+		fill(tid, head, stay, dirty);
+		fill(tid, sibling, move, dirty);
+	}
+
+	// see IndexFile.java for javadocs
+	public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException
+	{
+		Tuple entry = entryOf(t);
+		HashPage dir = getPage(tid, 0, Permissions.READ_ONLY);
+		if (dir.getBucket(0) != 0)
+		{
+			int pgNo = dir.getBucket(bucketOf(keyOf(entry), dir.getGlobalDepth()));
+			while (pgNo != 0)
+			{
+				HashPage page = getPage(tid, pgNo, Permissions.READ_WRITE);
+				for (int i = 0; i < page.getCount(); i++)
+				{
+					if (sameEntry(page.getEntry(i), entry))
+					{
+						page.removeEntry(i);
+						ArrayList<Page> dirty = new ArrayList<Page>();
+						dirty.add(page);
+						return dirty;
+					}
+				}
+				pgNo = page.getNext();
+			}
+		}
+		throw new DbException("no entry for " + entry + " in " + f);
+	}
+
+	/**
+	 * Iterates over the entries of some buckets, optionally only those with
+	 * a given key.
+	 */
+	class HashFileIterator extends AbstractDbFileIterator
+	{
+		TransactionId tid;
+		// 要找的key, null表示所有的项
+		Integer key;
+		// 还没读的bucket
+		LinkedList<Integer> buckets;
+		HashPage page;
+		int pos;
+
+		HashFileIterator(TransactionId tid, Integer key)
+		{
+			this.tid = tid;
+			this.key = key;
+		}
+
+		public void open() throws DbException, TransactionAbortedException
+		{
+			HashPage dir = getPage(tid, 0, Permissions.READ_ONLY);
+			this.buckets = new LinkedList<Integer>();
+			this.page = null;
+			this.pos = 0;
+			if (dir.getBucket(0) == 0)
+				return;
+			int depth = dir.getGlobalDepth();
+			if (key != null)
+			{
+				buckets.add(dir.getBucket(bucketOf(key, depth)));
+				return;
+			}
+			// 目录里同一个bucket会出现好几次
+			LinkedHashSet<Integer> distinct = new LinkedHashSet<Integer>();
+			for (int i = 0; i < 1 << depth; i++)
+				distinct.add(dir.getBucket(i));
+			buckets.addAll(distinct);
+		}
+
+		protected Tuple readNext() throws DbException, TransactionAbortedException
+		{
+			while (buckets != null)
+			{
+				if (page == null || pos >= page.getCount())
+				{
+					int next = page != null ? page.getNext() : 0;
+					if (next == 0)
+					{
+						if (buckets.isEmpty())
+							return null;
+						next = buckets.removeFirst();
+					}
+					page = getPage(tid, next, Permissions.READ_ONLY);
+					pos = 0;
+					continue;
+				}
+				Tuple e = page.getEntry(pos++);
+				if (key == null || keyOf(e) == key)
+					return e;
+			}
+			return null;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException
+		{
+			this.close();
+			this.open();
+		}
+
+		public void close()
+		{
+			super.close();
+			this.buckets = null;
+			this.page = null;
+		}
+	}
+
+	/**
+	 * Returns all entries of the index, in no particular order.
+	 */
+	public DbFileIterator iterator(TransactionId tid)
+	{
+		return new HashFileIterator(tid, null);
+	}
+
+	/**
+	 * A hash index only answers equality predicates.
+	 */
+	public boolean supports(Predicate.Op op)
+	{
+		return op == Predicate.Op.EQUALS || op == Predicate.Op.LIKE;
+	}
+
+	// see IndexFile.java for javadocs
+	public DbFileIterator lookup(TransactionId tid, Predicate.Op op, Field key)
+	{
+		if (!supports(op))
+			throw new IllegalArgumentException("hash index cannot look up " + op);
+		return new HashFileIterator(tid, ((IntField) key).getValue());
+	}
+
+	/**
+	 * Builds the index if the index file is empty, with a directory deep
+	 * enough that the buckets start out about two thirds full.
+	 */
+	public synchronized boolean build() throws IOException
+	{
+		if (f.length() > 0)
+			return false;
+		ArrayList<Tuple> all = tableEntries();
+		HashPage dir = (HashPage) readPage(new HeapPageId(getId(), 0));
+		if (all.isEmpty())
+		{
+			writePage(dir);
+			return true;
+		}
+		int perPage = HashPage.maxEntries(entryDesc, pageSize);
+		int depth = 0;
+		while (depth < HashPage.maxDepth(pageSize) && (long) perPage * 2 / 3 << depth < all.size())
+			depth++;
+		ArrayList<ArrayList<Tuple>> groups = new ArrayList<ArrayList<Tuple>>();
+		for (int i = 0; i < 1 << depth; i++)
+			groups.add(new ArrayList<Tuple>());
+		for (Tuple e : all)
+			groups.get(bucketOf(keyOf(e), depth)).add(e);
+		// 每个bucket连同它的溢出page连续写在一起
+		int[] buckets = new int[1 << depth];
+		int pgNo = 1;
+		for (int b = 0; b < buckets.length; b++)
+		{
+			ArrayList<Tuple> group = groups.get(b);
+			buckets[b] = pgNo;
+			int from = 0;
+			do
+			{
+				int to = Math.min(group.size(), from + perPage);
+				HashPage page = (HashPage) readPage(new HeapPageId(getId(), pgNo));
+				page.setLocalDepth(depth);
+				for (int i = from; i < to; i++)
+					page.addEntry(group.get(i));
+				page.setNext(to < group.size() ? pgNo + 1 : 0);
+				writePage(page);
+				pgNo++;
+				from = to;
+			} while (from < group.size());
+		}
+		dir.setDirectory(depth, buckets);
+		writePage(dir);
+		return true;
+	}
+}
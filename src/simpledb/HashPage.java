@@ -0,0 +1,290 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * HashPage is a page of a {@link HashFile}. Page 0 of the file is the
+ * directory, which holds the global depth d of the index and the page
+ * numbers of the 2^d buckets; bucket 0 is page 0 while the index is empty.
+ * The other pages are buckets and their overflow pages:
+ *
+ * <pre>
+ * directory: | d | bucket 0 ... bucket 2^d-1 |
+ * bucket:    | local depth | n | next overflow page | entry 0 ... entry n-1 |
+ * </pre>
+ *
+ * The next overflow page of the last page of a chain is 0. An all-zero page
+ * is an empty bucket, or an empty index if it is page 0.
+ */
+public class HashPage implements Page
+{
+	// 局部深度, 项数, 下一个溢出page
+	static final int HEADER_SIZE = 12;
+
+	HeapPageId pid;
+	TupleDesc entryDesc;
+	int pageSize;
+	// the tid of the transaction that last dirtied this page
+	TransactionId tid;
+	boolean dirty;
+	// before image, 第一次修改的时候才拷贝; null表示和当前内容一样
+	byte[] oldData;
+
+	// 目录page的内容
+	int globalDepth;
+	int[] buckets;
+	// bucket的内容
+	int localDepth;
+	int next;
+	ArrayList<Tuple> entries = new ArrayList<Tuple>();
+
+	/**
+	 * Create a HashPage from a set of bytes of data read from disk. The
+	 * format of the entries is looked up in the catalog; the page size is the
+	 * length of data.
+	 */
+	public HashPage(HeapPageId id, byte[] data) throws IOException
+	{
+		this.pid = id;
+		this.entryDesc = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.pageSize = data.length;
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		if (isDirectory())
+		{
+			this.globalDepth = buf.getInt();
+			if (globalDepth < 0 || globalDepth > maxDepth(pageSize))
+				throw new IOException("corrupt index page " + id);
+			this.buckets = new int[1 << globalDepth];
+			for (int i = 0; i < buckets.length; i++)
+				buckets[i] = buf.getInt();
+			return;
+		}
+		this.localDepth = buf.getInt();
+		int n = buf.getInt();
+		this.next = buf.getInt();
+		if (localDepth < 0 || n < 0 || n > maxEntries(entryDesc, pageSize))
+			throw new IOException("corrupt index page " + id);
+		try
+		{
+			for (int i = 0; i < n; i++)
+			{
+				Tuple t = new Tuple(entryDesc);
+				for (int f = 0; f < entryDesc.numFields(); f++)
+					t.setField(f, entryDesc.getType(f).parse(buf));
+				entries.add(t);
+			}
+		} catch (java.text.ParseException e)
+		{
+			throw new IOException("corrupt index page " + id);
+		}
+	}
+
+	/**
+	 * @return the largest global depth whose directory fits in a page of
+	 *         pageSize bytes
+	 */
+	static int maxDepth(int pageSize)
+	{
+		int d = 0;
+		while (4 + (4 << (d + 1)) <= pageSize)
+			d++;
+		return d;
+	}
+
+	/**
+	 * @return the number of entries a bucket page of pageSize bytes holds
+	 */
+	static int maxEntries(TupleDesc entryDesc, int pageSize)
+	{
+		return (pageSize - HEADER_SIZE) / entryDesc.getSize();
+	}
+
+	/**
+	 * @return true if this is page 0, which holds the directory
+	 */
+	public boolean isDirectory()
+	{
+		return pid.pageno() == 0;
+	}
+
+	synchronized int getGlobalDepth()
+	{
+		return globalDepth;
+	}
+
+	/**
+	 * @return the page number of bucket i of the directory
+	 */
+	synchronized int getBucket(int i)
+	{
+		return buckets[i];
+	}
+
+	synchronized int getLocalDepth()
+	{
+		return localDepth;
+	}
+
+	synchronized int getNext()
+	{
+		return next;
+	}
+
+	synchronized int getCount()
+	{
+		return entries.size();
+	}
+
+	synchronized Tuple getEntry(int i)
+	{
+		return entries.get(i);
+	}
+
+	/**
+	 * @return true if one more entry fits on this bucket page
+	 */
+	synchronized boolean hasRoom()
+	{
+		return entries.size() < maxEntries(entryDesc, pageSize);
+	}
+
+	/**
+	 * Saves the before image before the first modification.
+	 */
+	private void beginWrite()
+	{
+		if (oldData == null)
+			oldData = getPageData();
+	}
+
+	/**
+	 * Replaces the directory by one of the given depth and buckets.
+	 */
+	synchronized void setDirectory(int globalDepth, int[] buckets)
+	{
+		beginWrite();
+		this.globalDepth = globalDepth;
+		this.buckets = buckets.clone();
+	}
+
+	synchronized void setLocalDepth(int localDepth)
+	{
+		beginWrite();
+		this.localDepth = localDepth;
+	}
+
+	synchronized void setNext(int next)
+	{
+		beginWrite();
+		this.next = next;
+	}
+
+	synchronized void addEntry(Tuple entry)
+	{
+		beginWrite();
+		entries.add(entry);
+	}
+
+	synchronized void removeEntry(int i)
+	{
+		beginWrite();
+		entries.remove(i);
+	}
+
+	/**
+	 * Removes the entries of this page and returns them.
+	 */
+	synchronized ArrayList<Tuple> takeEntries()
+	{
+		beginWrite();
+		ArrayList<Tuple> old = entries;
+		entries = new ArrayList<Tuple>();
+		return old;
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HeapPageId getId()
+	{
+		return pid;
+	}
+
+	/**
+	 * @return the size of this page in bytes
+	 */
+	public int getPageSize()
+	{
+		return pageSize;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page. Used to
+	 * serialize this page to disk.
+	 */
+	public synchronized byte[] getPageData()
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(pageSize);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try
+		{
+			if (isDirectory())
+			{
+				out.writeInt(globalDepth);
+				for (int b : buckets)
+					out.writeInt(b);
+			} else
+			{
+				out.writeInt(localDepth);
+				out.writeInt(entries.size());
+				out.writeInt(next);
+				for (Tuple e : entries)
+				{
+					for (int f = 0; f < entryDesc.numFields(); f++)
+						e.getField(f).serialize(out);
+				}
+			}
+			out.flush();
+		} catch (IOException e)
+		{
+			// 写到内存里不会出错
+			throw new RuntimeException(e);
+		}
+		byte[] page = new byte[pageSize];
+		System.arraycopy(bytes.toByteArray(), 0, page, 0, Math.min(bytes.size(), pageSize));
+		return page;
+	}
+
+	/** Return a view of this page before it was modified -- used by recovery */
+	public synchronized HashPage getBeforeImage()
+	{
+		try
+		{
+			return new HashPage(pid, oldData != null ? oldData : getPageData());
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public synchronized void setBeforeImage()
+	{
+		oldData = null;
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid)
+	{
+		this.dirty = dirty;
+		this.tid = tid;
+	}
+
+	public TransactionId isDirty()
+	{
+		return this.dirty ? this.tid : null;
+	}
+}
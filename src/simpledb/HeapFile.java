@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,6 +11,13 @@ import java.util.*;
  * which is a fixed size, and the file is simply a collection of those
  * pages. HeapFile works closely with HeapPage.  The format of HeapPages
  * is described in the HeapPage constructor.
+ * <p>
+ * A table can be clustered on an INT field ({@link #setClusterField}): its
+ * pages are then kept in order of that field as long as the tuples arrive
+ * in order, e.g. from {@link BulkLoader#loadClustered} or as the rows of a
+ * log table. Scans with range predicates on the field only read the pages
+ * the zone map places in the range, and scans return the tuples in order
+ * of the field.
  *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -19,6 +28,20 @@ public class HeapFile implements DbFile
 	File f;
 	TupleDesc td;
 	int tableId;
+	// 这个表每个page的字节数
+	final int pageSize;
+
+	// 整个HeapFile共用一个长期打开的FileChannel，用positional read/write访问，
+	// 不存在共享的文件指针，所以并发的读不需要互相等待
+	private RandomAccessFile raf;
+	private FileChannel channel;
+
+	// 记录哪些page有空的slot, 避免addTuple从第0页开始逐页查找
+	final FreeSpaceMap freeSpace;
+	// 每个page上INT字段的最小值和最大值, 带过滤条件的扫描用来跳过page
+	final ZoneMap zones;
+	// 按哪个字段聚簇, -1表示没有
+	private volatile int clusterField = -1;
 	
 	/**
 	 * Constructs a heap file backed by the specified file.
@@ -28,59 +51,201 @@ public class HeapFile implements DbFile
 	 *            file.
 	 */
 	public HeapFile(File f, TupleDesc td)
+	{
+		this(f, td, BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs a heap file backed by the specified file whose pages are
+	 * pageSize bytes long. Tables that are mostly scanned read fewer pages
+	 * with large pages; tables with many small updates are better off with
+	 * small ones.
+	 *
+	 * @param f
+	 *            the file that stores the on-disk backing store for this heap
+	 *            file.
+	 * @param pageSize
+	 *            the page size in bytes, a power of two between
+	 *            BufferPool.PAGE_SIZE and BufferPool.MAX_PAGE_SIZE
+	 * @throws IllegalArgumentException
+	 *             if the page size is not supported
+	 */
+	public HeapFile(File f, TupleDesc td, int pageSize)
 	{
 		// some code goes here
+		if (!BufferPool.isValidPageSize(pageSize))
+			throw new IllegalArgumentException("Unsupported page size " + pageSize);
 		this.f = f;
 		this.td = td;
+		this.pageSize = pageSize;
 		this.tableId = this.getId();
+		this.freeSpace = new FreeSpaceMap(this);
+		this.zones = new ZoneMap(this);
 	}
 
-	public static class HeapFileIterator implements DbFileIterator
+	/**
+	 * Iterates over the tuples of a HeapFile one page at a time. Pages are
+	 * fetched lazily through {@link BufferPool#getPage} with READ_ONLY
+	 * permission, and the next page is only requested once every tuple of the
+	 * current page has been returned, so the memory held by the iterator is
+	 * bounded by a single page. Pages the zone map rules out for the filters
+	 * of the iterator are skipped without being fetched. The pages after the
+	 * current one are prefetched in the background by a {@link ReadAhead}.
+	 * Scans of large files read through a {@link BufferRing}.
+	 */
+	public static class HeapFileIterator extends AbstractDbFileIterator
 	{
 
 		TransactionId tid;
+		HeapFile file;
+		// 下一个要读取的page编号
+		int pgNo;
+		// 当前page上的Tuple迭代器，为null表示迭代器没有open
 		Iterator<Tuple> it;
-		
-		// 使用HeapPage里的迭代器，访问HeapPage里的每条有效的Tuple
-		// 把访问到的有效Tuple放到一个List里面
-		// 返回list.iterator();
-		List<Tuple> list;
+		// 返回的tuple之后还会被这些条件过滤, 可以用zone map跳过page
+		List<Predicate> filters;
+		int pagesSkipped;
+		ReadAhead readAhead;
+		// 大表的扫描通过ring读page, 不挤掉BufferPool里别的page; null表示不用
+		BufferRing ring;
+		// 聚簇的表按范围扫描时读到哪一页为止(不含), -1表示到文件末尾
+		int endPage;
+		// page按聚簇字段有序, 每个page的tuple排好序返回
+		boolean ordered;
+		// 调用者要求按聚簇字段的顺序返回
+		boolean mustOrder;
+		// 要求有序但page不是有序的, 只能整个排序
+		boolean sortAll;
+		// 当前的tuple迭代器用着的page, 在pinnedBy里pin住了; null表示没有
+		PageId pinned;
+		BufferPool pinnedBy;
+
+		public HeapFileIterator(TransactionId tid, HeapFile file)
+		{
+			this(tid, file, Collections.<Predicate>emptyList());
+		}
 
-		public HeapFileIterator(TransactionId tid, List<Tuple> list)
+		public HeapFileIterator(TransactionId tid, HeapFile file, List<Predicate> filters)
 		{
 			this.tid = tid;
-			this.list = list;
-//			try {
-//				this.open();
-//			} catch (DbException | TransactionAbortedException e) {
-//				e.printStackTrace();
-//			}
+			this.file = file;
+			this.filters = filters;
+		}
+
+		/**
+		 * @return the number of pages skipped since the iterator was opened
+		 */
+		public int getPagesSkipped()
+		{
+			return pagesSkipped;
+		}
+
+		/**
+		 * Makes the iterator return the tuples in ascending order of the
+		 * cluster field of the file from the next open on. This costs
+		 * nothing while the pages of the file are in order; otherwise every
+		 * tuple is read and sorted when the iterator is opened.
+		 *
+		 * @throws IllegalStateException
+		 *             if the file is not clustered
+		 */
+		public void keepOrder()
+		{
+			if (file.getClusterField() < 0)
+				throw new IllegalStateException("table is not clustered");
+			this.mustOrder = true;
 		}
 
-		// 迭代器的open方法，实质是初始化了一个迭代器
 		@Override
 		public void open() throws DbException, TransactionAbortedException
 		{
-			it = this.list.iterator();
+			this.unpin();
+			this.pgNo = 0;
+			this.pagesSkipped = 0;
+			this.endPage = -1;
+			this.ordered = false;
+			this.sortAll = false;
+			this.it = Collections.<Tuple>emptyList().iterator();
+			if (this.readAhead != null)
+				this.readAhead.close();
+			// rewind以后还用原来的ring, 不然原来ring里的page就留在BufferPool里了
+			if (this.ring == null)
+				this.ring = BufferRing.forScan(file);
+			this.readAhead = new ReadAhead(file, filters, ring);
+			int field = file.getClusterField();
+			if (field < 0)
+				return;
+			// 聚簇的表用目录找到范围内的第一页和最后一页
+			int[] range = file.zones.pageRange(field, filters);
+			if (range != null)
+			{
+				int numPages = file.numPages();
+				this.endPage = Math.min(range[1] + 1, numPages);
+				this.pgNo = Math.min(range[0], this.endPage);
+				this.pagesSkipped = this.pgNo + numPages - this.endPage;
+				this.ordered = true;
+			}
+			else if (mustOrder)
+			{
+				this.sortAll = true;
+			}
 		}
 
-		@Override
-		public boolean hasNext() throws DbException,
+		/**
+		 * Reads every remaining tuple and sorts them by the cluster field;
+		 * used when the order was asked for but the pages are out of order.
+		 */
+		private Iterator<Tuple> sortRemaining() throws DbException,
 				TransactionAbortedException
 		{
-			if (it == null)
-				return false;
-			
-			return it.hasNext();
+			ArrayList<Tuple> all = new ArrayList<Tuple>();
+			this.sortAll = false;
+			Tuple t;
+			while ((t = readNext()) != null)
+				all.add(t);
+			Collections.sort(all, new TupleComparator(file.getClusterField(), true));
+			return all.iterator();
 		}
 
 		@Override
-		public Tuple next() throws DbException, TransactionAbortedException,
-				NoSuchElementException
+		protected Tuple readNext() throws DbException,
+				TransactionAbortedException
 		{
 			if (it == null)
-				throw new NoSuchElementException("tuple is null");
-			
+				return null;
+			if (sortAll)
+				it = sortRemaining();
+
+			// 当前page用完了才去BufferPool取下一个page, 跳过空的page
+			while (!it.hasNext())
+			{
+				// 用完的page不用再pin着了, 先unpin好让它给下一个page腾地方
+				this.unpin();
+				if (pgNo >= (endPage >= 0 ? endPage : file.numPages()))
+					return null;
+				if (!filters.isEmpty() && !file.zones.mayMatch(pgNo, filters))
+				{
+					pgNo++;
+					pagesSkipped++;
+					continue;
+				}
+				readAhead.access(pgNo);
+				PageId pid = new HeapPageId(file.getId(), pgNo++);
+				BufferPool pool = Database.getBufferPool();
+				Page page = pool.pinPage(tid, pid, Permissions.READ_ONLY, ring);
+				this.pinned = pid;
+				this.pinnedBy = pool;
+				it = file.tupleIterator(page);
+				if (ordered)
+				{
+					// page之间有序, page里面的slot不一定
+					ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+					while (it.hasNext())
+						tuples.add(it.next());
+					Collections.sort(tuples, new TupleComparator(file.getClusterField(), true));
+					it = tuples.iterator();
+				}
+			}
 			return it.next();
 		}
 
@@ -91,10 +256,27 @@ public class HeapFile implements DbFile
 			this.open();
 		}
 
+		/**
+		 * Takes back the pin of the page the iterator is reading, if any.
+		 */
+		private void unpin()
+		{
+			if (this.pinned == null)
+				return;
+			this.pinnedBy.unpinPage(this.pinned);
+			this.pinned = null;
+			this.pinnedBy = null;
+		}
+
 		@Override
 		public void close()
 		{
+			super.close();
 			this.it = null;
+			this.unpin();
+			if (this.readAhead != null)
+				this.readAhead.close();
+			this.readAhead = null;
 		}
 
 	}
@@ -137,27 +319,127 @@ public class HeapFile implements DbFile
 		// throw new UnsupportedOperationException("implement this");
 	}
 
+	// see DbFile.java for javadocs
+	public int getPageSize()
+	{
+		return this.pageSize;
+	}
+
+	/**
+	 * Returns the FileChannel backing this HeapFile, opening it on first use.
+	 * The channel stays open until {@link #close} is called; a closed HeapFile
+	 * transparently reopens it on the next access.
+	 */
+	synchronized FileChannel getChannel() throws IOException
+	{
+		if (this.channel == null || !this.channel.isOpen())
+		{
+			// 只读的文件只能用来读，写的时候channel会抛出NonWritableChannelException
+			this.raf = new RandomAccessFile(f, f.exists() && !f.canWrite() ? "r" : "rw");
+			this.channel = raf.getChannel();
+		}
+		return this.channel;
+	}
+
+	// see DbFile.java for javadocs
+	public synchronized void close()
+	{
+		if (this.channel == null)
+			return;
+		try
+		{
+			this.channel.close();
+			this.raf.close();
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		this.channel = null;
+		this.raf = null;
+		this.freeSpace.reset();
+		this.zones.close();
+	}
+
+	/**
+	 * Declares the table clustered on an INT field: tuples are added to pages
+	 * that keep the file in order of the field whenever there is one with
+	 * room, and scans use the zone map of the field as a directory. The
+	 * order of the tuples already in the file is not changed.
+	 *
+	 * @param field
+	 *            the index of the field, or -1 to stop clustering
+	 * @throws IllegalArgumentException
+	 *             if the field is not an INT field
+	 */
+	public void setClusterField(int field)
+	{
+		if (field >= 0 && td.getType(field) != Type.INT_TYPE)
+			throw new IllegalArgumentException("cannot cluster on " + td.getType(field)
+					+ " field " + field);
+		this.clusterField = field;
+	}
+
+	/**
+	 * @return the index of the field the table is clustered on, or -1
+	 */
+	public int getClusterField()
+	{
+		return this.clusterField;
+	}
+
+	/**
+	 * @return the per-page value ranges of the INT fields of this file
+	 */
+	public ZoneMap getZoneMap()
+	{
+		return this.zones;
+	}
+
+	/**
+	 * Reads the bytes of a page from the file. Past the end of the file the
+	 * page is padded with zeros.
+	 */
+	byte[] readPageData(PageId pid) throws IOException
+	{
+		FileChannel fc = getChannel();
+		// 根据page编号得到偏移量
+		long offset = (long) pid.pageno() * this.pageSize;
+		// 新page的内容, 剩余文件不足一个page时后面补0
+		byte[] page = new byte[this.pageSize];
+		ByteBuffer buf = ByteBuffer.wrap(page);
+		while (buf.hasRemaining())
+		{
+			if (fc.read(buf, offset + buf.position()) < 0)
+				break;
+		}
+		return page;
+	}
+
+	/**
+	 * Reads the first header.limit() bytes of a page into the cleared header
+	 * buffer without reading the rest of the page; used to rebuild free space
+	 * summaries. Past the end of the file the bytes are left as they are.
+	 */
+	void readPageHeader(int pgNo, ByteBuffer header) throws IOException
+	{
+		FileChannel fc = getChannel();
+		long offset = (long) pgNo * this.pageSize;
+		while (header.hasRemaining())
+		{
+			if (fc.read(header, offset + header.position()) < 0)
+				break;
+		}
+	}
+
 	// see DbFile.java for javadocs
 	public Page readPage(PageId pid)
 	{
 		// some code goes here
 		try
 		{
-			// 文件指针
-			RandomAccessFile rAf = new RandomAccessFile(f, "r");
-			// 根据page编号得到偏移量
-			int offset = pid.pageno() * BufferPool.PAGE_SIZE;
-			// 移动文件指针
-			rAf.seek(offset);
-			// 新page的内容
-			byte[] page = new byte[BufferPool.PAGE_SIZE];
-			// TODO 剩余文件不足BufferPool.PAGE_SIZE怎么办？
-			rAf.read(page, 0, BufferPool.PAGE_SIZE);
-			rAf.close();
-
 			HeapPageId id = (HeapPageId) pid;
 
-			return (Page) new HeapPage(id, page);
+			return (Page) new HeapPage(id, readPageData(pid));
 		} catch (IOException e)
 		{
 			e.printStackTrace();
@@ -165,30 +447,51 @@ public class HeapFile implements DbFile
 		throw new IllegalArgumentException();
 	}
 
+	/**
+	 * Returns the tuples of a page of this file read through the buffer pool;
+	 * used by HeapFileIterator.
+	 */
+	Iterator<Tuple> tupleIterator(Page page)
+	{
+		return ((HeapPage) page).iterator();
+	}
+
+	/**
+	 * Returns the tuple in the given slot of a page of this file read through
+	 * the buffer pool, or null if the slot is empty; used by IndexScan.
+	 */
+	Tuple getTuple(Page page, int slot)
+	{
+		return ((HeapPage) page).getTuple(slot);
+	}
+
+	/**
+	 * Called by the buffer pool after it replaced a cached page of this file
+	 * by the copy on disk, e.g. when a transaction aborts.
+	 */
+	void pageReloaded(Page page)
+	{
+		// 回滚以后page上的空slot可能变了
+		updateFreeSpace((HeapPage) page);
+	}
+
 	// see DbFile.java for javadocs
 	public void writePage(Page page) throws IOException
 	{
 		// some code goes here
 		// not necessary for lab1
+		// zone文件要先覆盖page的新内容
+		this.zones.pageWritten(page);
 		// 要写入文件的page内容
 		byte[] page_content = page.getPageData();
 		PageId pid = page.getId();
-		// 文件指针
-		RandomAccessFile rAf = new RandomAccessFile(f, "rw");
-		// 根据page编号得到偏移量
-		int offset = pid.pageno() * BufferPool.PAGE_SIZE;
-		if (offset < rAf.length())
-		{
-			// 移动文件指针
-			rAf.seek(offset);
-			rAf.write(page_content);
-			rAf.close();
-		}
-		else
+		FileChannel fc = getChannel();
+		// 根据page编号得到偏移量, 超出文件末尾的page追加在文件末尾
+		long offset = Math.min((long) pid.pageno() * this.pageSize, fc.size());
+		ByteBuffer buf = ByteBuffer.wrap(page_content);
+		while (buf.hasRemaining())
 		{
-			rAf.seek(rAf.length());
-			rAf.write(page_content);
-			rAf.close();
+			fc.write(buf, offset + buf.position());
 		}
 	}
 
@@ -200,12 +503,68 @@ public class HeapFile implements DbFile
 	{
 		// some code goes here
 		long file_size = this.f.length();
-		int num = (int) (file_size / BufferPool.PAGE_SIZE);
-		if (file_size % BufferPool.PAGE_SIZE > 0)
+		int num = (int) (file_size / this.pageSize);
+		if (file_size % this.pageSize > 0)
 			num++;
 		return num;
 	}
 
+	/**
+	 * Removes the last page of the file if it is still page pgNo; used by
+	 * {@link Vacuum} once the page is empty and the caller holds its write
+	 * lock.
+	 *
+	 * @return true if the page was removed
+	 */
+	synchronized boolean truncate(int pgNo) throws IOException
+	{
+		// 别的事务可能已经在后面追加了page
+		if (pgNo != this.numPages() - 1)
+			return false;
+		getChannel().truncate((long) pgNo * this.pageSize);
+		this.freeSpace.update(pgNo, false);
+		return true;
+	}
+
+	/**
+	 * Returns the number of a page that the free space map believes has an
+	 * empty slot, preferring pages no other transaction holds a lock on.
+	 * Different transactions start looking at different pages so that
+	 * concurrent inserters spread over the file instead of queueing on the
+	 * same page.
+	 *
+	 * @return the page number, or -1 if every page with free space is locked
+	 *         by another transaction (or there is none)
+	 */
+	private int findFreePage(TransactionId tid)
+	{
+		BufferPool pool = Database.getBufferPool();
+		int page_total = this.numPages();
+		if (page_total == 0)
+			return -1;
+		int start = tid == null ? 0 : (int) (tid.getId() % page_total);
+		// 从start开始找到文件末尾, 再从0找回start
+		for (int pass = 0; pass < 2; pass++)
+		{
+			int from = pass == 0 ? start : 0;
+			int to = pass == 0 ? page_total : start;
+			for (int i = freeSpace.nextFreePage(from); i >= 0 && i < to; i = freeSpace.nextFreePage(i + 1))
+			{
+				if (!pool.isLockedByOther(tid, new HeapPageId(this.tableId, i)))
+					return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Updates the free space map after the page was modified or reloaded.
+	 */
+	public void updateFreeSpace(HeapPage page)
+	{
+		freeSpace.update(page.getId().pageno(), page.getNumEmptySlots() > 0);
+	}
+
 	// see DbFile.java for javadocs
 	public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException
@@ -213,75 +572,111 @@ public class HeapFile implements DbFile
 		// some code goes here
 		// not necessary for lab1
 		ArrayList<Page> pages_update = new ArrayList<Page>();
+		BufferPool pool = Database.getBufferPool();
 		HeapPage page = null;
-		int page_total = this.numPages();
-		int i = 0;
-		for (;i < page_total; i++)
+		int i;
+		if (this.clusterField >= 0)
+		{
+			pages_update = addInOrder(tid, t);
+			if (pages_update != null)
+				return pages_update;
+			// 没有能保持顺序的page, 放在哪里都行, 之后的扫描不再用目录
+			pages_update = new ArrayList<Page>();
+		}
+		// free space map里记录有空slot的page, 只对选中的page加写锁
+		while ((i = findFreePage(tid)) >= 0)
 		{
 			PageId pid = new HeapPageId(this.tableId, i);
-			// 获得该表里的一个page，检查Header，看看有没有空的slot可以插入
-			page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-			// 没有空的slot，说明该页满，这时候检测下一个page
+			boolean held = pool.holdsLock(tid, pid);
+			page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+			// free space map只是提示, page可能已经满了
 			if (page.getNumEmptySlots() == 0)
 			{
+				this.updateFreeSpace(page);
+				// 没有修改这个page, 之前没持有锁的话可以马上放掉
+				if (!held && tid != null)
+					pool.releasePage(tid, pid);
 				continue;
 			}
-			// 有空的slot，则找到页里的第一个空的slot，设置好tuple的recordId
-			for (int j = 0; j < page.numSlots; j++)
-			{
-				if (page.getSlot(j))
-				{
-					continue;
-				}
-				t.setRecordId(new RecordId(pid, j));
-				page.addTuple(t);
-				if (Debug.isEnabled(3))
-				{
-					Debug.log("HeapFile addTuple: page_total = " + page_total);
-					Iterator<Tuple> it = page.iterator();
-					while (it.hasNext() && i == (page_total - 1))
-					{
-						Tuple debugTuple = it.next();
-						if (Debug.isEnabled(2))
-						{
-							Debug.log(debugTuple.toString());
-						}
-					}
-				}
-				pages_update.add(page);
-				return pages_update;
-			}
+			page.addTuple(t);
+			this.updateFreeSpace(page);
+			this.zones.tupleAdded(i, t);
+			pages_update.add(page);
+			return pages_update;
+		}
+		return addToNewPage(tid, t);
+	}
+
+	/**
+	 * Appends an empty page to the file and adds t to it through the buffer
+	 * pool.
+	 */
+	private ArrayList<Page> addToNewPage(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException
+	{
+		// 没有可用的page, 在文件末尾追加一个空page, 再通过BufferPool插入
+		// 这样新的tuple和其他修改一样，在事务提交时才写入磁盘
+		ArrayList<Page> pages_update = new ArrayList<Page>();
+		HeapPageId pid;
+		synchronized (this)
+		{
+			pid = new HeapPageId(this.tableId, this.numPages());
+			this.writePage(new HeapPage(pid, HeapPage.createEmptyPageData(this.pageSize)));
 		}
-		// 表中所有page都是满的，则做出一个新的Page，将Tuple放入该page(包括写表头、加入Tuple信息和markDirty()，这些都交给HeapPage来做了)，然后写入对应的File文件中
-		// 为了使得页数增加必须要写文件
-		if (i == page_total)
+		HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid,
+				Permissions.READ_WRITE);
+		page.addTuple(t);
+		this.updateFreeSpace(page);
+		this.zones.tupleAdded(pid.pageno(), t);
+		if (Debug.isEnabled(3))
 		{
-			HeapPageId pid = new HeapPageId(this.tableId, i);
-			// 不使用BuffePool.getPage()获得新的page，此时是写文件
-			byte[] empty_data = HeapPage.createEmptyPageData();
-			page = new HeapPage(pid, empty_data);
-			t.setRecordId(new RecordId(pid, 0));
-			page.addTuple(t);
-			this.writePage(page);
-			if (Debug.isEnabled(3))
+			Debug.log("HeapFile addTuple: new page " + pid.pageno());
+		}
+		pages_update.add(page);
+		return pages_update;
+	}
+
+	/**
+	 * Adds t to a page of a clustered file where it keeps the pages in order
+	 * of the cluster field, appending a page if its key is the largest.
+	 *
+	 * @return the modified page, or null if the pages are out of order or
+	 *         no page t could go to has room
+	 */
+	private ArrayList<Page> addInOrder(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException
+	{
+		int field = this.clusterField;
+		int[] range = this.zones.insertRange(field, ((IntField) t.getField(field)).getValue());
+		if (range == null)
+			return null;
+		BufferPool pool = Database.getBufferPool();
+		int last = (int) Math.min(range[1], this.numPages() - 1L);
+		for (int i = freeSpace.nextFreePage(range[0]); i >= 0 && i <= last; i = freeSpace.nextFreePage(i + 1))
+		{
+			PageId pid = new HeapPageId(this.tableId, i);
+			if (pool.isLockedByOther(tid, pid))
+				continue;
+			boolean held = pool.holdsLock(tid, pid);
+			HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+			if (page.getNumEmptySlots() == 0)
 			{
-				Debug.log("HeapFile addTuple: page_total = " + page_total);
-				Iterator<Tuple> it = page.iterator();
-				while (it.hasNext() && i == (page_total - 1))
-				{
-					Tuple debugTuple = it.next();
-					if (Debug.isEnabled(2))
-					{
-						Debug.log(debugTuple.toString());
-					}
-				}
+				this.updateFreeSpace(page);
+				if (!held && tid != null)
+					pool.releasePage(tid, pid);
+				continue;
 			}
+			page.addTuple(t);
+			this.updateFreeSpace(page);
+			this.zones.tupleAdded(i, t);
+			ArrayList<Page> pages_update = new ArrayList<Page>();
 			pages_update.add(page);
 			return pages_update;
 		}
-		// 进行过insert操作以后，原有的Iterator不再能使用了，必须重新使用构造器iterator获得新的迭代器；
-//		HeapFileIterator hfIterator = (HeapFileIterator) this.iterator(tid);
-		return pages_update;
+		// 比所有的值都大, 追加在文件末尾仍然有序
+		if (range[1] == Integer.MAX_VALUE)
+			return addToNewPage(tid, t);
+		return null;
 	}
 
 	// see DbFile.java for javadocs
@@ -293,67 +688,27 @@ public class HeapFile implements DbFile
 		PageId pageId = t.getRecordId().getPageId(); 
 		HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
 		page.deleteTuple(t);
+		this.updateFreeSpace(page);
 		return page;
 	}
 
 	// see DbFile.java for javadocs
 	/**
-	 * 使用了缓冲区BuferPool.getPage()来提速
-	 * 得到每个page的迭代器
-	 * 把每个page里面的header bit 不是False的Tuple加入到HeapFileIterator的List里面
-	 * 最后获得List的迭代器
+	 * 返回一个按page惰性读取的迭代器，open之前不会访问BufferPool
 	 */
 	public DbFileIterator iterator(TransactionId tid) throws TransactionAbortedException,DbException
 	{
 		// some code goes here
-		//将文件中所有page的Tuple组成一个list。
-		List<Tuple> ftupleList = new ArrayList<Tuple>();
-		int page_count = this.numPages();
-		
-		for (int i = 0; i < page_count; i++)
-		{
-			PageId pid = new HeapPageId(getId(), i);
-			int tableid = getId();
-			for ( PageId p : Database.getBufferPool().pageMap.keySet())
-			{
-				if (p.equals(pid))
-					pid = p;
-			}
-			if (pid == null)
-				pid = new HeapPageId(tableid, i);
-			HeapPage page = null;
-			// FIXME 插入页面后， getPage得到的居然不是新的页， 跟没改过一样！
-			page = (HeapPage) Database.getBufferPool().getPage(tid, pid,
-					Permissions.READ_WRITE);
-			Iterator<Tuple> it = page.iterator();
-//			if (Debug.isEnabled(2))
-//			{
-//				Debug.log("HeapFile Iterator: page_count = " + page_count);
-//				while (it.hasNext() && i == (page_count - 1))
-//				{
-//					Tuple debugTuple = it.next();
-//					// 真正只有这句代码有用
-//					ftupleList.add(debugTuple);
-//					if (Debug.isEnabled(2))
-//					{
-//						Debug.log(debugTuple.toString());
-//					}
-//				}
-//			}
-			if (Debug.isEnabled(2))
-			{
-				Debug.log("HeapFile Iterator: page_count = " + (page_count - 1));
-			}
-			while (it.hasNext())
-			{
-				Tuple debugTuple = it.next();
-				ftupleList.add(debugTuple);
-				if (Debug.isEnabled(2) && i == (page_count - 1))
-				{
-					Debug.log("In HeapFile PageNo " + i + " : " + debugTuple.toString());
-				}
-			}
-		}
-		return new HeapFileIterator(tid, ftupleList);
+		return new HeapFileIterator(tid, this);
+	}
+
+	/**
+	 * Returns an iterator for a scan whose tuples are then filtered by the
+	 * given predicates; pages whose zone map rules out a predicate are not
+	 * read. The list may still grow until the iterator is opened.
+	 */
+	public DbFileIterator iterator(TransactionId tid, List<Predicate> filters)
+	{
+		return new HeapFileIterator(tid, this, filters);
 	}
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * HeapPage stores pages of HeapFiles and implements the Page interface that
@@ -15,12 +16,24 @@ public class HeapPage implements Page
 	HeapPageId pid;
 	TupleDesc td;
 	byte header[];
-	Tuple tuples[];
 	int numSlots;
+	// page的字节数, 由构造时传入的数据长度决定
+	int pageSize;
+	// 空slot的个数, 构造时由header数出来
+	int numEmpty;
 	// the tid of the transaction that last dirtied this page
 	TransactionId tid;
 	boolean dirty;
 	
+	// 页面的原始字节(header + slots)，Tuple只在需要的时候才从这里解码。
+	// 可能是BufferPool的off-heap frame, 也可能是调用者传进来的byte[]或mmap映射
+	ByteBuffer data;
+	// data所在的BufferPool frame编号, -1表示不在frame里
+	int frameNo = -1;
+	// data是否属于这个page自己, 不属于的时候第一次修改前要先拷贝一份
+	boolean owned;
+	
+	// before image, 第一次修改的时候才拷贝; null表示和当前内容一样
 	byte[] oldData;
 
 	/**
@@ -29,10 +42,12 @@ public class HeapPage implements Page
 	 * that are in use, some number of tuple slots. Specifically, the number of
 	 * tuples is equal to:
 	 * <p>
-	 * floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+	 * floor((page size*8) / (tuple size * 8 + 1))
 	 * <p>
 	 * where tuple size is the size of tuples in this database table, which can
-	 * be determined via {@link Catalog#getTupleDesc}. The number of 8-bit
+	 * be determined via {@link Catalog#getTupleDesc}, and page size is the
+	 * length of data -- BufferPool.PAGE_SIZE unless the table was given
+	 * another page size (see {@link HeapFile#getPageSize}). The number of 8-bit
 	 * header words is equal to:
 	 * <p>
 	 * ceiling(no. tuple slots / 8)
@@ -43,43 +58,41 @@ public class HeapPage implements Page
 	 * @see BufferPool#PAGE_SIZE
 	 */
 	public HeapPage(HeapPageId id, byte[] data) throws IOException
+	{
+		this(id, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Create a HeapPage directly from a buffer holding the page bytes, e.g. a
+	 * slice of a memory-mapped file. The page starts at the buffer's current
+	 * position. Only the header is parsed here; tuples are decoded from the
+	 * buffer when they are asked for. The buffer itself is never modified --
+	 * the page makes a private copy the first time it is changed. The page
+	 * size is the number of bytes remaining in the buffer.
+	 *
+	 * @see #HeapPage(HeapPageId, byte[])
+	 */
+	public HeapPage(HeapPageId id, ByteBuffer data)
 	{
 		this.pid = id;
 		this.dirty = false;
 		this.tid = null;
 		
+		// slice()使page从下标0开始，并且不改变调用者(比如共享的mmap映射)的position
+		this.data = data.slice();
+		this.owned = false;
+		this.pageSize = this.data.remaining();
+		
 		// search from catalog using talbeId
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 		this.numSlots = getNumTuples();
-		this.tuples = new Tuple[numSlots];
-		
-		DataInputStream dis = new DataInputStream(
-				new ByteArrayInputStream(data));
 		
 		// allocate and read the header slots of this page
 		// byte[] data 里面放的仅仅是page的内容，这些内容来自文件f，f经过convert编码变成含有头信息的dat文件
 		// 可以参考HeapfFile readPage()方法
 		header = new byte[getHeaderSize()];
-		for (int i = 0; i < header.length; i++)
-		{
-			header[i] = dis.readByte();
-		}
-		
-		try
-		{
-			// allocate and read the actual records of this page
-			
-			for (int i = 0; i < this.numSlots; i++)
-			{
-				tuples[i] = readNextTuple(dis, i);
-			}
-		} catch (NoSuchElementException e)
-		{
-			e.printStackTrace();
-		}
-		dis.close();
-
-		setBeforeImage();
+		this.data.duplicate().get(header);
+		this.numEmpty = countEmptySlots();
 	}
 
 	/**
@@ -89,7 +102,7 @@ public class HeapPage implements Page
 	 */
 	private int getNumTuples()
 	{
-		return (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+		return (pageSize * 8) / (td.getSize() * 8 + 1);
 	}
 
 	/**
@@ -114,11 +127,11 @@ public class HeapPage implements Page
 	/**
 	 * Return a view of this page before it was modified -- used by recovery
 	 */
-	public HeapPage getBeforeImage()
+	public synchronized HeapPage getBeforeImage()
 	{
 		try
 		{
-			return new HeapPage(pid, oldData);
+			return new HeapPage(pid, oldData != null ? oldData : getPageData());
 		} catch (IOException e)
 		{
 			e.printStackTrace();
@@ -128,9 +141,83 @@ public class HeapPage implements Page
 		return null;
 	}
 
-	public void setBeforeImage()
+	public synchronized void setBeforeImage()
+	{
+		// 当前内容就是before image, 下次修改时再拷贝
+		oldData = null;
+	}
+
+	/**
+	 * Called before every modification of the page bytes. Saves the before
+	 * image if it has not been saved yet, and gives the page a private copy
+	 * of its bytes if they still belong to the caller of the constructor.
+	 */
+	private void beginWrite()
+	{
+		if (oldData == null)
+			oldData = getPageData();
+		if (frameNo < 0 && !owned)
+		{
+			data = ByteBuffer.wrap(getPageData());
+			owned = true;
+		}
+	}
+
+	/**
+	 * @return true if the page reads its bytes from a buffer outside the Java
+	 *         heap that it does not own, e.g. a slice of a memory-mapped
+	 *         file, and has not been modified; moving such a page into a
+	 *         frame would only copy it.
+	 */
+	synchronized boolean isMapped()
 	{
-		oldData = getPageData().clone();
+		return frameNo < 0 && !owned && data.isDirect();
+	}
+
+	/**
+	 * Moves the bytes of this page into a BufferPool frame. From then on the
+	 * page reads and updates its tuples in the frame.
+	 *
+	 * @param frameNo
+	 *            the number of the frame in the pool's arena
+	 * @param frame
+	 *            the frame buffer, at least getPageSize() bytes
+	 */
+	synchronized void moveToFrame(int frameNo, ByteBuffer frame)
+	{
+		ByteBuffer dst = frame.duplicate();
+		dst.clear();
+		dst.put(data.duplicate());
+		dst.clear();
+		this.data = dst;
+		this.frameNo = frameNo;
+		this.owned = true;
+	}
+
+	/**
+	 * Copies this page out of its BufferPool frame, so that the frame can be
+	 * reused while the page object may still be referenced.
+	 *
+	 * @return the number of the frame that was released, or -1 if the page
+	 *         did not live in a frame
+	 */
+	synchronized int releaseFrame()
+	{
+		int released = this.frameNo;
+		if (released >= 0)
+		{
+			this.data = ByteBuffer.wrap(getPageData());
+			this.frameNo = -1;
+		}
+		return released;
+	}
+
+	/**
+	 * @return the size of this page in bytes
+	 */
+	public int getPageSize()
+	{
+		return pageSize;
 	}
 
 	/**
@@ -142,28 +229,20 @@ public class HeapPage implements Page
 	}
 
 	/**
-	 * Suck up tuples from the source file.
+	 * Returns the offset of the given slot in the page bytes.
+	 */
+	private int slotOffset(int slotId)
+	{
+		return header.length + slotId * td.getSize();
+	}
+
+	/**
+	 * Decodes the tuple stored in the given slot from the page bytes.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId)
-			throws NoSuchElementException
+	private Tuple readTuple(int slotId) throws NoSuchElementException
 	{
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-//		if (!getSlot(slotId))
-//		{
-//			for (int i = 0; i < td.getSize(); i++)
-//			{
-//				try
-//				{
-//					dis.readByte();
-//				} catch (IOException e)
-//				{
-//					throw new NoSuchElementException(
-//							"error reading empty tuple");
-//				}
-//			}
-//			return null;
-//		}
+		ByteBuffer buf = data.duplicate();
+		buf.position(slotOffset(slotId));
 
 		// read fields in the tuple
 		Tuple t = new Tuple(td);
@@ -179,7 +258,7 @@ public class HeapPage implements Page
 			 */
 			for (int j = 0; j < td.numFields(); j++)
 			{
-				Field f = td.getType(j).parse(dis);
+				Field f = td.getType(j).parse(buf);
 				t.setField(j, f);
 			}
 		} catch (java.text.ParseException e)
@@ -192,94 +271,48 @@ public class HeapPage implements Page
 	}
 
 	/**
-	 * Generates a byte array representing the contents of this page. Used to
-	 * serialize this page to disk.
-	 * <p>
-	 * The invariant here is that it should be possible to pass the byte array
-	 * generated by getPageData to the HeapPage constructor and have it produce
-	 * an identical HeapPage object.
-	 *
-	 * @see #HeapPage
-	 * @return A byte array correspond to the bytes of this page.
+	 * Encodes a tuple into the given slot of the page bytes.
 	 */
-	public byte[] getPageData()
+	private void writeTuple(int slotId, Tuple t)
 	{
-		int len = BufferPool.PAGE_SIZE;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
 		DataOutputStream dos = new DataOutputStream(baos);
-
-		// create the header of the page
-		for (int i = 0; i < header.length; i++)
-		{
-			try
-			{
-				dos.writeByte(header[i]);
-			} catch (IOException e)
-			{
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
-
-		// create the tuples
-		for (int i = 0; i < tuples.length; i++)
+		try
 		{
-
-			// empty slot
-			if (!getSlot(i))
-			{
-				for (int j = 0; j < td.getSize(); j++)
-				{
-					try
-					{
-						dos.writeByte(0);
-					} catch (IOException e)
-					{
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
 			for (int j = 0; j < td.numFields(); j++)
 			{
-				Field f = tuples[i].getField(j);
-				try
-				{
-					f.serialize(dos);
-
-				} catch (IOException e)
-				{
-					e.printStackTrace();
-				}
+				t.getField(j).serialize(dos);
 			}
-		}
-
-		// padding
-		int zerolen = BufferPool.PAGE_SIZE
-				- (header.length + td.getSize() * tuples.length); // - numSlots
-																	// *
-																	// td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try
-		{
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e)
-		{
-			e.printStackTrace();
-		}
-
-		try
-		{
 			dos.flush();
 		} catch (IOException e)
 		{
+			// this really shouldn't happen
 			e.printStackTrace();
 		}
+		ByteBuffer buf = data.duplicate();
+		buf.position(slotOffset(slotId));
+		buf.put(baos.toByteArray(), 0, td.getSize());
+	}
 
-		return baos.toByteArray();
+	/**
+	 * Generates a byte array representing the contents of this page. Used to
+	 * serialize this page to disk.
+	 * <p>
+	 * The invariant here is that it should be possible to pass the byte array
+	 * generated by getPageData to the HeapPage constructor and have it produce
+	 * an identical HeapPage object.
+	 *
+	 * @see #HeapPage
+	 * @return A byte array correspond to the bytes of this page.
+	 */
+	public synchronized byte[] getPageData()
+	{
+		// 空的slot在删除的时候已经清0了，所以直接拷贝整个page就可以
+		byte[] page = new byte[pageSize];
+		ByteBuffer buf = data.duplicate();
+		buf.clear();
+		buf.get(page, 0, Math.min(page.length, buf.remaining()));
+		return page;
 	}
 
 	/**
@@ -294,8 +327,16 @@ public class HeapPage implements Page
 	 */
 	public static byte[] createEmptyPageData()
 	{
-		int len = BufferPool.PAGE_SIZE;
-		return new byte[len]; // all 0
+		return createEmptyPageData(BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Like {@link #createEmptyPageData()}, for a table with pages of
+	 * pageSize bytes.
+	 */
+	public static byte[] createEmptyPageData(int pageSize)
+	{
+		return new byte[pageSize]; // all 0
 	}
 
 	/**
@@ -308,7 +349,7 @@ public class HeapPage implements Page
 	 * @param t
 	 *            The tuple to delete
 	 */
-	public void deleteTuple(Tuple t) throws DbException
+	public synchronized void deleteTuple(Tuple t) throws DbException
 	{
 		// some code goes here
 		// not necessary for lab1
@@ -316,31 +357,30 @@ public class HeapPage implements Page
 		{
 			throw new DbException("HeapPage deleteTuple: Tuple slot is already empty!");
 		}
-		int i = 0, j = 0;
+		RecordId rid = t.getRecordId();
 		// i为对应tuple在页内的偏移地址
-		i = t.getRecordId().tupleno();
-		// 设置一个tag用来表示tuples[i]里面的每个Field是不是与t相等, true表示相等
-		boolean tag = true;
-		while (j < t.getTupleDesc().numFields())
-		{
-			if (!t.getField(j).equals(this.tuples[i].getField(j)))
-			{
-				tag = false;
-				break;
-			}
-			j++;
-		}
-		// 对应tuple不在页内的表现：getSlot(i)为false 或者 对应页内的该偏移地址的tuple不是要删除的tuple t
-		if (!this.getSlot(i) || !(t.getTupleDesc().equals(tuples[i].getTupleDesc()) && tag == true))
+		int i = rid == null ? -1 : rid.tupleno();
+		// 对应tuple不在页内的表现：不是这一页的RecordId, getSlot(i)为false 或者 对应页内的该偏移地址的tuple不是要删除的tuple t
+		if (i < 0 || i >= this.numSlots || !this.pid.equals(rid.getPageId())
+				|| !this.getSlot(i) || !t.getTupleDesc().equals(this.td))
 		{
 			throw new DbException("HeapPage deleteTuple: This tuple is not on this page!");
 		}
-		else
+		Tuple stored = readTuple(i);
+		for (int j = 0; j < t.getTupleDesc().numFields(); j++)
 		{
-			this.setSlot(i, false);
-			t.setRecordId(new RecordId(null, 0));
-			this.tuples[i] = null;
+			if (!t.getField(j).equals(stored.getField(j)))
+			{
+				throw new DbException("HeapPage deleteTuple: This tuple is not on this page!");
+			}
 		}
+		beginWrite();
+		this.setSlot(i, false);
+		// 把slot清0，保证getPageData里空的slot全是0
+		ByteBuffer buf = data.duplicate();
+		buf.position(slotOffset(i));
+		buf.put(new byte[td.getSize()]);
+		t.setRecordId(new RecordId(null, 0));
 	}
 
 	/**
@@ -353,7 +393,7 @@ public class HeapPage implements Page
 	 * @param t
 	 *            The tuple to add.
 	 */
-	public void addTuple(Tuple t) throws DbException
+	public synchronized void addTuple(Tuple t) throws DbException
 	{
 		// some code goes here
 		// not necessary for lab1
@@ -371,11 +411,12 @@ public class HeapPage implements Page
 			// 如果对应位是false，则插入记录
 			if (!this.getSlot(i))
 			{
+				beginWrite();
 				this.setSlot(i, true);
+				this.writeTuple(i, t);
 				RecordId tempRid = new RecordId(this.pid, i);
 				// 修改了原有的Tuple里面的RecordId
 				t.setRecordId(tempRid);
-				this.tuples[i] = t;
 				break;
 			}
 			i++;
@@ -417,30 +458,26 @@ public class HeapPage implements Page
 	 */
 	public int getNumEmptySlots()
 	{
-		int num = this.numSlots;
+		// 构造的时候数过一次，之后由setSlot维护
+		return this.numEmpty;
+	}
 
-		// more fast
-		for (byte b : this.header)
+	/**
+	 * Counts the clear bits of the header that belong to real slots.
+	 */
+	private int countEmptySlots()
+	{
+		int used = 0;
+		for (int i = 0; i < this.header.length; i++)
 		{
-			if ((b & 0x01) != 0)
-				num--;
-			if ((b & 0x02) != 0)
-				num--;
-			if ((b & 0x04) != 0)
-				num--;
-			if ((b & 0x08) != 0)
-				num--;
-			if ((b & 0x10) != 0)
-				num--;
-			if ((b & 0x20) != 0)
-				num--;
-			if ((b & 0x40) != 0)
-				num--;
-			if ((b & 0x80) != 0)
-				num--;
+			int b = this.header[i] & 0xFF;
+			// 最后一个header字节里超出numSlots的位不算
+			int bits = this.numSlots - i * 8;
+			if (bits < 8)
+				b &= (1 << bits) - 1;
+			used += Integer.bitCount(b);
 		}
-
-		return num;
+		return this.numSlots - used;
 	}
 
 	/**
@@ -448,46 +485,7 @@ public class HeapPage implements Page
 	 */
 	public boolean getSlot(int i)
 	{
-		int headIdx = i / 8;
-		int idx = i % 8;
-		byte header = this.header[headIdx];
-		switch (idx)
-		{
-		case 0:
-			if ((header & 0x01) != 0)
-				return true;
-			break;
-		case 1:
-			if ((header & 0x02) != 0)
-				return true;
-			break;
-		case 2:
-			if ((header & 0x04) != 0)
-				return true;
-			break;
-		case 3:
-			if ((header & 0x08) != 0)
-				return true;
-			break;
-		case 4:
-			if ((header & 0x10) != 0)
-				return true;
-			break;
-		case 5:
-			if ((header & 0x20) != 0)
-				return true;
-			break;
-		case 6:
-			if ((header & 0x40) != 0)
-				return true;
-			break;
-		case 7:
-			if ((header & 0x80) != 0)
-				return true;
-			break;
-		default:
-		}
-		return false;
+		return (this.header[i >> 3] & (1 << (i & 7))) != 0;
 	}
 
 	/**
@@ -497,110 +495,73 @@ public class HeapPage implements Page
 	{
 		// some code goes here
 		// not necessary for lab1
-		int headIdx = i / 8;
-		int idx = i % 8;
+		if (getSlot(i) == value)
+			return;
+		int headIdx = i >> 3;
 		byte header = this.header[headIdx];
-		switch (idx)
+		if (value == true)
 		{
-		case 0:
-			if (value == true)
-			{
-				// 相应位置1
-				header = (byte) (header | 0x01);
-			}
-			else
-			{
-				// 相应位置0
-				header = (byte) (header & 0xFE);
-			}
-			break;
-		case 1:
-			if (value == true)
-			{
-				// 相应位置1
-				header = (byte) (header | 0x02);
-			}
-			else
-			{
-				// 相应位置0
-				header = (byte) (header & 0xFD);
-			}
-			break;
-		case 2:
-			if (value == true)
-			{
-				// 相应位置1
-				header = (byte) (header | 0x04);
-			}
-			else
-			{
-				// 相应位置0
-				header = (byte) (header & 0xFB);
-			}
-			break;
-		case 3:
-			if (value == true)
-			{
-				// 相应位置1
-				header = (byte) (header | 0x08);
-			}
-			else
-			{
-				// 相应位置0
-				header = (byte) (header & 0xF7);
-			}
-			break;
-		case 4:
-			if (value == true)
-			{
-				// 相应位置1
-				header = (byte) (header | 0x10);
-			}
-			else
-			{
-				// 相应位置0
-				header = (byte) (header & 0xEF);
-			}
-			break;
-		case 5:
-			if (value == true)
-			{
-				// 相应位置1
-				header = (byte) (header | 0x20);
-			}
-			else
-			{
-				// 相应位置0
-				header = (byte) (header & 0xDF);
-			}
-			break;
-		case 6:
-			if (value == true)
-			{
-				// 相应位置1
-				header = (byte) (header | 0x40);
-			}
-			else
-			{
-				// 相应位置0
-				header = (byte) (header & 0xBF);
-			}
-			break;
-		case 7:
-			if (value == true)
-			{
-				// 相应位置1
-				header = (byte) (header | 0x80);
-			}
-			else
+			// 相应位置1
+			header = (byte) (header | (1 << (i & 7)));
+			this.numEmpty--;
+		}
+		else
+		{
+			// 相应位置0
+			header = (byte) (header & ~(1 << (i & 7)));
+			this.numEmpty++;
+		}
+		this.header[headIdx] = header;
+		// header同时写回page的字节
+		this.data.put(headIdx, header);
+	}
+
+	/**
+	 * Returns the tuple stored in the given slot, decoding it from the page
+	 * bytes, or null if the slot is empty.
+	 *
+	 * @throws NoSuchElementException
+	 *             if i is not a slot of this page
+	 */
+	public synchronized Tuple getTuple(int i)
+	{
+		if (i < 0 || i >= this.numSlots)
+			throw new NoSuchElementException("no slot " + i + " on " + this.pid);
+		if (!getSlot(i))
+			return null;
+		return readTuple(i);
+	}
+
+	/**
+	 * Walks the header bitmap and decodes each occupied slot only when the
+	 * caller asks for it. Empty slots are skipped without being decoded.
+	 */
+	private class SlotIterator implements Iterator<Tuple>
+	{
+		// 下一个要检查的slot
+		private int slot = 0;
+
+		public boolean hasNext()
+		{
+			while (slot < numSlots && !getSlot(slot))
+				slot++;
+			return slot < numSlots;
+		}
+
+		public Tuple next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			synchronized (HeapPage.this)
 			{
-				// 相应位置0
-				header = (byte) (header & 0x7F);
+				return readTuple(slot++);
 			}
-			break;
-		default:
 		}
-		this.header[headIdx] = header;
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
 	}
 
 	/**
@@ -611,15 +572,7 @@ public class HeapPage implements Page
 	public Iterator<Tuple> iterator()
 	{
 		// some code goes here
-		ArrayList<Tuple> t = new ArrayList<Tuple>();
-		
-		for (int i=0; i<this.tuples.length; i++)
-		{
-			if (!getSlot(i))
-				continue;
-			t.add(tuples[i]);
-		}
-		
-		return t.iterator();
+		// 只有迭代到的有效slot才会被解码
+		return new SlotIterator();
 	}
 }
@@ -78,7 +78,8 @@ public class HeapPageId implements PageId
 	 */
 	public boolean equals(Object o)
 	{
-		if(! ( o instanceof PageId))
+		// ColumnPageId的tableId和pageno可能和HeapPageId相同, 但不是同一个page
+		if(! ( o instanceof HeapPageId))
 			return false;
 		
 		PageId p = (PageId)o;
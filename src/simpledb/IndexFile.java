@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * An IndexFile is a DbFile holding an index over one INT field of a table.
+ * Its "tuples" are index entries of the form
+ *
+ * <pre>
+ * | key | included fields ... | page number | slot |
+ * </pre>
+ *
+ * where the last two fields are the RecordId of the indexed tuple in the
+ * table. The included fields are copies of other fields of the tuple, so
+ * that a query that only needs those and the key can be answered from the
+ * index alone, without reading the table. Index pages are read and written through the BufferPool like any
+ * other page, so they are locked and rolled back with the transaction that
+ * changes them.
+ * <p>
+ * Indexes are registered with {@link Catalog#addIndex}; the BufferPool then
+ * adds and removes the entries of every tuple inserted into or deleted from
+ * the table.
+ *
+ * @see IndexScan
+ */
+public interface IndexFile extends DbFile
+{
+	/**
+	 * @return the id of the indexed table
+	 */
+	public int getTableId();
+
+	/**
+	 * @return the index of the indexed field in the tuples of the table
+	 */
+	public int getKeyField();
+
+	/**
+	 * @return the indexes, in the tuples of the table, of the fields whose
+	 *         values the entries carry besides the key
+	 */
+	public int[] getIncludedFields();
+
+	/**
+	 * Returns a tuple of the table holding the key and included fields of an
+	 * entry; the other fields are null. Its RecordId is the one of the tuple
+	 * the entry refers to.
+	 */
+	public Tuple toTableTuple(Tuple entry);
+
+	/**
+	 * @return the number of pages of the index
+	 */
+	public int numPages();
+
+	/**
+	 * @return true if {@link #lookup} supports the operator
+	 */
+	public boolean supports(Predicate.Op op);
+
+	/**
+	 * Returns the entries whose key k satisfies <tt>k op key</tt>.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the operator is not supported
+	 */
+	public DbFileIterator lookup(TransactionId tid, Predicate.Op op, Field key);
+
+	/**
+	 * Adds the entry of t, which has just been added to the table and carries
+	 * its RecordId.
+	 *
+	 * @return the pages that were modified
+	 */
+	public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException;
+
+	/**
+	 * Removes the entry of t, which is about to be deleted from the table.
+	 *
+	 * @return the pages that were modified
+	 * @throws DbException
+	 *             if the index has no entry for t
+	 */
+	public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException;
+
+	/**
+	 * @return the RecordId of the tuple an entry of this index refers to
+	 */
+	public RecordId getRecordId(Tuple entry);
+
+	/**
+	 * Builds the index from the tuples of its table if the index is empty.
+	 * Called when the index is added to the catalog, before any transaction
+	 * uses it.
+	 *
+	 * @return true if the index was built
+	 */
+	public boolean build() throws IOException;
+}
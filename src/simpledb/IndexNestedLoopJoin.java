@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins each tuple of its outer child with the tuples of
+ * a table found by looking the value of the join field up in an index of
+ * the table, instead of scanning the whole table for every outer tuple as
+ * {@link Join} does. With a {@link HashFile} each probe reads a constant
+ * number of pages.
+ * <p>
+ * The tuples it returns are the concatenation of the outer and the inner
+ * tuple, as with Join.
+ */
+public class IndexNestedLoopJoin extends AbstractDbIterator
+{
+	private TransactionId tid;
+	private JoinPredicate p;
+	private DbIterator outer;
+	private IndexFile index;
+	private String innerAlias;
+	// 内表上的Filter条件, 对找到的tuple再检查一遍
+	private List<Predicate> innerFilters;
+	// 用外表tuple的值到索引里找的时候用的比较符
+	private Predicate.Op probeOp;
+	private TupleDesc td;
+
+	private Tuple outerTuple;
+	private IndexScan probe;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param tid
+	 *            the transaction the join runs as a part of
+	 * @param p
+	 *            the join predicate; field1 is a field of the outer tuples,
+	 *            field2 must be the key field of index
+	 * @param outer
+	 *            the outer child
+	 * @param index
+	 *            the index of the inner table
+	 * @param innerAlias
+	 *            the alias of the inner table
+	 * @param innerFilters
+	 *            predicates the inner tuples must satisfy as well
+	 * @throws IllegalArgumentException
+	 *             if the index cannot answer the join predicate
+	 */
+	public IndexNestedLoopJoin(TransactionId tid, JoinPredicate p,
+			DbIterator outer, IndexFile index, String innerAlias,
+			List<Predicate> innerFilters)
+	{
+		this.probeOp = reverse(p.getOperator());
+		if (p.getField2() != index.getKeyField() || !index.supports(probeOp))
+			throw new IllegalArgumentException("index " + index.getId()
+					+ " cannot answer the join predicate");
+		this.tid = tid;
+		this.p = p;
+		this.outer = outer;
+		this.index = index;
+		this.innerAlias = innerAlias;
+		this.innerFilters = new ArrayList<Predicate>(innerFilters);
+		this.td = TupleDesc.combine(outer.getTupleDesc(),
+				new IndexScan(tid, index, innerAlias, probeOp, new IntField(0)).getTupleDesc());
+	}
+
+	/**
+	 * @return the operator op' such that <tt>a op b</tt> iff <tt>b op' a</tt>
+	 */
+	static Predicate.Op reverse(Predicate.Op op)
+	{
+		switch (op)
+		{
+		case GREATER_THAN:
+			return Predicate.Op.LESS_THAN;
+		case GREATER_THAN_OR_EQ:
+			return Predicate.Op.LESS_THAN_OR_EQ;
+		case LESS_THAN:
+			return Predicate.Op.GREATER_THAN;
+		case LESS_THAN_OR_EQ:
+			return Predicate.Op.GREATER_THAN_OR_EQ;
+		default:
+			return op;
+		}
+	}
+
+	/**
+	 * @return the index the inner tuples are looked up in
+	 */
+	public IndexFile getIndex()
+	{
+		return index;
+	}
+
+	public TupleDesc getTupleDesc()
+	{
+		return td;
+	}
+
+	public void open() throws DbException, NoSuchElementException,
+			TransactionAbortedException
+	{
+		outer.open();
+	}
+
+	public void close()
+	{
+		super.close();
+		outer.close();
+		if (probe != null)
+			probe.close();
+		probe = null;
+		outerTuple = null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException
+	{
+		super.close();
+		if (probe != null)
+			probe.close();
+		probe = null;
+		outerTuple = null;
+		outer.rewind();
+	}
+
+	protected Tuple readNext() throws TransactionAbortedException, DbException
+	{
+		while (true)
+		{
+			if (probe == null)
+			{
+				if (!outer.hasNext())
+					return null;
+				outerTuple = outer.next();
+				Field key = outerTuple.getField(p.getField1());
+				probe = new IndexScan(tid, index, innerAlias, probeOp, key);
+				probe.open();
+			}
+			while (probe.hasNext())
+			{
+				Tuple inner = probe.next();
+				boolean match = true;
+				for (Predicate f : innerFilters)
+					match &= f.filter(inner);
+				if (match)
+					return join(outerTuple, inner);
+			}
+			probe.close();
+			probe = null;
+		}
+	}
+
+	private Tuple join(Tuple t1, Tuple t2)
+	{
+		Tuple t = new Tuple(td);
+		int n1 = t1.getTupleDesc().numFields();
+		for (int i = 0; i < n1; i++)
+			t.setField(i, t1.getField(i));
+		for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+			t.setField(n1 + i, t2.getField(i));
+		return t;
+	}
+}
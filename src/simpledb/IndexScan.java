@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that returns the tuples of a table whose
+ * indexed field satisfies <tt>field op value</tt>, by looking the value up
+ * in an {@link IndexFile} and fetching the tuples the matching entries
+ * refer to. Unlike {@link SeqScan} it only reads the pages that hold
+ * matching tuples, which pays off for selective predicates.
+ * <p>
+ * A covering scan never reads the table: the tuples it returns are built
+ * from the entries alone, and only hold the key and the included fields of
+ * the index; the other fields are null, as with a SeqScan of a subset of the
+ * columns of a {@link ColumnFile}.
+ */
+public class IndexScan extends AbstractDbIterator
+{
+	TransactionId tid;
+	IndexFile index;
+	String tableAlias;
+	Predicate.Op op;
+	Field value;
+	// 只读索引, 不读表
+	boolean covering;
+	HeapFile table;
+	DbFileIterator entries;
+	// 上一个取到的page, 连续的项经常在同一个page上
+	Page lastPage;
+
+	/**
+	 * Creates a scan of the tuples of the table of index whose indexed field
+	 * satisfies <tt>field op value</tt>.
+	 *
+	 * @param tableAlias
+	 *            the alias of the table, used as the prefix of the field names
+	 *            as in {@link SeqScan}
+	 * @throws IllegalArgumentException
+	 *             if the index does not support the operator
+	 */
+	public IndexScan(TransactionId tid, IndexFile index, String tableAlias,
+			Predicate.Op op, Field value)
+	{
+		this(tid, index, tableAlias, op, value, false);
+	}
+
+	/**
+	 * Creates a scan of the tuples of the table of index whose indexed field
+	 * satisfies <tt>field op value</tt>, or of all of them if op is null.
+	 *
+	 * @param covering
+	 *            if true, the tuples are built from the entries of the index
+	 *            and the table is not read; see {@link #covers}
+	 * @throws IllegalArgumentException
+	 *             if the index does not support the operator
+	 */
+	public IndexScan(TransactionId tid, IndexFile index, String tableAlias,
+			Predicate.Op op, Field value, boolean covering)
+	{
+		if (op != null && !index.supports(op))
+			throw new IllegalArgumentException(op + " is not supported by index " + index.getId());
+		this.tid = tid;
+		this.index = index;
+		this.tableAlias = tableAlias;
+		this.op = op;
+		this.value = value;
+		this.covering = covering;
+		this.table = (HeapFile) Database.getCatalog().getDbFile(index.getTableId());
+	}
+
+	/**
+	 * @return the index this scan looks values up in
+	 */
+	public IndexFile getIndex()
+	{
+		return index;
+	}
+
+	/**
+	 * @return true if the entries of index carry every field of columns, the
+	 *         indexes of fields of its table
+	 */
+	public static boolean covers(IndexFile index, int[] columns)
+	{
+		int[] included = index.getIncludedFields();
+		for (int c : columns)
+		{
+			boolean found = c == index.getKeyField();
+			for (int i = 0; i < included.length && !found; i++)
+				found = included[i] == c;
+			if (!found)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if this scan only reads the index
+	 */
+	public boolean isCovering()
+	{
+		return covering;
+	}
+
+	public void open() throws DbException, TransactionAbortedException
+	{
+		this.entries = op != null ? index.lookup(tid, op, value) : index.iterator(tid);
+		this.entries.open();
+	}
+
+	/**
+	 * Returns the TupleDesc of the table, with field names prefixed with the
+	 * tableAlias string from the constructor.
+	 */
+	public TupleDesc getTupleDesc()
+	{
+		TupleDesc td = table.getTupleDesc();
+		Type[] types = new Type[td.numFields()];
+		String[] names = new String[td.numFields()];
+		String prefix = tableAlias != null ? tableAlias : "";
+		for (int i = 0; i < types.length; i++)
+		{
+			types[i] = td.getType(i);
+			names[i] = prefix + "." + (td.getFieldName(i) != null ? td.getFieldName(i) : "null");
+		}
+		return new TupleDesc(types, names);
+	}
+
+	protected Tuple readNext() throws DbException, TransactionAbortedException
+	{
+		// Join在构造器里就会读取child, 不一定先open
+		if (entries == null)
+			open();
+		while (entries.hasNext())
+		{
+			Tuple e = entries.next();
+			if (covering)
+				return index.toTableTuple(e);
+			RecordId rid = index.getRecordId(e);
+			if (lastPage == null || !lastPage.getId().equals(rid.getPageId()))
+				lastPage = Database.getBufferPool().getPage(tid, rid.getPageId(),
+						Permissions.READ_ONLY);
+			Tuple t = table.getTuple(lastPage, rid.tupleno());
+			// 同一个事务删掉的tuple, 它的项也已经删掉了; 这里只是以防万一
+			if (t != null)
+				return t;
+		}
+		return null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException
+	{
+		close();
+		open();
+	}
+
+	public void close()
+	{
+		super.close();
+		if (entries != null)
+			entries.close();
+		entries = null;
+		lastPage = null;
+	}
+}
@@ -54,12 +54,52 @@ public class JoinOptimizer {
         }
         
         JoinPredicate p = new JoinPredicate(t1id,lj.p,t2id);
+
+        if (!(lj instanceof LogicalSubplanJoinNode)) {
+            j = indexJoin(p, plan1, plan2);
+            if (j != null)
+                return j;
+        }
        
         j = new Join(p,plan1,plan2);
         
         return j;
 
     }
+
+    /**
+     * Returns an {@link IndexNestedLoopJoin} of plan1 with plan2 if plan2 is
+     * a (filtered) scan of a table with an index on its join field that can
+     * answer the join predicate, preferring a hash index for equi-joins.
+     * Join rescans plan2 for every tuple of plan1, so probing an index is
+     * never more expensive.
+     *
+     * @return the join, or null if no index can be used
+     */
+    private DbIterator indexJoin(JoinPredicate p, DbIterator plan1, DbIterator plan2) {
+        ArrayList<Predicate> filters = new ArrayList<Predicate>();
+        DbIterator scan = plan2;
+        while (scan instanceof Filter) {
+            filters.add(((Filter) scan).getPredicate());
+            scan = ((Filter) scan).getChild();
+        }
+        if (!(scan instanceof SeqScan)
+                || plan1.getTupleDesc().getType(p.getField1()) != Type.INT_TYPE)
+            return null;
+        SeqScan ss = (SeqScan) scan;
+        Predicate.Op probe = IndexNestedLoopJoin.reverse(p.getOperator());
+        IndexFile best = null;
+        for (IndexFile index : Database.getCatalog().getIndexes(ss.tableid)) {
+            if (index.getKeyField() != p.getField2() || !index.supports(probe))
+                continue;
+            if (best == null || index instanceof HashFile)
+                best = index;
+        }
+        if (best == null)
+            return null;
+        ss.close();
+        return new IndexNestedLoopJoin(ss.tid, p, plan1, best, ss.tableAlias, filters);
+    }
     
     /**
      * Estimate the cost of a join.
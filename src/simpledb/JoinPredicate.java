@@ -26,6 +26,27 @@ public class JoinPredicate {
     	this.field2 = field2;
     }
 
+    /**
+     * @return the field of the first tuple the predicate compares
+     */
+    public int getField1() {
+        return this.field1;
+    }
+
+    /**
+     * @return the field of the second tuple the predicate compares
+     */
+    public int getField2() {
+        return this.field2;
+    }
+
+    /**
+     * @return the operator of the predicate
+     */
+    public Predicate.Op getOperator() {
+        return this.op;
+    }
+
     /**
      * Apply the predicate to the two specified tuples.
      * The comparison can be made through Field's compare method.
@@ -0,0 +1,195 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * LZCodec is a small, fast LZ77 codec for page images, in the spirit of LZ4:
+ * no entropy coding, a single hash table probe per position and a byte
+ * oriented output that decompresses with little more than array copies.
+ * Pages of repeated strings and small ints typically shrink to a fraction
+ * of their size.
+ * <p>
+ * The compressed form is a sequence of runs. Each run starts with a token
+ * byte whose high four bits are the number of literal bytes and whose low
+ * four bits are the match length minus {@link #MIN_MATCH}; a nibble of 15
+ * means more length bytes follow, each adding up to 255. The literals come
+ * next, then a two byte little-endian offset back into the output and the
+ * extra match length bytes. The last run only has literals.
+ *
+ * @see CompressedHeapFile
+ */
+public class LZCodec
+{
+	// 最短的匹配长度
+	static final int MIN_MATCH = 4;
+	// 匹配能回溯的最大距离, 用两个字节表示
+	static final int MAX_OFFSET = 65535;
+	private static final int HASH_LOG = 12;
+
+	private LZCodec()
+	{
+	}
+
+	private static int readInt(byte[] b, int i)
+	{
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16
+				| (b[i + 3] & 0xFF) << 24;
+	}
+
+	private static int hash(int v)
+	{
+		return (v * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	/**
+	 * Compresses src[srcOff, srcOff + srcLen) into dst starting at dstOff.
+	 *
+	 * @param maxLen
+	 *            the largest compressed size worth keeping
+	 * @return the compressed size, or -1 if it would exceed maxLen
+	 */
+	public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst,
+			int dstOff, int maxLen)
+	{
+		int end = srcOff + srcLen;
+		int dstEnd = dstOff + Math.min(maxLen, dst.length - dstOff);
+		// 每个hash值最近出现的位置+1, 0表示没有出现过
+		int[] table = new int[1 << HASH_LOG];
+		int anchor = srcOff;
+		int i = srcOff;
+		int op = dstOff;
+		int misses = 0;
+		while (i + MIN_MATCH <= end)
+		{
+			int v = readInt(src, i);
+			int h = hash(v);
+			int ref = table[h] - 1;
+			table[h] = i + 1;
+			if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != v)
+			{
+				// 不可压缩的数据越往后跳得越快
+				i += 1 + (misses++ >> 6);
+				continue;
+			}
+			misses = 0;
+			int len = MIN_MATCH;
+			while (i + len < end && src[ref + len] == src[i + len])
+				len++;
+			op = writeRun(src, anchor, i - anchor, i - ref, len, dst, op, dstEnd);
+			if (op < 0)
+				return -1;
+			i += len;
+			anchor = i;
+		}
+		op = writeRun(src, anchor, end - anchor, 0, 0, dst, op, dstEnd);
+		return op < 0 ? -1 : op - dstOff;
+	}
+
+	/**
+	 * Writes one run; a match length of 0 marks the last run.
+	 *
+	 * @return the new output position, or -1 if dstEnd would be passed
+	 */
+	private static int writeRun(byte[] src, int lit, int litLen, int offset,
+			int matchLen, byte[] dst, int op, int dstEnd)
+	{
+		int extra = matchLen - MIN_MATCH;
+		int need = 1 + litLen / 255 + 1 + litLen
+				+ (matchLen > 0 ? 2 + extra / 255 + 1 : 0);
+		if (op + need > dstEnd)
+			return -1;
+		int token = Math.min(litLen, 15) << 4;
+		if (matchLen > 0)
+			token |= Math.min(extra, 15);
+		dst[op++] = (byte) token;
+		op = writeLength(litLen, dst, op);
+		System.arraycopy(src, lit, dst, op, litLen);
+		op += litLen;
+		if (matchLen > 0)
+		{
+			dst[op++] = (byte) offset;
+			dst[op++] = (byte) (offset >>> 8);
+			op = writeLength(extra, dst, op);
+		}
+		return op;
+	}
+
+	// 长度超出token里的4位时, 后面跟着的额外长度字节
+	private static int writeLength(int len, byte[] dst, int op)
+	{
+		if (len < 15)
+			return op;
+		len -= 15;
+		while (len >= 255)
+		{
+			dst[op++] = (byte) 255;
+			len -= 255;
+		}
+		dst[op++] = (byte) len;
+		return op;
+	}
+
+	/**
+	 * Decompresses src[srcOff, srcOff + srcLen) into dst starting at dstOff.
+	 *
+	 * @return the decompressed size
+	 * @throws IOException
+	 *             if the input is corrupt or does not fit in dst
+	 */
+	public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst,
+			int dstOff) throws IOException
+	{
+		int end = srcOff + srcLen;
+		int ip = srcOff;
+		int op = dstOff;
+		try
+		{
+			while (true)
+			{
+				int token = src[ip++] & 0xFF;
+				int litLen = token >>> 4;
+				if (litLen == 15)
+				{
+					int b;
+					do
+					{
+						b = src[ip++] & 0xFF;
+						litLen += b;
+					} while (b == 255);
+				}
+				if (ip + litLen > end)
+					throw new IOException("corrupt LZ data: literals past the end");
+				System.arraycopy(src, ip, dst, op, litLen);
+				ip += litLen;
+				op += litLen;
+				if (ip == end)
+					return op - dstOff;
+
+				int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+				ip += 2;
+				int matchLen = token & 0x0F;
+				if (matchLen == 15)
+				{
+					int b;
+					do
+					{
+						b = src[ip++] & 0xFF;
+						matchLen += b;
+					} while (b == 255);
+				}
+				matchLen += MIN_MATCH;
+				int ref = op - offset;
+				if (offset == 0 || ref < dstOff)
+					throw new IOException("corrupt LZ data: bad offset " + offset);
+				if (op + matchLen > dst.length)
+					throw new IOException("corrupt LZ data: output too long");
+				// 匹配可以和正在写的部分重叠, 所以逐字节复制
+				for (int k = 0; k < matchLen; k++)
+					dst[op++] = dst[ref++];
+			}
+		} catch (IndexOutOfBoundsException e)
+		{
+			throw new IOException("corrupt LZ data: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ListPolicy is the base of the replacement policies that keep the pages of
+ * the pool in doubly linked lists ({@link Queue}). A hash map leads from a
+ * PageId to its node, so that moving a page between lists, adding and
+ * removing it take constant time, however large the pool.
+ * <p>
+ * A parked page is moved from its list to a list of its own, and goes back
+ * to the cold end of the list it came from when it is unparked, so that a
+ * victim is found without walking over dirty pages again. Subclasses only
+ * decide where new and used pages go and which list a victim is taken from.
+ */
+abstract class ListPolicy implements ReplacementPolicy
+{
+	static class Node
+	{
+		final PageId pid;
+		Node prev;
+		Node next;
+		// 节点现在所在的链表; 停放的时候是parked
+		Queue queue;
+		// 停放以前所在的链表
+		Queue home;
+		// CLOCK的引用位
+		boolean referenced;
+
+		Node(PageId pid)
+		{
+			this.pid = pid;
+			this.prev = this;
+			this.next = this;
+		}
+	}
+
+	/**
+	 * A list of pages with a sentinel: head.next is the hot end, head.prev
+	 * the cold end.
+	 */
+	static class Queue
+	{
+		private final Node head = new Node(null);
+		private int size;
+
+		int size()
+		{
+			return size;
+		}
+
+		boolean isEmpty()
+		{
+			return size == 0;
+		}
+
+		/**
+		 * @return the node at the cold end, or null if the list is empty
+		 */
+		Node coldest()
+		{
+			return head.prev == head ? null : head.prev;
+		}
+
+		void addHot(Node n)
+		{
+			link(head, n);
+		}
+
+		void addCold(Node n)
+		{
+			link(head.prev, n);
+		}
+
+		// 把n插到at后面
+		private void link(Node at, Node n)
+		{
+			n.prev = at;
+			n.next = at.next;
+			at.next.prev = n;
+			at.next = n;
+			n.queue = this;
+			size++;
+		}
+
+		void unlink(Node n)
+		{
+			n.prev.next = n.next;
+			n.next.prev = n.prev;
+			n.prev = n;
+			n.next = n;
+			n.queue = null;
+			size--;
+		}
+
+		void moveToHot(Node n)
+		{
+			unlink(n);
+			addHot(n);
+		}
+
+		/**
+		 * Adds the pages of the list to pages, from the hot to the cold end.
+		 */
+		void addTo(List<PageId> pages)
+		{
+			for (Node n = head.next; n != head; n = n.next)
+				pages.add(n.pid);
+		}
+	}
+
+	private final HashMap<PageId, Node> nodes = new HashMap<PageId, Node>();
+	private final Queue parked = new Queue();
+
+	/**
+	 * Puts a page that is new to the pool on one of the lists.
+	 */
+	abstract void admit(Node n);
+
+	/**
+	 * Moves a page of one of the lists after it was used again.
+	 */
+	abstract void hit(Node n);
+
+	/**
+	 * Called after a page was taken off the list from; policies that
+	 * remember evicted pages do so here.
+	 */
+	void removed(Node n, Queue from)
+	{
+	}
+
+	/**
+	 * @return the lists the pages are on, from the most to the least
+	 *         valuable one
+	 */
+	abstract Queue[] queues();
+
+	public int size()
+	{
+		return nodes.size();
+	}
+
+	public boolean isEmpty()
+	{
+		return nodes.isEmpty();
+	}
+
+	public boolean contains(PageId pid)
+	{
+		return nodes.containsKey(pid);
+	}
+
+	public void touch(PageId pid)
+	{
+		Node n = nodes.get(pid);
+		if (n == null)
+		{
+			n = new Node(pid);
+			nodes.put(pid, n);
+			admit(n);
+			return;
+		}
+		if (n.queue == parked)
+			unpark(n);
+		hit(n);
+	}
+
+	public void remove(PageId pid)
+	{
+		Node n = nodes.remove(pid);
+		if (n == null)
+			return;
+		Queue from = n.queue == parked ? n.home : n.queue;
+		n.queue.unlink(n);
+		removed(n, from);
+	}
+
+	public void park(PageId pid)
+	{
+		Node n = nodes.get(pid);
+		if (n == null || n.queue == parked)
+			return;
+		n.home = n.queue;
+		n.queue.unlink(n);
+		parked.addHot(n);
+	}
+
+	public void unpark(PageId pid)
+	{
+		Node n = nodes.get(pid);
+		if (n != null && n.queue == parked)
+			unpark(n);
+	}
+
+	private void unpark(Node n)
+	{
+		parked.unlink(n);
+		n.home.addCold(n);
+		n.home = null;
+	}
+
+	public int unparkAll()
+	{
+		int moved = parked.size();
+		while (!parked.isEmpty())
+			unpark(parked.coldest());
+		return moved;
+	}
+
+	public ArrayList<PageId> pages()
+	{
+		ArrayList<PageId> pages = new ArrayList<PageId>(nodes.size());
+		for (Queue q : queues())
+			q.addTo(pages);
+		parked.addTo(pages);
+		return pages;
+	}
+
+	/**
+	 * @return the page at the cold end of q, or null if q is empty
+	 */
+	static PageId coldest(Queue q)
+	{
+		Node n = q.coldest();
+		return n == null ? null : n.pid;
+	}
+}
@@ -2,7 +2,6 @@ package simpledb;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -21,14 +20,15 @@ import java.util.concurrent.LinkedBlockingQueue;
 public class LockManager {
 	private final Map<PageId, Object> locksOnPage; // 保证申请的时候对页的互斥
 	private final Map<PageId, TransactionId> exclusiveLockOnPage;
-	private final Map<PageId, Collection<TransactionId>> shareLockOnPage;
+	private final ConcurrentHashMap<PageId, Collection<TransactionId>> shareLockOnPage;
 	private final Map<TransactionId, Collection<PageId>> pageLockedByTransaction;
 	
 	public LockManager()
 	{
 		locksOnPage = new ConcurrentHashMap<PageId, Object>();
-		exclusiveLockOnPage = new HashMap<PageId, TransactionId>();
-		shareLockOnPage = new HashMap<PageId, Collection<TransactionId>>();
+		// 不同分区的getPage会同时给不同的页加锁, 所以要用ConcurrentHashMap
+		exclusiveLockOnPage = new ConcurrentHashMap<PageId, TransactionId>();
+		shareLockOnPage = new ConcurrentHashMap<PageId, Collection<TransactionId>>();
 		pageLockedByTransaction = new ConcurrentHashMap<TransactionId, Collection<PageId>>();
 	}
 	
@@ -49,7 +49,7 @@ public class LockManager {
 			return true;
 		}
 		// FIXME 程序会执行到这里吗？
-		else if (shareLockOnPage.containsKey(pid) && shareLockOnPage.get(pid).contains(tid))
+		else if (contains(shareLockOnPage.get(pid), tid))
 		{
 			return true;
 		}
@@ -133,20 +133,24 @@ public class LockManager {
 	
 	/**
 	 * 获得读锁后给读锁表增加信息
+	 * 读锁的集合放进表里以后就不再修改, 每次都换一个新的集合, 
+	 * 这样释放读锁的时候不用拿页面上的锁(申请锁的事务在等待的时候一直拿着它)
 	 * @param pid
 	 * @param tid
 	 */
 	public void addShareLock(PageId pid, TransactionId tid)
 	{
-		if (!shareLockOnPage.containsKey(pid))
+		while (true)
 		{
-			ArrayList<TransactionId> tempShareArray = new ArrayList<TransactionId>();
+			Collection<TransactionId> old = shareLockOnPage.get(pid);
+			ArrayList<TransactionId> tempShareArray = old == null 
+					? new ArrayList<TransactionId>() : new ArrayList<TransactionId>(old);
 			tempShareArray.add(tid);
-			shareLockOnPage.put(pid, (Collection<TransactionId>) tempShareArray);
-		}
-		else
-		{
-			shareLockOnPage.get(pid).add(tid);
+			if (old == null ? shareLockOnPage.putIfAbsent(pid, tempShareArray) == null 
+					: shareLockOnPage.replace(pid, old, tempShareArray))
+			{
+				return;
+			}
 		}
 	}
 	
@@ -297,8 +301,7 @@ public class LockManager {
 					return true;
 				}
 				// 锁升级操作的实现
-				else if(exclusiveLockOnPage.containsKey(pid) == false && shareLockOnPage.containsKey(pid) == true
-						&& shareLockOnPage.get(pid).size() == 1 && shareLockOnPage.get(pid).contains(tid))
+				else if(exclusiveLockOnPage.containsKey(pid) == false && isOnlySharer(pid, tid))
 				{
 					removeReadOnlyLock(pid, tid);
 					exclusiveLockOnPage.put(pid, tid);
@@ -330,18 +333,9 @@ public class LockManager {
 		{
 			exclusiveLockOnPage.remove(pid);
 		}
-		else if (shareLockOnPage.containsKey(pid) && shareLockOnPage.get(pid).contains(tid))
+		else
 		{
-			Collection<TransactionId> temp = shareLockOnPage.get(pid);
-			temp.remove(tid);
-			if (temp.isEmpty())
-			{
-				shareLockOnPage.remove(pid, temp);
-			}
-			else
-			{
-				shareLockOnPage.put(pid, temp);
-			}
+			removeReadOnlyLock(pid, tid);
 		}
 	}
 	
@@ -353,24 +347,22 @@ public class LockManager {
 	 */
 	public void removeReadOnlyLock(PageId pid, TransactionId tid)
 	{
-		if (shareLockOnPage.containsKey(pid) && shareLockOnPage.get(pid).contains(tid))
+		while (true)
 		{
-			Collection<TransactionId> temp = shareLockOnPage.get(pid);
-			temp.remove(tid);
-			if (temp.isEmpty())
+			// 和addShareLock一样换一个新的集合, 别的事务可能同时在加读锁
+			Collection<TransactionId> old = shareLockOnPage.get(pid);
+			// FIXME throw an error
+			if (old == null || !old.contains(tid))
 			{
-				shareLockOnPage.remove(pid, temp);
+				return;
 			}
-			else
+			ArrayList<TransactionId> temp = new ArrayList<TransactionId>(old);
+			temp.remove(tid);
+			if (temp.isEmpty() ? shareLockOnPage.remove(pid, old) : shareLockOnPage.replace(pid, old, temp))
 			{
-				shareLockOnPage.put(pid, temp);
+				return;
 			}
 		}
-		// FIXME throw an error
-		else
-		{
-			;
-		}
 	}
 	
 	/**
@@ -378,9 +370,10 @@ public class LockManager {
 	 */
 	public boolean holdsLockOnPage(PageId pid, TransactionId tid)
 	{
-		if (exclusiveLockOnPage.containsKey(pid))
+		TransactionId owner = exclusiveLockOnPage.get(pid);
+		if (owner != null)
 		{
-			if (exclusiveLockOnPage.get(pid).equals(tid))
+			if (owner.equals(tid))
 			{
 				return true;
 			}
@@ -389,21 +382,56 @@ public class LockManager {
 				return false;
 			}
 		}
-		else if (shareLockOnPage.containsKey(pid))
+		else
 		{
-			if (shareLockOnPage.get(pid).contains(tid))
-			{
-				return true;
-			}
-			else
-			{
-				return false;
-			}
+			return contains(shareLockOnPage.get(pid), tid);
 		}
-		else
+	}
+	
+	/**
+	 * 读锁的集合可能在检查和使用之间被别的事务换掉或者删掉, 所以只取一次
+	 * 
+	 * @return 集合不为null并且包含tid则返回true
+	 */
+	private static boolean contains(Collection<TransactionId> sharers, TransactionId tid)
+	{
+		return sharers != null && sharers.contains(tid);
+	}
+	
+	/**
+	 * @return tid是这个页面上唯一持有读锁的事务则返回true, 这时可以升级成写锁
+	 */
+	private boolean isOnlySharer(PageId pid, TransactionId tid)
+	{
+		Collection<TransactionId> sharers = shareLockOnPage.get(pid);
+		return sharers != null && sharers.size() == 1 && sharers.contains(tid);
+	}
+	
+	/**
+	 * Return true if some transaction other than tid holds a lock on the
+	 * specified page. Used as a hint only; the answer may be stale as soon as
+	 * it is returned. It never blocks: the page's monitor is held by
+	 * transactions waiting for the page, so the lock tables are read
+	 * without it.
+	 */
+	public boolean isLockedByOther(PageId pid, TransactionId tid)
+	{
+		// 两个锁表都是ConcurrentHashMap, 读锁的集合放进去以后不再修改, 不拿页面上的锁也能读
+		TransactionId owner = exclusiveLockOnPage.get(pid);
+		if (owner != null && (tid == null || !owner.equals(tid)))
 		{
-			return false;
+			return true;
+		}
+		Collection<TransactionId> sharers = shareLockOnPage.get(pid);
+		if (sharers != null)
+		{
+			for (TransactionId t : sharers)
+			{
+				if (tid == null || !t.equals(tid))
+					return true;
+			}
 		}
+		return false;
 	}
 	
 	/**
@@ -431,6 +459,9 @@ public class LockManager {
 	
 	public void printLockMap()
 	{
+		// 不打印的时候不要遍历锁表, getPage每次都会调用
+		if (!Debug.isEnabled(4))
+			return;
 		printExclusiveLock();
 		printshareLock();
 		printPageLockedByTransaction();
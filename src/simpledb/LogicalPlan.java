@@ -256,6 +256,176 @@ public  class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Find the fields of a table that the query refers to in its select list,
+     *   WHERE clause, aggregate, GROUP BY and ORDER BY, so that a table stored
+     *   column by column only reads those columns.
+     *  @return the field indexes, or null if the query needs every field (e.g.
+     *   SELECT *) or a name cannot be resolved (the error is reported later)
+     */
+    int[] neededColumns(LogicalScanNode table) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.f);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2);
+        }
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null)
+                names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        HashSet<String> used = new HashSet<String>();
+        for (String name : names) {
+            try {
+                name = disambiguateName(name);
+            } catch (ParsingException e) {
+                return null;
+            }
+            if (name.equals("*") || name.endsWith(".*"))
+                return null;
+            used.add(name);
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (used.contains(table.alias + "." + td.getFieldName(i)))
+                columns.add(i);
+        }
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
+    }
+
+    /** Replace the sequential scan of each table by an {@link IndexScan} when
+     *   one of the filters on the table can be answered by an index of the
+     *   table and reading the matching tuples through the index is estimated
+     *   to be cheaper than scanning the table. Of several such filters the
+     *   cheapest one is used. When an index carries every field of the table
+     *   the query needs, the scan is a covering one that never reads the
+     *   table, and scanning the whole index is considered too.
+     *  @return the filters the chosen index scans answer
+     */
+    private Set<LogicalFilterNode> chooseIndexScans(TransactionId t,
+            HashMap<String,TableStats> statsMap, boolean explain) throws ParsingException {
+        Set<LogicalFilterNode> indexed = new HashSet<LogicalFilterNode>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(table.alias);
+            if (s == null)
+                continue;
+            // 聚簇的表只扫描范围内的page
+            double bestCost = s.estimateScanCost() * clusteredSelectivity(table, s);
+            LogicalFilterNode best = null;
+            IndexFile bestIndex = null;
+            boolean bestCovering = false;
+            // 查询用到的字段都在索引项里的话, 不用回表
+            int[] needed = neededColumns(table);
+            for (IndexFile index : Database.getCatalog().getIndexes(table.t)) {
+                if (needed == null || !IndexScan.covers(index, needed))
+                    continue;
+                double cost = s.estimateCoveringScanCost(1.0, index.numPages());
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestIndex = index;
+                    bestCovering = true;
+                }
+            }
+            for (LogicalFilterNode lf : filters) {
+                if (!lf.t.equals(table.alias))
+                    continue;
+                TupleDesc td = subplanMap.get(table.alias).getTupleDesc();
+                int field;
+                try {
+                    field = td.nameToId(disambiguateName(lf.f));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field in filter expression " + lf.f);
+                }
+                if (td.getType(field) != Type.INT_TYPE)
+                    continue;
+                for (IndexFile index : Database.getCatalog().getIndexes(table.t)) {
+                    if (index.getKeyField() != field || !index.supports(lf.p))
+                        continue;
+                    Field c = new IntField(Integer.parseInt(lf.c));
+                    double sel = s.estimateSelectivity(field, lf.p, c);
+                    boolean covering = needed != null && IndexScan.covers(index, needed);
+                    double cost = covering ? s.estimateCoveringScanCost(sel, index.numPages())
+                            : s.estimateIndexScanCost(sel);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        best = lf;
+                        bestIndex = index;
+                        bestCovering = covering;
+                    }
+                }
+            }
+            if (bestIndex == null)
+                continue;
+            subplanMap.get(table.alias).close();
+            if (best == null) {
+                subplanMap.put(table.alias, new IndexScan(t, bestIndex, table.alias, null, null, true));
+            } else {
+                subplanMap.put(table.alias, new IndexScan(t, bestIndex, table.alias, best.p,
+                        new IntField(Integer.parseInt(best.c)), bestCovering));
+                indexed.add(best);
+            }
+            if (explain)
+                System.out.println("Using " + (bestCovering ? "covering " : "") + "index "
+                        + Database.getCatalog().getTableName(bestIndex.getId())
+                        + (best == null ? "" : " for " + best.f + " " + best.p + " " + best.c));
+        }
+        return indexed;
+    }
+
+    /**
+     * @return the fraction of the pages of a table clustered on an INT field
+     *   that a scan reads because of the filters on that field, or 1 if the
+     *   table is not clustered
+     */
+    private double clusteredSelectivity(LogicalScanNode table, TableStats s)
+            throws ParsingException {
+        DbFile file = Database.getCatalog().getDbFile(table.t);
+        if (!(file instanceof HeapFile) || ((HeapFile) file).getClusterField() < 0)
+            return 1.0;
+        int cluster = ((HeapFile) file).getClusterField();
+        TupleDesc td = subplanMap.get(table.alias).getTupleDesc();
+        double sel = 1.0;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.t.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.nameToId(disambiguateName(lf.f));
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in filter expression " + lf.f);
+            }
+            if (field == cluster)
+                sel *= s.estimateSelectivity(field, lf.p, new IntField(Integer.parseInt(lf.c)));
+        }
+        return sel;
+    }
+
+    /**
+     * Tells the scan at the bottom of node to return its tuples in order of
+     * field when node only filters a scan of a table clustered on field, so
+     * that an ascending ORDER BY needs no OrderBy.
+     *
+     * @return true if the scan keeps the order
+     */
+    private boolean clusteredOrder(DbIterator node, int field) {
+        if (!oByAsc || hasAgg)
+            return false;
+        while (node instanceof Filter)
+            node = ((Filter) node).getChild();
+        return node instanceof SeqScan && ((SeqScan) node).keepOrder(field);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -280,7 +450,9 @@ public  class LogicalPlan {
             SeqScan ss = null;
             try 
             {
-                ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                // 列存的表只读查询用到的列
+                ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias,
+                        neededColumns(table));
             } 
             catch (NoSuchElementException e) 
             {
@@ -301,6 +473,9 @@ public  class LogicalPlan {
             filterSelectivities.put(table.alias, 1.0);
         }
 
+        // 用索引回答的条件不再需要Filter
+        Set<LogicalFilterNode> indexed = chooseIndexScans(t, statsMap, explain);
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -329,7 +504,8 @@ public  class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.f);
             }
-            subplanMap.put(lf.t, new Filter(p, subplan));
+            if (!indexed.contains(lf))
+                subplanMap.put(lf.t, new Filter(p, subplan));
 
             TableStats s = statsMap.get(lf.t);
             
@@ -469,7 +645,12 @@ public  class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().nameToId(disambiguateName(oByField)), oByAsc, node);
+            int field = node.getTupleDesc().nameToId(disambiguateName(oByField));
+            // 按聚簇字段升序的话, 扫描本来就是有序的
+            if (!clusteredOrder(node, field))
+                node = new OrderBy(field, oByAsc, node);
+            else if (explain)
+                System.out.println("Skipping ORDER BY " + oByField + ": the table is clustered on it");
         }
 
         return new Project(outFields, outTypes, node);
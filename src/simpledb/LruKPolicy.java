@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruKPolicy is LRU-K (O'Neil, O'Neil and Weikum): the victim is the page
+ * whose K-th most recent use lies furthest back. Pages used fewer than K
+ * times come first, least recently used first, so a page read once by a
+ * scan goes before any page that was used K times.
+ * <p>
+ * The times of the last K uses of a page are kept after it was evicted, for
+ * as many pages as the pool holds, so that a hot page read again soon after
+ * it was evicted is still known as hot. A use that directly follows the
+ * previous use of the same page, e.g. an operator reading a page twice in a
+ * row, only moves the last use and is not counted on its own. Pages are kept
+ * in a tree ordered by their K-th use, so that using a page and finding the
+ * victim take O(log n) time.
+ */
+class LruKPolicy implements ReplacementPolicy
+{
+	private static class Entry
+	{
+		final PageId pid;
+		// history[0]是最近一次使用的时间, history[k - 1]是倒数第k次的
+		final long[] history;
+		boolean parked;
+
+		Entry(PageId pid, long[] history)
+		{
+			this.pid = pid;
+			this.history = history;
+		}
+	}
+
+	private final int k;
+	// 逻辑时钟, 每用一次page加一
+	private long clock;
+	private final HashMap<PageId, Entry> entries = new HashMap<PageId, Entry>();
+	// 没有停放的page, 第一个是victim
+	private final TreeSet<Entry> order;
+	private final LinkedHashMap<PageId, Entry> parked = new LinkedHashMap<PageId, Entry>();
+	// 换出去的page的使用时间
+	private final LinkedHashMap<PageId, long[]> retained;
+
+	/**
+	 * @param k
+	 *            the number of uses that count, at least 1; LRU-1 is LRU
+	 * @param pages
+	 *            the number of pages the buffer pool holds
+	 */
+	LruKPolicy(int k, final int pages)
+	{
+		if (k < 1)
+			throw new IllegalArgumentException("LRU-K needs K >= 1: " + k);
+		this.k = k;
+		this.order = new TreeSet<Entry>(new Comparator<Entry>()
+		{
+			public int compare(Entry a, Entry b)
+			{
+				int c = compareLong(a.history[a.history.length - 1],
+						b.history[b.history.length - 1]);
+				// 时钟每次都变, 所以history[0]不会相同
+				return c != 0 ? c : compareLong(a.history[0], b.history[0]);
+			}
+		});
+		this.retained = new LinkedHashMap<PageId, long[]>()
+		{
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest)
+			{
+				return size() > Math.max(1, pages);
+			}
+		};
+	}
+
+	private static int compareLong(long a, long b)
+	{
+		return a < b ? -1 : a == b ? 0 : 1;
+	}
+
+	public int size()
+	{
+		return entries.size();
+	}
+
+	public boolean isEmpty()
+	{
+		return entries.isEmpty();
+	}
+
+	public boolean contains(PageId pid)
+	{
+		return entries.containsKey(pid);
+	}
+
+	public void touch(PageId pid)
+	{
+		long now = ++clock;
+		Entry e = entries.get(pid);
+		if (e == null)
+		{
+			// 没有记录的page以前的使用时间都算0, 排在最前面
+			long[] history = retained.remove(pid);
+			e = new Entry(pid, history != null ? history : new long[k]);
+			entries.put(pid, e);
+		}
+		else if (e.parked)
+		{
+			parked.remove(pid);
+			e.parked = false;
+		}
+		else
+			order.remove(e);
+		long[] h = e.history;
+		if (h[0] == 0 || h[0] != now - 1)
+			System.arraycopy(h, 0, h, 1, h.length - 1);
+		h[0] = now;
+		order.add(e);
+	}
+
+	public void remove(PageId pid)
+	{
+		Entry e = entries.remove(pid);
+		if (e == null)
+			return;
+		if (e.parked)
+			parked.remove(pid);
+		else
+			order.remove(e);
+		retained.put(pid, e.history);
+	}
+
+	public PageId victim()
+	{
+		return order.isEmpty() ? null : order.first().pid;
+	}
+
+	public void park(PageId pid)
+	{
+		Entry e = entries.get(pid);
+		if (e == null || e.parked)
+			return;
+		order.remove(e);
+		e.parked = true;
+		parked.put(pid, e);
+	}
+
+	public void unpark(PageId pid)
+	{
+		Entry e = parked.remove(pid);
+		if (e == null)
+			return;
+		// 使用时间没有变, 所以回到停放以前的位置
+		e.parked = false;
+		order.add(e);
+	}
+
+	public int unparkAll()
+	{
+		int moved = parked.size();
+		for (Entry e : parked.values())
+		{
+			e.parked = false;
+			order.add(e);
+		}
+		parked.clear();
+		return moved;
+	}
+
+	public ArrayList<PageId> pages()
+	{
+		ArrayList<PageId> pages = new ArrayList<PageId>(entries.size());
+		for (Entry e : order)
+			pages.add(e.pid);
+		Collections.reverse(pages);
+		pages.addAll(parked.keySet());
+		return pages;
+	}
+}
@@ -0,0 +1,36 @@
+package simpledb;
+
+/**
+ * LruList is the LRU replacement policy: it keeps the pages of the buffer
+ * pool in order of their last use and evicts the least recently used one.
+ * Using, adding and removing a page and finding the victim all take constant
+ * time.
+ * <p>
+ * Dirty pages that eviction runs into are parked (see {@link ListPolicy}),
+ * so each eviction looks at every dirty page at most once.
+ */
+class LruList extends ListPolicy
+{
+	// recent.coldest()是最久没用的
+	private final Queue recent = new Queue();
+
+	void admit(Node n)
+	{
+		recent.addHot(n);
+	}
+
+	void hit(Node n)
+	{
+		recent.moveToHot(n);
+	}
+
+	Queue[] queues()
+	{
+		return new Queue[] { recent };
+	}
+
+	public PageId victim()
+	{
+		return coldest(recent);
+	}
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedHeapFile is a HeapFile for read-mostly tables that reads its pages
+ * from a read-only memory mapping of the backing file instead of copying
+ * them out of the file with read calls. HeapPages are decoded straight from
+ * a slice of the mapping, so the kernel page cache does the caching and
+ * evicting a page from the BufferPool costs nothing but a re-decode.
+ * <p>
+ * The on-disk format is exactly the one of HeapFile. As soon as a page is
+ * written the mapping is dropped and the file falls back to the ordinary
+ * FileChannel path of HeapFile until it is closed; the next access after
+ * {@link #close} maps the file again.
+ * <p>
+ * A table is stored as a MappedHeapFile when its catalog entry carries the
+ * <tt>mmap</tt> option, e.g. <tt>reports (id int pk, total int) mmap</tt>.
+ *
+ * @see simpledb.HeapFile
+ * @see simpledb.Catalog#loadSchema
+ */
+public class MappedHeapFile extends HeapFile
+{
+	// 每段映射的最大字节数, 一个MappedByteBuffer最多只能映射2GB
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	// 只读映射, 为null表示还没有映射
+	private MappedByteBuffer[] segments;
+	// 映射覆盖的page数
+	private int mappedPages;
+	// 写过文件以后不再使用映射, 直到close()
+	private boolean written;
+
+	/**
+	 * Constructs a memory-mapped heap file backed by the specified file.
+	 *
+	 * @param f
+	 *            the file that stores the on-disk backing store for this heap
+	 *            file.
+	 */
+	public MappedHeapFile(File f, TupleDesc td)
+	{
+		super(f, td);
+	}
+
+	/**
+	 * Constructs a memory-mapped heap file whose pages are pageSize bytes
+	 * long.
+	 *
+	 * @see HeapFile#HeapFile(File, TupleDesc, int)
+	 */
+	public MappedHeapFile(File f, TupleDesc td, int pageSize)
+	{
+		super(f, td, pageSize);
+	}
+
+	/**
+	 * Maps the whole file read-only, if it has not been mapped yet.
+	 *
+	 * @return false if the file has been written since it was opened, in
+	 *         which case reads must go through the FileChannel.
+	 */
+	private synchronized boolean map() throws IOException
+	{
+		if (this.written)
+			return false;
+		if (this.segments != null)
+			return true;
+
+		FileChannel fc = getChannel();
+		long size = fc.size();
+		int count = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+		MappedByteBuffer[] segs = new MappedByteBuffer[count];
+		for (int i = 0; i < count; i++)
+		{
+			long start = i * SEGMENT_SIZE;
+			segs[i] = fc.map(FileChannel.MapMode.READ_ONLY, start,
+					Math.min(SEGMENT_SIZE, size - start));
+		}
+		// 文件末尾不足一页的部分交给HeapFile.readPage补0
+		this.mappedPages = (int) (size / getPageSize());
+		this.segments = segs;
+		return true;
+	}
+
+	/**
+	 * Returns a read-only slice of the mapping holding the given page, or
+	 * null if the page has to be read through the FileChannel.
+	 */
+	private synchronized ByteBuffer slice(int pgNo) throws IOException
+	{
+		if (!map() || pgNo >= this.mappedPages)
+			return null;
+		long offset = (long) pgNo * getPageSize();
+		ByteBuffer seg = this.segments[(int) (offset / SEGMENT_SIZE)].duplicate();
+		int pos = (int) (offset % SEGMENT_SIZE);
+		seg.position(pos);
+		seg.limit(pos + getPageSize());
+		return seg.slice();
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid)
+	{
+		try
+		{
+			ByteBuffer page = slice(pid.pageno());
+			if (page != null)
+				return new HeapPage((HeapPageId) pid, page);
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		return super.readPage(pid);
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException
+	{
+		synchronized (this)
+		{
+			// 先放弃映射，之后的读写都走HeapFile的FileChannel
+			this.written = true;
+			this.segments = null;
+			this.mappedPages = 0;
+		}
+		super.writePage(page);
+	}
+
+	// see DbFile.java for javadocs
+	public synchronized void close()
+	{
+		this.segments = null;
+		this.mappedPages = 0;
+		this.written = false;
+		super.close();
+	}
+
+	/**
+	 * @return true if pages are currently served from the memory mapping.
+	 */
+	public synchronized boolean isMapped()
+	{
+		return this.segments != null;
+	}
+}
@@ -350,6 +350,35 @@ public class Parser {
 
     }
 
+    /** Compact a table with {@link Vacuum}. The vacuum runs in transactions of its own,
+     *   so it gives up on pages the current transaction holds locks on.
+     */
+    public static void handleVacuumStatement(String tableName) throws DbException, IOException, simpledb.ParsingException {
+        int id;
+        try {
+            id = Database.getCatalog().getTableId(tableName);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + tableName);
+        }
+        DbFile f = Database.getCatalog().getDbFile(id);
+        if (f.getClass() != HeapFile.class || ((HeapFile) f).getClusterField() >= 0)
+            throw new simpledb.ParsingException("Cannot vacuum " + tableName);
+        Vacuum.Stats stats = new Vacuum((HeapFile) f).compact();
+        System.out.println("Vacuumed " + tableName + ": " + stats);
+        // 页数变了, 代价估计要重新算
+        statsMap.put(tableName, new TableStats(id, IOCOSTPERPAGE));
+    }
+
+    /** @return the table of a statement of the form "VACUUM table;", which Zql
+     *   does not know, or null if s is not such a statement
+     */
+    static String vacuumTable(String s) {
+        String[] words = s.trim().replaceAll(";$", "").trim().split("\\s+");
+        if (words.length == 2 && words[0].equalsIgnoreCase("vacuum"))
+            return words[1];
+        return null;
+    }
+
     public static void handleTransactStatement(ZTransactStmt s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException {
         if (s.getStmtType().equals("COMMIT")) {
             curtrans.transactionComplete(false);
@@ -394,6 +423,11 @@ public class Parser {
     }
 
     public static void processNextStatement(String s) {
+        String vacuum = vacuumTable(s);
+        if (vacuum != null) {
+            processVacuumStatement(vacuum);
+            return;
+        }
     	try {
 			processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
 		} catch (UnsupportedEncodingException e) {
@@ -402,6 +436,18 @@ public class Parser {
 		}    	
     }
     
+    static void processVacuumStatement(String tableName) {
+        try {
+            handleVacuumStatement(tableName);
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (simpledb.ParsingException e) {
+            System.out.println("Invalid VACUUM statement: \n \t" + e.getMessage());
+        }
+    }
+
     public static void processNextStatement(InputStream is) {
         try {
             ZqlParser p = new ZqlParser(is);
@@ -449,7 +495,8 @@ public class Parser {
         "insert",
         "delete",
         "values",
-        "into"
+        "into",
+        "vacuum"
     };
 
     public static void main(String argv[]) throws IOException {
@@ -469,8 +516,14 @@ public class Parser {
         System.out.println("Computing table stats.");
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
+            // 索引不是表, 不需要统计
+            if (Database.getCatalog().getDbFile(tableid) instanceof IndexFile)
+                continue;
             TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
             statsMap.put(Database.getCatalog().getTableName(tableid), s);
+            if (Database.getCatalog().getDbFile(tableid) instanceof CompressedHeapFile)
+                System.out.println(String.format("Table %s: compression ratio %.2f",
+                        Database.getCatalog().getTableName(tableid), s.getCompressionRatio()));
         }
         System.out.println("Done.");
 
@@ -521,6 +574,13 @@ public class Parser {
                     int split = line.indexOf(';');
                     buffer.append(line.substring(0, split+1));
                     byte[] statementBytes = buffer.toString().getBytes("UTF-8");
+                    String vacuum = vacuumTable(buffer.toString());
+                    if (vacuum != null) {
+                        processVacuumStatement(vacuum);
+                        line = line.substring(split+1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     //create a transaction for the query
                     if (curtrans == null) {
@@ -6,6 +6,9 @@ public class Predicate {
 	private Field operand = null;
 	private Op op = null;
 	private int fieldNumber = 0;
+	// 字典编码的列做等值比较时, operand在字典里的编码(-1表示不在字典里)
+	private Dictionary codeDictionary = null;
+	private int operandCode = -1;
 	
     /** Constants used for return codes in Field.compare */
     public enum Op {
@@ -46,6 +49,27 @@ public class Predicate {
     	this.operand = operand;
     }
 
+    /**
+     * @return the field number of the tuples this predicate compares
+     */
+    public int getField() {
+        return this.fieldNumber;
+    }
+
+    /**
+     * @return the operator of this predicate
+     */
+    public Op getOp() {
+        return this.op;
+    }
+
+    /**
+     * @return the value tuples are compared against
+     */
+    public Field getOperand() {
+        return this.operand;
+    }
+
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific
@@ -62,6 +86,19 @@ public class Predicate {
     	// 例如this.operand 是 > 号，则判断传入的t的field参数是不是比初始化到对象里的值大
     	// 是则返回true，即t对应下标对应的值大于this.operand则返回true
     	Field temp = t.getField(this.fieldNumber);
+    	// 字典编码的值做等值比较, 只比较编码, 不比较字符串
+    	if (temp instanceof DictStringField && this.operand instanceof StringField
+    			&& (this.op == Op.EQUALS || this.op == Op.NOT_EQUALS))
+    	{
+    		DictStringField dictField = (DictStringField) temp;
+    		if (dictField.getDictionary() != this.codeDictionary)
+    		{
+    			this.operandCode = dictField.getDictionary().code(
+    					((StringField) this.operand).getValue());
+    			this.codeDictionary = dictField.getDictionary();
+    		}
+    		return (dictField.getCode() == this.operandCode) == (this.op == Op.EQUALS);
+    	}
     	boolean result = false;
     	result = temp.compare(this.op, this.operand);
     	return result;
@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ReadAhead prefetches the pages of a HeapFile that a sequential scan is
+ * about to read. Once the scan has read two pages in ascending order, every
+ * page it reads schedules reads of the next pages, up to a window of
+ * {@link #getWindow} pages ahead, on background threads, which put them
+ * in the buffer pool through {@link BufferPool#prefetch}. The scan then
+ * finds most pages already cached instead of waiting for one read at a
+ * time.
+ * <p>
+ * The window is limited to a quarter of the buffer pool, or half the
+ * {@link BufferRing} of the scan, so that prefetched pages do not evict each
+ * other or the pages the scan is reading, and pages
+ * the zone map rules out for the filters of the scan are not prefetched.
+ */
+public class ReadAhead
+{
+	/**
+	 * Name of the system property that sets the default window in pages,
+	 * e.g. -Dsimpledb.readahead.pages=32; 0 disables read-ahead.
+	 */
+	public static final String WINDOW_PROPERTY = "simpledb.readahead.pages";
+
+	/** Window used when the property is not set. */
+	public static final int DEFAULT_WINDOW = 8;
+
+	private static final int THREADS = 2;
+
+	// -1表示还没有读系统属性
+	private static int window = -1;
+
+	private static final ExecutorService executor = Executors.newFixedThreadPool(
+			THREADS, new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "read-ahead");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private final HeapFile file;
+	private final List<Predicate> filters;
+	private final BufferRing ring;
+	// 扫描上一次读的page, -1表示还没有读过
+	private int last = -1;
+	// 下一个还没有安排预读的page
+	private int next;
+	private volatile boolean closed;
+
+	/**
+	 * Creates the read-ahead of a scan of file whose tuples are filtered by
+	 * filters, and which reads through ring unless it is null.
+	 */
+	ReadAhead(HeapFile file, List<Predicate> filters, BufferRing ring)
+	{
+		this.file = file;
+		this.filters = filters;
+		this.ring = ring;
+	}
+
+	/**
+	 * @return the number of pages scans read ahead of the page they are
+	 *         reading, before the limit of the buffer pool is applied
+	 * @throws IllegalArgumentException
+	 *             if the {@link #WINDOW_PROPERTY} system property is not a
+	 *             number of pages
+	 */
+	public static synchronized int getWindow()
+	{
+		if (window < 0)
+		{
+			String value = System.getProperty(WINDOW_PROPERTY);
+			if (value == null || value.trim().length() == 0)
+				window = DEFAULT_WINDOW;
+			else
+			{
+				try
+				{
+					window = Integer.parseInt(value.trim());
+				} catch (NumberFormatException e)
+				{
+					window = -1;
+				}
+				if (window < 0)
+					throw new IllegalArgumentException("Invalid " + WINDOW_PROPERTY
+							+ ": " + value);
+			}
+		}
+		return window;
+	}
+
+	/**
+	 * Sets the number of pages scans read ahead; 0 disables read-ahead.
+	 */
+	public static synchronized void setWindow(int pages)
+	{
+		if (pages < 0)
+			throw new IllegalArgumentException("negative window " + pages);
+		window = pages;
+	}
+
+	/**
+	 * Tells the read-ahead that the scan is about to read page pgNo, and
+	 * schedules reads of the pages after it if the scan is sequential.
+	 */
+	void access(int pgNo)
+	{
+		boolean sequential = last >= 0 && pgNo > last;
+		last = pgNo;
+		if (next <= pgNo)
+			next = pgNo + 1;
+		if (!sequential)
+			return;
+		final BufferPool pool = Database.getBufferPool();
+		// 用ring的扫描预读到ring里, 不能把还没读的page挤出去
+		long fit = ring != null ? ring.size() / 2
+				: pool.getCapacityBytes() / file.getPageSize() / 4;
+		int end = (int) Math.min(Math.min(pgNo + 1L + getWindow(), pgNo + 1L + fit),
+				file.numPages());
+		for (; next < end; next++)
+		{
+			// 扫描自己还会检查这个page并计数, 这里不算
+			if (!filters.isEmpty() && !file.zones.mayMatch(next, filters, false))
+				continue;
+			final PageId pid = new HeapPageId(file.getId(), next);
+			executor.execute(new Runnable()
+			{
+				public void run()
+				{
+					// 扫描已经结束的话就不用再读了
+					if (!closed)
+						pool.prefetch(pid, ring);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stops the reads that are scheduled but have not started yet.
+	 */
+	void close()
+	{
+		closed = true;
+	}
+}
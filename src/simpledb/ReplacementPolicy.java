@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * ReplacementPolicy decides which page the buffer pool evicts when it needs
+ * room. The buffer pool tells the policy about every use of a page and about
+ * pages that leave the pool, and asks it for a victim.
+ * <p>
+ * Under NO STEAL a dirty page cannot be evicted. A victim the buffer pool
+ * cannot evict is parked ({@link #park}): the policy does not offer it again
+ * until it is unparked, when it is written, or used again. Parked pages still
+ * count as pages of the pool.
+ * <p>
+ * Policies are not thread safe. BufferPool creates one policy per partition
+ * and only calls it with the lock of that partition held, so a policy only
+ * sees the pages of its own partition. The policy to use is chosen when the
+ * buffer pool is created, see {@link BufferPool#POLICY_PROPERTY}.
+ */
+public interface ReplacementPolicy
+{
+	/**
+	 * @return the number of pages the policy tracks, parked ones included
+	 */
+	int size();
+
+	boolean isEmpty();
+
+	/**
+	 * @return true if pid is a page of the pool, parked or not
+	 */
+	boolean contains(PageId pid);
+
+	/**
+	 * Records a use of pid, adding it if it is not in the pool yet. A parked
+	 * page that is used is unparked.
+	 */
+	void touch(PageId pid);
+
+	/**
+	 * Forgets pid, which has left the pool; does nothing if pid is not in the
+	 * pool.
+	 */
+	void remove(PageId pid);
+
+	/**
+	 * Returns the page to evict next, without removing it. Asking for a
+	 * victim may update the state of the policy, e.g. the reference bits of
+	 * CLOCK.
+	 *
+	 * @return the page to evict, or null if every page is parked or the pool
+	 *         is empty
+	 */
+	PageId victim();
+
+	/**
+	 * Stops offering pid as a victim until it is unparked or used; called for
+	 * a dirty page.
+	 */
+	void park(PageId pid);
+
+	/**
+	 * Offers a parked page as a victim again, as if it had not been used
+	 * since it was parked; called once it is clean again.
+	 */
+	void unpark(PageId pid);
+
+	/**
+	 * Unparks every parked page.
+	 *
+	 * @return the number of pages unparked
+	 */
+	int unparkAll();
+
+	/**
+	 * @return the pages of the pool, parked ones included, roughly from the
+	 *         most to the least valuable
+	 */
+	List<PageId> pages();
+}
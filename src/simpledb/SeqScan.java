@@ -14,7 +14,8 @@ public class SeqScan implements DbIterator
 	int tableid;
 	String tableAlias;
 	DbFileIterator it;
-	// HeapFile中public static class HeapFileIterator implements DbFileIterator
+	// 上面的Filter的条件, HeapFile用zone map跳过不可能满足条件的page
+	ArrayList<Predicate> predicates = new ArrayList<Predicate>();
 
 	/**
 	 * Creates a sequential scan over the specified table as a part of the
@@ -39,33 +40,75 @@ public class SeqScan implements DbIterator
 	 * @throws NoSuchElementException 
 	 */
 	public SeqScan(TransactionId tid, int tableid, String tableAlias) throws NoSuchElementException, TransactionAbortedException, DbException
+	{
+		this(tid, tableid, tableAlias, null);
+	}
+
+	/**
+	 * Creates a sequential scan that only needs some of the columns of the
+	 * table. A table stored column by column ({@link ColumnFile}) then only
+	 * reads those columns, and the other fields of the returned tuples may be
+	 * null; other tables ignore columns.
+	 *
+	 * @param columns
+	 *            the indexes of the fields the plan above this scan uses, or
+	 *            null for all of them
+	 */
+	public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) throws NoSuchElementException, TransactionAbortedException, DbException
 	{
 		// some code goes here
 		this.tid = tid;
 		this.tableid = tableid;
 		this.tableAlias = tableAlias;
-		this.it = Database.getCatalog().getDbFile(tableid).iterator(tid);
-		// FIXME 把下面的语句注释掉了，改成了这行 in lab3
-		if (this.it instanceof HeapFile.HeapFileIterator)
-		{
-			((HeapFile.HeapFileIterator)(this.it)).it = ((HeapFile.HeapFileIterator)(this.it)).list.iterator();
-		}
-//		try {
-//			it.open();
-//			if (Debug.isEnabled(2))
-//			{
-//				Debug.log("SeqScan: ");
-//				while (it.hasNext())
-//				{
-//					Debug.log(it.next().toString());
-//				}
-//			}
-//			it.rewind();
-//		} catch (DbException e) {
-//			e.printStackTrace();
-//		} catch (TransactionAbortedException e) {
-//			e.printStackTrace();
-//		}
+		DbFile file = Database.getCatalog().getDbFile(tableid);
+		if (columns != null && file instanceof ColumnFile)
+			this.it = ((ColumnFile) file).iterator(tid, columns);
+		else if (file instanceof HeapFile)
+			this.it = ((HeapFile) file).iterator(tid, predicates);
+		else
+			this.it = file.iterator(tid);
+		// Join/Aggregate在构造器里就会读取child，所以这里先open；
+		// HeapFileIterator是惰性的，open时并不会去BufferPool取page
+		this.it.open();
+	}
+
+	/**
+	 * Tells the scan that its tuples are filtered by p; called by Filter. The
+	 * scan may then skip pages that cannot hold a tuple satisfying p, but it
+	 * does not filter the tuples it returns.
+	 */
+	public void addPredicate(Predicate p)
+	{
+		predicates.add(p);
+	}
+
+	/**
+	 * @return the number of pages the current pass of the scan skipped
+	 *         because of the predicates added with {@link #addPredicate}
+	 */
+	public int getPagesSkipped()
+	{
+		if (it instanceof HeapFile.HeapFileIterator)
+			return ((HeapFile.HeapFileIterator) it).getPagesSkipped();
+		return 0;
+	}
+
+	/**
+	 * Asks the scan to return its tuples in ascending order of field from the
+	 * next open on. A table clustered on field does so without sorting while
+	 * its pages are in order.
+	 *
+	 * @return false if the table is not clustered on field; the order of the
+	 *         scan is then unchanged
+	 */
+	public boolean keepOrder(int field)
+	{
+		DbFile file = Database.getCatalog().getDbFile(tableid);
+		if (!(it instanceof HeapFile.HeapFileIterator)
+				|| ((HeapFile) file).getClusterField() != field)
+			return false;
+		((HeapFile.HeapFileIterator) it).keepOrder();
+		return true;
 	}
 
 	public void open() throws DbException, TransactionAbortedException
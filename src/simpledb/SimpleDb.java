@@ -8,14 +8,12 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-        if (args.length == 3) {
-            HeapFileEncoder.convert(new File(args[1]),
-                        new File(args[1].replaceAll(".txt", ".dat")),
-                        BufferPool.PAGE_SIZE,
-                        Integer.parseInt(args[2]));
-        }
-        else if (args.length == 4) {
+        if (args.length >= 3 && args.length <= 6) {
             ArrayList<Type> ts = new ArrayList<Type>();
+            if (args.length == 3) {
+                for (int i = 0; i < Integer.parseInt(args[2]); i++)
+                    ts.add(Type.INT_TYPE);
+            } else {
             String[] typeStringAr = args[3].split(",");
             for (String s: typeStringAr) {
             if (s.toLowerCase().equals("int"))
@@ -27,10 +25,77 @@ public class SimpleDb {
                 return;
             }
             }
-            HeapFileEncoder.convert(new File(args[1]),
-                        new File(args[1].replaceAll(".txt", ".dat")),
-                        BufferPool.PAGE_SIZE,
-                        Integer.parseInt(args[2]), ts.toArray(new Type[0]));
+            }
+            if (ts.size() != Integer.parseInt(args[2])) {
+                System.out.println("Expected " + args[2] + " types");
+                return;
+            }
+            // optional page size, "slotted" or "compressed" and "cluster=<field>",
+            // matching the table's catalog entry
+            int pageSize = BufferPool.PAGE_SIZE;
+            boolean slotted = false;
+            boolean compressed = false;
+            int cluster = -1;
+            for (int i = 4; i < args.length; i++) {
+                if (args[i].toLowerCase().startsWith("cluster=")) {
+                    try {
+                        cluster = Integer.parseInt(args[i].substring("cluster=".length()));
+                    } catch (NumberFormatException e) {
+                    }
+                    if (cluster < 0 || cluster >= ts.size() || ts.get(cluster) != Type.INT_TYPE) {
+                        System.out.println("Invalid cluster field " + args[i]);
+                        return;
+                    }
+                    continue;
+                }
+                if (args[i].toLowerCase().equals("slotted")) {
+                    slotted = true;
+                    continue;
+                }
+                if (args[i].toLowerCase().equals("compressed")) {
+                    compressed = true;
+                    continue;
+                }
+                long size = BufferPool.parseSize(args[i]);
+                if (!BufferPool.isValidPageSize(size)) {
+                    System.out.println("Invalid page size " + args[i]);
+                    return;
+                }
+                pageSize = (int) size;
+            }
+            File inFile = new File(args[1]);
+            File outFile = new File(args[1].replaceAll(".txt", ".dat"));
+            Type[] types = ts.toArray(new Type[0]);
+            if (slotted && compressed) {
+                System.out.println("A table cannot be both slotted and compressed");
+                return;
+            }
+            if (slotted && cluster >= 0) {
+                System.out.println("A slotted table cannot be clustered");
+                return;
+            }
+            if (compressed) {
+                // load the plain format first, then compress it page by page
+                File plain = File.createTempFile("convert", ".dat", outFile.getAbsoluteFile().getParentFile());
+                plain.deleteOnExit();
+                System.out.println("Loaded " + (cluster >= 0
+                        ? BulkLoader.loadClustered(inFile, plain, pageSize, types, cluster)
+                        : BulkLoader.load(inFile, plain, pageSize, types)));
+                HeapFile source = new HeapFile(plain, new TupleDesc(types), pageSize);
+                CompressedHeapFile copy = CompressedHeapFile.compress(source, outFile);
+                System.out.println(String.format("Compressed %d pages, ratio %.2f",
+                        copy.numPages(), copy.getCompressionRatio()));
+                source.close();
+                copy.close();
+                plain.delete();
+                return;
+            }
+            BulkLoader.Stats stats = slotted
+                        ? BulkLoader.loadSlotted(inFile, outFile, pageSize, types)
+                        : cluster >= 0
+                        ? BulkLoader.loadClustered(inFile, outFile, pageSize, types, cluster)
+                        : BulkLoader.load(inFile, outFile, pageSize, types);
+            System.out.println("Loaded " + stats);
 
         } else {
             System.out.println("Unexpected number of arguments to convert ");
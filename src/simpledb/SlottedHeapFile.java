@@ -0,0 +1,247 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedPages: tuples are
+ * stored as variable length records behind a slot directory, so a string
+ * column only takes as many bytes as its values are long. Tables with short
+ * strings need several times fewer pages than in the fixed-slot HeapPage
+ * format, and scans read correspondingly fewer pages.
+ * <p>
+ * The file is still a plain sequence of pages of getPageSize() bytes, read
+ * and written by HeapFile. Instead of a FreeSpaceMap of pages with an empty
+ * slot it keeps the number of free bytes of every page, rebuilt from the
+ * page headers the first time an insert needs it, and a free list per
+ * power-of-two size class of free bytes, so that an insert only looks at
+ * pages that have room for its record.
+ * <p>
+ * A table is stored as a SlottedHeapFile when its catalog entry carries the
+ * <tt>slotted</tt> option; the BulkLoader writes the format when asked to.
+ *
+ * @see SlottedPage
+ * @see Catalog#loadSchema
+ */
+public class SlottedHeapFile extends HeapFile
+{
+	// 每个page还能用的字节数, 为null表示还没有从磁盘读出来
+	private int[] free;
+	// 按空闲字节数分组的page: 第b组是空闲字节数在[2^(b-1), 2^b)之间的page, 第0组是满的page
+	private BitSet[] buckets;
+
+	/**
+	 * Constructs a slotted heap file backed by the specified file.
+	 */
+	public SlottedHeapFile(File f, TupleDesc td)
+	{
+		this(f, td, BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs a slotted heap file whose pages are pageSize bytes long.
+	 *
+	 * @see HeapFile#HeapFile(File, TupleDesc, int)
+	 */
+	public SlottedHeapFile(File f, TupleDesc td, int pageSize)
+	{
+		super(f, td, pageSize);
+		if (SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE
+				+ SlottedPage.maxRecordSize(td) > pageSize)
+			throw new IllegalArgumentException("tuples of " + td
+					+ " do not fit on a page of " + pageSize + " bytes");
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid)
+	{
+		try
+		{
+			return new SlottedPage((HeapPageId) pid, readPageData(pid));
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		throw new IllegalArgumentException();
+	}
+
+	Iterator<Tuple> tupleIterator(Page page)
+	{
+		return ((SlottedPage) page).iterator();
+	}
+
+	Tuple getTuple(Page page, int slot)
+	{
+		return ((SlottedPage) page).getTuple(slot);
+	}
+
+	void pageReloaded(Page page)
+	{
+		updateFreeSpace((SlottedPage) page);
+	}
+
+	// see DbFile.java for javadocs
+	public synchronized void close()
+	{
+		this.free = null;
+		this.buckets = null;
+		super.close();
+	}
+
+	/**
+	 * Reads the header of every page and records its free bytes.
+	 */
+	private void buildFreeSpace()
+	{
+		int numPages = numPages();
+		int[] bytes = new int[Math.max(16, numPages)];
+		BitSet[] lists = new BitSet[bucketOf(getPageSize()) + 1];
+		for (int b = 0; b < lists.length; b++)
+			lists[b] = new BitSet();
+		ByteBuffer header = ByteBuffer.allocate(SlottedPage.HEADER_SIZE);
+		try
+		{
+			for (int pgNo = 0; pgNo < numPages; pgNo++)
+			{
+				header.clear();
+				readPageHeader(pgNo, header);
+				bytes[pgNo] = SlottedPage.freeBytes(header, getPageSize());
+			}
+		} catch (IOException e)
+		{
+			// 读不了header就当作所有page都可能有空位，由addTuple去检查
+			e.printStackTrace();
+			Arrays.fill(bytes, getPageSize());
+		}
+		for (int pgNo = 0; pgNo < numPages; pgNo++)
+			lists[bucketOf(bytes[pgNo])].set(pgNo);
+		this.free = bytes;
+		this.buckets = lists;
+	}
+
+	/**
+	 * @return the size class of a number of free bytes
+	 */
+	private static int bucketOf(int bytes)
+	{
+		return bytes <= 0 ? 0 : 32 - Integer.numberOfLeadingZeros(bytes);
+	}
+
+	/**
+	 * Records the free bytes of a page after it was modified or reloaded.
+	 */
+	public synchronized void updateFreeSpace(SlottedPage page)
+	{
+		if (free == null)
+			buildFreeSpace();
+		int pgNo = page.getId().pageno();
+		if (pgNo >= free.length)
+			free = Arrays.copyOf(free, Math.max(pgNo + 1, free.length * 2));
+		buckets[bucketOf(free[pgNo])].clear(pgNo);
+		free[pgNo] = page.getFreeBytes();
+		buckets[bucketOf(free[pgNo])].set(pgNo);
+	}
+
+	/**
+	 * Returns a page that has at least need free bytes, preferring pages no
+	 * other transaction holds a lock on. The smallest size class that is
+	 * sure to fit is tried first, so that pages with a lot of room are kept
+	 * for large records; like HeapFile, different transactions start
+	 * looking at different pages of a class.
+	 *
+	 * @return the page number, or -1 if there is no such page
+	 */
+	private synchronized int findFreePage(TransactionId tid, int need)
+	{
+		if (free == null)
+			buildFreeSpace();
+		int numPages = Math.min(numPages(), free.length);
+		if (numPages == 0)
+			return -1;
+		int start = tid == null ? 0 : (int) (tid.getId() % numPages);
+		int b = bucketOf(need);
+		// need所在的组里只有一部分page放得下, 最后再找
+		for (int c = b + 1; c < buckets.length; c++)
+		{
+			int i = findFreePage(buckets[c], tid, need, start, numPages);
+			if (i >= 0)
+				return i;
+		}
+		return findFreePage(buckets[b], tid, need, start, numPages);
+	}
+
+	/**
+	 * Returns the first page of a free list, starting at start and wrapping
+	 * around, that has at least need free bytes and no lock of another
+	 * transaction on it.
+	 *
+	 * @return the page number, or -1 if there is no such page
+	 */
+	private int findFreePage(BitSet list, TransactionId tid, int need, int start, int numPages)
+	{
+		BufferPool pool = Database.getBufferPool();
+		for (int i = list.nextSetBit(start); i >= 0 && i < numPages; i = list.nextSetBit(i + 1))
+			if (free[i] >= need && !pool.isLockedByOther(tid, new HeapPageId(getId(), i)))
+				return i;
+		for (int i = list.nextSetBit(0); i >= 0 && i < start; i = list.nextSetBit(i + 1))
+			if (free[i] >= need && !pool.isLockedByOther(tid, new HeapPageId(getId(), i)))
+				return i;
+		return -1;
+	}
+
+	// see DbFile.java for javadocs
+	public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException
+	{
+		ArrayList<Page> pages_update = new ArrayList<Page>();
+		BufferPool pool = Database.getBufferPool();
+		// 最坏情况要多一个slot目录项
+		int need = SlottedPage.recordSize(t) + SlottedPage.SLOT_SIZE;
+		SlottedPage page;
+		int i;
+		while ((i = findFreePage(tid, need)) >= 0)
+		{
+			PageId pid = new HeapPageId(getId(), i);
+			boolean held = pool.holdsLock(tid, pid);
+			page = (SlottedPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+			if (page.getFreeBytes() < need)
+			{
+				this.updateFreeSpace(page);
+				if (!held && tid != null)
+					pool.releasePage(tid, pid);
+				continue;
+			}
+			page.addTuple(t);
+			this.updateFreeSpace(page);
+			this.zones.tupleAdded(i, t);
+			pages_update.add(page);
+			return pages_update;
+		}
+		// 没有放得下的page, 在文件末尾追加一个空page
+		HeapPageId pid;
+		synchronized (this)
+		{
+			pid = new HeapPageId(getId(), numPages());
+			writePage(new SlottedPage(pid, HeapPage.createEmptyPageData(getPageSize())));
+		}
+		page = (SlottedPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+		page.addTuple(t);
+		this.updateFreeSpace(page);
+		this.zones.tupleAdded(pid.pageno(), t);
+		pages_update.add(page);
+		return pages_update;
+	}
+
+	// see DbFile.java for javadocs
+	public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+			TransactionAbortedException
+	{
+		PageId pageId = t.getRecordId().getPageId();
+		SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid,
+				pageId, Permissions.READ_WRITE);
+		page.deleteTuple(t);
+		this.updateFreeSpace(page);
+		return page;
+	}
+}
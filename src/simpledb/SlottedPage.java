@@ -0,0 +1,532 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedPage stores the pages of a SlottedHeapFile. Unlike HeapPage, whose
+ * slots are all td.getSize() bytes long, a slotted page keeps variable length
+ * records: a STRING_TYPE field takes a 2-byte length plus the bytes of the
+ * string instead of always STRING_LEN + 4 bytes.
+ * <p>
+ * The layout of a page is
+ *
+ * <pre>
+ * | numSlots | dataStart | liveBytes | slot 0 | slot 1 | ... free ... | records |
+ * </pre>
+ *
+ * The header holds three ints: the number of entries of the slot directory,
+ * the offset of the lowest record (0 on a page that has never held one) and
+ * the total length of the records. Each slot directory entry holds the
+ * offset and length of its record as unsigned shorts; an offset of 0 marks
+ * an empty slot. The directory grows up from the header and the records grow
+ * down from the end of the page. A tuple's RecordId names its slot, so a
+ * record can move inside the page without changing its RecordId; deleting a
+ * tuple leaves a hole that is squeezed out ({@link #compact}) when an
+ * insert needs the space.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements Page
+{
+	/** Bytes of the page header. */
+	public static final int HEADER_SIZE = 12;
+	/** Bytes of one slot directory entry. */
+	public static final int SLOT_SIZE = 4;
+
+	HeapPageId pid;
+	TupleDesc td;
+	int pageSize;
+	// the tid of the transaction that last dirtied this page
+	TransactionId tid;
+	boolean dirty;
+
+	// 页面的字节, 不属于这个page的时候第一次修改前先拷贝一份; 可能是BufferPool的off-heap frame
+	ByteBuffer data;
+	// data所在的BufferPool frame编号, -1表示不在frame里
+	int frameNo = -1;
+	boolean owned;
+	// before image, 第一次修改的时候才拷贝; null表示和当前内容一样
+	byte[] oldData;
+
+	/**
+	 * Create a SlottedPage from a set of bytes of data read from disk. The
+	 * page size is the length of data.
+	 */
+	public SlottedPage(HeapPageId id, byte[] data) throws IOException
+	{
+		this.pid = id;
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.pageSize = data.length;
+		this.data = ByteBuffer.wrap(data);
+		this.owned = false;
+		if (numSlots() < 0 || HEADER_SIZE + numSlots() * SLOT_SIZE > dataStart())
+			throw new IOException("corrupt slotted page " + id.pageno());
+	}
+
+	// header里的三个字段
+	private int numSlots()
+	{
+		return data.getInt(0);
+	}
+
+	private int dataStart()
+	{
+		int start = data.getInt(4);
+		// 从来没有放过记录的page全是0
+		return start == 0 ? pageSize : start;
+	}
+
+	private int liveBytes()
+	{
+		return data.getInt(8);
+	}
+
+	private int slotOffset(int slot)
+	{
+		return data.getShort(HEADER_SIZE + slot * SLOT_SIZE) & 0xFFFF;
+	}
+
+	private int slotLength(int slot)
+	{
+		return data.getShort(HEADER_SIZE + slot * SLOT_SIZE + 2) & 0xFFFF;
+	}
+
+	private void setSlot(int slot, int offset, int length)
+	{
+		data.putShort(HEADER_SIZE + slot * SLOT_SIZE, (short) offset);
+		data.putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, (short) length);
+	}
+
+	/**
+	 * @return the number of bytes a tuple takes in a slotted page, without
+	 *         its slot directory entry
+	 */
+	public static int recordSize(Tuple t)
+	{
+		TupleDesc td = t.getTupleDesc();
+		int size = 0;
+		for (int i = 0; i < td.numFields(); i++)
+		{
+			if (td.getType(i) == Type.STRING_TYPE)
+				size += 2 + ((StringField) t.getField(i)).getValue().length();
+			else
+				size += td.getType(i).getLen();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the largest number of bytes a record of the given schema can
+	 *         take
+	 */
+	public static int maxRecordSize(TupleDesc td)
+	{
+		int size = 0;
+		for (int i = 0; i < td.numFields(); i++)
+		{
+			if (td.getType(i) == Type.STRING_TYPE)
+				size += 2 + Type.STRING_LEN;
+			else
+				size += td.getType(i).getLen();
+		}
+		return size;
+	}
+
+	/**
+	 * Encodes a tuple at offset off of buf.
+	 */
+	private static void writeRecord(ByteBuffer buf, int off, Tuple t)
+	{
+		TupleDesc td = t.getTupleDesc();
+		for (int i = 0; i < td.numFields(); i++)
+		{
+			Field f = t.getField(i);
+			if (td.getType(i) == Type.STRING_TYPE)
+			{
+				// 和StringField.serialize一样只写每个字符的低字节
+				String s = ((StringField) f).getValue();
+				buf.putShort(off, (short) s.length());
+				off += 2;
+				for (int j = 0; j < s.length(); j++)
+					buf.put(off++, (byte) s.charAt(j));
+			} else
+			{
+				buf.putInt(off, ((IntField) f).getValue());
+				off += 4;
+			}
+		}
+	}
+
+	/**
+	 * Decodes the record of the given slot.
+	 */
+	private Tuple readRecord(int slot)
+	{
+		int off = slotOffset(slot);
+		Tuple t = new Tuple(td);
+		t.setRecordId(new RecordId(pid, slot));
+		for (int i = 0; i < td.numFields(); i++)
+		{
+			if (td.getType(i) == Type.STRING_TYPE)
+			{
+				int len = data.getShort(off) & 0xFFFF;
+				byte[] bs = new byte[len];
+				ByteBuffer buf = data.duplicate();
+				buf.position(off + 2);
+				buf.get(bs);
+				t.setField(i, new StringField(new String(bs), Type.STRING_LEN));
+				off += 2 + len;
+			} else
+			{
+				t.setField(i, new IntField(data.getInt(off)));
+				off += 4;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Appends a record to a page being built from scratch, e.g. by the
+	 * BulkLoader. The page lives at offset base of buf and must start out
+	 * zeroed.
+	 *
+	 * @param record
+	 *            the encoded record, from its position to its limit
+	 * @return false if the record does not fit on the page
+	 */
+	static boolean append(ByteBuffer buf, int base, int pageSize, ByteBuffer record)
+	{
+		int numSlots = buf.getInt(base);
+		int start = buf.getInt(base + 4);
+		if (start == 0)
+			start = pageSize;
+		int len = record.remaining();
+		if (start - len < HEADER_SIZE + (numSlots + 1) * SLOT_SIZE)
+			return false;
+		start -= len;
+		for (int i = 0; i < len; i++)
+			buf.put(base + start + i, record.get(record.position() + i));
+		int slot = base + HEADER_SIZE + numSlots * SLOT_SIZE;
+		buf.putShort(slot, (short) start);
+		buf.putShort(slot + 2, (short) len);
+		buf.putInt(base, numSlots + 1);
+		buf.putInt(base + 4, start);
+		buf.putInt(base + 8, buf.getInt(base + 8) + len);
+		return true;
+	}
+
+	/**
+	 * Reads the free bytes of a page from its header, as {@link #getFreeBytes}
+	 * would return them.
+	 *
+	 * @param header
+	 *            the first HEADER_SIZE bytes of the page
+	 */
+	static int freeBytes(ByteBuffer header, int pageSize)
+	{
+		return pageSize - HEADER_SIZE - header.getInt(0) * SLOT_SIZE - header.getInt(8);
+	}
+
+	/**
+	 * Return a view of this page before it was modified -- used by recovery
+	 */
+	public synchronized SlottedPage getBeforeImage()
+	{
+		try
+		{
+			return new SlottedPage(pid, oldData != null ? oldData : getPageData());
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public synchronized void setBeforeImage()
+	{
+		oldData = null;
+	}
+
+	/**
+	 * Saves the before image and takes a private copy of the page bytes
+	 * before the first modification.
+	 */
+	private void beginWrite()
+	{
+		if (oldData == null)
+			oldData = getPageData();
+		if (frameNo < 0 && !owned)
+		{
+			data = ByteBuffer.wrap(getPageData());
+			owned = true;
+		}
+	}
+
+	/**
+	 * Moves the bytes of this page into a BufferPool frame, like
+	 * {@link HeapPage#moveToFrame}.
+	 */
+	synchronized void moveToFrame(int frameNo, ByteBuffer frame)
+	{
+		ByteBuffer src = data.duplicate();
+		src.clear();
+		ByteBuffer dst = frame.duplicate();
+		dst.clear();
+		dst.put(src);
+		dst.clear();
+		this.data = dst;
+		this.frameNo = frameNo;
+		this.owned = true;
+	}
+
+	/**
+	 * Copies this page out of its BufferPool frame, like
+	 * {@link HeapPage#releaseFrame}.
+	 *
+	 * @return the number of the frame that was released, or -1 if the page
+	 *         did not live in a frame
+	 */
+	synchronized int releaseFrame()
+	{
+		int released = this.frameNo;
+		if (released >= 0)
+		{
+			this.data = ByteBuffer.wrap(getPageData());
+			this.frameNo = -1;
+		}
+		return released;
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HeapPageId getId()
+	{
+		return pid;
+	}
+
+	/**
+	 * @return the size of this page in bytes
+	 */
+	public int getPageSize()
+	{
+		return pageSize;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page. Used to
+	 * serialize this page to disk.
+	 */
+	public synchronized byte[] getPageData()
+	{
+		byte[] page = new byte[pageSize];
+		ByteBuffer buf = data.duplicate();
+		buf.clear();
+		buf.get(page);
+		return page;
+	}
+
+	/**
+	 * Returns the number of bytes an insert may use on this page, counting
+	 * the holes left by deleted records. A new tuple fits if its record size
+	 * plus SLOT_SIZE is at most this.
+	 */
+	public synchronized int getFreeBytes()
+	{
+		return pageSize - HEADER_SIZE - numSlots() * SLOT_SIZE - liveBytes();
+	}
+
+	/**
+	 * @return the number of tuples on this page
+	 */
+	public synchronized int getNumTuples()
+	{
+		int n = 0;
+		for (int i = 0; i < numSlots(); i++)
+		{
+			if (slotOffset(i) != 0)
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Moves all records to the end of the page, so that the free space
+	 * between the slot directory and the records is contiguous. Slot numbers
+	 * and therefore RecordIds do not change.
+	 */
+	synchronized void compact()
+	{
+		beginWrite();
+		byte[] packed = new byte[pageSize];
+		int start = pageSize;
+		for (int i = 0; i < numSlots(); i++)
+		{
+			int off = slotOffset(i);
+			if (off == 0)
+				continue;
+			int len = slotLength(i);
+			start -= len;
+			ByteBuffer src = data.duplicate();
+			src.position(off);
+			src.get(packed, start, len);
+			setSlot(i, start, len);
+		}
+		ByteBuffer dst = data.duplicate();
+		dst.position(start);
+		dst.put(packed, start, pageSize - start);
+		// 目录和记录之间清0
+		int dirEnd = HEADER_SIZE + numSlots() * SLOT_SIZE;
+		dst.position(dirEnd);
+		dst.put(new byte[start - dirEnd]);
+		data.putInt(4, start);
+	}
+
+	/**
+	 * Adds the specified tuple to the page, reusing an empty slot if there is
+	 * one and compacting the page if the free space is fragmented.
+	 *
+	 * @throws DbException
+	 *             if the tuple does not fit or tupledesc is mismatch.
+	 */
+	public synchronized void addTuple(Tuple t) throws DbException
+	{
+		if (!this.td.equals(t.getTupleDesc()))
+			throw new DbException("SlottedPage addTuple: Tupledesc is not match!");
+		int len = recordSize(t);
+		int numSlots = numSlots();
+		// 先找空的slot重用, 没有就在目录末尾加一个
+		int slot = 0;
+		while (slot < numSlots && slotOffset(slot) != 0)
+			slot++;
+		int dirEnd = HEADER_SIZE + Math.max(numSlots, slot + 1) * SLOT_SIZE;
+		if (getFreeBytes() - (slot == numSlots ? SLOT_SIZE : 0) < len)
+			throw new DbException("SlottedPage addTuple: The page is full!");
+
+		beginWrite();
+		if (dataStart() - len < dirEnd)
+			compact();
+		int start = dataStart() - len;
+		writeRecord(data, start, t);
+		setSlot(slot, start, len);
+		if (slot == numSlots)
+			data.putInt(0, numSlots + 1);
+		data.putInt(4, start);
+		data.putInt(8, liveBytes() + len);
+		t.setRecordId(new RecordId(pid, slot));
+	}
+
+	/**
+	 * Delete the specified tuple from the page. The record's bytes become a
+	 * hole that is reclaimed by the next compaction.
+	 *
+	 * @throws DbException
+	 *             if this tuple is not on this page, or tuple slot is already
+	 *             empty, or holds another tuple.
+	 */
+	public synchronized void deleteTuple(Tuple t) throws DbException
+	{
+		RecordId rid = t.getRecordId();
+		int slot = rid == null ? -1 : rid.tupleno();
+		if (slot < 0 || slot >= numSlots() || !this.pid.equals(rid.getPageId())
+				|| slotOffset(slot) == 0 || !t.getTupleDesc().equals(this.td))
+			throw new DbException("SlottedPage deleteTuple: This tuple is not on this page!");
+		// 删除以后slot会被别的记录重用, 过时的tuple不能删掉现在在这个slot里的记录
+		Tuple stored = readRecord(slot);
+		for (int j = 0; j < td.numFields(); j++)
+		{
+			if (!t.getField(j).equals(stored.getField(j)))
+				throw new DbException("SlottedPage deleteTuple: This tuple is not on this page!");
+		}
+
+		beginWrite();
+		int len = slotLength(slot);
+		ByteBuffer buf = data.duplicate();
+		buf.position(slotOffset(slot));
+		buf.put(new byte[len]);
+		setSlot(slot, 0, 0);
+		data.putInt(8, liveBytes() - len);
+		// 末尾的空slot可以直接从目录里去掉
+		int numSlots = numSlots();
+		while (numSlots > 0 && slotOffset(numSlots - 1) == 0)
+			numSlots--;
+		data.putInt(0, numSlots);
+		if (numSlots == 0)
+			data.putInt(4, 0);
+		t.setRecordId(new RecordId(null, 0));
+	}
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction that did
+	 * the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid)
+	{
+		this.dirty = dirty;
+		this.tid = tid;
+	}
+
+	/**
+	 * Returns the tid of the transaction that last dirtied this page, or null
+	 * if the page is not dirty
+	 */
+	public TransactionId isDirty()
+	{
+		return this.dirty ? this.tid : null;
+	}
+
+	/**
+	 * Returns the tuple in the given slot, or null if the slot is empty.
+	 *
+	 * @throws NoSuchElementException
+	 *             if there is no such slot
+	 */
+	public synchronized Tuple getTuple(int slot)
+	{
+		if (slot < 0 || slot >= numSlots())
+			throw new NoSuchElementException();
+		return slotOffset(slot) == 0 ? null : readRecord(slot);
+	}
+
+	/**
+	 * @return an iterator over all tuples on this page, decoded as they are
+	 *         returned (calling remove on this iterator throws an
+	 *         UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> iterator()
+	{
+		return new Iterator<Tuple>()
+		{
+			int next = 0;
+
+			public boolean hasNext()
+			{
+				synchronized (SlottedPage.this)
+				{
+					while (next < numSlots() && slotOffset(next) == 0)
+						next++;
+					return next < numSlots();
+				}
+			}
+
+			public Tuple next()
+			{
+				synchronized (SlottedPage.this)
+				{
+					if (!hasNext())
+						throw new NoSuchElementException();
+					return readRecord(next++);
+				}
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
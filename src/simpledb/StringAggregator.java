@@ -20,8 +20,11 @@ public class StringAggregator implements Aggregator {
 	// 仅仅用于记录No_GroupBy时候的情况
 	private int count = 0;
 	// 用于记录group_by的情况
-	private HashMap<String, Integer> countHash = new HashMap<String, Integer>();
+	private HashMap<String, Tuple> stringGroups = new HashMap<String, Tuple>();
 	private HashMap<Integer, Integer> countHash_Int = new HashMap<Integer, Integer>();
+	// 字典编码的group-by值按编码直接找到group, 不用对字符串做hash
+	private Dictionary groupDictionary = null;
+	private ArrayList<Tuple> groupsByCode = new ArrayList<Tuple>();
 	
 	private class StringAggregatorIterator implements DbIterator
 	{
@@ -180,8 +183,6 @@ public class StringAggregator implements Aggregator {
     			else
     			{
     				StringField tempGbField = (StringField)tup.getField(this.gbfield);
-    				String tempStringGbField = tempGbField.getValue();
-        			this.countHash.put(tempStringGbField, 1);
         			Type[] tempType = new Type[2];
         			tempType[0] = Type.STRING_TYPE;
             		tempType[1] = Type.INT_TYPE;
@@ -192,6 +193,8 @@ public class StringAggregator implements Aggregator {
         			tempTuple.setField(1, f);
         			// 再加入到merge结果的新表中
         			this.list.add(tempTuple);
+        			this.stringGroups.put(tempGbField.getValue(), tempTuple);
+        			this.rememberCode(tempGbField, tempTuple);
     			}
     			
     		}
@@ -252,28 +255,11 @@ public class StringAggregator implements Aggregator {
     			else
     			{
     				StringField tempGbField = (StringField)tempField;
-        			String key = tempGbField.getValue();
-        			Tuple tempTuple = null;
-        			if (this.countHash.containsKey(key))
+        			Tuple tempTuple = this.findStringGroup(tempGbField);
+        			if (tempTuple != null)
         			{
-        				int count = this.countHash.get(key) + 1;
-        				this.countHash.put(key, count);
-        				IntField countAggregatorResult = new IntField(count);
-        				// 在list里面查找gbfield对应的tuple
-        				Iterator<Tuple> it = this.list.iterator();
-        				while (it.hasNext())
-        				{
-        					tempTuple = it.next();
-        					if (((StringField)(tempTuple.getField(0))).equals(tempGbField))
-        					{
-        						break;
-        					}
-        				}
-        				if (!it.hasNext())
-        				{
-        					System.out.println("Do not find gbfield in list, but gbfield contained in HashMap!");
-        				}
-            			tempTuple.setField(1, countAggregatorResult);
+        				int count = ((IntField) tempTuple.getField(1)).getValue() + 1;
+            			tempTuple.setField(1, new IntField(count));
         			}
         			else
         			{
@@ -287,12 +273,57 @@ public class StringAggregator implements Aggregator {
             			tempTuple.setField(1, countAggregatorResult);
             			// 再加入到merge结果的新表中
             			this.list.add(tempTuple);
+            			this.stringGroups.put(tempGbField.getValue(), tempTuple);
+            			this.rememberCode(tempGbField, tempTuple);
         			}
     			}
     		}
     	}
     }
 
+    /**
+     * Finds the group of a string group-by value: by its code if the value
+     * comes from the dictionary the groups were keyed by, by the string
+     * otherwise.
+     *
+     * @return the group's (groupVal, count) tuple, or null for a new group
+     */
+    private Tuple findStringGroup(StringField gbField)
+    {
+    	if (gbField instanceof DictStringField
+    			&& ((DictStringField) gbField).getDictionary() == this.groupDictionary)
+    	{
+    		int code = ((DictStringField) gbField).getCode();
+    		Tuple group = code < this.groupsByCode.size() ? this.groupsByCode.get(code) : null;
+    		if (group != null)
+    			return group;
+    		// 同一个值可能先以普通StringField出现过
+    		group = this.stringGroups.get(gbField.getValue());
+    		if (group != null)
+    			this.rememberCode(gbField, group);
+    		return group;
+    	}
+    	return this.stringGroups.get(gbField.getValue());
+    }
+
+    /**
+     * Indexes group by the code of gbField if it is dictionary encoded. Only
+     * codes of the first dictionary seen are indexed.
+     */
+    private void rememberCode(StringField gbField, Tuple group)
+    {
+    	if (!(gbField instanceof DictStringField))
+    		return;
+    	DictStringField dictField = (DictStringField) gbField;
+    	if (this.groupDictionary == null)
+    		this.groupDictionary = dictField.getDictionary();
+    	if (dictField.getDictionary() != this.groupDictionary)
+    		return;
+    	while (this.groupsByCode.size() <= dictField.getCode())
+    		this.groupsByCode.add(null);
+    	this.groupsByCode.set(dictField.getCode(), group);
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      *
@@ -19,6 +19,8 @@ public class TableStats {
     private int minInOneCulumn = 0;
     // 某张表的总的记录条数
     private int totalNumberTuples = 0;
+    // 表在磁盘上的压缩比, 不压缩的表是1.0
+    private double compressionRatio = 1.0;
     
     /**
      * Number of bins for the histogram.
@@ -52,11 +54,15 @@ public class TableStats {
     	this.table_Db = Database.getCatalog().getDbFile(tableid);
     	this.tupledesc = table_Db.getTupleDesc();
     	num_field = this.tupledesc.numFields();
+    	if (table_Db instanceof CompressedHeapFile)
+    		this.compressionRatio = ((CompressedHeapFile) table_Db).getCompressionRatio();
     	
     	// 貌似不能在TableStats的构造器里面另外设置tid， 也不知道会不会和已经有的tid重复
     	TransactionId tid = new TransactionId();
     	try {
-			this.iterator = ((HeapFile)table_Db).iterator(tid);
+			// 按page惰性读取，统计时内存占用只有一个page
+			this.iterator = table_Db.iterator(tid);
+			this.iterator.open();
 		} catch (TransactionAbortedException e) {
 			e.printStackTrace();
 		} catch (DbException e) {
@@ -99,9 +105,10 @@ public class TableStats {
     		else
     		{
     			System.out.println("TupleDesc Type is error!");
-    			return;
+    			break;
     		}
     	}
+    	this.iterator.close();
     }
     
     /**
@@ -181,10 +188,6 @@ public class TableStats {
     {
     	Tuple temp = new Tuple(this.tupledesc);
     	try {
-    		// 之所以要加上rewind操作是因为之前的HeapFile中在生成一个
-    		// 总的list的时候操作了内部类的it，但是仅仅next了没rewind
-    		// 这是一个跨模块的耦合错误
-    		this.iterator.rewind();
 	    	while (this.iterator.hasNext())
 	    	{
 				this.totalNumberTuples++;
@@ -245,15 +248,62 @@ public class TableStats {
      * expensive to read as a full page.  (Most real hard drives can't efficiently
      * address regions smaller than a page at a time.)
      * 
+     * A compressed table only reads its compressed bytes, so its pages
+     * count 1 / {@link #getCompressionRatio} each.
+     * 
      * @return The estimated cost of scanning the table.
      */ 
     public double estimateScanCost() {
     	// some code goes here
-    	int numberPages = ((HeapFile)this.table_Db).numPages();
-    	double cost_read_a_page = numberPages * this.ioCostPerPage; 
+    	int numberPages = this.table_Db instanceof ColumnFile
+    			? ((ColumnFile)this.table_Db).numPages()
+    			: ((HeapFile)this.table_Db).numPages();
+    	double cost_read_a_page = Math.ceil(numberPages / this.compressionRatio) * this.ioCostPerPage; 
         return cost_read_a_page;
     }
 
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate with
+     * the given selectivity through an index ({@link IndexScan}): a few pages
+     * to find the first entry, then, since the table is not stored in index
+     * order, one page for every matching tuple.
+     *
+     * @param selectivityFactor
+     *            the selectivity of the predicate the index answers
+     * @return the estimated cost of the index scan
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+        // 直方图有时会给出[0,1]以外的选择率
+        double s = Math.max(0.0, Math.min(1.0, selectivityFactor));
+        return (3 + s * this.totalNumberTuples) * this.ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of a covering {@link IndexScan}, which reads the
+     * matching entries from the pages of the index and never reads the
+     * table: a few pages to find the first entry, then the share of the
+     * index pages that hold the matching entries.
+     *
+     * @param selectivityFactor
+     *            the selectivity of the predicate the index answers; 1.0
+     *            for a scan of the whole index
+     * @param indexPages
+     *            the number of pages of the index
+     * @return the estimated cost of the covering index scan
+     */
+    public double estimateCoveringScanCost(double selectivityFactor, int indexPages) {
+        double s = Math.max(0.0, Math.min(1.0, selectivityFactor));
+        return (3 + Math.ceil(s * indexPages)) * this.ioCostPerPage;
+    }
+
+    /**
+     * @return how many times smaller the table is on disk than its pages
+     *         are in memory; 1.0 for tables that are not compressed
+     */
+    public double getCompressionRatio() {
+        return this.compressionRatio;
+    }
+
     /** 
      * This method returns the number of tuples in the relation,
      * given that a predicate with selectivity selectivityFactor is
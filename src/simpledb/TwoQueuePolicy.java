@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TwoQueuePolicy is the full version of 2Q (Johnson and Shasha). A page read
+ * for the first time goes to a FIFO queue, A1in, which holds about a quarter
+ * of the pool. When it leaves A1in without having been used again, its id is
+ * remembered in A1out, a queue of ids of about half the pool size. Only a
+ * page that is read again while its id is in A1out is taken to be hot and
+ * goes to Am, an LRU list that takes the rest of the pool.
+ * <p>
+ * A scan reads every page once, so its pages pass through A1in and never
+ * push the hot pages out of Am.
+ */
+class TwoQueuePolicy extends ListPolicy
+{
+	private final Queue a1in = new Queue();
+	private final Queue am = new Queue();
+	// 最近从A1in换出去的page, 只记PageId, 按换出的先后排列
+	private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+	private final int kin;
+	private final int kout;
+
+	/**
+	 * @param pages
+	 *            the number of pages the buffer pool holds
+	 */
+	TwoQueuePolicy(int pages)
+	{
+		this.kin = Math.max(1, pages / 4);
+		this.kout = Math.max(1, pages / 2);
+	}
+
+	void admit(Node n)
+	{
+		if (a1out.remove(n.pid))
+			am.addHot(n);
+		else
+			a1in.addHot(n);
+	}
+
+	void hit(Node n)
+	{
+		// A1in里的page再用一次也不动, 相关的连续访问不算是热的
+		if (n.queue == am)
+			am.moveToHot(n);
+	}
+
+	void removed(Node n, Queue from)
+	{
+		if (from != a1in)
+			return;
+		a1out.add(n.pid);
+		if (a1out.size() > kout)
+		{
+			Iterator<PageId> it = a1out.iterator();
+			it.next();
+			it.remove();
+		}
+	}
+
+	Queue[] queues()
+	{
+		return new Queue[] { am, a1in };
+	}
+
+	public PageId victim()
+	{
+		if (a1in.size() > kin || am.isEmpty())
+		{
+			PageId pid = coldest(a1in);
+			if (pid != null)
+				return pid;
+		}
+		return coldest(am);
+	}
+}
@@ -0,0 +1,251 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Vacuum compacts a HeapFile while other transactions keep using it. After
+ * large deletes a heap file keeps its length, and scans keep reading its
+ * half empty pages; Vacuum moves the tuples of the last page into empty
+ * slots of earlier pages and then cuts the emptied page off the file,
+ * working back from the end until the tuples of the last page no longer fit
+ * anywhere else.
+ * <p>
+ * Every page is emptied by a transaction of its own that locks the pages it
+ * touches like any other writer, so a step that conflicts with another
+ * transaction is aborted and retried later. The entries of a moved tuple are
+ * replaced in every index of the table in the same transaction, so indexes
+ * never point at a slot the tuple has left. A vacuum can run in the
+ * foreground ({@link #compact}) or on a background thread ({@link #start})
+ * that pauses between steps so as not to compete with queries for locks and
+ * I/O.
+ */
+public class Vacuum
+{
+	/**
+	 * What a vacuum did.
+	 */
+	public static class Stats
+	{
+		public final long tuplesMoved;
+		public final int pagesFreed;
+		public final int pagesLeft;
+
+		Stats(long tuplesMoved, int pagesFreed, int pagesLeft)
+		{
+			this.tuplesMoved = tuplesMoved;
+			this.pagesFreed = pagesFreed;
+			this.pagesLeft = pagesLeft;
+		}
+
+		public String toString()
+		{
+			return tuplesMoved + " tuples moved, " + pagesFreed + " pages freed, "
+					+ pagesLeft + " pages left";
+		}
+	}
+
+	// 一步被abort以后最多重试几次
+	private static final int MAX_RETRIES = 10;
+
+	private final HeapFile file;
+	private volatile long pauseMillis;
+	private volatile boolean stopped;
+	private long tuplesMoved;
+	private int pagesFreed;
+
+	/**
+	 * Creates a vacuum of file.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the file is not a plain HeapFile: slotted, compressed and
+	 *             memory mapped files cannot be compacted, and moving the
+	 *             tuples of a clustered file would break its order
+	 */
+	public Vacuum(HeapFile file)
+	{
+		if (file.getClass() != HeapFile.class)
+			throw new IllegalArgumentException("cannot compact a " + file.getClass().getSimpleName());
+		if (file.getClusterField() >= 0)
+			throw new IllegalArgumentException("cannot compact a clustered table");
+		this.file = file;
+	}
+
+	/**
+	 * Sets how long to wait after each page, and after a step was aborted.
+	 */
+	public void setPause(long millis)
+	{
+		this.pauseMillis = millis;
+	}
+
+	/**
+	 * Asks a running vacuum to stop after the current step.
+	 */
+	public void stop()
+	{
+		this.stopped = true;
+	}
+
+	/**
+	 * Starts compacting on a daemon thread, pausing pauseMillis after every
+	 * page; {@link #stop} and join the thread to wait for it.
+	 */
+	public Thread start(long pauseMillis)
+	{
+		setPause(pauseMillis);
+		Thread t = new Thread("vacuum " + file.getFile().getName())
+		{
+			public void run()
+			{
+				try
+				{
+					compact();
+				} catch (IOException e)
+				{
+					e.printStackTrace();
+				} catch (DbException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	/**
+	 * Compacts the file until the tuples of its last page do not fit into
+	 * earlier pages, a step was aborted too many times in a row, or
+	 * {@link #stop} is called.
+	 *
+	 * @return what was done
+	 */
+	public Stats compact() throws IOException, DbException
+	{
+		BufferPool pool = Database.getBufferPool();
+		int retries = 0;
+		while (!stopped)
+		{
+			int last = file.numPages() - 1;
+			if (last <= 0)
+				break;
+			TransactionId tid = new TransactionId();
+			boolean progress;
+			try
+			{
+				progress = step(tid, last);
+				pool.transactionComplete(tid);
+				retries = 0;
+			} catch (TransactionAbortedException e)
+			{
+				pool.transactionComplete(tid, false);
+				if (++retries > MAX_RETRIES)
+					break;
+				pause();
+				continue;
+			} catch (DbException e)
+			{
+				pool.transactionComplete(tid, false);
+				throw e;
+			}
+			if (!progress)
+				break;
+			pause();
+		}
+		return new Stats(tuplesMoved, pagesFreed, file.numPages());
+	}
+
+	private void pause()
+	{
+		if (pauseMillis <= 0)
+			return;
+		try
+		{
+			Thread.sleep(pauseMillis);
+		} catch (InterruptedException e)
+		{
+			stopped = true;
+		}
+	}
+
+	/**
+	 * Moves as many tuples of page last as fit into earlier pages, or cuts
+	 * the page off the file if it is empty.
+	 *
+	 * @return false if nothing could be done
+	 */
+	private boolean step(TransactionId tid, int last) throws DbException,
+			IOException, TransactionAbortedException
+	{
+		BufferPool pool = Database.getBufferPool();
+		HeapPageId lastId = new HeapPageId(file.getId(), last);
+		HeapPage page = (HeapPage) pool.getPage(tid, lastId, Permissions.READ_WRITE);
+		ArrayList<Tuple> live = new ArrayList<Tuple>();
+		Iterator<Tuple> it = page.iterator();
+		while (it.hasNext())
+			live.add(it.next());
+		if (live.isEmpty())
+		{
+			// 写锁在手里, 别的事务要等提交以后才能再用这个page(那时它已经在文件外了)
+			if (page.isDirty() != null)
+				return false;
+			pool.discardPage(lastId);
+			if (!file.truncate(last))
+				return false;
+			pagesFreed++;
+			return true;
+		}
+		int moved = 0;
+		for (Tuple t : live)
+		{
+			HeapPage target = findTarget(tid, last);
+			if (target == null)
+				break;
+			Tuple copy = new Tuple(t.getTupleDesc());
+			for (int i = 0; i < copy.getTupleDesc().numFields(); i++)
+				copy.setField(i, t.getField(i));
+			target.addTuple(copy);
+			target.markDirty(true, tid);
+			file.updateFreeSpace(target);
+			file.zones.tupleAdded(target.getId().pageno(), copy);
+			// 索引的项要在t还有原来的RecordId的时候换掉
+			pool.moveIndexEntries(tid, t, copy);
+			page.deleteTuple(t);
+			page.markDirty(true, tid);
+			file.updateFreeSpace(page);
+			moved++;
+		}
+		tuplesMoved += moved;
+		return moved > 0;
+	}
+
+	/**
+	 * @return the first page before page last with an empty slot that no
+	 *         other transaction holds a lock on, locked for writing, or null
+	 *         if there is none
+	 */
+	private HeapPage findTarget(TransactionId tid, int last)
+			throws DbException, TransactionAbortedException
+	{
+		BufferPool pool = Database.getBufferPool();
+		// 从前往后填, 后面的page之后还要被搬空
+		for (int pgNo = file.freeSpace.nextFreePage(0); pgNo >= 0 && pgNo < last;
+				pgNo = file.freeSpace.nextFreePage(pgNo + 1))
+		{
+			PageId pid = new HeapPageId(file.getId(), pgNo);
+			if (pool.isLockedByOther(tid, pid))
+				continue;
+			boolean held = pool.holdsLock(tid, pid);
+			HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+			if (page.getNumEmptySlots() > 0)
+				return page;
+			// free space map只是提示
+			file.updateFreeSpace(page);
+			if (!held)
+				pool.releasePage(tid, pid);
+		}
+		return null;
+	}
+}
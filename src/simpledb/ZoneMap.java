@@ -0,0 +1,780 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile, the smallest and largest value
+ * of each INT field on the page. A scan with a filter on an INT field asks
+ * {@link #mayMatch} before fetching a page and skips pages whose range
+ * cannot satisfy the predicate, without reading them. On tables whose rows
+ * arrive roughly in key order (ids, timestamps) a range filter then only
+ * reads the few pages that overlap the range.
+ * <p>
+ * For each STRING field it keeps a Bloom filter of the values on the page
+ * instead, of one bit per 8 bytes of page, set by three hashes of each
+ * value. An equality filter on a string that is on few pages, e.g. a name,
+ * then skips almost every other page whatever the order of the rows, with
+ * no index to maintain.
+ * <p>
+ * The summaries are bounds, not exact values: an insert widens the range of
+ * its page and sets the bits of its strings right away, while deletes only
+ * narrow them when the page is next written. They are stored next to the
+ * table in the file <i>f</i><tt>.zone</tt>: a header giving the size of an
+ * entry, then for each page two ints per INT field followed by the Bloom
+ * filters. Before a page is written its entry is widened to cover the new
+ * contents, so the file stays a valid bound for the page on disk even if a
+ * write is torn. Pages without an entry, e.g. of a table written by the
+ * bulk loader, are summarized from disk the first time the map is used, and
+ * so is every page if the file was written with another entry size. Since
+ * the zone file can always be rebuilt, the zone file of a table in the
+ * temporary directory (e.g. made by File.createTempFile) is deleted when
+ * the JVM exits, like such tables normally are.
+ * <p>
+ * For a table clustered on an INT field ({@link HeapFile#setClusterField})
+ * the ranges of that field form a sparse directory of the file: as long as
+ * the ranges of the non-empty pages ascend without overlapping, a range
+ * predicate is turned into the first and last page to read by binary search
+ * ({@link #pageRange}), and inserts are steered to a page that keeps the
+ * order ({@link #insertRange}). The order is checked on the summaries
+ * themselves, so a tuple that ends up out of place only turns the directory
+ * off until the table is loaded in order again.
+ *
+ * @see HeapFile#iterator(TransactionId, List)
+ * @see Filter
+ */
+public class ZoneMap
+{
+	private final HeapFile file;
+	// zone文件开头的magic
+	private static final int MAGIC = 0x5a4d4150;
+	private static final int HEADER_SIZE = 8;
+
+	// INT字段的下标; zoneColumn[字段下标]是它在summary里是第几列, 不是INT字段为-1
+	private final int[] fields;
+	private final int[] zoneColumn;
+	// STRING字段的下标; bloomColumn[字段下标]是它在summary里是第几个Bloom filter, 不是STRING字段为-1
+	private final int[] strings;
+	private final int[] bloomColumn;
+	// 每个Bloom filter的int数, 和summary的int数
+	private final int bloomWords;
+	private final int width;
+	private final File zoneFile;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+
+	// 每个page的summary: min0, max0, min1, max1, ...; null表示还没有读进来
+	private ArrayList<int[]> zones;
+	// zone文件里每个page的summary
+	private ArrayList<int[]> saved;
+	private long pagesSkipped;
+
+	// 聚簇字段的目录: 非空page的编号和范围, 按page顺序; directoryField为-1表示要重新建
+	private int directoryField = -1;
+	private int dirCount;
+	private int[] dirPages;
+	private int[] dirLo;
+	private int[] dirHi;
+	private boolean dirOrdered;
+
+	public ZoneMap(HeapFile file)
+	{
+		this.file = file;
+		TupleDesc td = file.getTupleDesc();
+		this.zoneColumn = new int[td.numFields()];
+		int n = 0;
+		for (int i = 0; i < td.numFields(); i++)
+			zoneColumn[i] = td.getType(i) == Type.INT_TYPE ? n++ : -1;
+		this.fields = new int[n];
+		for (int i = 0; i < td.numFields(); i++)
+		{
+			if (zoneColumn[i] >= 0)
+				fields[zoneColumn[i]] = i;
+		}
+		this.bloomColumn = new int[td.numFields()];
+		int s = 0;
+		for (int i = 0; i < td.numFields(); i++)
+			bloomColumn[i] = td.getType(i) == Type.STRING_TYPE ? s++ : -1;
+		this.strings = new int[s];
+		for (int i = 0; i < td.numFields(); i++)
+		{
+			if (bloomColumn[i] >= 0)
+				strings[bloomColumn[i]] = i;
+		}
+		// 每8个字节的page一个bit
+		this.bloomWords = Math.max(1, file.getPageSize() / 256);
+		this.width = fields.length * 2 + strings.length * bloomWords;
+		this.zoneFile = fileFor(file.getFile());
+	}
+
+	/**
+	 * @return the file the zone map of the table stored in dataFile is kept in
+	 */
+	public static File fileFor(File dataFile)
+	{
+		return new File(dataFile.getPath() + ".zone");
+	}
+
+	/**
+	 * @return true if dataFile is in the temporary directory
+	 *         (java.io.tmpdir), where File.createTempFile puts files
+	 */
+	static boolean isTemporary(File dataFile)
+	{
+		String tmp = System.getProperty("java.io.tmpdir");
+		File parent = dataFile.getAbsoluteFile().getParentFile();
+		if (tmp == null || parent == null)
+			return false;
+		try
+		{
+			return parent.getCanonicalFile().equals(new File(tmp).getCanonicalFile());
+		} catch (IOException e)
+		{
+			return parent.equals(new File(tmp).getAbsoluteFile());
+		}
+	}
+
+	/**
+	 * Deletes the zone map of the table stored in dataFile; called by tools
+	 * that rewrite the data file without going through a HeapFile.
+	 */
+	public static void discard(File dataFile)
+	{
+		fileFor(dataFile).delete();
+	}
+
+	/**
+	 * @return the file the summaries are stored in
+	 */
+	public File getFile()
+	{
+		return zoneFile;
+	}
+
+	private int[] empty()
+	{
+		int[] z = new int[width];
+		for (int c = 0; c < fields.length; c++)
+		{
+			z[2 * c] = Integer.MAX_VALUE;
+			z[2 * c + 1] = Integer.MIN_VALUE;
+		}
+		return z;
+	}
+
+	private int[] unknown()
+	{
+		int[] z = new int[width];
+		for (int c = 0; c < fields.length; c++)
+		{
+			z[2 * c] = Integer.MIN_VALUE;
+			z[2 * c + 1] = Integer.MAX_VALUE;
+		}
+		// 所有bit都是1, 什么值都可能有
+		Arrays.fill(z, fields.length * 2, width, -1);
+		return z;
+	}
+
+	/**
+	 * @return the bits of the Bloom filters that value sets, as indexes into
+	 *         the bits of one filter
+	 */
+	private int[] bloomBits(String value)
+	{
+		int bits = bloomWords * 32;
+		// String.hashCode的低位在相似的字符串之间差别不大, 先打散
+		int h1 = mix(value.hashCode());
+		int h2 = mix(h1) | 1;
+		int[] result = new int[3];
+		for (int i = 0; i < result.length; i++)
+			result[i] = ((h1 + i * h2) & 0x7fffffff) % bits;
+		return result;
+	}
+
+	/**
+	 * @return h with its bits mixed (the finalizer of MurmurHash3)
+	 */
+	private static int mix(int h)
+	{
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * @return the offset in a summary of the Bloom filter of STRING field s
+	 */
+	private int bloomOffset(int s)
+	{
+		return fields.length * 2 + s * bloomWords;
+	}
+
+	/**
+	 * Widens z to cover the fields of t.
+	 *
+	 * @return true if z changed
+	 */
+	private boolean widen(int[] z, Tuple t)
+	{
+		boolean changed = false;
+		for (int c = 0; c < fields.length; c++)
+		{
+			int v = ((IntField) t.getField(fields[c])).getValue();
+			if (v < z[2 * c])
+			{
+				z[2 * c] = v;
+				changed = true;
+			}
+			if (v > z[2 * c + 1])
+			{
+				z[2 * c + 1] = v;
+				changed = true;
+			}
+		}
+		for (int s = 0; s < strings.length; s++)
+		{
+			int base = bloomOffset(s);
+			for (int bit : bloomBits(((StringField) t.getField(strings[s])).getValue()))
+			{
+				int mask = 1 << (bit & 31);
+				if ((z[base + (bit >>> 5)] & mask) == 0)
+				{
+					z[base + (bit >>> 5)] |= mask;
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Widens z to cover the summary old as well.
+	 */
+	private void merge(int[] z, int[] old)
+	{
+		for (int c = 0; c < fields.length; c++)
+		{
+			z[2 * c] = Math.min(z[2 * c], old[2 * c]);
+			z[2 * c + 1] = Math.max(z[2 * c + 1], old[2 * c + 1]);
+		}
+		for (int i = fields.length * 2; i < width; i++)
+			z[i] |= old[i];
+	}
+
+	/**
+	 * @return the exact ranges of the tuples of page, or unknown ranges if
+	 *         the page cannot be decoded
+	 */
+	private int[] summarize(Page page)
+	{
+		int[] z = empty();
+		try
+		{
+			Iterator<Tuple> it = file.tupleIterator(page);
+			while (it.hasNext())
+				widen(z, it.next());
+		} catch (RuntimeException e)
+		{
+			// 解析不了的page什么都可能有, 不跳过
+			return unknown();
+		}
+		return z;
+	}
+
+	private FileChannel channel() throws IOException
+	{
+		if (channel == null || !channel.isOpen())
+		{
+			// 临时表的zone文件和表一起在退出的时候删掉, 不然临时目录里会留下越来越多的zone文件
+			if (!zoneFile.exists() && isTemporary(file.getFile()))
+				zoneFile.deleteOnExit();
+			raf = new RandomAccessFile(zoneFile, "rw");
+			channel = raf.getChannel();
+		}
+		return channel;
+	}
+
+	/**
+	 * Reads the entries of the zone file, at most one per page of the table.
+	 */
+	private void loadSaved()
+	{
+		if (saved != null)
+			return;
+		saved = new ArrayList<int[]>();
+		if (!zoneFile.exists())
+			return;
+		int entrySize = width * 4;
+		try
+		{
+			FileChannel fc = channel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining())
+			{
+				if (fc.read(header, header.position()) < 0)
+					break;
+			}
+			header.flip();
+			if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+					|| header.getInt() != width)
+			{
+				// 旧的或者别的格式, 从page重新算
+				fc.truncate(0);
+				return;
+			}
+			int entries = (int) Math.min((zoneFile.length() - HEADER_SIZE) / entrySize,
+					file.numPages());
+			ByteBuffer buf = ByteBuffer.allocate(entries * entrySize);
+			while (buf.hasRemaining())
+			{
+				if (fc.read(buf, HEADER_SIZE + buf.position()) < 0)
+					break;
+			}
+			buf.flip();
+			for (int pg = 0; pg < entries; pg++)
+			{
+				int[] z = new int[width];
+				for (int i = 0; i < z.length; i++)
+					z[i] = buf.getInt();
+				saved.add(z);
+			}
+		} catch (IOException e)
+		{
+			// 读不了就当作没有summary, 之后从page重新算
+			e.printStackTrace();
+			saved.clear();
+		}
+	}
+
+	/**
+	 * Writes the entry of page pgNo; the entries of pages between the end of
+	 * the file and pgNo are written as unknown ranges.
+	 */
+	private void save(int pgNo, int[] z) throws IOException
+	{
+		int from = Math.min(pgNo, saved.size());
+		ByteBuffer buf = ByteBuffer.allocate((pgNo - from + 1) * z.length * 4);
+		for (int pg = from; pg <= pgNo; pg++)
+		{
+			int[] entry = pg == pgNo ? z : unknown();
+			for (int i = 0; i < entry.length; i++)
+				buf.putInt(entry[i]);
+			if (pg < saved.size())
+				saved.set(pg, entry);
+			else
+				saved.add(entry);
+		}
+		buf.flip();
+		FileChannel fc = channel();
+		if (from == 0)
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(width).flip();
+			while (header.hasRemaining())
+				fc.write(header, header.position());
+		}
+		long offset = HEADER_SIZE + (long) from * z.length * 4;
+		while (buf.hasRemaining())
+			fc.write(buf, offset + buf.position());
+	}
+
+	/**
+	 * Loads the summaries, computing and saving those of the pages the zone
+	 * file has no entry for. The pages are read without holding the lock of
+	 * the map, since reading takes the lock of the HeapFile, which writers
+	 * hold while they update the map.
+	 */
+	private void load()
+	{
+		int from;
+		synchronized (this)
+		{
+			if (zones != null)
+				return;
+			loadSaved();
+			from = saved.size();
+		}
+		ArrayList<int[]> computed = new ArrayList<int[]>();
+		int numPages = file.numPages();
+		for (int pg = from; pg < numPages; pg++)
+		{
+			try
+			{
+				computed.add(summarize(file.readPage(new HeapPageId(file.getId(), pg))));
+			} catch (RuntimeException e)
+			{
+				// 读不出来的page(比如表不在catalog里)不跳过, 也不写到zone文件里
+				computed.add(null);
+			}
+		}
+		synchronized (this)
+		{
+			if (zones != null)
+				return;
+			for (int i = 0; i < computed.size() && computed.get(i) != null; i++)
+			{
+				if (from + i != saved.size())
+					break;
+				try
+				{
+					save(from + i, computed.get(i));
+				} catch (IOException e)
+				{
+					e.printStackTrace();
+					break;
+				}
+			}
+			ArrayList<int[]> loaded = new ArrayList<int[]>();
+			for (int pg = 0; pg < from; pg++)
+				loaded.add(saved.get(pg).clone());
+			for (int[] z : computed)
+				loaded.add(z != null ? z.clone() : unknown());
+			zones = loaded;
+			directoryField = -1;
+		}
+	}
+
+	private int[] zone(int pgNo)
+	{
+		while (zones.size() <= pgNo)
+			zones.add(empty());
+		return zones.get(pgNo);
+	}
+
+	/**
+	 * Widens the summary of page pgNo to cover t; called when t is added to
+	 * the page.
+	 */
+	public void tupleAdded(int pgNo, Tuple t)
+	{
+		if (width == 0)
+			return;
+		load();
+		synchronized (this)
+		{
+			if (widen(zone(pgNo), t))
+				directoryField = -1;
+		}
+	}
+
+	/**
+	 * Records the contents of page before it is written to disk: the zone
+	 * file entry is widened to cover them and the summary in memory becomes
+	 * exact, dropping the values of deleted tuples.
+	 */
+	public void pageWritten(Page page) throws IOException
+	{
+		if (width == 0)
+			return;
+		int pgNo = page.getId().pageno();
+		int[] z = summarize(page);
+		load();
+		synchronized (this)
+		{
+			int[] old = pgNo < saved.size() ? saved.get(pgNo) : null;
+			int[] bound = z.clone();
+			if (old != null)
+				merge(bound, old);
+			if (!Arrays.equals(bound, old))
+				save(pgNo, bound);
+			zone(pgNo);
+			zones.set(pgNo, z);
+			directoryField = -1;
+		}
+	}
+
+	/**
+	 * Returns false if no tuple of page pgNo can satisfy all of the given
+	 * predicates, i.e. the page can be skipped; only predicates on INT fields
+	 * and equality with a string on STRING fields rule out pages. A skipped
+	 * page is counted.
+	 */
+	public boolean mayMatch(int pgNo, List<Predicate> predicates)
+	{
+		return mayMatch(pgNo, predicates, true);
+	}
+
+	/**
+	 * Like {@link #mayMatch(int, List)}, but only counts the page as skipped
+	 * if count is set; read-ahead checks pages the scan will check again.
+	 */
+	public boolean mayMatch(int pgNo, List<Predicate> predicates, boolean count)
+	{
+		if (width == 0 || predicates.isEmpty())
+			return true;
+		load();
+		synchronized (this)
+		{
+			if (pgNo >= zones.size())
+				return true;
+			int[] z = zones.get(pgNo);
+			for (Predicate p : predicates)
+			{
+				int c = zoneColumn[p.getField()];
+				int s = bloomColumn[p.getField()];
+				boolean match;
+				if (c >= 0 && p.getOperand() instanceof IntField)
+					match = mayMatch(z[2 * c], z[2 * c + 1], p.getOp(),
+							((IntField) p.getOperand()).getValue());
+				else if (s >= 0 && p.getOp() == Predicate.Op.EQUALS
+						&& p.getOperand() instanceof StringField)
+					match = mayContain(z, s, ((StringField) p.getOperand()).getValue());
+				else
+					continue;
+				if (!match)
+				{
+					if (count)
+						pagesSkipped++;
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return true if some value in [lo, hi] satisfies "value op v"
+	 */
+	private static boolean mayMatch(int lo, int hi, Predicate.Op op, int v)
+	{
+		// lo > hi 表示page上没有tuple
+		if (lo > hi)
+			return false;
+		switch (op)
+		{
+		case EQUALS:
+		case LIKE:
+			return lo <= v && v <= hi;
+		case NOT_EQUALS:
+			return !(lo == v && hi == v);
+		case GREATER_THAN:
+			return hi > v;
+		case GREATER_THAN_OR_EQ:
+			return hi >= v;
+		case LESS_THAN:
+			return lo < v;
+		case LESS_THAN_OR_EQ:
+			return lo <= v;
+		}
+		return true;
+	}
+
+	/**
+	 * @return false if the Bloom filter of STRING field s in z shows that
+	 *         value is not on the page
+	 */
+	private boolean mayContain(int[] z, int s, String value)
+	{
+		int base = bloomOffset(s);
+		for (int bit : bloomBits(value))
+		{
+			if ((z[base + (bit >>> 5)] & (1 << (bit & 31))) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Builds the directory of INT field field unless it is up to date; called
+	 * with the lock of the map held.
+	 */
+	private void directory(int field)
+	{
+		if (directoryField == field)
+			return;
+		int c = zoneColumn[field];
+		int numPages = file.numPages();
+		int n = Math.min(zones.size(), numPages);
+		dirPages = new int[n];
+		dirLo = new int[n];
+		dirHi = new int[n];
+		dirCount = 0;
+		// 没有summary的page可能有任何值
+		dirOrdered = zones.size() >= numPages;
+		for (int pg = 0; pg < n && dirOrdered; pg++)
+		{
+			int[] z = zones.get(pg);
+			// 空的page不进目录
+			if (z[2 * c] > z[2 * c + 1])
+				continue;
+			if (dirCount > 0 && z[2 * c] < dirHi[dirCount - 1])
+				dirOrdered = false;
+			dirPages[dirCount] = pg;
+			dirLo[dirCount] = z[2 * c];
+			dirHi[dirCount] = z[2 * c + 1];
+			dirCount++;
+		}
+		directoryField = field;
+	}
+
+	/**
+	 * @return the first index i < n with a[i] >= v, or n if there is none;
+	 *         a must be ascending
+	 */
+	private static int firstAtLeast(int[] a, int n, long v)
+	{
+		int lo = 0;
+		int hi = n;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (a[mid] < v)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return true if the non-empty pages of the file are in order of INT
+	 *         field field: their ranges ascend without overlapping
+	 */
+	public boolean isOrdered(int field)
+	{
+		if (zoneColumn[field] < 0)
+			return false;
+		load();
+		synchronized (this)
+		{
+			directory(field);
+			return dirOrdered;
+		}
+	}
+
+	/**
+	 * Returns the first and last page that may hold a tuple satisfying the
+	 * predicates on INT field field, found by binary search in the directory
+	 * of the field; the last is smaller than the first if no page can. Other
+	 * predicates are ignored.
+	 *
+	 * @return the page numbers, or null if the pages are not in order of the
+	 *         field
+	 */
+	public int[] pageRange(int field, List<Predicate> predicates)
+	{
+		if (zoneColumn[field] < 0)
+			return null;
+		long lo = Integer.MIN_VALUE;
+		long hi = Integer.MAX_VALUE;
+		for (Predicate p : predicates)
+		{
+			if (p.getField() != field || !(p.getOperand() instanceof IntField))
+				continue;
+			long v = ((IntField) p.getOperand()).getValue();
+			switch (p.getOp())
+			{
+			case EQUALS:
+			case LIKE:
+				lo = Math.max(lo, v);
+				hi = Math.min(hi, v);
+				break;
+			case GREATER_THAN:
+				lo = Math.max(lo, v + 1);
+				break;
+			case GREATER_THAN_OR_EQ:
+				lo = Math.max(lo, v);
+				break;
+			case LESS_THAN:
+				hi = Math.min(hi, v - 1);
+				break;
+			case LESS_THAN_OR_EQ:
+				hi = Math.min(hi, v);
+				break;
+			default:
+				break;
+			}
+		}
+		load();
+		synchronized (this)
+		{
+			directory(field);
+			if (!dirOrdered)
+				return null;
+			// 第一个最大值>=lo的page, 和最后一个最小值<=hi的page
+			int first = firstAtLeast(dirHi, dirCount, lo);
+			int last = firstAtLeast(dirLo, dirCount, hi + 1) - 1;
+			if (first > last)
+				return new int[] { 0, -1 };
+			return new int[] { dirPages[first], dirPages[last] };
+		}
+	}
+
+	/**
+	 * Returns the first and last page a tuple whose INT field field is key
+	 * can be added to without breaking the order of the pages; the last is
+	 * Integer.MAX_VALUE if the tuple may also go to a new page at the end of
+	 * the file.
+	 *
+	 * @return the page numbers, or null if the pages are not in order of the
+	 *         field
+	 */
+	public int[] insertRange(int field, int key)
+	{
+		if (zoneColumn[field] < 0)
+			return null;
+		load();
+		synchronized (this)
+		{
+			directory(field);
+			if (!dirOrdered)
+				return null;
+			// 第一个最大值>=key的page
+			int j = firstAtLeast(dirHi, dirCount, key);
+			int before = j == 0 ? 0 : dirPages[j - 1];
+			if (j == dirCount)
+				return new int[] { before, Integer.MAX_VALUE };
+			if (dirLo[j] < key)
+				return new int[] { dirPages[j], dirPages[j] };
+			// 在两个page的范围之间, 放在哪一边或者中间的空page都可以
+			return new int[] { before, dirPages[j] };
+		}
+	}
+
+	/**
+	 * @return the number of pages scans of this table skipped
+	 */
+	public synchronized long getPagesSkipped()
+	{
+		return pagesSkipped;
+	}
+
+	/**
+	 * Forgets every summary and deletes the zone file; used when the table
+	 * file is emptied or rewritten.
+	 */
+	public synchronized void clear()
+	{
+		close();
+		zoneFile.delete();
+		zones = null;
+		saved = null;
+		directoryField = -1;
+	}
+
+	/**
+	 * Closes the zone file. The summaries in memory are kept, since pages in
+	 * the buffer pool may hold tuples the file does not have yet.
+	 */
+	public synchronized void close()
+	{
+		if (channel != null)
+		{
+			try
+			{
+				channel.close();
+				raf.close();
+			} catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		channel = null;
+		raf = null;
+	}
+}
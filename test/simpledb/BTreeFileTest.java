@@ -0,0 +1,304 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileTest extends TestUtil.CreateIndexedTable {
+    private static final int ROWS = 2000;
+    // 256 byte pages hold 20 entries, so the tree gets three levels
+    private static final int SMALL_PAGE = 256;
+
+    private BTreeFile index;
+
+    /**
+     * Set up initial resources for each unit test: an empty table of two
+     * columns with an index on the second one.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        index = new BTreeFile(TestUtil.tempIndexFile("index"), hf, 1, SMALL_PAGE);
+        Database.getCatalog().addIndex(index, SystemTestUtil.getUUID());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+        index.close();
+        index.getFile().delete();
+    }
+
+    private ArrayList<Integer> keys(DbFileIterator it) throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        return keys;
+    }
+
+    /**
+     * @return the rows of the table found through the index
+     */
+    private ArrayList<Integer> rows(Predicate.Op op, int v) throws Exception {
+        IndexScan scan = new IndexScan(tid, index, "t", op, new IntField(v));
+        ArrayList<Integer> rows = new ArrayList<Integer>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertTrue(new Predicate(1, op, new IntField(v)).filter(t));
+            rows.add(((IntField) t.getField(0)).getValue());
+        }
+        scan.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static ArrayList<Integer> expected(int from, int to, Predicate.Op op, int v) {
+        ArrayList<Integer> rows = new ArrayList<Integer>();
+        for (int row = from; row < to; ++row) {
+            if (new Predicate(0, op, new IntField(v)).filter(
+                    Utility.getHeapTuple(new int[] { key(row) })))
+                rows.add(row);
+        }
+        return rows;
+    }
+
+    private int height() {
+        return ((BTreePage) index.readPage(new HeapPageId(index.getId(), 0))).getHeight();
+    }
+
+    /**
+     * Inserts split leaves and internal pages; lookups find every entry.
+     */
+    @Test public void insertAndLookup() throws Exception {
+        insert(0, ROWS);
+        assertTrue(height() >= 3);
+
+        ArrayList<Integer> all = keys(index.iterator(tid));
+        assertEquals(ROWS, all.size());
+        for (int i = 1; i < all.size(); ++i)
+            assertTrue(all.get(i - 1) <= all.get(i));
+
+        assertEquals(expected(0, ROWS, Predicate.Op.EQUALS, 123), rows(Predicate.Op.EQUALS, 123));
+        assertEquals(4, rows(Predicate.Op.EQUALS, 0).size());
+        assertEquals(0, rows(Predicate.Op.EQUALS, 500).size());
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ }) {
+            assertEquals(expected(0, ROWS, op, 250), rows(op, 250));
+            assertEquals(expected(0, ROWS, op, -1), rows(op, -1));
+        }
+        assertFalse(index.supports(Predicate.Op.NOT_EQUALS));
+    }
+
+    /**
+     * Deleted tuples disappear from the index, even where whole leaves empty.
+     */
+    @Test public void deletes() throws Exception {
+        insert(0, ROWS);
+        Delete delete = new Delete(tid, new Filter(new Predicate(1, Predicate.Op.LESS_THAN,
+                new IntField(100)), new SeqScan(tid, hf.getId(), "t")));
+        delete.open();
+        assertEquals(new IntField(400), delete.next().getField(0));
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(0, rows(Predicate.Op.LESS_THAN, 100).size());
+        assertEquals(expected(0, ROWS, Predicate.Op.GREATER_THAN_OR_EQ, 100),
+                rows(Predicate.Op.GREATER_THAN_OR_EQ, 99));
+        assertEquals(ROWS - 400, keys(index.iterator(tid)).size());
+
+        // the freed slots are reused by new tuples, which get new entries
+        insert(ROWS, ROWS + 10);
+        assertEquals(expected(ROWS, ROWS + 10, Predicate.Op.LESS_THAN, 100),
+                rows(Predicate.Op.LESS_THAN, 100));
+    }
+
+    /**
+     * Entries added by an aborted transaction are rolled back with it.
+     */
+    @Test public void abort() throws Exception {
+        insert(0, 100);
+        for (int row = 100; row < 300; ++row)
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { row, key(row) }));
+        assertEquals(expected(0, 300, Predicate.Op.EQUALS, 7), rows(Predicate.Op.EQUALS, 7));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(100, keys(index.iterator(tid)).size());
+        assertEquals(expected(0, 100, Predicate.Op.GREATER_THAN, 10),
+                rows(Predicate.Op.GREATER_THAN, 10));
+    }
+
+    /**
+     * An index added to the catalog over a table with tuples is built from
+     * them, and the planner uses it for a selective filter.
+     */
+    @Test public void buildAndPlan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int row = 0; row < 3000; ++row)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(row, row % 10)));
+        File f = TestUtil.tempFile("events", ".dat");
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile events = Utility.openHeapFile(2, "f", f);
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(events, name);
+        File idx = TestUtil.tempIndexFile("events");
+        BTreeFile byId = new BTreeFile(idx, events, 0);
+        Database.getCatalog().addIndex(byId, SystemTestUtil.getUUID());
+        assertEquals(Arrays.asList(2999), keys(byId.lookup(tid, Predicate.Op.GREATER_THAN,
+                new IntField(2998))));
+        assertEquals(Arrays.asList((IndexFile) byId), Database.getCatalog().getIndexes(events.getId()));
+        assertFalse(byId.build());
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(events.getId(), 1));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(events.getId(), "e");
+        lp.addFilter("e.f0", Predicate.Op.EQUALS, "2500");
+        lp.addFilter("e.f1", Predicate.Op.EQUALS, "0");
+        lp.addProjectField("e.f1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        assertTrue(plan.hasNext());
+        assertEquals(new IntField(0), plan.next().getField(0));
+        assertFalse(plan.hasNext());
+        plan.close();
+        // only the page holding the tuple was read
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(events.getId(), 0)));
+
+        // a filter matching most of the table is still answered by a scan
+        lp = new LogicalPlan();
+        lp.addScan(events.getId(), "e");
+        lp.addFilter("e.f0", Predicate.Op.GREATER_THAN, "10");
+        lp.addProjectField("e.f0", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            ++n;
+        }
+        plan.close();
+        assertEquals(2989, n);
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(events.getId(), 0)));
+
+        Database.getBufferPool().transactionComplete(tid);
+        byId.close();
+        idx.delete();
+        events.close();
+    }
+
+    /**
+     * @return the values of the given field of the tuples of a plan
+     */
+    private ArrayList<Integer> values(DbIterator plan, int field) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext())
+            values.add(((IntField) plan.next().getField(field)).getValue());
+        plan.close();
+        return values;
+    }
+
+    /**
+     * Queries that only need the key and the included fields of an index are
+     * answered from the index without reading the table, even when they
+     * match most of it.
+     */
+    @Test public void coveringScan() throws Exception {
+        final int columns = 16;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int row = 0; row < 3000; ++row) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            for (int c = 0; c < columns; ++c)
+                t.add(row * (c + 1));
+            tuples.add(t);
+        }
+        File f = TestUtil.tempFile("wide", ".dat");
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, columns);
+        HeapFile wide = Utility.openHeapFile(columns, "f", f);
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(wide, name);
+        File idx = TestUtil.tempIndexFile("wide");
+        BTreeFile byId = new BTreeFile(idx, wide, 0, new int[] { 3 });
+        Database.getCatalog().addIndex(byId, SystemTestUtil.getUUID());
+        assertTrue(IndexScan.covers(byId, new int[] { 0, 3 }));
+        assertFalse(IndexScan.covers(byId, new int[] { 3, 5 }));
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(wide.getId(), 1));
+        HeapPageId first = new HeapPageId(wide.getId(), 0);
+
+        // a filter matching most of the table
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(wide.getId(), "e");
+        lp.addFilter("e.f0", Predicate.Op.GREATER_THAN, "99");
+        lp.addProjectField("e.f3", null);
+        ArrayList<Integer> found = values(lp.physicalPlan(tid, stats, false), 0);
+        assertEquals(2900, found.size());
+        assertEquals(Integer.valueOf(400), found.get(0));
+        assertEquals(Integer.valueOf(2999 * 4), found.get(2899));
+        assertFalse(Database.getBufferPool().holdsLock(tid, first));
+
+        // no filter at all: the whole index is scanned instead of the table
+        lp = new LogicalPlan();
+        lp.addScan(wide.getId(), "e");
+        lp.addProjectField("e.f3", null);
+        lp.addProjectField("e.f0", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            assertEquals(((IntField) t.getField(1)).getValue() * 4,
+                    ((IntField) t.getField(0)).getValue());
+            ++n;
+        }
+        plan.close();
+        assertEquals(3000, n);
+        assertFalse(Database.getBufferPool().holdsLock(tid, first));
+
+        // inserted tuples carry their included fields into the index
+        int[] row = new int[columns];
+        row[0] = 5000;
+        row[3] = 77;
+        Database.getBufferPool().insertTuple(tid, wide.getId(), Utility.getHeapTuple(row));
+        lp = new LogicalPlan();
+        lp.addScan(wide.getId(), "e");
+        lp.addFilter("e.f0", Predicate.Op.EQUALS, "5000");
+        lp.addProjectField("e.f3", null);
+        assertEquals(Arrays.asList(77), values(lp.physicalPlan(tid, stats, false), 0));
+
+        // a field the index does not carry needs the table
+        lp = new LogicalPlan();
+        lp.addScan(wide.getId(), "e");
+        lp.addFilter("e.f0", Predicate.Op.LESS_THAN, "2900");
+        lp.addProjectField("e.f5", null);
+        assertEquals(2900, values(lp.physicalPlan(tid, stats, false), 0).size());
+        assertTrue(Database.getBufferPool().holdsLock(tid, first));
+
+        Database.getBufferPool().transactionComplete(tid);
+        byId.close();
+        idx.delete();
+        wide.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
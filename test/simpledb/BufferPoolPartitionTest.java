@@ -0,0 +1,133 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+
+    /**
+     * @return a table of the given number of empty pages
+     */
+    private static HeapFile createTable(int pages) throws IOException {
+        File f = File.createTempFile("partition", ".dat");
+        f.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength((long) pages * BufferPool.PAGE_SIZE);
+        raf.close();
+        HeapFile hf = Utility.openHeapFile(2, f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * Small pools keep a single partition; larger ones are split into a
+     * power of two of partitions of at least MIN_PARTITION_PAGES pages, no
+     * more than the property allows.
+     */
+    @Test public void partitionCount() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumPartitions());
+        assertEquals(1, new BufferPool(2 * BufferPool.MIN_PARTITION_PAGES - 1, "lru", 16)
+                .getNumPartitions());
+        assertEquals(2, new BufferPool(2 * BufferPool.MIN_PARTITION_PAGES, "lru", 16)
+                .getNumPartitions());
+        assertEquals(16, new BufferPool(10000, "lru", 16).getNumPartitions());
+        assertEquals(4, new BufferPool(10000, "lru", 7).getNumPartitions());
+
+        String old = System.getProperty(BufferPool.PARTITIONS_PROPERTY);
+        try {
+            System.setProperty(BufferPool.PARTITIONS_PROPERTY, "1");
+            assertEquals(1, new BufferPool(10000).getNumPartitions());
+            System.clearProperty(BufferPool.PARTITIONS_PROPERTY);
+            assertEquals(BufferPool.DEFAULT_PARTITIONS, new BufferPool(10000).getNumPartitions());
+            System.setProperty(BufferPool.PARTITIONS_PROPERTY, "none");
+            try {
+                new BufferPool(10000);
+                fail("invalid partition count accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            if (old != null)
+                System.setProperty(BufferPool.PARTITIONS_PROPERTY, old);
+            else
+                System.clearProperty(BufferPool.PARTITIONS_PROPERTY);
+        }
+    }
+
+    /**
+     * The partitions together hold exactly the pages of the pool, and every
+     * page is found in the partition it was read into.
+     */
+    @Test public void capacity() throws Exception {
+        BufferPool pool = Database.resetBufferPool(1000);
+        assertEquals(8, pool.getNumPartitions());
+        assertEquals(1000L * BufferPool.PAGE_SIZE, pool.getCapacityBytes());
+
+        HeapFile hf = createTable(3000);
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < 3000; ++pgNo)
+            pool.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        assertTrue(pool.getUsedBytes() <= pool.getCapacityBytes());
+        List<PageId> cached = pool.getCachedPages();
+        assertTrue(cached.size() > 500);
+        for (PageId pid : cached) {
+            assertTrue(pool.isCached(pid));
+            assertTrue(pool.getPolicy(pid).contains(pid));
+        }
+        assertTrue(pool.isCached(new HeapPageId(hf.getId(), 2999)));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * Threads reading pages of a pool larger and smaller than the table at
+     * the same time all get the pages they asked for, and the pool stays
+     * within its capacity.
+     */
+    @Test public void concurrentReads() throws Exception {
+        final BufferPool pool = Database.resetBufferPool(512);
+        assertEquals(8, pool.getNumPartitions());
+        final HeapFile hf = createTable(1024);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            final int seed = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        Random r = new Random(seed);
+                        TransactionId tid = new TransactionId();
+                        for (int j = 0; j < 5000; ++j) {
+                            // half of the reads hit the first 256 pages
+                            int pgNo = j % 2 == 0 ? r.nextInt(256) : r.nextInt(1024);
+                            HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+                            Page page = pool.getPage(tid, pid, Permissions.READ_ONLY);
+                            assertEquals(pid, page.getId());
+                        }
+                        pool.transactionComplete(tid);
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(errors.toString(), 0, errors.size());
+        assertTrue(pool.getUsedBytes() <= pool.getCapacityBytes());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
@@ -0,0 +1,202 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferRingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 40;
+    // 2 int columns -> 504 tuples per page
+    private static final int ROWS_PER_PAGE = 504;
+
+    private HeapFile hot;
+    private HeapFile big;
+    private BufferPool pool;
+
+    /**
+     * @return a table of the given number of full pages of rows (row, mark):
+     *         mark is 1 for every 10000th row, else 0 or 2, so that the zone
+     *         map cannot skip pages when looking for mark 1
+     */
+    private static HeapFile createTable(int pages) throws IOException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int row = 0; row < pages * ROWS_PER_PAGE; ++row) {
+            int mark = row % 10000 == 0 ? 1 : row % 2 * 2;
+            tuples.add(new ArrayList<Integer>(Arrays.asList(row, mark)));
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        return Utility.openHeapFile(2, f);
+    }
+
+    /**
+     * Set up initial resources for each unit test: a table of 4 pages whose
+     * pages are read twice, and a table of 100 pages, which does not fit in
+     * the pool of 40 pages.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        hot = createTable(4);
+        big = createTable(100);
+        pool = Database.resetBufferPool(POOL_PAGES, "lru");
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2; ++i) {
+            for (int pgNo = 0; pgNo < 4; ++pgNo)
+                pool.getPage(tid, new HeapPageId(hot.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        pool.transactionComplete(tid);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BufferRing.setSize(BufferRing.DEFAULT_SIZE);
+        BufferRing.setThreshold(BufferRing.DEFAULT_THRESHOLD);
+        hot.close();
+        big.close();
+    }
+
+    /**
+     * @return the number of pages of f in the pool
+     */
+    private int pagesCached(HeapFile f) {
+        int cached = 0;
+        for (PageId pid : pool.getCachedPages()) {
+            if (pid.getTableId() == f.getId())
+                cached++;
+        }
+        return cached;
+    }
+
+    private int scan(TransactionId tid, DbIterator it) throws Exception {
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Only scans of tables larger than the threshold get a ring, of at most
+     * a quarter of the pool.
+     */
+    @Test public void forScan() throws Exception {
+        assertNull(BufferRing.forScan(hot));
+        BufferRing ring = BufferRing.forScan(big);
+        assertNotNull(ring);
+        assertEquals(POOL_PAGES / 4, ring.size());
+
+        BufferRing.setThreshold(5);
+        assertNotNull(BufferRing.forScan(hot));
+        BufferRing.setThreshold(500);
+        assertNull(BufferRing.forScan(big));
+        BufferRing.setThreshold(BufferRing.DEFAULT_THRESHOLD);
+        BufferRing.setSize(0);
+        assertNull(BufferRing.forScan(big));
+    }
+
+    /**
+     * A scan and the collection of statistics of the large table keep the
+     * pages of the small one in the pool, and hold no more pages than the
+     * ring; without a ring the scan evicts them.
+     */
+    @Test public void scanKeepsHotPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(100 * ROWS_PER_PAGE, scan(tid, new SeqScan(tid, big.getId(), "")));
+        assertEquals(4, pagesCached(hot));
+        assertTrue(pagesCached(big) <= POOL_PAGES / 4);
+
+        new TableStats(big.getId(), 1);
+        assertEquals(4, pagesCached(hot));
+        assertTrue(pagesCached(big) <= POOL_PAGES / 4);
+
+        BufferRing.setSize(0);
+        assertEquals(100 * ROWS_PER_PAGE, scan(tid, new SeqScan(tid, big.getId(), "")));
+        assertEquals(0, pagesCached(hot));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * A page the scan of the ring reads that another transaction uses too
+     * is not evicted when its slot is reused.
+     */
+    @Test public void sharedPagesStay() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        for (int i = 0; i < ROWS_PER_PAGE; ++i)
+            scan.next();
+        HeapPageId first = new HeapPageId(big.getId(), 0);
+        pool.getPage(new TransactionId(), first, Permissions.READ_ONLY);
+        while (scan.hasNext())
+            scan.next();
+        scan.close();
+        assertTrue(pool.isCached(first));
+        assertEquals(4, pagesCached(hot));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * A bulk Delete reads the large table through a ring too; the pages it
+     * dirties stay in the pool until the transaction commits.
+     */
+    @Test public void deleteKeepsDirtyPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate marked = new Predicate(1, Predicate.Op.EQUALS, new IntField(1));
+        Delete delete = new Delete(tid, new Filter(marked, new SeqScan(tid, big.getId(), "")));
+        delete.open();
+        // rows 0, 10000, ..., 50000
+        assertEquals(6, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        assertEquals(4, pagesCached(hot));
+        for (int row = 0; row < 100 * ROWS_PER_PAGE; row += 10000) {
+            HeapPageId pid = new HeapPageId(big.getId(), row / ROWS_PER_PAGE);
+            assertTrue(pool.isCached(pid));
+        }
+        assertTrue(pagesCached(big) <= POOL_PAGES / 4 + 6);
+        pool.transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(100 * ROWS_PER_PAGE - 6, scan(tid, new SeqScan(tid, big.getId(), "")));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * A prefetch into a ring that finds no room for its page does not evict
+     * the oldest page of the ring.
+     */
+    @Test public void prefetchWithoutRoom() throws Exception {
+        pool = Database.resetBufferPool(3, "lru");
+        BufferRing ring = new BufferRing(2);
+        TransactionId tid = new TransactionId();
+        HeapPageId first = new HeapPageId(big.getId(), 0);
+        pool.pinPage(tid, first, Permissions.READ_ONLY, ring);
+        pool.getPage(tid, new HeapPageId(big.getId(), 1), Permissions.READ_ONLY, ring);
+        pool.getPage(tid, new HeapPageId(hot.getId(), 0), Permissions.READ_ONLY);
+        // the pool is full, and the oldest page of the ring is pinned
+        pool.prefetch(new HeapPageId(big.getId(), 2), ring);
+        assertFalse(pool.isCached(new HeapPageId(big.getId(), 2)));
+        pool.unpinPage(first);
+        assertTrue(pool.isCached(first));
+        assertEquals(first, ring.oldest());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
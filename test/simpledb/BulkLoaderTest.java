@@ -0,0 +1,138 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    private File in;
+    private File out;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        in = File.createTempFile("bulk", ".txt");
+        in.deleteOnExit();
+        out = File.createTempFile("bulk", ".dat");
+        out.deleteOnExit();
+    }
+
+    private void writeInput(String text) throws IOException {
+        FileWriter w = new FileWriter(in);
+        w.write(text);
+        w.close();
+    }
+
+    /**
+     * Writes rows random rows of two ints, with a few empty lines and Windows
+     * line endings mixed in, and records them in tuples.
+     */
+    private void writeRandomInput(int rows, ArrayList<ArrayList<Integer>> tuples)
+            throws IOException {
+        Random r = new Random(6830);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rows; ++i) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(r.nextInt() % 100000);
+            tuple.add(r.nextInt(1000));
+            tuples.add(tuple);
+            sb.append(tuple.get(0)).append(',').append(tuple.get(1));
+            sb.append(i % 7 == 0 ? "\r\n" : "\n");
+            if (i % 100 == 0)
+                sb.append('\n');
+        }
+        writeInput(sb.toString());
+    }
+
+    /**
+     * Small chunks split pages between tasks; the file must come out the same
+     * as when it is loaded in one piece.
+     */
+    @Test public void chunksMatchSingleChunk() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        writeRandomInput(3000, tuples);
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+
+        BulkLoader.Stats stats = BulkLoader.load(in, out, BufferPool.PAGE_SIZE, types, 100);
+        assertEquals(3000, stats.rows);
+        assertEquals(6, stats.pages);
+        assertEquals(6L * BufferPool.PAGE_SIZE, out.length());
+        byte[] chunked = TestUtil.readFileBytes(out.getAbsolutePath());
+
+        BulkLoader.load(in, out, BufferPool.PAGE_SIZE, types);
+        assertTrue(Arrays.equals(chunked, TestUtil.readFileBytes(out.getAbsolutePath())));
+
+        HeapFile f = new HeapFile(out, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * String fields are trimmed, truncated and padded like StringField does.
+     */
+    @Test public void strings() throws Exception {
+        String longer = "";
+        for (int i = 0; i < Type.STRING_LEN + 10; ++i)
+            longer += (char) ('a' + i % 26);
+        writeInput("1, hello \n2," + longer + "\n3,\n");
+        BulkLoader.load(in, out, BufferPool.PAGE_SIZE,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        HeapFile f = new HeapFile(out, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        HeapPage page = (HeapPage) f.readPage(new HeapPageId(f.getId(), 0));
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(new StringField("hello", Type.STRING_LEN), it.next().getField(1));
+        assertEquals(new StringField(longer.substring(0, Type.STRING_LEN), Type.STRING_LEN),
+                it.next().getField(1));
+        assertEquals(new StringField("", Type.STRING_LEN), it.next().getField(1));
+        assertFalse(it.hasNext());
+        f.close();
+    }
+
+    /**
+     * An empty input still produces one empty page.
+     */
+    @Test public void emptyInput() throws Exception {
+        writeInput("\n\r\n");
+        BulkLoader.Stats stats = BulkLoader.load(in, out, BufferPool.PAGE_SIZE,
+                new Type[] { Type.INT_TYPE });
+        assertEquals(0, stats.rows);
+        assertEquals(BufferPool.PAGE_SIZE, out.length());
+    }
+
+    /**
+     * Malformed rows are reported instead of being skipped.
+     */
+    @Test public void malformed() throws Exception {
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        String[] bad = { "1,2\n3\n", "1,2,3\n", "1,x\n", "1,99999999999\n" };
+        for (String text : bad) {
+            writeInput(text);
+            try {
+                BulkLoader.load(in, out, BufferPool.PAGE_SIZE, types);
+                fail("expected IOException for " + text);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
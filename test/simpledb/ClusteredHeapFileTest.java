@@ -0,0 +1,190 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ClusteredHeapFileTest extends SimpleDbTestBase {
+    // 2 int columns -> 504 tuples per page, 10 pages
+    private static final int ROWS = 5000;
+
+    private TransactionId tid;
+    private HeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test: a table clustered on its
+     * first field, loaded from rows (2 * row, row) in random order.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<Integer> rows = new ArrayList<Integer>();
+        for (int row = 0; row < ROWS; ++row)
+            rows.add(row);
+        Collections.shuffle(rows, new Random(1));
+        File in = File.createTempFile("log", ".txt");
+        in.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(in));
+        for (int row : rows)
+            w.println(2 * row + "," + row);
+        w.close();
+        File out = File.createTempFile("log", ".dat");
+        out.deleteOnExit();
+        // small runs, so that the sort has to merge
+        BulkLoader.Stats stats = BulkLoader.loadClustered(in, out, BufferPool.PAGE_SIZE,
+                Utility.getTypes(2), 0, 4096);
+        assertEquals(ROWS, stats.rows);
+        hf = Utility.openHeapFile(2, "f", out);
+        hf.setClusterField(0);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+    }
+
+    /**
+     * @return the first fields of the tuples of a plan, in the order they
+     *         are returned
+     */
+    private ArrayList<Integer> keys(DbIterator it) throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        return keys;
+    }
+
+    private static ArrayList<Integer> evens(int from, int to) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (int k = from; k < to; k += 2)
+            keys.add(k);
+        return keys;
+    }
+
+    private static Predicate key(Predicate.Op op, int value) {
+        return new Predicate(0, op, new IntField(value));
+    }
+
+    /**
+     * The bulk load writes the rows in key order.
+     */
+    @Test public void loadSortsByKey() throws Exception {
+        hf.setClusterField(-1);
+        assertEquals(evens(0, 2 * ROWS), keys(new SeqScan(tid, hf.getId(), "t")));
+        assertTrue(hf.getZoneMap().isOrdered(0));
+    }
+
+    /**
+     * A range scan reads only the pages the directory places in the range,
+     * and returns the tuples in key order.
+     */
+    @Test public void rangeScan() throws Exception {
+        int pages = hf.numPages();
+        assertEquals(10, pages);
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        Filter range = new Filter(key(Predicate.Op.GREATER_THAN_OR_EQ, 4000),
+                new Filter(key(Predicate.Op.LESS_THAN, 4100), scan));
+        assertEquals(evens(4000, 4100), keys(range));
+        assertTrue(scan.getPagesSkipped() >= pages - 2);
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 0)));
+
+        scan = new SeqScan(tid, hf.getId(), "t");
+        assertEquals(Arrays.asList(1234), keys(new Filter(key(Predicate.Op.EQUALS, 1234), scan)));
+        assertEquals(pages - 1, scan.getPagesSkipped());
+
+        scan = new SeqScan(tid, hf.getId(), "t");
+        assertEquals(0, keys(new Filter(key(Predicate.Op.GREATER_THAN, 2 * ROWS), scan)).size());
+        assertEquals(pages, scan.getPagesSkipped());
+    }
+
+    /**
+     * Inserts go to a page that keeps the order while there is one with
+     * room; a tuple that has to go elsewhere turns the directory off, and
+     * scans asked for the order then sort.
+     */
+    @Test public void insertsKeepOrder() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        pool.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 2 * ROWS + 1, 0 }));
+        pool.transactionComplete(tid);
+        tid = new TransactionId();
+        assertTrue(hf.getZoneMap().isOrdered(0));
+
+        // make room on the first page
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        Delete delete = new Delete(tid, new Filter(key(Predicate.Op.EQUALS, 10), scan));
+        delete.open();
+        delete.next();
+        delete.close();
+        pool.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 11, 0 }));
+        pool.transactionComplete(tid);
+        tid = new TransactionId();
+        assertTrue(hf.getZoneMap().isOrdered(0));
+        ArrayList<Integer> expected = evens(0, 2 * ROWS);
+        expected.remove(Integer.valueOf(10));
+        expected.add(5, 11);
+        expected.add(2 * ROWS + 1);
+        assertEquals(expected, keys(new SeqScan(tid, hf.getId(), "t")));
+
+        // the first page is full now
+        pool.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 13, 0 }));
+        pool.transactionComplete(tid);
+        tid = new TransactionId();
+        assertFalse(hf.getZoneMap().isOrdered(0));
+        expected.add(7, 13);
+        scan = new SeqScan(tid, hf.getId(), "t");
+        ArrayList<Integer> found = keys(new Filter(key(Predicate.Op.LESS_THAN, 20), scan));
+        Collections.sort(found);
+        assertEquals(expected.subList(0, 11), found);
+        scan = new SeqScan(tid, hf.getId(), "t");
+        assertTrue(scan.keepOrder(0));
+        assertEquals(expected, keys(scan));
+    }
+
+    /**
+     * An ascending ORDER BY on the cluster key needs no OrderBy.
+     */
+    @Test public void orderByIsSkipped() throws Exception {
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(hf, name);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f0", Predicate.Op.GREATER_THAN, "9000");
+        lp.addProjectField("t.f0", null);
+        lp.addOrderBy("t.f0", true);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertFalse(((Project) plan).child instanceof OrderBy);
+        assertEquals(evens(9002, 2 * ROWS), keys(plan));
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addProjectField("t.f0", null);
+        lp.addOrderBy("t.f0", false);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Project) plan).child instanceof OrderBy);
+        ArrayList<Integer> expected = evens(0, 2 * ROWS);
+        Collections.reverse(expected);
+        assertEquals(expected, keys(plan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ClusteredHeapFileTest.class);
+    }
+}
@@ -0,0 +1,302 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 5;
+    private static final TupleDesc TD = Utility.getTupleDesc(COLUMNS, "f");
+
+    private TransactionId tid;
+    private ColumnFile cf;
+    private String name;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        cf = new ColumnFile(f, TD);
+        for (int c = 0; c <= COLUMNS; ++c)
+            cf.getColumnFile(c).deleteOnExit();
+        name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(cf, name);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        cf.close();
+    }
+
+    private static Tuple tuple(int row) {
+        Tuple t = new Tuple(TD);
+        for (int c = 0; c < COLUMNS; ++c)
+            t.setField(c, new IntField(row * 10 + c));
+        return t;
+    }
+
+    /**
+     * Inserts rows from..to-1 and commits.
+     */
+    private void insert(int from, int to) throws Exception {
+        for (int row = from; row < to; ++row)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), tuple(row));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+    }
+
+    private static ArrayList<ArrayList<Integer>> rows(int from, int to) {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int row = from; row < to; ++row)
+            rows.add(SystemTestUtil.tupleToList(tuple(row)));
+        return rows;
+    }
+
+    private boolean readColumn(int c) {
+        return Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), c, 0));
+    }
+
+    /**
+     * Inserts go to the delta until a merge moves them into the columns; scans
+     * see the same rows before and after.
+     */
+    @Test public void mergeAndScan() throws Exception {
+        insert(0, 2000);
+        SystemTestUtil.matchTuples(cf, tid, rows(0, 2000));
+        assertEquals(0, cf.numRows());
+
+        assertEquals(2000, cf.merge());
+        assertEquals(2000, cf.numRows());
+        assertEquals(0, cf.getFile().length());
+        int perPage = ColumnPage.capacity(Type.INT_TYPE.getLen(), BufferPool.PAGE_SIZE);
+        assertEquals((2000 + perPage - 1) / perPage, cf.numPages(0));
+        assertEquals(1, cf.numPages(COLUMNS));
+        SystemTestUtil.matchTuples(cf, tid, rows(0, 2000));
+
+        // a partly filled last page is continued by the next merge
+        insert(2000, 2010);
+        SystemTestUtil.matchTuples(cf, tid, rows(0, 2010));
+        assertEquals(10, cf.merge());
+        assertEquals(0, cf.merge());
+        cf.close();
+        assertEquals(2010, cf.numRows());
+        SystemTestUtil.matchTuples(cf, tid, rows(0, 2010));
+    }
+
+    /**
+     * A projected scan only reads the pages of the columns it asks for.
+     */
+    @Test public void projectedScan() throws Exception {
+        insert(0, 1000);
+        cf.merge();
+        DbFileIterator it = cf.iterator(tid, new int[] { 1, 3 });
+        it.open();
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            assertEquals(new IntField(row * 10 + 1), t.getField(1));
+            assertNull(t.getField(2));
+            assertEquals(new IntField(row * 10 + 3), t.getField(3));
+            ++row;
+        }
+        it.close();
+        assertEquals(1000, row);
+        assertTrue(readColumn(1));
+        assertTrue(readColumn(3));
+        assertFalse(readColumn(0));
+        assertFalse(readColumn(4));
+    }
+
+    /**
+     * Deleting merged rows sets their bits in the bitmap pages, which commit
+     * and abort like any other page.
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        insert(0, 1000);
+        cf.merge();
+        insert(1000, 1100);
+
+        Predicate even = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5000));
+        Delete delete = new Delete(tid, new Filter(even, new SeqScan(tid, cf.getId(), "")));
+        delete.open();
+        assertEquals(new IntField(500), delete.next().getField(0));
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> expected = rows(500, 1100);
+        SystemTestUtil.matchTuples(cf, tid, expected);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        delete = new Delete(tid, new SeqScan(tid, cf.getId(), ""));
+        delete.open();
+        assertEquals(new IntField(600), delete.next().getField(0));
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(cf, tid, expected);
+
+        // deleted rows are skipped after a merge, too
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(100, cf.merge());
+        SystemTestUtil.matchTuples(cf, tid, expected);
+    }
+
+    /**
+     * The planner passes the columns a query uses down to the scan.
+     */
+    @Test public void physicalPlanReadsUsedColumns() throws Exception {
+        insert(0, 1000);
+        cf.merge();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(cf.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "t");
+        lp.addFilter("t.f0", Predicate.Op.GREATER_THAN_OR_EQ, "9900");
+        lp.addProjectField("t.f2", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        while (plan.hasNext())
+            values.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        assertEquals(Arrays.asList(9902, 9912, 9922, 9932, 9942, 9952, 9962, 9972,
+                9982, 9992), values);
+        assertTrue(readColumn(0));
+        assertTrue(readColumn(2));
+        assertFalse(readColumn(1));
+        assertFalse(readColumn(4));
+    }
+
+    private static final String[] STATUS = { "new", "paid", "shipped", "returned", "lost" };
+
+    private static Map<String, Integer> countByStatus(DbFileIterator it) throws Exception {
+        StringAggregator agg = new StringAggregator(1, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+        it.open();
+        while (it.hasNext())
+            agg.merge(it.next());
+        it.close();
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        DbIterator groups = agg.iterator();
+        groups.open();
+        while (groups.hasNext()) {
+            Tuple g = groups.next();
+            counts.put(((StringField) g.getField(0)).getValue(),
+                    ((IntField) g.getField(1)).getValue());
+        }
+        return counts;
+    }
+
+    /**
+     * A dictionary encoded column stores codes, returns shared fields that
+     * filters and group-bys compare by code, and keeps its dictionary across
+     * reopens.
+     */
+    @Test public void dictionaryEncoding() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE,
+                Type.STRING_TYPE }, new String[] { "id", "status", "plain" });
+        File f = File.createTempFile("dict", ".dat");
+        f.deleteOnExit();
+        ColumnFile orders = new ColumnFile(f, td, BufferPool.PAGE_SIZE,
+                new boolean[] { false, true, false });
+        for (int c = 0; c <= 3; ++c)
+            orders.getColumnFile(c).deleteOnExit();
+        orders.getDictionaryFile(1).deleteOnExit();
+        Database.getCatalog().addTable(orders, SystemTestUtil.getUUID());
+        assertNull(orders.getDictionary(0));
+        assertNotNull(orders.getDictionary(1));
+
+        for (int row = 0; row < 3000; ++row) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(row));
+            t.setField(1, new StringField(STATUS[row % 5], Type.STRING_LEN));
+            t.setField(2, new StringField(STATUS[row % 5], Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, orders.getId(), t);
+            if (row % 500 == 499) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        assertEquals(3000, orders.merge());
+        assertEquals(5, orders.getDictionary(1).size());
+        assertTrue(orders.numPages(1) * 10 < orders.numPages(2));
+
+        // a row with a new value stays in the delta
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(3000));
+        t.setField(1, new StringField("held", Type.STRING_LEN));
+        t.setField(2, new StringField("held", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, orders.getId(), t);
+
+        DbFileIterator it = orders.iterator(tid, new int[] { 1 });
+        it.open();
+        Field first = it.next().getField(1);
+        assertTrue(first instanceof DictStringField);
+        assertEquals(0, ((DictStringField) first).getCode());
+        assertSame(orders.getDictionary(1).field(1), it.next().getField(1));
+        it.close();
+
+        Predicate paid = new Predicate(1, Predicate.Op.EQUALS, new StringField("paid", Type.STRING_LEN));
+        Predicate notPaid = new Predicate(1, Predicate.Op.NOT_EQUALS, new StringField("paid", Type.STRING_LEN));
+        Predicate absent = new Predicate(1, Predicate.Op.EQUALS, new StringField("unknown", Type.STRING_LEN));
+        int paidRows = 0, notPaidRows = 0, absentRows = 0;
+        it = orders.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple row = it.next();
+            if (paid.filter(row))
+                ++paidRows;
+            if (notPaid.filter(row))
+                ++notPaidRows;
+            if (absent.filter(row))
+                ++absentRows;
+        }
+        it.close();
+        assertEquals(600, paidRows);
+        assertEquals(2401, notPaidRows);
+        assertEquals(0, absentRows);
+
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (String s : STATUS)
+            expected.put(s, 600);
+        expected.put("held", 1);
+        assertEquals(expected, countByStatus(orders.iterator(tid, new int[] { 1 })));
+
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(1, orders.merge());
+        orders.close();
+        ColumnFile reopened = new ColumnFile(f, td, BufferPool.PAGE_SIZE,
+                new boolean[] { false, true, false });
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(6, reopened.getDictionary(1).size());
+        assertEquals(expected, countByStatus(reopened.iterator(tid)));
+        reopened.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
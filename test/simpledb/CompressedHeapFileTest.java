@@ -0,0 +1,232 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private TransactionId tid;
+    private File in;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        in = File.createTempFile("archive", ".txt");
+        in.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Writes rows that look like an archive table: small ints and a few
+     * repeated strings.
+     */
+    private ArrayList<String> writeInput(int rows) throws IOException {
+        ArrayList<String> lines = new ArrayList<String>();
+        BufferedWriter w = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < rows; ++i) {
+            String line = (i % 100) + ",status-" + (i % 7);
+            lines.add(line);
+            w.write(line);
+            w.write('\n');
+        }
+        w.close();
+        return lines;
+    }
+
+    private static ArrayList<String> scan(DbFile f, TransactionId tid) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            rows.add(t.getField(0) + "," + t.getField(1));
+        }
+        scan.close();
+        return rows;
+    }
+
+    private static void assertRoundTrip(byte[] data) throws IOException {
+        byte[] packed = new byte[data.length * 2 + 16];
+        int n = LZCodec.compress(data, 0, data.length, packed, 0, packed.length);
+        assertTrue(n > 0);
+        byte[] out = new byte[data.length];
+        assertEquals(data.length, LZCodec.decompress(packed, 0, n, out, 0));
+        assertTrue(Arrays.equals(data, out));
+    }
+
+    /**
+     * The codec restores what it compressed, shrinks repetitive data and
+     * gives up on data that does not compress.
+     */
+    @Test public void codec() throws Exception {
+        Random r = new Random(6830);
+        byte[] random = new byte[BufferPool.PAGE_SIZE];
+        r.nextBytes(random);
+        assertRoundTrip(random);
+        assertEquals(-1, LZCodec.compress(random, 0, random.length,
+                new byte[random.length], 0, random.length - 1));
+
+        byte[] zeros = new byte[BufferPool.PAGE_SIZE];
+        assertRoundTrip(zeros);
+        assertTrue(LZCodec.compress(zeros, 0, zeros.length, new byte[100], 0, 100) > 0);
+
+        byte[] text = new byte[BufferPool.PAGE_SIZE];
+        for (int i = 0; i < text.length; ++i)
+            text[i] = (byte) ("abcabd" + (i / 300)).charAt(i % 7);
+        assertRoundTrip(text);
+        assertRoundTrip(new byte[0]);
+        assertRoundTrip(new byte[] { 1, 2, 3 });
+
+        byte[] packed = new byte[100];
+        int n = LZCodec.compress(zeros, 0, zeros.length, packed, 0, packed.length);
+        try {
+            LZCodec.decompress(packed, 0, n, new byte[100], 0);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A converted archive table scans the same rows from several times fewer
+     * bytes, and its stats report the ratio.
+     */
+    @Test public void compressAndScan() throws Exception {
+        ArrayList<String> lines = writeInput(5000);
+        File plainFile = TestUtil.tempFile("compressed", ".dat");
+        BulkLoader.load(in, plainFile, BufferPool.PAGE_SIZE,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        HeapFile plain = new HeapFile(plainFile, TD);
+
+        File out = TestUtil.tempFile("compressed", ".dat");
+        CompressedHeapFile cf = CompressedHeapFile.compress(plain, out);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        assertEquals(plain.numPages(), cf.numPages());
+        assertEquals(lines, scan(cf, tid));
+
+        assertTrue(cf.getCompressionRatio() > 3);
+        assertTrue(out.length() * 3 < plainFile.length());
+        // extents are padded by less than EXTENT_ALIGN bytes each
+        assertTrue(out.length() - cf.getStoredBytes()
+                < (long) cf.numPages() * CompressedHeapFile.EXTENT_ALIGN);
+
+        TableStats stats = new TableStats(cf.getId(), 1000);
+        assertEquals(cf.getCompressionRatio(), stats.getCompressionRatio(), 1e-9);
+        assertTrue(stats.estimateScanCost() * 3 < cf.numPages() * 1000);
+        plain.close();
+    }
+
+    /**
+     * Inserts and deletes go through the buffer pool as usual, and the index
+     * is rebuilt from the extents when the file is opened again.
+     */
+    @Test public void insertDeleteAndReopen() throws Exception {
+        File f = TestUtil.tempFile("compressed", ".dat");
+        CompressedHeapFile cf = new CompressedHeapFile(f, TD);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; ++i) {
+            tuples.add(tuple(i, "row " + (i % 10)));
+        }
+        Insert insert = new Insert(tid, new TupleIterator(TD, tuples), cf.getId());
+        insert.open();
+        assertEquals(new IntField(1000), insert.next().getField(0));
+        insert.close();
+
+        Predicate small = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300));
+        Delete delete = new Delete(tid, new Filter(small, new SeqScan(tid, cf.getId(), "")));
+        delete.open();
+        assertEquals(new IntField(300), delete.next().getField(0));
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+        int pages = cf.numPages();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(f, TD);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(pages, reopened.numPages());
+        tid = new TransactionId();
+        assertEquals(700, scan(reopened, tid).size());
+        assertTrue(f.length() < (long) pages * BufferPool.PAGE_SIZE);
+
+        // inserts fill the slots the deletes freed
+        for (int i = 0; i < 300; ++i) {
+            Database.getBufferPool().insertTuple(tid, reopened.getId(), tuple(-i, "again"));
+        }
+        assertEquals(pages, reopened.numPages());
+        assertEquals(1000, scan(reopened, tid).size());
+    }
+
+    /**
+     * A page that no longer fits its extent moves and leaves a free extent
+     * for the next small page; a page that does not compress is stored as is.
+     */
+    @Test public void growingPages() throws Exception {
+        File f = TestUtil.tempFile("compressed", ".dat");
+        CompressedHeapFile cf = new CompressedHeapFile(f, TD);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        HeapPageId p0 = new HeapPageId(cf.getId(), 0);
+        HeapPageId p1 = new HeapPageId(cf.getId(), 1);
+        cf.writePage(new HeapPage(p0, HeapPage.createEmptyPageData()));
+        cf.writePage(new HeapPage(p1, HeapPage.createEmptyPageData()));
+        long small = f.length();
+        assertEquals(2 * (CompressedHeapFile.EXTENT_HEADER + CompressedHeapFile.EXTENT_ALIGN),
+                small);
+
+        byte[] random = new byte[BufferPool.PAGE_SIZE];
+        new Random(6830).nextBytes(random);
+        cf.writePage(new HeapPage(p0, random));
+        assertTrue(Arrays.equals(random, cf.readPageData(p0)));
+        long length = small + CompressedHeapFile.EXTENT_HEADER + BufferPool.PAGE_SIZE;
+        assertEquals(length, f.length());
+
+        // page 2 goes into the extent page 0 left behind
+        HeapPageId p2 = new HeapPageId(cf.getId(), 2);
+        cf.writePage(new HeapPage(p2, HeapPage.createEmptyPageData()));
+        assertEquals(3, cf.numPages());
+        assertEquals(length, f.length());
+        cf.close();
+
+        CompressedHeapFile reopened = new CompressedHeapFile(f, TD);
+        assertEquals(3, reopened.numPages());
+        assertTrue(Arrays.equals(random, reopened.readPageData(p0)));
+        assertTrue(Arrays.equals(HeapPage.createEmptyPageData(), reopened.readPageData(p1)));
+        assertTrue(Arrays.equals(HeapPage.createEmptyPageData(), reopened.readPageData(p2)));
+        assertTrue(Arrays.equals(HeapPage.createEmptyPageData(),
+                reopened.readPageData(new HeapPageId(cf.getId(), 3))));
+        reopened.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
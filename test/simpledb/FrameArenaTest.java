@@ -0,0 +1,116 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for FrameArena.allocate() and FrameArena.release()
+     */
+    @Test public void allocateRelease() {
+        FrameArena arena = new FrameArena(3, BufferPool.PAGE_SIZE);
+        assertEquals(3L * BufferPool.PAGE_SIZE, arena.capacityBytes());
+
+        HashSet<Integer> frames = new HashSet<Integer>();
+        for (int i = 0; i < 3; ++i)
+            frames.add(arena.allocate());
+        assertEquals(3, frames.size());
+        assertEquals(-1, arena.allocate());
+
+        arena.release(1);
+        assertEquals(1, arena.numFree());
+        assertEquals(1, arena.allocate());
+    }
+
+    /**
+     * Runs of frames for larger pages are aligned to their length.
+     */
+    @Test public void allocateRuns() {
+        FrameArena arena = new FrameArena(8, BufferPool.PAGE_SIZE);
+        assertEquals(0, arena.allocate());
+        assertEquals(4, arena.allocate(4));
+        assertEquals(2, arena.allocate(2));
+        assertEquals(-1, arena.allocate(4));
+        assertEquals(1, arena.numFree());
+
+        arena.release(4, 4);
+        assertEquals(4, arena.allocate(4));
+        assertEquals(4 * BufferPool.PAGE_SIZE, arena.frame(4, 4).remaining());
+    }
+
+    /**
+     * Frames are disjoint, off-heap and exactly one page long.
+     */
+    @Test public void frames() {
+        FrameArena arena = new FrameArena(2, BufferPool.PAGE_SIZE);
+        ByteBuffer f0 = arena.frame(0);
+        ByteBuffer f1 = arena.frame(1);
+        assertTrue(f0.isDirect());
+        assertEquals(BufferPool.PAGE_SIZE, f0.remaining());
+
+        f0.put(0, (byte) 7);
+        assertEquals(0, f1.get(0));
+        assertEquals(7, arena.frame(0).get(0));
+    }
+
+    /**
+     * A HeapPage moved into a frame reads and writes its tuples there, keeps
+     * its before image and survives losing the frame.
+     */
+    @Test public void heapPageInFrame() throws Exception {
+        HeapPageId pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)),
+                SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+
+        FrameArena arena = new FrameArena(1, BufferPool.PAGE_SIZE);
+        int frameNo = arena.allocate();
+        page.moveToFrame(frameNo, arena.frame(frameNo));
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData()));
+
+        page.addTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertEquals(483, page.getNumEmptySlots());
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+
+        byte[] data = page.getPageData();
+        assertEquals(frameNo, page.releaseFrame());
+        arena.frame(frameNo).put(new byte[BufferPool.PAGE_SIZE]);
+        assertTrue(Arrays.equals(data, page.getPageData()));
+    }
+
+    /**
+     * Unit test for BufferPool.configuredPages()
+     */
+    @Test public void configuredPages() {
+        String old = System.getProperty(BufferPool.POOL_BYTES_PROPERTY);
+        try {
+            System.clearProperty(BufferPool.POOL_BYTES_PROPERTY);
+            assertEquals(BufferPool.DEFAULT_PAGES, BufferPool.configuredPages());
+            System.setProperty(BufferPool.POOL_BYTES_PROPERTY, "4m");
+            assertEquals((4 << 20) / BufferPool.PAGE_SIZE, BufferPool.configuredPages());
+            System.setProperty(BufferPool.POOL_BYTES_PROPERTY, "81920");
+            assertEquals(20, BufferPool.configuredPages());
+        } finally {
+            if (old == null)
+                System.clearProperty(BufferPool.POOL_BYTES_PROPERTY);
+            else
+                System.setProperty(BufferPool.POOL_BYTES_PROPERTY, old);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
@@ -0,0 +1,207 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashFileTest extends TestUtil.CreateIndexedTable {
+    private static final int ROWS = 2000;
+    // 256 byte pages hold 20 entries and a directory of 32 buckets, so
+    // buckets split first and then get overflow pages
+    private static final int SMALL_PAGE = 256;
+
+    private HashFile index;
+
+    /**
+     * Set up initial resources for each unit test: an empty table of two
+     * columns with a hash index on the second one.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        index = new HashFile(TestUtil.tempIndexFile("index"), hf, 1, SMALL_PAGE);
+        Database.getCatalog().addIndex(index, SystemTestUtil.getUUID());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+        index.close();
+        index.getFile().delete();
+    }
+
+    private int count(DbFileIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            ++n;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * @return the rows of the table with the given key, found through the index
+     */
+    private ArrayList<Integer> rows(int v) throws Exception {
+        IndexScan scan = new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(v));
+        ArrayList<Integer> rows = new ArrayList<Integer>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(new IntField(v), t.getField(1));
+            rows.add(((IntField) t.getField(0)).getValue());
+        }
+        scan.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static ArrayList<Integer> expected(int from, int to, int v) {
+        ArrayList<Integer> rows = new ArrayList<Integer>();
+        for (int row = from; row < to; ++row) {
+            if (key(row) == v)
+                rows.add(row);
+        }
+        return rows;
+    }
+
+    private HashPage directory() {
+        return (HashPage) index.readPage(new HeapPageId(index.getId(), 0));
+    }
+
+    /**
+     * Inserts split buckets until the directory is full, then chain overflow
+     * pages; lookups find every entry.
+     */
+    @Test public void insertAndLookup() throws Exception {
+        insert(0, 100);
+        assertTrue(directory().getGlobalDepth() >= 2);
+        assertEquals(expected(0, 100, 74), rows(74));
+
+        insert(100, ROWS);
+        assertEquals(HashPage.maxDepth(SMALL_PAGE), directory().getGlobalDepth());
+        assertEquals(ROWS, count(index.iterator(tid)));
+        for (int v = 0; v < 500; v += 7)
+            assertEquals(expected(0, ROWS, v), rows(v));
+        assertEquals(0, rows(500).size());
+        assertEquals(0, rows(-3).size());
+
+        assertTrue(index.supports(Predicate.Op.EQUALS));
+        assertFalse(index.supports(Predicate.Op.GREATER_THAN));
+    }
+
+    /**
+     * Many entries with the same key go to overflow pages instead of
+     * splitting the directory to its limit.
+     */
+    @Test public void duplicates() throws Exception {
+        for (int row = 0; row < 300; ++row)
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { row, 42 }));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(0, directory().getGlobalDepth());
+        assertEquals(300, rows(42).size());
+    }
+
+    /**
+     * Deleted tuples disappear from the index; aborted inserts are rolled back.
+     */
+    @Test public void deletesAndAbort() throws Exception {
+        insert(0, ROWS);
+        Delete delete = new Delete(tid, new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                new IntField(111)), new SeqScan(tid, hf.getId(), "t")));
+        delete.open();
+        assertEquals(new IntField(4), delete.next().getField(0));
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(0, rows(111).size());
+        assertEquals(ROWS - 4, count(index.iterator(tid)));
+
+        for (int row = ROWS; row < ROWS + 200; ++row)
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { row, key(row) }));
+        assertEquals(expected(0, ROWS + 200, 7), rows(7));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(expected(0, ROWS, 7), rows(7));
+        assertEquals(ROWS - 4, count(index.iterator(tid)));
+    }
+
+    /**
+     * An index added over a table with tuples is built from them, and the
+     * optimizer joins through it.
+     */
+    @Test public void buildAndJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int row = 0; row < 3000; ++row)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(row, row % 10)));
+        File f = TestUtil.tempFile("users", ".dat");
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile users = Utility.openHeapFile(2, "u", f);
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(users, name);
+        File idx = TestUtil.tempIndexFile("users");
+        HashFile byId = new HashFile(idx, users, 0);
+        Database.getCatalog().addIndex(byId, SystemTestUtil.getUUID());
+        assertEquals(1, count(byId.lookup(tid, Predicate.Op.EQUALS, new IntField(2999))));
+        assertEquals(3000, count(byId.iterator(tid)));
+
+        // orders.o1 = users.u0, with a filter on the inner table; the
+        // matching users are on the last page
+        tuples.clear();
+        for (int row = 0; row < 50; ++row)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(row, 2500 + row)));
+        File g = TestUtil.tempFile("orders", ".dat");
+        HeapFileEncoder.convert(tuples, g, BufferPool.PAGE_SIZE, 2);
+        HeapFile orders = Utility.openHeapFile(2, "o", g);
+        Database.getCatalog().addTable(orders, "orders" + name);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(users.getId(), 1));
+        stats.put("orders" + name, new TableStats(orders.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(orders.getId(), "o");
+        lp.addScan(users.getId(), "u");
+        lp.addJoin("o.o1", "u.u0", Predicate.Op.EQUALS);
+        lp.addFilter("u.u1", Predicate.Op.EQUALS, "4");
+        lp.addProjectField("o.o0", null);
+        lp.addProjectField("u.u1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        ArrayList<Integer> found = new ArrayList<Integer>();
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            assertEquals(new IntField(4), t.getField(1));
+            found.add(((IntField) t.getField(0)).getValue());
+        }
+        plan.close();
+        assertEquals(Arrays.asList(4, 14, 24, 34, 44), found);
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(users.getId(), 0)));
+
+        Database.getBufferPool().transactionComplete(tid);
+        byId.close();
+        idx.delete();
+        users.close();
+        orders.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
@@ -121,6 +121,37 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    @Test
+    public void testIteratorLazy() throws Exception {
+        // the iterator should only touch the second page once the first one
+        // has been used up, and only with a shared lock.
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, null);
+        HeapPageId p0 = new HeapPageId(twoPageFile.getId(), 0);
+        HeapPageId p1 = new HeapPageId(twoPageFile.getId(), 1);
+
+        DbFileIterator it = twoPageFile.iterator(tid);
+        it.open();
+        assertFalse(Database.getBufferPool().holdsLock(tid, p0));
+        assertTrue(it.hasNext());
+        assertTrue(Database.getBufferPool().holdsLock(tid, p0));
+        assertFalse(Database.getBufferPool().holdsLock(tid, p1));
+
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count += 1;
+        }
+        assertEquals(520, count);
+        assertTrue(Database.getBufferPool().holdsLock(tid, p1));
+
+        // a second transaction can still read the pages we scanned
+        TransactionId other = new TransactionId();
+        Database.getBufferPool().getPage(other, p0, Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(other);
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +46,112 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Slots freed by deleteTuple() are reused before the file grows.
+     */
+    @Test public void addTupleReusesFreeSlot() throws Exception {
+        for (int i = 0; i < 1008; ++i) {
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(empty.getId(), 0), Permissions.READ_ONLY);
+        empty.deleteTuple(tid, first.getTuple(17));
+
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.addTuple(tid, t);
+        assertEquals(2, empty.numPages());
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), 0), 17), t.getRecordId());
+    }
+
+    /**
+     * Concurrent inserters are sent to pages the other one does not hold.
+     */
+    @Test public void addTupleSpreadsTransactions() throws Exception {
+        for (int i = 0; i < 505; ++i) {
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(empty.getId(), 0), Permissions.READ_ONLY);
+        empty.deleteTuple(tid, first.getTuple(0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Tuple a = Utility.getHeapTuple(1, 2);
+        Tuple b = Utility.getHeapTuple(2, 2);
+        Database.getBufferPool().insertTuple(t1, empty.getId(), a);
+        Database.getBufferPool().insertTuple(t2, empty.getId(), b);
+        assertEquals(2, empty.numPages());
+        assertTrue(!a.getRecordId().getPageId().equals(b.getRecordId().getPageId()));
+        Database.getBufferPool().transactionComplete(t1);
+        Database.getBufferPool().transactionComplete(t2);
+    }
+
+    /**
+     * Looking for a free page does not wait on the monitor of a page that
+     * transactions waiting for its lock hold.
+     */
+    @Test public void addTupleSkipsContendedPage() throws Exception {
+        for (int i = 0; i < 1008; ++i) {
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        HeapPageId first = new HeapPageId(empty.getId(), 0);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, first,
+                Permissions.READ_ONLY);
+        empty.deleteTuple(tid, page.getTuple(0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId t1 = new TransactionId();
+        Database.getBufferPool().getPage(t1, first, Permissions.READ_WRITE);
+        // 等待这个page上的锁的事务一直拿着它的monitor
+        final Object monitor = BufferPool.lockManager.getLock(first);
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            public void run() {
+                synchronized (monitor) {
+                    waiting.countDown();
+                    try {
+                        done.await();
+                    } catch (InterruptedException e) {
+                        // exit
+                    }
+                }
+            }
+        };
+        waiter.start();
+        waiting.await();
+
+        final Tuple t = Utility.getHeapTuple(-1, 2);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    TransactionId t3 = new TransactionId();
+                    Database.getBufferPool().insertTuple(t3, empty.getId(), t);
+                    Database.getBufferPool().transactionComplete(t3);
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        };
+        inserter.start();
+        inserter.join(5000);
+        boolean blocked = inserter.isAlive();
+        done.countDown();
+        inserter.join();
+        waiter.join();
+        Database.getBufferPool().transactionComplete(t1);
+
+        assertFalse(blocked);
+        assertEquals(errors.toString(), 0, errors.size());
+        // page 0 is locked by t1, so the tuple goes to a new page
+        assertEquals(3, empty.numPages());
+        assertEquals(2, t.getRecordId().getPageId().pageno());
+    }
+
     /**
      * JUnit suite target
      */
@@ -12,6 +12,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -125,6 +126,41 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.getSlot(i));
     }
 
+    /**
+     * Unit test for HeapPage.getTuple()
+     */
+    @Test public void getTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        Tuple tup = page.getTuple(3);
+        assertEquals(EXAMPLE_VALUES[3][0], ((IntField) tup.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[3][1], ((IntField) tup.getField(1)).getValue());
+        assertEquals(new RecordId(pid, 3), tup.getRecordId());
+
+        assertNull(page.getTuple(20));
+    }
+
+    /**
+     * Unit test for HeapPage.iterator() on a page with holes
+     */
+    @Test public void testIteratorSkipsEmptySlots() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        page.deleteTuple(page.getTuple(0));
+        page.deleteTuple(page.getTuple(7));
+        assertEquals(486, page.getNumEmptySlots());
+
+        Iterator<Tuple> it = page.iterator();
+        int row = 0;
+        while (it.hasNext()) {
+            if (row == 0 || row == 7)
+                row++;
+            Tuple tup = it.next();
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+    }
+
     /**
      * JUnit suite target
      */
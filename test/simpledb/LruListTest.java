@@ -0,0 +1,77 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LruListTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Pages come out of the list least recently used first; touching a page
+     * moves it to the hot end.
+     */
+    @Test public void order() {
+        LruList lru = new LruList();
+        assertTrue(lru.isEmpty());
+        assertNull(lru.victim());
+        for (int i = 0; i < 4; ++i)
+            lru.touch(pid(i));
+        assertEquals(4, lru.size());
+        assertEquals(pid(0), lru.victim());
+
+        lru.touch(pid(0));
+        assertEquals(pid(1), lru.victim());
+        assertEquals(Arrays.asList(pid(0), pid(3), pid(2), pid(1)), lru.pages());
+
+        lru.remove(pid(1));
+        lru.remove(pid(7));
+        assertEquals(3, lru.size());
+        assertFalse(lru.contains(pid(1)));
+        assertEquals(pid(2), lru.victim());
+    }
+
+    /**
+     * Parked pages are no eviction candidates until they are unparked, which
+     * puts them at the cold end, or used, which puts them at the hot end.
+     */
+    @Test public void park() {
+        LruList lru = new LruList();
+        for (int i = 0; i < 4; ++i)
+            lru.touch(pid(i));
+        lru.park(pid(0));
+        lru.park(pid(1));
+        assertEquals(pid(2), lru.victim());
+        assertEquals(4, lru.size());
+        assertTrue(lru.contains(pid(0)));
+
+        lru.unpark(pid(1));
+        assertEquals(pid(1), lru.victim());
+        lru.touch(pid(0));
+        assertEquals(Arrays.asList(pid(0), pid(3), pid(2), pid(1)), lru.pages());
+
+        lru.park(pid(3));
+        lru.park(pid(2));
+        lru.park(pid(1));
+        lru.park(pid(0));
+        assertNull(lru.victim());
+        assertEquals(4, lru.unparkAll());
+        assertEquals(0, lru.unparkAll());
+        assertNotNull(lru.victim());
+        assertEquals(4, lru.pages().size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LruListTest.class);
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private MappedHeapFile mf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1200, 1000,
+                null, tuples);
+        mf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for MappedHeapFile.readPage()
+     */
+    @Test
+    public void readPage() throws Exception {
+        assertEquals(3, mf.numPages());
+        HeapPageId pid = new HeapPageId(mf.getId(), 1);
+        HeapPage page = (HeapPage) mf.readPage(pid);
+        assertTrue(mf.isMapped());
+
+        // the mapped page must decode exactly like the copied one
+        HeapFile plain = new HeapFile(mf.getFile(), mf.getTupleDesc());
+        HeapPage copy = (HeapPage) plain.readPage(pid);
+        assertTrue(Arrays.equals(copy.getPageData(), page.getPageData()));
+        assertEquals(copy.getNumEmptySlots(), page.getNumEmptySlots());
+        plain.close();
+    }
+
+    /**
+     * A scan through the buffer pool returns every tuple of the file.
+     */
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(mf, tuples);
+    }
+
+    /**
+     * Pages read through the buffer pool stay in the mapping instead of
+     * being copied into a frame, until they are modified.
+     */
+    @Test
+    public void notCopiedToFrame() throws Exception {
+        HeapPageId pid = new HeapPageId(mf.getId(), 2);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_WRITE);
+        assertTrue(page.isMapped());
+        assertEquals(-1, page.frameNo);
+
+        page.deleteTuple(page.iterator().next());
+        assertFalse(page.isMapped());
+    }
+
+    /**
+     * After a write the file stops using the mapping until it is closed.
+     */
+    @Test
+    public void writeFallsBack() throws Exception {
+        HeapPageId pid = new HeapPageId(mf.getId(), 0);
+        HeapPage page = (HeapPage) mf.readPage(pid);
+        assertTrue(mf.isMapped());
+
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        mf.writePage(page);
+        assertFalse(mf.isMapped());
+
+        HeapPage reread = (HeapPage) mf.readPage(pid);
+        assertFalse(mf.isMapped());
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+
+        mf.close();
+        mf.readPage(pid);
+        assertTrue(mf.isMapped());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageSizeTest extends SimpleDbTestBase {
+    private static final int LARGE = 16 << 10;
+
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile large;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(6830);
+        for (int i = 0; i < 5000; ++i) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(r.nextInt(1000), i)));
+        }
+        File f = File.createTempFile("large", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, LARGE, 2);
+        large = new HeapFile(f, Utility.getTupleDesc(2), LARGE);
+        Database.getCatalog().addTable(large, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A table with 16k pages holds four times as many tuples per page.
+     */
+    @Test public void largePages() throws Exception {
+        // 16384 * 8 / 65 = 2016 tuples per page
+        assertEquals(3, large.numPages());
+        HeapPage page = (HeapPage) large.readPage(new HeapPageId(large.getId(), 0));
+        assertEquals(LARGE, page.getPageSize());
+        assertEquals(0, page.getNumEmptySlots());
+        SystemTestUtil.matchTuples(large, tuples);
+    }
+
+    /**
+     * Inserts append pages of the table's own size.
+     */
+    @Test public void insertAppendsLargePage() throws Exception {
+        for (int i = 0; i < 2016 * 3 - 5000 + 1; ++i) {
+            Database.getBufferPool().insertTuple(tid, large.getId(),
+                    Utility.getHeapTuple(new int[] { i, -i }));
+        }
+        assertEquals(4, large.numPages());
+        assertEquals(4L * LARGE, large.getFile().length());
+    }
+
+    /**
+     * The buffer pool holds pages of different sizes in its frames without
+     * going over its capacity in bytes.
+     */
+    @Test public void mixedSizesInPool() throws Exception {
+        BufferPool pool = Database.resetBufferPool(10);
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 504 * 6, 1000,
+                null, new ArrayList<ArrayList<Integer>>());
+        for (int round = 0; round < 2; ++round) {
+            for (int i = 0; i < large.numPages(); ++i) {
+                HeapPage p = (HeapPage) pool.getPage(tid,
+                        new HeapPageId(large.getId(), i), Permissions.READ_ONLY);
+                // a fresh pool has a free run of frames for every large page
+                if (round == 0)
+                    assertTrue(p.frameNo >= 0);
+                assertTrue(pool.getUsedBytes() <= pool.getCapacityBytes());
+            }
+            for (int i = 0; i < small.numPages(); ++i) {
+                pool.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+                assertTrue(pool.getUsedBytes() <= pool.getCapacityBytes());
+            }
+        }
+        SystemTestUtil.matchTuples(large, tuples);
+    }
+
+    /**
+     * Only powers of two from PAGE_SIZE to MAX_PAGE_SIZE are page sizes.
+     */
+    @Test public void validPageSizes() {
+        assertTrue(BufferPool.isValidPageSize(BufferPool.PAGE_SIZE));
+        assertTrue(BufferPool.isValidPageSize(64 << 10));
+        assertFalse(BufferPool.isValidPageSize(2048));
+        assertFalse(BufferPool.isValidPageSize(12 << 10));
+        assertFalse(BufferPool.isValidPageSize(128 << 10));
+        assertEquals(16 << 10, BufferPool.parseSize("16k"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PinTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 10;
+
+    private HeapFile hf;
+    private BufferPool pool;
+
+    /**
+     * Set up initial resources for each unit test: a table of 30 empty pages
+     * and a pool of 10 pages.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("pin", ".dat");
+        f.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(30L * BufferPool.PAGE_SIZE);
+        raf.close();
+        hf = Utility.openHeapFile(2, f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        pool = Database.resetBufferPool(POOL_PAGES, "lru");
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Pins are counted, and a pinned page stays in the pool, as the same
+     * object, while many other pages pass through it.
+     */
+    @Test public void pinnedPageStays() throws Exception {
+        TransactionId tid = new TransactionId();
+        Page page = pool.pinPage(tid, pid(0), Permissions.READ_ONLY, null);
+        assertSame(page, pool.pinPage(tid, pid(0), Permissions.READ_ONLY, null));
+        assertEquals(2, pool.getPinCount(pid(0)));
+
+        for (int pgNo = 1; pgNo < 30; ++pgNo)
+            pool.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+        assertTrue(pool.isCached(pid(0)));
+        assertSame(page, pool.getPage(tid, pid(0), Permissions.READ_ONLY));
+        assertEquals(2, pool.getPinCount(pid(0)));
+
+        pool.unpinPage(pid(0));
+        assertEquals(1, pool.getPinCount(pid(0)));
+        for (int pgNo = 1; pgNo < 30; ++pgNo)
+            pool.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+        assertTrue(pool.isCached(pid(0)));
+
+        pool.unpinPage(pid(0));
+        assertEquals(0, pool.getPinCount(pid(0)));
+        // unpinning a page that is not pinned does nothing
+        pool.unpinPage(pid(0));
+        assertEquals(0, pool.getPinCount(pid(0)));
+        for (int pgNo = 1; pgNo < 30; ++pgNo)
+            pool.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+        assertFalse(pool.isCached(pid(0)));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * When every page is pinned, getPage fails instead of going over the
+     * capacity of the pool, and works again once a page is unpinned.
+     */
+    @Test public void allPinned() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < POOL_PAGES; ++pgNo)
+            pool.pinPage(tid, pid(pgNo), Permissions.READ_ONLY, null);
+        try {
+            pool.getPage(tid, pid(POOL_PAGES), Permissions.READ_ONLY);
+            fail("page read into a pool of pinned pages");
+        } catch (DbException e) {
+            // expected
+        }
+        assertFalse(pool.isCached(pid(POOL_PAGES)));
+        assertEquals(POOL_PAGES, pool.getCachedPages().size());
+
+        pool.unpinPage(pid(4));
+        pool.getPage(tid, pid(POOL_PAGES), Permissions.READ_ONLY);
+        assertFalse(pool.isCached(pid(4)));
+        assertTrue(pool.isCached(pid(POOL_PAGES)));
+        assertEquals(POOL_PAGES, pool.getPolicy(pid(0)).size());
+        assertTrue(pool.getUsedBytes() <= pool.getCapacityBytes());
+        for (int pgNo = 0; pgNo < POOL_PAGES; ++pgNo)
+            pool.unpinPage(pid(pgNo));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * Discarding a pinned page drops its pins.
+     */
+    @Test public void discardPinned() throws Exception {
+        TransactionId tid = new TransactionId();
+        pool.pinPage(tid, pid(3), Permissions.READ_ONLY, null);
+        pool.discardPage(pid(3));
+        assertFalse(pool.isCached(pid(3)));
+        assertEquals(0, pool.getPinCount(pid(3)));
+        pool.unpinPage(pid(3));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * A scan pins only the page it is reading, and nothing once it is
+     * closed.
+     */
+    @Test public void scanPinsCurrentPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 3 * 504, null, null);
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        it.next();
+        HeapPageId first = new HeapPageId(table.getId(), 0);
+        assertEquals(1, pool.getPinCount(first));
+        for (int i = 1; i < 504; ++i)
+            it.next();
+        it.next();
+        assertEquals(0, pool.getPinCount(first));
+        assertEquals(1, pool.getPinCount(new HeapPageId(table.getId(), 1)));
+        it.close();
+        for (int pgNo = 0; pgNo < 3; ++pgNo)
+            assertEquals(0, pool.getPinCount(new HeapPageId(table.getId(), pgNo)));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinTest.class);
+    }
+}
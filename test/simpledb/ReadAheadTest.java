@@ -0,0 +1,193 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 10;
+    private static final int ROWS = 6000;
+
+    private TransactionId tid;
+    private HeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test: a table of about 60 pages
+     * whose first field is its row number.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int row = 0; row < ROWS; ++row) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(row);
+            for (int c = 1; c < COLUMNS; ++c)
+                tuple.add(c);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("scan", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, COLUMNS);
+        hf = Utility.openHeapFile(COLUMNS, f);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        ReadAhead.setWindow(ReadAhead.DEFAULT_WINDOW);
+        hf.close();
+    }
+
+    /**
+     * Scans the table, checking that the pool never holds more than its
+     * capacity; once the scan has read two pages, waits for the read-ahead
+     * to prefetch a page if wait is set.
+     */
+    private void scan(boolean wait) throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        int row = 0;
+        while (scan.hasNext()) {
+            assertEquals(new IntField(row), scan.next().getField(0));
+            assertTrue(pool.getUsedBytes() <= pool.getCapacityBytes());
+            if (wait && row == 2 * ROWS / hf.numPages()) {
+                long deadline = System.currentTimeMillis() + 5000;
+                while (pool.getPagesPrefetched() == 0 && System.currentTimeMillis() < deadline)
+                    Thread.sleep(10);
+            }
+            ++row;
+        }
+        scan.close();
+        assertEquals(ROWS, row);
+    }
+
+    /**
+     * A sequential scan prefetches the pages ahead of it.
+     */
+    @Test public void prefetches() throws Exception {
+        assertTrue(hf.numPages() >= 50);
+        Database.resetBufferPool(40);
+        scan(true);
+        assertTrue(Database.getBufferPool().getPagesPrefetched() > 0);
+    }
+
+    /**
+     * With a pool much smaller than the table, prefetched pages evict clean
+     * pages and the pool stays within its capacity.
+     */
+    @Test public void staysWithinPool() throws Exception {
+        Database.resetBufferPool(12);
+        ReadAhead.setWindow(64);
+        scan(true);
+        scan(false);
+    }
+
+    /**
+     * A window of 0 disables read-ahead.
+     */
+    @Test public void disabled() throws Exception {
+        Database.resetBufferPool(40);
+        ReadAhead.setWindow(0);
+        scan(false);
+        assertEquals(0, Database.getBufferPool().getPagesPrefetched());
+    }
+
+    /**
+     * Read-ahead skips the pages a filter rules out without counting them;
+     * the scan counts each skipped page once.
+     */
+    @Test public void skipsFilteredPages() throws Exception {
+        Database.resetBufferPool(40);
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(ROWS / 2)), scan);
+        filter.open();
+        int rows = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            ++rows;
+        }
+        filter.close();
+        assertEquals(ROWS / 2, rows);
+        assertTrue(scan.getPagesSkipped() > 0);
+        assertEquals(scan.getPagesSkipped(), hf.getZoneMap().getPagesSkipped());
+    }
+
+    /**
+     * A getPage of a page that is being prefetched waits for the prefetch
+     * instead of reading the page a second time.
+     */
+    @Test public void readsOnce() throws Exception {
+        class SlowHeapFile extends HeapFile {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            int reads = 0;
+
+            SlowHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) {
+                synchronized (this) {
+                    reads++;
+                }
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.readPage(pid);
+            }
+        }
+        final SlowHeapFile slow = new SlowHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(slow, "slow");
+        final BufferPool pool = Database.resetBufferPool(40);
+        final HeapPageId pid = new HeapPageId(slow.getId(), 3);
+        Thread prefetch = new Thread() {
+            public void run() {
+                pool.prefetch(pid, null);
+            }
+        };
+        prefetch.start();
+        slow.started.await();
+        final Page[] read = new Page[1];
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    read[0] = pool.getPage(tid, pid, Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        reader.start();
+        // give getPage the time to run into the prefetch
+        Thread.sleep(100);
+        slow.release.countDown();
+        prefetch.join();
+        reader.join();
+        assertEquals(1, slow.reads);
+        assertEquals(1, pool.getPagesPrefetched());
+        assertSame(read[0], pool.getPage(tid, pid, Permissions.READ_ONLY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,216 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+    private static final String[] POLICIES = { "lru", "fifo", "clock", "lru-k", "2q", "arc" };
+    private static final int CAPACITY = 100;
+    private static final int HOT = 20;
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Uses a page of a pool of CAPACITY pages the way BufferPool does:
+     * evicts the victim on a miss, then records the use.
+     *
+     * @return true on a hit
+     */
+    private static boolean use(ReplacementPolicy policy, PageId pid) {
+        boolean hit = policy.contains(pid);
+        if (!hit && policy.size() >= CAPACITY) {
+            PageId victim = policy.victim();
+            assertTrue(policy.contains(victim));
+            policy.remove(victim);
+        }
+        policy.touch(pid);
+        assertTrue(policy.size() <= CAPACITY);
+        return hit;
+    }
+
+    /**
+     * @return the number of hot pages still in the pool
+     */
+    private static int hotPagesLeft(ReplacementPolicy policy) {
+        int left = 0;
+        for (int i = 0; i < HOT; ++i) {
+            if (policy.contains(pid(i)))
+                left++;
+        }
+        return left;
+    }
+
+    /**
+     * Every policy keeps a full pool full, offers only pages of the pool as
+     * victims and lists every page it holds.
+     */
+    @Test public void victimsAreResident() {
+        for (String name : POLICIES) {
+            ReplacementPolicy policy = BufferPool.newPolicy(name, CAPACITY);
+            assertTrue(policy.isEmpty());
+            assertNull(policy.victim());
+            Random r = new Random(1);
+            for (int i = 0; i < 5000; ++i)
+                use(policy, pid(r.nextInt(3 * CAPACITY)));
+            assertEquals(name, CAPACITY, policy.size());
+            assertEquals(name, CAPACITY, new HashSet<PageId>(policy.pages()).size());
+            for (PageId pid : policy.pages())
+                assertTrue(name, policy.contains(pid));
+            policy.remove(pid(1000 * CAPACITY));
+            assertEquals(name, CAPACITY, policy.size());
+        }
+    }
+
+    /**
+     * A parked page is no victim until it is unparked or used, and still
+     * counts as a page of the pool.
+     */
+    @Test public void park() {
+        for (String name : POLICIES) {
+            ReplacementPolicy policy = BufferPool.newPolicy(name, CAPACITY);
+            for (int i = 0; i < 10; ++i)
+                use(policy, pid(i));
+            PageId victim = policy.victim();
+            policy.park(victim);
+            assertFalse(name, victim.equals(policy.victim()));
+            assertTrue(name, policy.contains(victim));
+            assertEquals(name, 10, policy.size());
+            policy.unpark(victim);
+            assertEquals(name, victim, policy.victim());
+
+            for (PageId pid : policy.pages())
+                policy.park(pid);
+            assertNull(name, policy.victim());
+            assertEquals(name, 10, policy.pages().size());
+            policy.touch(pid(3));
+            assertEquals(name, pid(3), policy.victim());
+            assertEquals(name, 9, policy.unparkAll());
+            assertEquals(name, 0, policy.unparkAll());
+            policy.remove(pid(3));
+            assertEquals(name, 9, policy.size());
+        }
+    }
+
+    /**
+     * A pool serves a hot set of pages next to random reads of cold ones
+     * (FIFO already loses some hot pages to these), then a scan of ten
+     * times the pool size passes through it. LRU, FIFO and CLOCK lose the
+     * whole hot set; LRU-K, 2Q and ARC keep it.
+     */
+    @Test public void scanResistance() {
+        for (String name : POLICIES) {
+            ReplacementPolicy policy = BufferPool.newPolicy(name, CAPACITY);
+            Random r = new Random(2);
+            for (int i = 0; i < 20 * CAPACITY; ++i) {
+                use(policy, pid(i % HOT));
+                use(policy, pid(HOT + r.nextInt(100 * CAPACITY)));
+            }
+            if (!name.equals("fifo"))
+                assertEquals(name, HOT, hotPagesLeft(policy));
+
+            for (int i = 0; i < 10 * CAPACITY; ++i)
+                use(policy, pid(2000 * CAPACITY + i));
+            boolean resistant = name.equals("lru-k") || name.equals("2q") || name.equals("arc");
+            assertEquals(name, resistant ? HOT : 0, hotPagesLeft(policy));
+        }
+    }
+
+    /**
+     * LRU-K does not count a use that directly follows the previous use of
+     * the same page, and remembers the uses of evicted pages.
+     */
+    @Test public void lruK() {
+        ReplacementPolicy policy = BufferPool.newPolicy("lru-2", CAPACITY);
+        policy.touch(pid(0));
+        policy.touch(pid(0));
+        policy.touch(pid(1));
+        policy.touch(pid(2));
+        policy.touch(pid(1));
+        // page 0 was used only once; page 2 once, but later
+        assertEquals(pid(0), policy.victim());
+        policy.remove(pid(0));
+        assertEquals(pid(2), policy.victim());
+        policy.touch(pid(0));
+        assertEquals(pid(2), policy.victim());
+        policy.remove(pid(2));
+        assertEquals(pid(0), policy.victim());
+    }
+
+    /**
+     * BufferPool creates the policy it is asked for, and keeps the hot pages
+     * of a table while a scan of a larger one passes through it.
+     */
+    @Test public void bufferPoolPolicy() throws Exception {
+        try {
+            new BufferPool(10, "mru");
+            fail("unknown policy accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        String old = System.getProperty(BufferPool.POLICY_PROPERTY);
+        try {
+            System.setProperty(BufferPool.POLICY_PROPERTY, "ARC");
+            assertTrue(new BufferPool(10).getPolicy(pid(0)) instanceof ArcPolicy);
+            System.clearProperty(BufferPool.POLICY_PROPERTY);
+            assertTrue(new BufferPool(10).getPolicy(pid(0)) instanceof LruList);
+        } finally {
+            if (old != null)
+                System.setProperty(BufferPool.POLICY_PROPERTY, old);
+        }
+
+        // 2 int columns -> 504 tuples per page
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 4 * 504, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 60 * 504, null, null);
+        // read-ahead runs in the background; pages it reads into this small
+        // pool may be evicted before the scan reads them, and then look hot.
+        // A ring would keep the hot pages even under LRU.
+        int window = ReadAhead.getWindow();
+        int ring = BufferRing.getSize();
+        ReadAhead.setWindow(0);
+        BufferRing.setSize(0);
+        try {
+            checkHotPagesKept(hot, big);
+        } finally {
+            ReadAhead.setWindow(window);
+            BufferRing.setSize(ring);
+        }
+    }
+
+    private void checkHotPagesKept(HeapFile hot, HeapFile big) throws Exception {
+        for (String name : new String[] { "lru", "lru-k", "arc" }) {
+            BufferPool pool = Database.resetBufferPool(20, name);
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 2; ++i) {
+                for (int pgNo = 0; pgNo < 4; ++pgNo)
+                    pool.getPage(tid, new HeapPageId(hot.getId(), pgNo), Permissions.READ_ONLY);
+            }
+            SeqScan scan = new SeqScan(tid, big.getId(), "");
+            scan.open();
+            while (scan.hasNext())
+                scan.next();
+            scan.close();
+            pool.transactionComplete(tid);
+            int left = 0;
+            for (int pgNo = 0; pgNo < 4; ++pgNo) {
+                if (pool.isCached(new HeapPageId(hot.getId(), pgNo)))
+                    left++;
+            }
+            assertEquals(name, name.equals("lru") ? 0 : 4, left);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
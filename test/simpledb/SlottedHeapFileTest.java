@@ -0,0 +1,258 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private TransactionId tid;
+    private File in;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        in = File.createTempFile("slotted", ".txt");
+        in.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private SlottedHeapFile createEmpty() throws IOException {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        SlottedHeapFile sf = new SlottedHeapFile(f, TD);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        return sf;
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Writes rows lines of "i,name-i" and returns them as tuples.
+     */
+    private ArrayList<String> writeInput(int rows) throws IOException {
+        ArrayList<String> lines = new ArrayList<String>();
+        BufferedWriter w = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < rows; ++i) {
+            String line = i + ",name-" + i;
+            lines.add(line);
+            w.write(line);
+            w.write('\n');
+        }
+        w.close();
+        return lines;
+    }
+
+    private static ArrayList<String> scan(DbFile f, TransactionId tid) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            rows.add(t.getField(0) + "," + t.getField(1));
+        }
+        scan.close();
+        return rows;
+    }
+
+    /**
+     * Records are as long as their strings; a page holds many more short
+     * strings than fixed slots do.
+     */
+    @Test public void pageLayout() throws Exception {
+        SlottedHeapFile sf = createEmpty();
+        SlottedPage page = new SlottedPage(new HeapPageId(sf.getId(), 0),
+                HeapPage.createEmptyPageData());
+        int free = BufferPool.PAGE_SIZE - SlottedPage.HEADER_SIZE;
+        assertEquals(free, page.getFreeBytes());
+
+        Tuple t = tuple(1, "abc");
+        assertEquals(4 + 2 + 3, SlottedPage.recordSize(t));
+        page.addTuple(t);
+        assertEquals(free - 9 - SlottedPage.SLOT_SIZE, page.getFreeBytes());
+        assertEquals(new RecordId(page.getId(), 0), t.getRecordId());
+
+        SlottedPage copy = new SlottedPage(page.getId(), page.getPageData());
+        Tuple read = copy.iterator().next();
+        assertEquals(new IntField(1), read.getField(0));
+        assertEquals(new StringField("abc", Type.STRING_LEN), read.getField(1));
+
+        int n = 1;
+        while (page.getFreeBytes() >= 9 + SlottedPage.SLOT_SIZE) {
+            page.addTuple(tuple(n++, "abc"));
+        }
+        // 136 bytes per tuple in a HeapPage would give only 30 tuples
+        assertTrue(n > 300);
+        assertEquals(n, page.getNumTuples());
+    }
+
+    /**
+     * Deleted records leave holes that a larger insert gets by compaction;
+     * RecordIds of the other tuples stay valid.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapFile sf = createEmpty();
+        SlottedPage page = new SlottedPage(new HeapPageId(sf.getId(), 0),
+                HeapPage.createEmptyPageData());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (page.getFreeBytes() >= 4 + 2 + 10 + SlottedPage.SLOT_SIZE) {
+            Tuple t = tuple(tuples.size(), "0123456789");
+            page.addTuple(t);
+            tuples.add(t);
+        }
+        try {
+            page.addTuple(tuple(-1, "0123456789"));
+            fail("expected a full page");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // free every other record: the space is there, but not in one piece
+        for (int i = 0; i < tuples.size(); i += 2) {
+            page.deleteTuple(tuples.get(i));
+        }
+        Tuple big = tuple(-1, "a long string that does not fit in any single hole");
+        page.addTuple(big);
+        assertEquals(new RecordId(page.getId(), 0), big.getRecordId());
+
+        for (int i = 1; i < tuples.size(); i += 2) {
+            Tuple t = page.getTuple(tuples.get(i).getRecordId().tupleno());
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("0123456789", Type.STRING_LEN), t.getField(1));
+        }
+        assertEquals(big.getField(1), page.getTuple(0).getField(1));
+
+        try {
+            page.deleteTuple(tuples.get(2));
+            fail("expected a deleted tuple");
+        } catch (DbException e) {
+            // expected
+        }
+        // slot 0 now holds big; a stale copy of its old tuple must not delete it
+        Tuple stale = tuple(0, "0123456789");
+        stale.setRecordId(new RecordId(page.getId(), 0));
+        try {
+            page.deleteTuple(stale);
+            fail("expected a reused slot");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(big.getField(1), page.getTuple(0).getField(1));
+    }
+
+    /**
+     * A bulk loaded slotted table scans the same rows in far fewer pages than
+     * the fixed format.
+     */
+    @Test public void bulkLoadAndScan() throws Exception {
+        ArrayList<String> lines = writeInput(5000);
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+
+        File fixedFile = File.createTempFile("fixed", ".dat");
+        fixedFile.deleteOnExit();
+        BulkLoader.load(in, fixedFile, BufferPool.PAGE_SIZE, types);
+        HeapFile fixed = new HeapFile(fixedFile, TD);
+        Database.getCatalog().addTable(fixed, SystemTestUtil.getUUID());
+
+        File slottedFile = File.createTempFile("slotted", ".dat");
+        slottedFile.deleteOnExit();
+        BulkLoader.Stats stats = BulkLoader.loadSlotted(in, slottedFile,
+                BufferPool.PAGE_SIZE, types, 16 << 10);
+        assertEquals(5000, stats.rows);
+        SlottedHeapFile slotted = new SlottedHeapFile(slottedFile, TD);
+        Database.getCatalog().addTable(slotted, SystemTestUtil.getUUID());
+
+        assertEquals(lines, scan(slotted, tid));
+        assertTrue(slotted.numPages() * 5 < fixed.numPages());
+    }
+
+    /**
+     * Insert and Delete work on a slotted table, and inserts fill the holes
+     * deletes leave before the file grows.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        SlottedHeapFile sf = createEmpty();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; ++i) {
+            tuples.add(tuple(i, "row " + i));
+        }
+        Insert insert = new Insert(tid, new TupleIterator(TD, tuples), sf.getId());
+        insert.open();
+        assertEquals(new IntField(1000), insert.next().getField(0));
+        insert.close();
+        int pages = sf.numPages();
+        assertEquals(1000, scan(sf, tid).size());
+
+        Predicate even = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500));
+        Delete delete = new Delete(tid, new Filter(even, new SeqScan(tid, sf.getId(), "")));
+        delete.open();
+        assertEquals(new IntField(500), delete.next().getField(0));
+        delete.close();
+        assertEquals(500, scan(sf, tid).size());
+
+        for (int i = 0; i < 500; ++i) {
+            Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(-i, "row " + i));
+        }
+        assertEquals(pages, sf.numPages());
+        assertEquals(1000, scan(sf, tid).size());
+    }
+
+    /**
+     * An insert goes to the page with the least room that still fits its
+     * record, and pages of the table live in buffer pool frames.
+     */
+    @Test public void insertFindsRoom() throws Exception {
+        SlottedHeapFile sf = createEmpty();
+        BufferPool pool = Database.getBufferPool();
+        ArrayList<Tuple> first = new ArrayList<Tuple>();
+        for (int i = 0; sf.numPages() < 3; ++i) {
+            Tuple t = tuple(i, "x");
+            pool.insertTuple(tid, sf.getId(), t);
+            if (t.getRecordId().getPageId().pageno() == 0)
+                first.add(t);
+        }
+        // 在第0个page上空出一些地方, 比第2个page剩下的少
+        for (int i = 0; i < 50; ++i)
+            pool.deleteTuple(tid, first.get(i));
+
+        Tuple t = tuple(-1, "y");
+        pool.insertTuple(tid, sf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageno());
+        assertEquals(3, sf.numPages());
+
+        SlottedPage page = (SlottedPage) pool.getPage(tid, new HeapPageId(sf.getId(), 0),
+                Permissions.READ_ONLY);
+        assertTrue(page.frameNo >= 0);
+        assertEquals(new IntField(-1), page.getTuple(t.getRecordId().tupleno()).getField(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
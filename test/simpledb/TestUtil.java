@@ -1,7 +1,11 @@
 package simpledb;
 
+import simpledb.systemtest.SimpleDbTestBase;
+
 import java.io.*;
 import java.util.*;
+import org.junit.After;
+import org.junit.Before;
 
 import static org.junit.Assert.*;
 
@@ -214,6 +218,13 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public void close() {
+        }
+
+        public int getPageSize() {
+            return BufferPool.PAGE_SIZE;
+        }
+
         public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -393,4 +404,64 @@ public class TestUtil {
         protected HeapFile empty;
         private final File emptyFile;
     }
+
+    /**
+     * @return a new temporary file that is deleted when the JVM exits
+     */
+    public static File tempFile(String prefix, String suffix) throws IOException {
+        File f = File.createTempFile(prefix, suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * @return the name of a temporary index file that does not exist yet, so
+     *   that the index is built from its table
+     */
+    public static File tempIndexFile(String prefix) throws IOException {
+        File f = tempFile(prefix, ".idx");
+        f.delete();
+        return f;
+    }
+
+    /**
+     * JUnit fixture for index tests: an empty table of two int columns, the
+     * row number and key(row), that tests fill with insert() and index as
+     * they need.
+     */
+    public static abstract class CreateIndexedTable extends SimpleDbTestBase {
+        protected TransactionId tid;
+        protected HeapFile hf;
+
+        @Before
+        public void setUp() throws Exception {
+            super.setUp();
+            tid = new TransactionId();
+            hf = Utility.createEmptyHeapFile(tempFile("table", ".dat").getPath(), 2);
+        }
+
+        @After
+        public void tearDown() throws Exception {
+            Database.getBufferPool().transactionComplete(tid);
+            hf.close();
+        }
+
+        protected static int key(int row) {
+            return row * 37 % 500;
+        }
+
+        /**
+         * Inserts rows from..to-1, committing every 500 rows.
+         */
+        protected void insert(int from, int to) throws Exception {
+            for (int row = from; row < to; ++row) {
+                Database.getBufferPool().insertTuple(tid, hf.getId(),
+                        Utility.getHeapTuple(new int[] { row, key(row) }));
+                if ((row + 1) % 500 == 0 || row == to - 1) {
+                    Database.getBufferPool().transactionComplete(tid);
+                    tid = new TransactionId();
+                }
+            }
+        }
+    }
 }
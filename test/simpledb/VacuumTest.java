@@ -0,0 +1,164 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class VacuumTest extends SimpleDbTestBase {
+    // 2 int columns -> 504 tuples per page, 10 pages
+    private static final int ROWS = 5000;
+
+    private TransactionId tid;
+    private HeapFile hf;
+    private BTreeFile byId;
+    private HashFile byValue;
+
+    /**
+     * Set up initial resources for each unit test: a table of rows (row,
+     * row % 100) with indexes on both fields, from which every row that is
+     * not a multiple of 3 is deleted.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int row = 0; row < ROWS; ++row)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(row, row % 100)));
+        File f = TestUtil.tempFile("table", ".dat");
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        hf = Utility.openHeapFile(2, f);
+        File idx = TestUtil.tempIndexFile("byid");
+        byId = new BTreeFile(idx, hf, 0);
+        Database.getCatalog().addIndex(byId, SystemTestUtil.getUUID());
+        idx = TestUtil.tempIndexFile("value");
+        byValue = new HashFile(idx, hf, 1);
+        Database.getCatalog().addIndex(byValue, SystemTestUtil.getUUID());
+
+        // the deletes dirty pages of the table and both indexes in one
+        // transaction; under NO STEAL they must all fit in the pool
+        Database.resetBufferPool(500);
+        tid = new TransactionId();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValue() % 3 != 0)
+                deleted.add(t);
+        }
+        scan.close();
+        for (Tuple t : deleted)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+        byId.close();
+        byId.getFile().delete();
+        byValue.close();
+        byValue.getFile().delete();
+    }
+
+    /**
+     * @return the first fields of the tuples of a plan, sorted
+     */
+    private ArrayList<Integer> rows(DbIterator it) throws Exception {
+        ArrayList<Integer> rows = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            rows.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static ArrayList<Integer> expected(int value) {
+        ArrayList<Integer> rows = new ArrayList<Integer>();
+        for (int row = 0; row < ROWS; row += 3) {
+            if (value < 0 || row % 100 == value)
+                rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Every remaining row is found by a scan and through both indexes.
+     */
+    private void checkRows() throws Exception {
+        assertEquals(expected(-1), rows(new SeqScan(tid, hf.getId(), "t")));
+        for (int row = 0; row < ROWS; row += 97) {
+            ArrayList<Integer> found = rows(new IndexScan(tid, byId, "t",
+                    Predicate.Op.EQUALS, new IntField(row)));
+            assertEquals(row % 3 == 0 ? Arrays.asList(row) : new ArrayList<Integer>(), found);
+        }
+        for (int value = 0; value < 100; value += 7)
+            assertEquals(expected(value), rows(new IndexScan(tid, byValue, "t",
+                    Predicate.Op.EQUALS, new IntField(value))));
+    }
+
+    /**
+     * Compaction moves the rows of the trailing pages into the free slots of
+     * the first ones, truncates the file and keeps the indexes consistent.
+     */
+    @Test public void compacts() throws Exception {
+        assertEquals(10, hf.numPages());
+        Vacuum.Stats stats = new Vacuum(hf).compact();
+        // 1667 rows fit in 4 pages
+        assertEquals(4, hf.numPages());
+        assertEquals(4, stats.pagesLeft);
+        assertEquals(6, stats.pagesFreed);
+        assertEquals(4L * BufferPool.PAGE_SIZE, hf.getFile().length());
+        assertTrue(stats.tuplesMoved > 0);
+        checkRows();
+
+        // a second pass has nothing left to do
+        stats = new Vacuum(hf).compact();
+        assertEquals(0, stats.tuplesMoved);
+        assertEquals(4, hf.numPages());
+
+        // inserts after the compaction still work
+        Database.getBufferPool().insertTuple(tid, hf.getId(),
+                Utility.getHeapTuple(new int[] { ROWS, 7 }));
+        assertEquals(Arrays.asList(ROWS), rows(new IndexScan(tid, byId, "t",
+                Predicate.Op.EQUALS, new IntField(ROWS))));
+    }
+
+    /**
+     * A vacuum on a background thread gets the same result, and pages other
+     * transactions hold locks on are not filled.
+     */
+    @Test public void backgroundLeavesLockedPagesAlone() throws Exception {
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, first,
+                Permissions.READ_ONLY);
+        int empty = page.getNumEmptySlots();
+        Vacuum vacuum = new Vacuum(hf);
+        Thread t = vacuum.start(1);
+        t.join(60000);
+        assertFalse(t.isAlive());
+        assertEquals(empty, page.getNumEmptySlots());
+        assertTrue(hf.numPages() < 10);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        checkRows();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
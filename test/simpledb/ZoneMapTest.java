@@ -0,0 +1,230 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 10;
+    private static final int ROWS = 3000;
+
+    private TransactionId tid;
+    private File f;
+    private HeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test: a table whose first field
+     * is its row number, as in a table of events appended in time order.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int row = 0; row < ROWS; ++row) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(row);
+            for (int c = 1; c < COLUMNS; ++c)
+                tuple.add(row % 7);
+            tuples.add(tuple);
+        }
+        f = File.createTempFile("events", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, COLUMNS);
+        hf = Utility.openHeapFile(COLUMNS, f);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+    }
+
+    /**
+     * @return the values of field 0 of the rows passing p
+     */
+    private ArrayList<Integer> select(Predicate p, SeqScan scan) throws Exception {
+        Filter filter = new Filter(p, scan);
+        filter.open();
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        while (filter.hasNext())
+            ids.add(((IntField) filter.next().getField(0)).getValue());
+        filter.close();
+        return ids;
+    }
+
+    private static Predicate ids(Predicate.Op op, int value) {
+        return new Predicate(0, op, new IntField(value));
+    }
+
+    /**
+     * A range filter on the sort order of the table only reads the pages that
+     * overlap the range.
+     */
+    @Test public void rangeFilterSkipsPages() throws Exception {
+        int pages = hf.numPages();
+        assertTrue(pages >= 25);
+
+        SeqScan scan = new SeqScan(tid, hf.getId(), "e");
+        ArrayList<Integer> found = select(ids(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 50), scan);
+        assertEquals(50, found.size());
+        assertEquals(Integer.valueOf(ROWS - 50), found.get(0));
+        assertTrue(scan.getPagesSkipped() >= pages - 2);
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 0)));
+        assertTrue(ZoneMap.fileFor(f).exists());
+
+        scan = new SeqScan(tid, hf.getId(), "e");
+        assertEquals(Arrays.asList(1234), select(ids(Predicate.Op.EQUALS, 1234), scan));
+        assertEquals(pages - 1, scan.getPagesSkipped());
+
+        // filters on fields without order, or stacked filters, still work
+        scan = new SeqScan(tid, hf.getId(), "e");
+        Filter lower = new Filter(ids(Predicate.Op.GREATER_THAN, 100), scan);
+        Filter both = new Filter(ids(Predicate.Op.LESS_THAN, 200), lower);
+        both.open();
+        int n = 0;
+        while (both.hasNext()) {
+            both.next();
+            ++n;
+        }
+        both.close();
+        assertEquals(99, n);
+        assertTrue(scan.getPagesSkipped() >= pages - 3);
+
+        scan = new SeqScan(tid, hf.getId(), "e");
+        Predicate sevens = new Predicate(1, Predicate.Op.EQUALS, new IntField(3));
+        assertEquals((ROWS + 3) / 7, select(sevens, scan).size());
+        assertEquals(0, scan.getPagesSkipped());
+        assertTrue(hf.getZoneMap().getPagesSkipped() >= 3 * (pages - 3));
+    }
+
+    /**
+     * Inserts widen the range of their page before anyone can see them;
+     * deletes narrow it once the page is written.
+     */
+    @Test public void insertsAndDeletes() throws Exception {
+        Predicate big = ids(Predicate.Op.GREATER_THAN, 100000);
+        assertEquals(0, select(big, new SeqScan(tid, hf.getId(), "e")).size());
+
+        Tuple t = Utility.getHeapTuple(200000, COLUMNS);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(Arrays.asList(200000), select(big, new SeqScan(tid, hf.getId(), "e")));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        // the aborted insert leaves a wider range behind, which is harmless
+        tid = new TransactionId();
+        assertEquals(0, select(big, new SeqScan(tid, hf.getId(), "e")).size());
+
+        Delete delete = new Delete(tid, new Filter(ids(Predicate.Op.LESS_THAN, 500),
+                new SeqScan(tid, hf.getId(), "e")));
+        delete.open();
+        assertEquals(new IntField(500), delete.next().getField(0));
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "e");
+        assertEquals(0, select(ids(Predicate.Op.LESS_THAN, 500), scan).size());
+        assertTrue(scan.getPagesSkipped() >= 4);
+    }
+
+    /**
+     * The summaries survive a restart and are not recomputed from the pages.
+     */
+    @Test public void reopen() throws Exception {
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(5000, COLUMNS));
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+
+        tid = new TransactionId();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = new HeapFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        SeqScan scan = new SeqScan(tid, hf.getId(), "e");
+        assertEquals(Arrays.asList(5000), select(ids(Predicate.Op.EQUALS, 5000), scan));
+        assertEquals(hf.numPages() - 1, scan.getPagesSkipped());
+    }
+
+    /**
+     * An equality filter on a string column without any order, such as a
+     * name, reads only the pages whose Bloom filters may hold the string,
+     * including strings inserted later and after a restart.
+     */
+    @Test public void stringEqualitySkipsPages() throws Exception {
+        File in = File.createTempFile("names", ".txt");
+        in.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(in));
+        for (int row = 0; row < ROWS; ++row)
+            w.println(row + ",name" + (row * 7919 % ROWS));
+        w.close();
+        File out = File.createTempFile("people", ".dat");
+        out.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, 2, types);
+        HeapFile people = new HeapFile(out, new TupleDesc(types));
+        Database.getCatalog().addTable(people, SystemTestUtil.getUUID());
+        int pages = people.numPages();
+        assertTrue(pages >= 50);
+
+        int owner = 0;
+        while (owner * 7919 % ROWS != 1234)
+            ++owner;
+        SeqScan scan = new SeqScan(tid, people.getId(), "p");
+        assertEquals(Arrays.asList(owner), select(names("name1234"), scan));
+        assertTrue(scan.getPagesSkipped() >= pages - 4);
+        scan = new SeqScan(tid, people.getId(), "p");
+        assertEquals(0, select(names("nobody"), scan).size());
+        assertTrue(scan.getPagesSkipped() >= pages - 4);
+
+        // other comparisons on strings read every page
+        scan = new SeqScan(tid, people.getId(), "p");
+        Predicate like = new Predicate(1, Predicate.Op.LIKE, new StringField("name12", Type.STRING_LEN));
+        assertTrue(select(like, scan).size() > 0);
+        assertEquals(0, scan.getPagesSkipped());
+
+        Tuple t = new Tuple(people.getTupleDesc());
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new StringField("newcomer", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, people.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        people.close();
+
+        tid = new TransactionId();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        people = new HeapFile(out, new TupleDesc(types));
+        Database.getCatalog().addTable(people, SystemTestUtil.getUUID());
+        scan = new SeqScan(tid, people.getId(), "p");
+        assertEquals(Arrays.asList(ROWS), select(names("newcomer"), scan));
+        assertTrue(scan.getPagesSkipped() >= pages - 5);
+        people.close();
+    }
+
+    private static Predicate names(String name) {
+        return new Predicate(1, Predicate.Op.EQUALS, new StringField(name, Type.STRING_LEN));
+    }
+
+    /**
+     * Zone files of tables in the temporary directory go away with the
+     * tables; others are kept.
+     */
+    @Test public void temporaryTables() throws Exception {
+        assertTrue(ZoneMap.isTemporary(f));
+        File tmp = new File(System.getProperty("java.io.tmpdir"));
+        assertFalse(ZoneMap.isTemporary(new File(new File(tmp, "db"), "events.dat")));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the cost of BufferPool.getPage on a large pool: random hits on a
+ * pool holding the whole table, and misses that each evict a page when the
+ * table is twice as large as the pool. The table consists of empty pages,
+ * so reading a page costs little next to the bookkeeping of the pool.
+ *
+ * Usage: java simpledb.bench.BufferPoolBenchmark [poolPages] [accesses]
+ */
+public class BufferPoolBenchmark {
+
+    /** Reads random pages out of the first pages pages; returns accesses/sec. */
+    static double run(HeapFile hf, int pages, int accesses) throws Exception {
+        Random r = new Random(6830);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        for (int i = 0; i < accesses; i++) {
+            PageId pid = new HeapPageId(hf.getId(), r.nextInt(pages));
+            Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        Database.getBufferPool().transactionComplete(tid);
+        return accesses / secs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int accesses = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        File f = File.createTempFile("poolbench", ".dat");
+        f.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(2L * poolPages * BufferPool.PAGE_SIZE);
+        raf.close();
+        HeapFile hf = Utility.openHeapFile(2, f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        Database.resetBufferPool(poolPages);
+        // fill the pool, and warm up the JIT
+        run(hf, poolPages, poolPages);
+        run(hf, poolPages, accesses / 10);
+
+        System.out.println("BufferPoolBenchmark: pool of " + poolPages + " pages, "
+                + accesses + " accesses");
+        System.out.printf("  hits              %12.0f pages/sec%n", run(hf, poolPages, accesses));
+        System.out.printf("  misses (evicting) %12.0f pages/sec%n",
+                run(hf, 2 * poolPages, accesses / 10));
+        Database.getCatalog().clear();
+    }
+}
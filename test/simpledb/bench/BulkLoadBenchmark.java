@@ -0,0 +1,59 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures BulkLoader throughput in rows/sec and MB/sec. A generated text
+ * file is loaded as a single chunk, which runs on one thread, and split into
+ * the default chunks, which run on every processor.
+ *
+ * Usage: java simpledb.bench.BulkLoadBenchmark [rows] [columns] [rounds]
+ */
+public class BulkLoadBenchmark {
+
+    static File generate(int rows, int columns) throws IOException {
+        File f = File.createTempFile("bulkbench", ".txt");
+        f.deleteOnExit();
+        Random r = new Random(6830);
+        BufferedWriter w = new BufferedWriter(new FileWriter(f), 1 << 16);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                if (j > 0)
+                    w.write(',');
+                w.write(Integer.toString(r.nextInt()));
+            }
+            w.write('\n');
+        }
+        w.close();
+        return f;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        File in = generate(rows, columns);
+        File out = File.createTempFile("bulkbench", ".dat");
+        out.deleteOnExit();
+        Type[] types = new Type[columns];
+        for (int i = 0; i < columns; i++)
+            types[i] = Type.INT_TYPE;
+
+        System.out.println("BulkLoadBenchmark: " + rows + " rows, " + columns
+                + " int columns, " + (in.length() >> 20) + " MB of text, "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+        for (int round = 0; round < rounds; round++) {
+            BulkLoader.Stats single = BulkLoader.load(in, out, BufferPool.PAGE_SIZE,
+                    types, Integer.MAX_VALUE);
+            BulkLoader.Stats parallel = BulkLoader.load(in, out, BufferPool.PAGE_SIZE, types);
+            System.out.printf("  %-10s %12.0f rows/sec %8.1f MB/sec%n", "1 chunk",
+                    single.rowsPerSecond(), single.mbPerSecond());
+            System.out.printf("  %-10s %12.0f rows/sec %8.1f MB/sec%n", "parallel",
+                    parallel.rowsPerSecond(), parallel.mbPerSecond());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures BufferPool.getPage from several threads at once: every thread is
+ * a transaction of its own reading random pages of a table the pool holds
+ * completely, once with the pool in a single partition and once split into
+ * the default number of partitions. With one partition all threads queue on
+ * the same lock; with several they mostly use different ones.
+ *
+ * Usage: java simpledb.bench.ConcurrentBufferPoolBenchmark [poolPages] [accessesPerThread] [maxThreads]
+ */
+public class ConcurrentBufferPoolBenchmark {
+
+    /** Runs threads readers over the first pages pages; returns accesses/sec. */
+    static double run(final HeapFile hf, final int pages, final int accesses, int threads)
+            throws Exception {
+        final BufferPool pool = Database.getBufferPool();
+        Thread[] readers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int seed = 6830 + i;
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        Random r = new Random(seed);
+                        TransactionId tid = new TransactionId();
+                        for (int j = 0; j < accesses; j++) {
+                            PageId pid = new HeapPageId(hf.getId(), r.nextInt(pages));
+                            pool.getPage(tid, pid, Permissions.READ_ONLY);
+                        }
+                        pool.transactionComplete(tid);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : readers)
+            t.start();
+        for (Thread t : readers)
+            t.join();
+        double secs = (System.nanoTime() - start) / 1e9;
+        return (double) accesses * threads / secs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 8192;
+        int accesses = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        File f = File.createTempFile("poolbench", ".dat");
+        f.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength((long) poolPages * BufferPool.PAGE_SIZE);
+        raf.close();
+        HeapFile hf = Utility.openHeapFile(2, f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        System.out.println("ConcurrentBufferPoolBenchmark: pool of " + poolPages + " pages, "
+                + accesses + " accesses per thread");
+        String old = System.getProperty(BufferPool.PARTITIONS_PROPERTY);
+        for (String partitions : new String[] { "1", "" + BufferPool.DEFAULT_PARTITIONS }) {
+            System.setProperty(BufferPool.PARTITIONS_PROPERTY, partitions);
+            Database.resetBufferPool(poolPages);
+            // fill the pool, and warm up the JIT
+            run(hf, poolPages, poolPages, 1);
+            run(hf, poolPages, accesses / 10, maxThreads);
+            System.out.println("  " + Database.getBufferPool().getNumPartitions() + " partition(s)");
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                System.out.printf("    %2d threads %12.0f pages/sec%n", threads,
+                        run(hf, poolPages, accesses, threads));
+            }
+        }
+        if (old != null)
+            System.setProperty(BufferPool.PARTITIONS_PROPERTY, old);
+        else
+            System.clearProperty(BufferPool.PARTITIONS_PROPERTY);
+        Database.getCatalog().clear();
+    }
+}
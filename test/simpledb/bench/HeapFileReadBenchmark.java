@@ -0,0 +1,106 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures HeapFile.readPage() throughput in pages/sec. The persistent,
+ * positional FileChannel path used by HeapFile is compared against the old
+ * open/seek/read/close RandomAccessFile path, both from a single thread and
+ * from several concurrent readers.
+ *
+ * Usage: java simpledb.bench.HeapFileReadBenchmark [pages] [threads] [rounds]
+ */
+public class HeapFileReadBenchmark {
+
+    /** Reads one page the way HeapFile did before it kept a FileChannel open. */
+    static Page legacyReadPage(File f, PageId pid) throws IOException {
+        RandomAccessFile rAf = new RandomAccessFile(f, "r");
+        rAf.seek(pid.pageno() * BufferPool.PAGE_SIZE);
+        byte[] page = new byte[BufferPool.PAGE_SIZE];
+        rAf.read(page, 0, BufferPool.PAGE_SIZE);
+        rAf.close();
+        return new HeapPage((HeapPageId) pid, page);
+    }
+
+    interface PageReader {
+        void read(int pgNo) throws IOException;
+    }
+
+    /** Runs rounds full passes over the file split across threads; returns pages/sec. */
+    static double run(final int pages, int threads, final int rounds,
+            final PageReader reader) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger(0);
+        final int total = pages * rounds;
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        int n;
+                        while ((n = next.getAndIncrement()) < total) {
+                            reader.read(n % pages);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        return total / secs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        // 2 int columns -> 504 tuples per page
+        final int columns = 2;
+        File f = SystemTestUtil.createRandomHeapFileUnopened(columns,
+                504 * pages, 1 << 16, null, new ArrayList<ArrayList<Integer>>());
+        final File file = f;
+        final HeapFile hf = Utility.openHeapFile(columns, f);
+        final int tableid = hf.getId();
+
+        PageReader legacy = new PageReader() {
+            public void read(int pgNo) throws IOException {
+                legacyReadPage(file, new HeapPageId(tableid, pgNo));
+            }
+        };
+        PageReader channel = new PageReader() {
+            public void read(int pgNo) {
+                hf.readPage(new HeapPageId(tableid, pgNo));
+            }
+        };
+
+        // warm up the JIT and the OS page cache
+        run(pages, 1, 1, legacy);
+        run(pages, 1, 1, channel);
+
+        System.out.println("HeapFileReadBenchmark: " + pages + " pages, "
+                + rounds + " rounds");
+        System.out.printf("  %-28s %12.0f pages/sec%n", "RandomAccessFile, 1 thread",
+                run(pages, 1, rounds, legacy));
+        System.out.printf("  %-28s %12.0f pages/sec%n", "FileChannel, 1 thread",
+                run(pages, 1, rounds, channel));
+        System.out.printf("  %-28s %12.0f pages/sec%n", "RandomAccessFile, " + threads + " threads",
+                run(pages, threads, rounds, legacy));
+        System.out.printf("  %-28s %12.0f pages/sec%n", "FileChannel, " + threads + " threads",
+                run(pages, threads, rounds, channel));
+
+        Database.getCatalog().clear();
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the latency of primary-key point lookups: a SeqScan with a
+ * Filter is compared against an IndexScan through a HashFile and through a
+ * BTreeFile. Every lookup runs in its own transaction; the table is larger
+ * than the buffer pool, so the scan reads most of its pages from disk.
+ *
+ * Usage: java simpledb.bench.IndexLookupBenchmark [rows] [lookups]
+ */
+public class IndexLookupBenchmark {
+
+    interface Lookup {
+        DbIterator plan(TransactionId tid, int key) throws Exception;
+    }
+
+    /** Runs lookups of random keys; returns the mean latency in microseconds. */
+    static double run(int rows, int lookups, Lookup lookup) throws Exception {
+        Random r = new Random(6830);
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            TransactionId tid = new TransactionId();
+            DbIterator it = lookup.plan(tid, r.nextInt(rows));
+            it.open();
+            int found = 0;
+            while (it.hasNext()) {
+                it.next();
+                found++;
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+            if (found != 1)
+                throw new IllegalStateException("found " + found + " tuples");
+        }
+        return (System.nanoTime() - start) / 1e3 / lookups;
+    }
+
+    static File tempFile(String suffix) throws Exception {
+        File f = File.createTempFile("indexbench", suffix);
+        f.delete();
+        f.deleteOnExit();
+        return f;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        // 2 int columns, the first one a unique id
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(i % 100);
+            tuples.add(t);
+        }
+        File f = tempFile(".dat");
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        tuples = null;
+        final HeapFile hf = Utility.openHeapFile(2, f);
+        final HashFile hash = new HashFile(tempFile(".hash"), hf, 0);
+        final BTreeFile btree = new BTreeFile(tempFile(".btree"), hf, 0);
+        Database.getCatalog().addIndex(hash, SystemTestUtil.getUUID());
+        Database.getCatalog().addIndex(btree, SystemTestUtil.getUUID());
+
+        Lookup scan = new Lookup() {
+            public DbIterator plan(TransactionId tid, int key) throws Exception {
+                return new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(key)),
+                        new SeqScan(tid, hf.getId(), "t"));
+            }
+        };
+        Lookup byHash = new Lookup() {
+            public DbIterator plan(TransactionId tid, int key) {
+                return new IndexScan(tid, hash, "t", Predicate.Op.EQUALS, new IntField(key));
+            }
+        };
+        Lookup byBTree = new Lookup() {
+            public DbIterator plan(TransactionId tid, int key) {
+                return new IndexScan(tid, btree, "t", Predicate.Op.EQUALS, new IntField(key));
+            }
+        };
+
+        // warm up the JIT and the OS page cache
+        run(rows, 10, scan);
+        run(rows, lookups, byHash);
+        run(rows, lookups, byBTree);
+
+        System.out.println("IndexLookupBenchmark: " + rows + " rows, " + hf.numPages()
+                + " pages, " + lookups + " lookups");
+        System.out.printf("  %-20s %12.1f us/lookup%n", "SeqScan + Filter",
+                run(rows, Math.max(1, lookups / 10), scan));
+        System.out.printf("  %-20s %12.1f us/lookup%n", "HashFile", run(rows, lookups, byHash));
+        System.out.printf("  %-20s %12.1f us/lookup%n", "BTreeFile", run(rows, lookups, byBTree));
+
+        Database.getCatalog().clear();
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the throughput of full SeqScans of a table four times larger
+ * than the buffer pool, with read-ahead disabled and with several windows.
+ * Every scan starts with an empty buffer pool; the file itself is in the OS
+ * page cache after the warm-up, so the reads that are overlapped are the
+ * ones from the page cache plus the parsing of the pages.
+ *
+ * Usage: java simpledb.bench.ReadAheadBenchmark [pages] [rounds]
+ */
+public class ReadAheadBenchmark {
+
+    /** Runs rounds full scans of the table; returns pages/sec. */
+    static double run(HeapFile hf, int window, int rounds) throws Exception {
+        ReadAhead.setWindow(window);
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            Database.resetBufferPool(hf.numPages() / 4);
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+            scan.open();
+            long sum = 0;
+            while (scan.hasNext())
+                sum += ((IntField) scan.next().getField(1)).getValue();
+            scan.close();
+            Database.getBufferPool().transactionComplete(tid);
+            if (sum < 0)
+                throw new IllegalStateException();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        return (double) hf.numPages() * rounds / secs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // 2 int columns -> 504 tuples per page
+        final int columns = 2;
+        File f = SystemTestUtil.createRandomHeapFileUnopened(columns,
+                504 * pages, 1 << 16, null, new ArrayList<ArrayList<Integer>>());
+        HeapFile hf = Utility.openHeapFile(columns, f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        // warm up the JIT and the OS page cache
+        run(hf, 0, 1);
+        run(hf, 16, 1);
+
+        System.out.println("ReadAheadBenchmark: " + hf.numPages() + " pages, pool of "
+                + hf.numPages() / 4 + " pages, " + rounds + " rounds");
+        int[] windows = { 0, 4, 16, 64 };
+        for (int w : windows)
+            System.out.printf("  window %-4d %12.0f pages/sec%n", w, run(hf, w, rounds));
+
+        ReadAhead.setWindow(ReadAhead.DEFAULT_WINDOW);
+        Database.getCatalog().clear();
+    }
+}